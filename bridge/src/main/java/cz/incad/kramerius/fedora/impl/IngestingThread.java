@@ -33,8 +33,6 @@ import java.util.stream.Collectors;
 
 public class IngestingThread extends Thread {
 
-    public static Object INGESTING_LOCK = new Object();
-
     private static Logger LOGGER = Logger.getLogger(IngestingThread.class.getName());
 
     private Repository internalAPI;
@@ -45,13 +43,16 @@ public class IngestingThread extends Thread {
 
     private CyclicBarrier barrier;
 
-    public IngestingThread(Repository internalAPI, SolrAccess solrAccess, CollectionsManager collectionsManager, Client client, String pid, CyclicBarrier barrier) {
+    private SingleFlightIngest singleFlightIngest;
+
+    public IngestingThread(Repository internalAPI, SolrAccess solrAccess, CollectionsManager collectionsManager, Client client, String pid, CyclicBarrier barrier, SingleFlightIngest singleFlightIngest) {
         this.internalAPI = internalAPI;
         this.solrAccess = solrAccess;
         this.collectionsManager = collectionsManager;
         this.client = client;
         this.pid = pid;
         this.barrier = barrier;
+        this.singleFlightIngest = singleFlightIngest;
     }
 
     @Override
@@ -73,16 +74,16 @@ public class IngestingThread extends Thread {
                 if (StringUtils.isAnyString(username) && StringUtils.isAnyString(password)) {
                     String url = collection.getUrl()  +(collection.getUrl().endsWith("/") ? "" : "/")+ "api/v4.6/cdk/" + pid + "/foxml?collection=" + collection.getPid();
 
-                    if (this.internalAPI.objectExists(pid)) return;
-                    InputStream foxml = foxml(url, username, password);
-                    long foxmlTime = System.currentTimeMillis();
-                    // only ingesting is synchronized by shared lock
-                    synchronized (INGESTING_LOCK) {
+                    if (this.singleFlightIngest.isPresent(pid) || this.internalAPI.objectExists(pid)) return;
+                    // only one ingest of the pid at a time, different pids are ingested in parallel
+                    this.singleFlightIngest.ingest(pid, () -> {
                         if (this.internalAPI.objectExists(pid)) return;
-                        // tady by to melo byt synchronizovane
+                        InputStream foxml = foxml(url, username, password);
+                        long foxmlTime = System.currentTimeMillis();
                         Import.ingest(internalAPI, foxml, pid, null, null, true);
+                        this.singleFlightIngest.markPresent(pid);
                         LOGGER.info(String.format("Whole ingest of %s took %d ms (download foxml %d ms)",pid, (System.currentTimeMillis() - start), (System.currentTimeMillis() - foxmlTime) ));
-                    }
+                    });
                 } else throw new IOException("Cannot read data from "+ collection.getUrl()+".  Missing property "+"cdk.collections.sources." + objectId + ".username or "+"cdk.collections.sources." + objectId + ".pswd  for pid  "+pid);
 
             }
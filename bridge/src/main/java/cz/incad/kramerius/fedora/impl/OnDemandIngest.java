@@ -36,18 +36,20 @@ public class OnDemandIngest {
 
     public static final Logger LOGGER = Logger.getLogger(OnDemandIngest.class.getName());
 
-    public static Object INGESTING_LOCK = new Object();
     private final Client client;
 
     private SolrAccess solrAccess;
 
+    private final SingleFlightIngest singleFlightIngest;
+
     @Inject
-    public OnDemandIngest( @Named("new-index") SolrAccess solrAccess) throws IOException {
+    public OnDemandIngest( @Named("new-index") SolrAccess solrAccess, SingleFlightIngest singleFlightIngest) throws IOException {
         this.solrAccess = solrAccess;
+        this.singleFlightIngest = singleFlightIngest;
         this.client = Client.create();
     }
         // on demand request
-    void onDemandIngest(String pid, Repository internalAPI) throws CollectionException, LexerException, IOException, RepositoryException, JAXBException, TransformerException {
+    void onDemandIngest(String pid, Repository internalAPI) throws LexerException, IOException, RepositoryException, JAXBException, TransformerException {
         FedoraAccessProxyAkubraImpl.LOGGER.info(String.format("Requesting info %s", pid));
         try {
             long start = System.currentTimeMillis();
@@ -66,18 +68,15 @@ public class OnDemandIngest {
                     String url = baseurl  +(baseurl.endsWith("/") ? "" : "/")+ "api/v4.6/cdk/" + pid + "/foxml?collection=" + source;
                     if (internalAPI.objectExists(pid)) {
                         LOGGER.info("Object exists");
+                        this.singleFlightIngest.markPresent(pid);
                         return;
                     }
                     InputStream foxml = foxml(url, username, password);
                     long foxmlTime = System.currentTimeMillis();
-                    // only ingesting is synchronized by shared lock
-                    synchronized (INGESTING_LOCK) {
-                        if (internalAPI.objectExists(pid)) return;
-                        // tady by to melo byt synchronizovane
-                        // import source
-                        Import.ingest(internalAPI, foxml, pid, null, null, true);
-                        FedoraAccessProxyAkubraImpl.LOGGER.info(String.format("Whole ingest of %s took %d ms (download foxml %d ms)",pid, (System.currentTimeMillis() - start), (System.currentTimeMillis() - foxmlTime) ));
-                    }
+                    // concurrent ingests of the same pid are prevented by SingleFlightIngest
+                    Import.ingest(internalAPI, foxml, pid, null, null, true);
+                    this.singleFlightIngest.markPresent(pid);
+                    FedoraAccessProxyAkubraImpl.LOGGER.info(String.format("Whole ingest of %s took %d ms (download foxml %d ms)",pid, (System.currentTimeMillis() - start), (System.currentTimeMillis() - foxmlTime) ));
                 } else throw new IOException("Cannot read data from "+ baseurl +".  Missing property "+"cdk.collections.sources." + source + ".username or "+"cdk.collections.sources." + source + ".pswd  for pid  "+pid);
 
             } else {
@@ -90,6 +89,8 @@ public class OnDemandIngest {
             }
         } catch (IOException | JAXBException | TransformerException | LexerException | RepositoryException e) {
             FedoraAccessProxyAkubraImpl.LOGGER.log(Level.SEVERE, e.getMessage(),e);
+            // failure is counted by SingleFlightIngest and passed to requests waiting for the same pid
+            throw e;
         }
     }
 
@@ -110,11 +111,12 @@ public class OnDemandIngest {
     }
 
     public void ingestIfNecessary(Repository internalAPI, String pid) throws RepositoryException, IOException, CollectionException, LexerException, JAXBException, TransformerException, XPathExpressionException {
-        if (!pid.startsWith(PIDParser.VC_PREFIX)) {
-            //Repository internalAPI = fedoraAccessProxyAkubra.getInternalAPI();
-            if (!internalAPI.objectExists(pid)) {
-                // put in the queue and wait
-                onDemandIngest(pid, internalAPI);
+        if (!pid.startsWith(PIDParser.VC_PREFIX) && !this.singleFlightIngest.isPresent(pid)) {
+            if (internalAPI.objectExists(pid)) {
+                this.singleFlightIngest.markPresent(pid);
+            } else {
+                // one ingest per pid, concurrent requests wait for it
+                this.singleFlightIngest.ingest(pid, () -> onDemandIngest(pid, internalAPI));
             }
         }
     }
@@ -0,0 +1,262 @@
+package cz.incad.kramerius.fedora.impl;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import cz.incad.kramerius.fedora.om.RepositoryException;
+import cz.incad.kramerius.fedora.om.impl.AkubraDOManager;
+import cz.incad.kramerius.utils.conf.KConfiguration;
+import cz.incad.kramerius.utils.pid.LexerException;
+
+import org.ehcache.Cache;
+import org.ehcache.CacheManager;
+import org.ehcache.config.builders.CacheConfigurationBuilder;
+import org.ehcache.config.builders.ResourcePoolsBuilder;
+
+import javax.xml.bind.JAXBException;
+import javax.xml.transform.TransformerException;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Coordination of on demand ingests in CDK.
+ * <p>
+ * Only one ingest of a pid runs at a time; concurrent requests for the same pid wait for the running ingest instead of
+ * downloading FOXML again (at most <code>cdk.ondemand.ingest.joinTimeout</code> seconds). Ingests of different pids run in parallel,
+ * at most <code>cdk.ondemand.ingest.maxParallel</code> at once.
+ * Pids known to be in the repository are kept in a presence cache of the shared cache manager (at most <code>cdk.ondemand.presence.size</code>
+ * pids, entries are evicted one by one), so the common case of an already ingested object does not touch the repository at all.
+ * Pid is removed from the cache when the object changes in the repository (see {@link AkubraDOManager#addInvalidationListener(java.util.function.Consumer)}).
+ * <p>
+ * Summary of ingests (latency, failures, time spent waiting for a free slot or for an ingest of the same pid) is logged after
+ * each <code>LOG_INTERVAL</code> ingests.
+ */
+@Singleton
+public class SingleFlightIngest {
+
+    public static final Logger LOGGER = Logger.getLogger(SingleFlightIngest.class.getName());
+
+    private static final int LOG_INTERVAL = 100;
+
+    private static final String PRESENCE_CACHE_ALIAS = "OnDemandIngestPresence";
+
+    private final Cache<String, Boolean> present;
+    private final Map<String, CompletableFuture<Void>> inFlight = new ConcurrentHashMap<>();
+    private final Semaphore slots = new Semaphore(maxParallel(), true);
+
+    private final Metrics metrics = new Metrics(this.inFlight);
+
+    @Inject
+    public SingleFlightIngest(CacheManager cacheManager) {
+        Cache<String, Boolean> existing = cacheManager.getCache(PRESENCE_CACHE_ALIAS, String.class, Boolean.class);
+        if (existing == null) {
+            existing = cacheManager.createCache(PRESENCE_CACHE_ALIAS,
+                    CacheConfigurationBuilder.newCacheConfigurationBuilder(String.class, Boolean.class,
+                            ResourcePoolsBuilder.heap(KConfiguration.getInstance().getConfiguration().getInt("cdk.ondemand.presence.size", 200000))).build());
+        }
+        this.present = existing;
+        try {
+            AkubraDOManager.addInvalidationListener(this::invalidate);
+        } catch (Throwable e) {
+            LOGGER.log(Level.WARNING, "Cannot register presence invalidation: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Ingest of one object
+     */
+    @FunctionalInterface
+    public interface Ingest {
+        void ingest() throws IOException, RepositoryException, JAXBException, LexerException, TransformerException;
+    }
+
+    /**
+     * Returns true if the object is known to be in the repository
+     */
+    public boolean isPresent(String pid) {
+        boolean present = this.present.containsKey(pid);
+        if (present) {
+            this.metrics.presenceHits.increment();
+        }
+        return present;
+    }
+
+    public void markPresent(String pid) {
+        this.present.put(pid, Boolean.TRUE);
+    }
+
+    public void invalidate(String pid) {
+        if (pid != null) {
+            this.present.remove(pid);
+        }
+    }
+
+    /**
+     * Runs the ingest of given pid; if the ingest of the same pid is already running, waits for it and does not run the ingest again
+     */
+    public void ingest(String pid, Ingest ingest) throws IOException, RepositoryException, JAXBException, LexerException, TransformerException {
+        CompletableFuture<Void> own = new CompletableFuture<>();
+        CompletableFuture<Void> running = this.inFlight.putIfAbsent(pid, own);
+        if (running != null) {
+            long start = System.nanoTime();
+            try {
+                running.get(joinTimeout(), TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException(e);
+            } catch (TimeoutException e) {
+                throw new IOException(String.format("Timeout waiting for running ingest of %s", pid), e);
+            } catch (ExecutionException e) {
+                rethrow(e.getCause());
+            } finally {
+                this.metrics.joined(System.nanoTime() - start);
+            }
+            return;
+        }
+        long queued = System.nanoTime();
+        Throwable failure = null;
+        try {
+            this.slots.acquire();
+            long start = System.nanoTime();
+            try {
+                ingest.ingest();
+            } catch (Throwable e) {
+                failure = e;
+                throw e;
+            } finally {
+                this.slots.release();
+                this.metrics.ingested(start - queued, System.nanoTime() - start, failure != null);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failure = e;
+            throw new IOException(e);
+        } finally {
+            // waiting requests must be released whatever happened
+            if (failure == null) {
+                own.complete(null);
+            } else {
+                own.completeExceptionally(failure);
+            }
+            this.inFlight.remove(pid, own);
+        }
+    }
+
+    private static void rethrow(Throwable cause) throws IOException, RepositoryException, JAXBException, LexerException, TransformerException {
+        if (cause instanceof IOException) throw (IOException) cause;
+        if (cause instanceof RepositoryException) throw (RepositoryException) cause;
+        if (cause instanceof JAXBException) throw (JAXBException) cause;
+        if (cause instanceof LexerException) throw (LexerException) cause;
+        if (cause instanceof TransformerException) throw (TransformerException) cause;
+        if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+        if (cause instanceof Error) throw (Error) cause;
+        throw new IOException(cause);
+    }
+
+    private static int maxParallel() {
+        return Math.max(1, KConfiguration.getInstance().getConfiguration().getInt("cdk.ondemand.ingest.maxParallel", 8));
+    }
+
+    private static int joinTimeout() {
+        return KConfiguration.getInstance().getConfiguration().getInt("cdk.ondemand.ingest.joinTimeout", 120);
+    }
+
+    private static class Metrics {
+
+        private final Map<String, CompletableFuture<Void>> inFlight;
+
+        private final LongAdder presenceHits = new LongAdder();
+        private final LongAdder ingests = new LongAdder();
+        private final LongAdder failures = new LongAdder();
+        private final LongAdder joined = new LongAdder();
+        private final LongAdder ingestNanos = new LongAdder();
+        private final LongAdder queueNanos = new LongAdder();
+        private final LongAdder joinedNanos = new LongAdder();
+        private final AtomicLong maxIngestNanos = new AtomicLong();
+        private final AtomicLong maxQueueNanos = new AtomicLong();
+
+        private Metrics(Map<String, CompletableFuture<Void>> inFlight) {
+            this.inFlight = inFlight;
+        }
+
+        void ingested(long queueNanos, long ingestNanos, boolean failed) {
+            this.ingests.increment();
+            if (failed) {
+                this.failures.increment();
+            }
+            this.queueNanos.add(queueNanos);
+            this.ingestNanos.add(ingestNanos);
+            this.maxQueueNanos.accumulateAndGet(queueNanos, Math::max);
+            this.maxIngestNanos.accumulateAndGet(ingestNanos, Math::max);
+            if (this.ingests.sum() % LOG_INTERVAL == 0) {
+                LOGGER.info(toString());
+            }
+        }
+
+        void joined(long waitNanos) {
+            this.joined.increment();
+            this.joinedNanos.add(waitNanos);
+        }
+
+        public long getPresenceHits() {
+            return presenceHits.sum();
+        }
+
+        public long getIngests() {
+            return ingests.sum();
+        }
+
+        public long getFailures() {
+            return failures.sum();
+        }
+
+        public long getJoined() {
+            return joined.sum();
+        }
+
+        public int getInFlight() {
+            return inFlight.size();
+        }
+
+        public long getAverageIngestMillis() {
+            return average(ingestNanos, ingests);
+        }
+
+        public long getMaxIngestMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(maxIngestNanos.get());
+        }
+
+        public long getAverageQueueMillis() {
+            return average(queueNanos, ingests);
+        }
+
+        public long getMaxQueueMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(maxQueueNanos.get());
+        }
+
+        public long getAverageJoinedMillis() {
+            return average(joinedNanos, joined);
+        }
+
+        private static long average(LongAdder nanos, LongAdder count) {
+            long c = count.sum();
+            return c > 0 ? TimeUnit.NANOSECONDS.toMillis(nanos.sum() / c) : 0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("on demand ingest: %d ingests, %d failed, avg %d ms, max %d ms; queued avg %d ms, max %d ms; %d joined running ingest (avg wait %d ms); %d in flight; %d presence hits",
+                    getIngests(), getFailures(), getAverageIngestMillis(), getMaxIngestMillis(), getAverageQueueMillis(), getMaxQueueMillis(),
+                    getJoined(), getAverageJoinedMillis(), getInFlight(), getPresenceHits());
+        }
+    }
+}
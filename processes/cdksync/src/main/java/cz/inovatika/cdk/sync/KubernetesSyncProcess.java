@@ -16,6 +16,7 @@ import java.util.TimeZone;
 import java.util.TreeSet;
 import java.util.UUID;
 import java.util.logging.Logger;
+import java.util.stream.Collectors;
 
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
@@ -37,16 +38,13 @@ import com.sun.jersey.api.json.JSONConfiguration;
 
 import cz.incad.kramerius.rest.apiNew.admin.v10.reharvest.ReharvestItem;
 import cz.incad.kramerius.rest.apiNew.admin.v10.reharvest.ReharvestItem.TypeOfReharvset;
-import cz.incad.kramerius.services.iterators.IterationItem;
-import cz.incad.kramerius.services.iterators.ProcessIterator;
-import cz.incad.kramerius.services.iterators.solr.SolrCursorIterator;
-import cz.incad.kramerius.services.iterators.solr.SolrFilterQueryIterator;
-import cz.incad.kramerius.services.iterators.solr.SolrPageIterator;
-import cz.incad.kramerius.services.iterators.solr.SolrIteratorFactory.TypeOfIteration;
 import cz.incad.kramerius.services.utils.SolrUtils;
 import cz.incad.kramerius.services.utils.kubernetes.KubernetesEnvSupport;
 import cz.incad.kramerius.utils.StringUtils;
 import cz.incad.kramerius.utils.conf.KConfiguration;
+import cz.inovatika.cdk.sync.utils.SortedPidMerge;
+import cz.inovatika.cdk.sync.utils.SortedPidStream;
+import cz.inovatika.cdk.sync.utils.SyncBuckets;
 
 import static cz.incad.kramerius.utils.ReharvestUtils.*;
 
@@ -67,17 +65,15 @@ public class KubernetesSyncProcess {
         return Client.create(cc);
     }
 
-    /** Find all pids by given root.pid 
+    /** Compares pids of given model in the source index and in the index of given digital library.
+     * <p>
+     * Both sides are read sorted by pid and merged in one pass; with <code>cdk.sync.buckets.prefix</code> the comparison is
+     * divided into buckets by pid prefix and buckets unchanged since the last run are skipped.
      * @throws IOException 
      * @throws SAXException 
      * @throws ParserConfigurationException */
     public static void comparePids(Map<String, String> iterationMap,Map<String, String> comparingMap,Map<String, String> reharvestMap, JSONObject libs, String dl, String model, Client client) throws ParserConfigurationException, SAXException, IOException {
 
-        String reharvestUrl = reharvestMap.get("url");
-        
-        HashSet<String> source = identifiers(iterationMap, model, client);
-        //TreeSet<String> sortedSource = new TreeSet<>(source);
-        
         if (!comparingMap.containsKey("api")) {
             JSONObject libObject = libs.getJSONObject(dl);
             JSONObject configObject = libObject.getJSONObject("config");
@@ -106,23 +102,58 @@ public class KubernetesSyncProcess {
             }
         }       
 
-        HashSet<String> comparing = identifiers(comparingMap, model, client);
-
         LOGGER.info(String.format("--- Model %s ---", model));
-        List<String> probablyDeleted = new ArrayList<>(source);
+        int prefixLength = KConfiguration.getInstance().getConfiguration().getInt("cdk.sync.buckets.prefix", 0);
+        if (prefixLength <= 0) {
+            compareBucket(iterationMap, comparingMap, reharvestMap, libs, dl, model, null, client);
+        } else {
+            SyncBuckets buckets = new SyncBuckets(SyncBuckets.defaultStateFile());
+            String key = dl + "/" + model;
+            int skipped = 0;
+            for (String bucket : SyncBuckets.buckets(prefixLength)) {
+                String sourceSummary = SyncBuckets.summary(client, iterationMap.get("url"), solrEndpoint(iterationMap),
+                        Arrays.asList(filterQuery(iterationMap, model), SyncBuckets.bucketQuery(pidField(iterationMap), bucket)), modifiedField(iterationMap));
+                String comparingSummary = SyncBuckets.summary(client, comparingMap.get("url"), solrEndpoint(comparingMap),
+                        Arrays.asList(filterQuery(comparingMap, model), SyncBuckets.bucketQuery(pidField(comparingMap), bucket)), modifiedField(comparingMap));
+                if (buckets.isUnchanged(key, bucket, sourceSummary, comparingSummary)) {
+                    skipped += 1;
+                    continue;
+                }
+                compareBucket(iterationMap, comparingMap, reharvestMap, libs, dl, model, bucket, client);
+                buckets.compared(key, bucket, sourceSummary, comparingSummary);
+            }
+            LOGGER.info(String.format("Skipped %d unchanged buckets", skipped));
+        }
+    }
 
-        probablyDeleted.removeAll(comparing);
-        LOGGER.info(String.format("Probably deleted titles %s",probablyDeleted));
-        
-        for (String pid : probablyDeleted) {
-          
-          String url = iterationMap.get("url");
-          String endpoint = iterationMap.containsKey("endpoint") ? iterationMap.get("endpoint") : "select";
-          
-          if (!url.endsWith("/")) { url = url+"/";  }
-          url = url + endpoint;
-          
-          
+    private static void compareBucket(Map<String, String> iterationMap,Map<String, String> comparingMap,Map<String, String> reharvestMap, JSONObject libs, String dl, String model, String bucket, Client client) throws ParserConfigurationException, SAXException, IOException {
+        String reharvestUrl = reharvestMap.get("url");
+        int existsBatch = KConfiguration.getInstance().getConfiguration().getInt("cdk.sync.exists.batch", 50);
+
+        SortedPidStream source = pids(iterationMap, model, bucket);
+        SortedPidStream comparing = pids(comparingMap, model, bucket);
+
+        List<String> probablyNotHarvested = new ArrayList<>();
+        int[] counts = new int[2];
+        int common = SortedPidMerge.merge(source, comparing, (pid) -> {
+            counts[0] += 1;
+            LOGGER.info(String.format("Probably deleted title %s", pid));
+            probablyDeleted(pid, reharvestUrl, libs, client);
+        }, (pid) -> {
+            counts[1] += 1;
+            probablyNotHarvested.add(pid);
+            LOGGER.info(String.format("Probably not harvested title %s", pid));
+            if (probablyNotHarvested.size() >= existsBatch) {
+                probablyNotHarvested(probablyNotHarvested, iterationMap, reharvestUrl, libs, dl, client);
+            }
+        });
+        probablyNotHarvested(probablyNotHarvested, iterationMap, reharvestUrl, libs, dl, client);
+
+        LOGGER.info(String.format("%s: common titles %d, probably deleted titles %d, probably not harvested titles %d",
+                bucket != null ? "Bucket " + bucket : "Model " + model, common, counts[0], counts[1]));
+    }
+
+    private static void probablyDeleted(String pid, String reharvestUrl, JSONObject libs, Client client) {
           ReharvestItem reharvestItem = new ReharvestItem(UUID.randomUUID().toString(), "Sync trigger|probably deleted","open", pid, pid);
           reharvestItem.setTypeOfReharvest(TypeOfReharvset.root);
           reharvestItem.setState("waiting_for_approve");
@@ -137,15 +168,20 @@ public class KubernetesSyncProcess {
               String errorMsg = resp.getEntity(String.class);
               LOGGER.warning(String.format("%s",errorMsg));
           }
-        }
-        
-        
-        List<String> probablyNotHarvested = new ArrayList<>(comparing);
-        probablyNotHarvested.removeAll(source);
-        LOGGER.info(String.format("Probably not harvested titles %s",probablyNotHarvested));
+    }
 
-        for (String pid : probablyNotHarvested) {
-          if (exists(pid, iterationMap, client)) {
+    private static void probablyNotHarvested(List<String> pids, Map<String, String> iterationMap, String reharvestUrl, JSONObject libs, String dl, Client client) {
+        if (pids.isEmpty()) {
+            return;
+        }
+        Set<String> existing;
+        try {
+            existing = existing(pids, iterationMap, client);
+        } catch (ParserConfigurationException | SAXException | IOException e) {
+            throw new RuntimeException(e);
+        }
+        for (String pid : pids) {
+          if (existing.contains(pid)) {
               // muze byt i spatny model??? - pak konflikt
               ReharvestItem reharvestItem = new ReharvestItem(UUID.randomUUID().toString(), "Sync trigger|missing DL","open", pid, "none");
               reharvestItem.setTypeOfReharvest(TypeOfReharvset.root);
@@ -176,6 +212,7 @@ public class KubernetesSyncProcess {
               }
           }
         }
+        pids.clear();
     }
 
     private static List<String> allEnabledLibraries(JSONObject libs) {
@@ -194,84 +231,57 @@ public class KubernetesSyncProcess {
         return libsArray;
     }
 
-    private static boolean exists(String pid, Map<String, String> map,  Client client) throws ParserConfigurationException, SAXException, IOException {
+    /** Pids of the batch found in the source index */
+    private static Set<String> existing(List<String> pids, Map<String, String> map,  Client client) throws ParserConfigurationException, SAXException, IOException {
         String iterationUrl = map.get("url");
         String solrEndpoint = solrEndpoint(map);
-        String masterQuery = URLEncoder.encode(String.format("%s:\"%s\"", "pid", pid), "UTF-8");
-        Element response = SolrUtils.executeQuery(client, iterationUrl, solrEndpoint+"?q="+masterQuery+"&wt=xml", "", "");
-        List<String> findAllPids = SolrUtils.findAllPids(response);
-        return !findAllPids.isEmpty();
+        String pidsQuery = pids.stream().map(pid -> "\"" + pid + "\"").collect(Collectors.joining(" OR "));
+        String masterQuery = URLEncoder.encode(String.format("%s:(%s)", "pid", pidsQuery), "UTF-8");
+        Element response = SolrUtils.executeQuery(client, iterationUrl, solrEndpoint+"?q="+masterQuery+"&fl=pid&rows="+pids.size()+"&wt=xml", "", "");
+        return new HashSet<>(SolrUtils.findAllPids(response));
     }    
     
     
-    private static HashSet<String> identifiers(Map<String, String> map, String model, Client client) {
+    private static SortedPidStream pids(Map<String, String> map, String model, String bucket) {
         String iterationUrl = map.get("url");
-        String api = map.get("api");
+        String sRows = map.containsKey("rows")   ? map.get("rows")  : ITERATION_ROWS_STRING_VALUE  ;
+        List<String> filterQueries = new ArrayList<>();
+        filterQueries.add(filterQuery(map, model));
+        if (bucket != null) {
+            filterQueries.add(SyncBuckets.bucketQuery(pidField(map), bucket));
+        }
+        LOGGER.info(String.format("Sorted pids, filter query %s, source url %s" , filterQueries, iterationUrl));
+        return new SortedPidStream(client, iterationUrl, solrEndpoint(map), "*:*", filterQueries, identifier(map), sort(map), Integer.parseInt(sRows));
+    }
 
-        String masterQuery = "*:*";
-        String filterQuery = "";
+    private static String filterQuery(Map<String, String> map, String model) {
         if (map.containsKey("fq")) {
-            filterQuery = String.format("(%s AND %s)", map.get("fq"), modelQuery(model, api));
+            return String.format("(%s AND %s)", map.get("fq"), modelQuery(model, map.get("api")));
         } else {
-            filterQuery = modelQuery(model, api);
-        }
-        String sRows = map.containsKey("rows")   ? map.get("rows")  : ITERATION_ROWS_STRING_VALUE  ;
-        String identifier = identifier(map);
-        TypeOfIteration typeOfIteration = typeOfIteration(map);
-        
-        
-        ProcessIterator processIterator = null;
-        switch (typeOfIteration) {
-            case CURSOR: {
-                processIterator =  new SolrCursorIterator(iterationUrl, masterQuery, filterQuery, solrEndpoint(map), identifier(map), sort(map),Integer.parseInt(sRows));
-                break;
-            }
-            case FILTER: {
-                processIterator  = new SolrFilterQueryIterator( iterationUrl, masterQuery, filterQuery, solrEndpoint(map), identifier(map), sort(map),Integer.parseInt(sRows));
-                break;
-            }
-            case PAGINATION: {
-                processIterator = new SolrPageIterator( iterationUrl, masterQuery, filterQuery, solrEndpoint(map), identifier(map), sort(map),Integer.parseInt(sRows));
-                break;
-            }
+            return modelQuery(model, map.get("api"));
         }
-        LOGGER.info(String.format("Solr iterator %s, filter query %s, source url %s" , processIterator.getClass().getName(), filterQuery, iterationUrl));
-        final HashSet<String> sourcePids  = new HashSet<>();
-        //final HashMap<String, List<String>> pp = new HashMap<>();
-        //List<String> compositeIds = new ArrayList<>();
-        processIterator.iterate(client, (list)-> {
-            LOGGER.info("SourcePids size "+sourcePids.size());
-            for (IterationItem it : list) {
-                
-                String id = it.getPid();
-                if (identifier.equals("compositeId")) {
-                    String[] arr = id.split("!");
-                    if (arr.length == 2) { 
-                        String pid = arr[1];
-                        sourcePids.add(pid);
-                    } else {
-                        sourcePids.add(id);
-                    }
-                } else {
-                    sourcePids.add(id);
-                }
-            }
-           
-        }, ()->{});
-
-        LOGGER.info(String.format("Number of results %d" , sourcePids.size()));
+    }
 
-        return sourcePids;
+    private static String pidField(Map<String, String> map) {
+        return "v5".equals(map.get("api")) ? "PID" : "pid";
     }
 
-    private static TypeOfIteration typeOfIteration(Map<String, String> iterationMap) {
-        return iterationMap.containsKey("type")  ? TypeOfIteration.valueOf(iterationMap.get("type")) : TypeOfIteration.CURSOR;
+    private static String modifiedField(Map<String, String> map) {
+        if (map.containsKey("modified")) {
+            return map.get("modified");
+        }
+        return "v5".equals(map.get("api")) ? "modified_date" : "modified";
     }
 
     private static String identifier(Map<String, String> iterationMap) {
         return iterationMap.containsKey("identifier")   ? iterationMap.get("identifier")  : "compositeId";
     }
 
+    /**
+     * Sort of the pid streams. The default <code>compositeId asc</code> follows pid order only when the composite id is
+     * <code>root!root</code>, i.e. for top-level models; other models must be sorted by the pid field (key <code>sort</code>),
+     * otherwise {@link SortedPidMerge} fails on unsorted pids.
+     */
     private static String sort(Map<String, String> iterationMap) {
         return iterationMap.containsKey("sort")   ? iterationMap.get("sort")  :  String.format("%s asc", identifier(iterationMap));
     }
@@ -281,7 +291,7 @@ public class KubernetesSyncProcess {
     }
 
     private static String modelQuery(String model, String api) {
-        switch(api) {
+        switch(api != null ? api : "v7") {
             case "v5":
                 return String.format("fedora.model:%s", model);
             case "v7":
@@ -0,0 +1,69 @@
+package cz.inovatika.cdk.sync.utils;
+
+import java.util.Iterator;
+import java.util.function.Consumer;
+
+/**
+ * Difference of two pid streams sorted in ascending order, computed in one pass in constant memory.
+ */
+public class SortedPidMerge {
+
+    private SortedPidMerge() {}
+
+    /**
+     * Walks both streams and reports pids found only in one of them; duplicated pids are reported once
+     * @param source Sorted pids of the source
+     * @param comparing Sorted pids of the compared index
+     * @param onlyInSource Called for pids missing in the compared index
+     * @param onlyInComparing Called for pids missing in the source
+     * @return Number of pids found in both streams
+     * @throws IllegalStateException if a stream is not sorted
+     */
+    public static int merge(Iterator<String> source, Iterator<String> comparing, Consumer<String> onlyInSource, Consumer<String> onlyInComparing) {
+        Cursor s = new Cursor("source", source);
+        Cursor c = new Cursor("comparing", comparing);
+        int common = 0;
+        while (s.current != null || c.current != null) {
+            int cmp = s.current == null ? 1 : (c.current == null ? -1 : s.current.compareTo(c.current));
+            if (cmp == 0) {
+                common += 1;
+                s.advance();
+                c.advance();
+            } else if (cmp < 0) {
+                onlyInSource.accept(s.current);
+                s.advance();
+            } else {
+                onlyInComparing.accept(c.current);
+                c.advance();
+            }
+        }
+        return common;
+    }
+
+    private static class Cursor {
+
+        private final String name;
+        private final Iterator<String> iterator;
+        private String current;
+
+        private Cursor(String name, Iterator<String> iterator) {
+            this.name = name;
+            this.iterator = iterator;
+            advance();
+        }
+
+        private void advance() {
+            String previous = current;
+            current = null;
+            while (iterator.hasNext()) {
+                String next = iterator.next();
+                if (previous == null || next.compareTo(previous) > 0) {
+                    current = next;
+                    return;
+                } else if (next.compareTo(previous) < 0) {
+                    throw new IllegalStateException(String.format("Pids of %s are not sorted (%s after %s); sort must follow the pid", name, next, previous));
+                }
+            }
+        }
+    }
+}
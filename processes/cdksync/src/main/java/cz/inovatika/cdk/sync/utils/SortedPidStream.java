@@ -0,0 +1,109 @@
+package cz.inovatika.cdk.sync.utils;
+
+import java.io.IOException;
+import java.net.URLEncoder;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.w3c.dom.Element;
+import org.xml.sax.SAXException;
+
+import com.sun.jersey.api.client.Client;
+
+import cz.incad.kramerius.services.iterators.solr.SolrCursorIterator;
+import cz.incad.kramerius.services.iterators.utils.IterationUtils;
+import cz.incad.kramerius.services.utils.SolrUtils;
+import cz.incad.kramerius.utils.StringUtils;
+
+/**
+ * Pids of one Solr index read page by page with the cursor, sorted by the identifier field.
+ * <p>
+ * Only one page is held in memory; pid is taken from the composite id (<code>root!pid</code>) when the identifier
+ * is <code>compositeId</code>.
+ */
+public class SortedPidStream implements Iterator<String> {
+
+    private final Client client;
+    private final String url;
+    private final String endpoint;
+    private final String masterQuery;
+    private final List<String> filterQueries;
+    private final String identifier;
+    private final String sorting;
+    private final int rows;
+
+    private final Deque<String> page = new ArrayDeque<>();
+    private String cursorMark = "*";
+    private boolean finished = false;
+
+    public SortedPidStream(Client client, String url, String endpoint, String masterQuery, List<String> filterQueries, String identifier, String sorting, int rows) {
+        this.client = client;
+        this.url = url;
+        this.endpoint = endpoint;
+        this.masterQuery = masterQuery;
+        this.filterQueries = filterQueries;
+        this.identifier = identifier;
+        this.sorting = sorting;
+        this.rows = rows;
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (page.isEmpty() && !finished) {
+            nextPage();
+        }
+        return !page.isEmpty();
+    }
+
+    @Override
+    public String next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return page.poll();
+    }
+
+    private void nextPage() {
+        try {
+            StringBuilder query = new StringBuilder(endpoint);
+            query.append("?q=").append(URLEncoder.encode(masterQuery, "UTF-8"));
+            for (String fq : filterQueries) {
+                if (StringUtils.isAnyString(fq)) {
+                    query.append("&fq=").append(URLEncoder.encode(fq, "UTF-8"));
+                }
+            }
+            query.append(String.format("&rows=%d&cursorMark=%s", rows, URLEncoder.encode(cursorMark, "UTF-8")));
+            query.append("&sort=").append(URLEncoder.encode(sorting, "UTF-8"));
+            query.append("&fl=").append(URLEncoder.encode(identifier, "UTF-8"));
+            query.append("&wt=xml");
+
+            Element response = SolrUtils.executeQuery(client, url, query.toString(), null, null);
+            for (String id : SolrUtils.findAllPids(response)) {
+                page.add(pid(id));
+            }
+            String next = SolrCursorIterator.findCursorMark(response);
+            if (next == null || next.equals(cursorMark)) {
+                finished = true;
+            } else {
+                cursorMark = next;
+            }
+        } catch (ParserConfigurationException | SAXException | IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private String pid(String id) {
+        if (identifier.equals("compositeId")) {
+            String[] arr = id.split("!");
+            if (arr.length == 2) {
+                id = arr[1];
+            }
+        }
+        return IterationUtils.repairPidIfNeeded(id);
+    }
+}
@@ -0,0 +1,162 @@
+package cz.inovatika.cdk.sync.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.w3c.dom.Element;
+import org.xml.sax.SAXException;
+
+import com.sun.jersey.api.client.Client;
+
+import cz.incad.kramerius.Constants;
+import cz.incad.kramerius.services.utils.SolrUtils;
+import cz.incad.kramerius.utils.StringUtils;
+import cz.incad.kramerius.utils.XMLUtils;
+import cz.incad.kramerius.utils.conf.KConfiguration;
+
+/**
+ * Pids of the synchronized indexes divided into buckets by pid prefix (<code>uuid:</code> followed by the first hexadecimal
+ * characters); pids without <code>uuid:</code> prefix form one more bucket.
+ * <p>
+ * Summary of a bucket is the number of its documents and the latest modification date. Summaries of both sides are
+ * stored in the state file after the bucket has been compared; a bucket whose summaries have not changed on either side
+ * since then is not compared again.
+ */
+public class SyncBuckets {
+
+    public static final Logger LOGGER = Logger.getLogger(SyncBuckets.class.getName());
+
+    private static final String HEX = "0123456789abcdef";
+    private static final String OTHER_BUCKET = "other";
+
+    private final File stateFile;
+    private final JSONObject state;
+
+    public SyncBuckets(File stateFile) {
+        this.stateFile = stateFile;
+        this.state = load(stateFile);
+    }
+
+    public static File defaultStateFile() {
+        return new File(KConfiguration.getInstance().getConfiguration().getString("cdk.sync.buckets.state",
+                Constants.WORKING_DIR + File.separator + "cdk" + File.separator + "sync-buckets.json"));
+    }
+
+    private static JSONObject load(File file) {
+        if (file.exists()) {
+            try {
+                return new JSONObject(new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8));
+            } catch (IOException | JSONException e) {
+                LOGGER.log(Level.WARNING, String.format("Cannot read sync state %s, comparing all buckets", file.getAbsolutePath()), e);
+            }
+        }
+        return new JSONObject();
+    }
+
+    /**
+     * Bucket names for given prefix length
+     */
+    public static List<String> buckets(int prefixLength) {
+        List<String> buckets = new ArrayList<>();
+        buckets.add("");
+        for (int i = 0; i < prefixLength; i++) {
+            List<String> longer = new ArrayList<>();
+            for (String bucket : buckets) {
+                for (char c : HEX.toCharArray()) {
+                    longer.add(bucket + c);
+                }
+            }
+            buckets = longer;
+        }
+        buckets.add(OTHER_BUCKET);
+        return buckets;
+    }
+
+    /**
+     * Filter query selecting pids of the bucket
+     */
+    public static String bucketQuery(String pidField, String bucket) {
+        if (bucket.equals(OTHER_BUCKET)) {
+            return String.format("(*:* -%s:uuid\\:*)", pidField);
+        } else {
+            return String.format("%s:uuid\\:%s*", pidField, bucket);
+        }
+    }
+
+    /**
+     * Summary of the bucket; number of documents and the latest modification date
+     */
+    public static String summary(Client client, String url, String endpoint, List<String> filterQueries, String modifiedField) throws ParserConfigurationException, SAXException, IOException {
+        StringBuilder query = new StringBuilder(endpoint);
+        query.append("?q=").append(URLEncoder.encode("*:*", "UTF-8"));
+        for (String fq : filterQueries) {
+            if (StringUtils.isAnyString(fq)) {
+                query.append("&fq=").append(URLEncoder.encode(fq, "UTF-8"));
+            }
+        }
+        query.append("&rows=1&fl=").append(URLEncoder.encode(modifiedField, "UTF-8"));
+        query.append("&sort=").append(URLEncoder.encode(modifiedField + " desc", "UTF-8"));
+        query.append("&wt=xml");
+
+        Element response = SolrUtils.executeQuery(client, url, query.toString(), null, null);
+        Element result = XMLUtils.findElement(response, (elm) -> elm.getNodeName().equals("result"));
+        if (result == null) {
+            throw new IOException("No result in response from " + url);
+        }
+        Element modified = XMLUtils.findElement(result, (elm) -> modifiedField.equals(elm.getAttribute("name")));
+        return result.getAttribute("numFound") + "|" + (modified != null ? modified.getTextContent() : "");
+    }
+
+    /**
+     * Returns true if both summaries are equal to the summaries stored after the last comparison of the bucket
+     */
+    public boolean isUnchanged(String key, String bucket, String sourceSummary, String comparingSummary) {
+        JSONObject stored = bucketState(key, bucket);
+        return stored != null && sourceSummary.equals(stored.optString("source")) && comparingSummary.equals(stored.optString("comparing"));
+    }
+
+    /**
+     * Stores summaries of the compared bucket
+     */
+    public void compared(String key, String bucket, String sourceSummary, String comparingSummary) {
+        if (!state.has(key)) {
+            state.put(key, new JSONObject());
+        }
+        JSONObject bucketState = new JSONObject();
+        bucketState.put("source", sourceSummary);
+        bucketState.put("comparing", comparingSummary);
+        state.getJSONObject(key).put(bucket, bucketState);
+        save();
+    }
+
+    private JSONObject bucketState(String key, String bucket) {
+        JSONObject keyState = state.optJSONObject(key);
+        return keyState != null ? keyState.optJSONObject(bucket) : null;
+    }
+
+    private void save() {
+        try {
+            File parent = stateFile.getAbsoluteFile().getParentFile();
+            if (parent != null) {
+                parent.mkdirs();
+            }
+            File tmp = new File(stateFile.getAbsolutePath() + ".tmp");
+            Files.write(tmp.toPath(), state.toString().getBytes(StandardCharsets.UTF_8));
+            Files.move(tmp.toPath(), stateFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, String.format("Cannot write sync state %s", stateFile.getAbsolutePath()), e);
+        }
+    }
+}
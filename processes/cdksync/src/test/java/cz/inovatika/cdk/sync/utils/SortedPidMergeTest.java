@@ -0,0 +1,60 @@
+package cz.inovatika.cdk.sync.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SortedPidMergeTest {
+
+    @Test
+    public void testDifferences() {
+        List<String> onlyInSource = new ArrayList<>();
+        List<String> onlyInComparing = new ArrayList<>();
+        int common = SortedPidMerge.merge(Arrays.asList("uuid:1", "uuid:2", "uuid:4", "uuid:6").iterator(),
+                Arrays.asList("uuid:2", "uuid:3", "uuid:4", "uuid:5").iterator(), onlyInSource::add, onlyInComparing::add);
+        Assert.assertEquals(2, common);
+        Assert.assertEquals(Arrays.asList("uuid:1", "uuid:6"), onlyInSource);
+        Assert.assertEquals(Arrays.asList("uuid:3", "uuid:5"), onlyInComparing);
+    }
+
+    @Test
+    public void testEmptySides() {
+        List<String> onlyInSource = new ArrayList<>();
+        List<String> onlyInComparing = new ArrayList<>();
+        Assert.assertEquals(0, SortedPidMerge.merge(Collections.<String>emptyIterator(), Arrays.asList("uuid:1", "uuid:2").iterator(), onlyInSource::add, onlyInComparing::add));
+        Assert.assertEquals(Collections.emptyList(), onlyInSource);
+        Assert.assertEquals(Arrays.asList("uuid:1", "uuid:2"), onlyInComparing);
+
+        onlyInComparing.clear();
+        Assert.assertEquals(0, SortedPidMerge.merge(Arrays.asList("uuid:1").iterator(), Collections.<String>emptyIterator(), onlyInSource::add, onlyInComparing::add));
+        Assert.assertEquals(Arrays.asList("uuid:1"), onlyInSource);
+        Assert.assertEquals(Collections.emptyList(), onlyInComparing);
+
+        Assert.assertEquals(0, SortedPidMerge.merge(Collections.<String>emptyIterator(), Collections.<String>emptyIterator(), onlyInSource::add, onlyInComparing::add));
+    }
+
+    @Test
+    public void testDuplicatesReportedOnce() {
+        List<String> onlyInSource = new ArrayList<>();
+        List<String> onlyInComparing = new ArrayList<>();
+        int common = SortedPidMerge.merge(Arrays.asList("uuid:1", "uuid:1", "uuid:2", "uuid:3", "uuid:3").iterator(),
+                Arrays.asList("uuid:2", "uuid:2", "uuid:4", "uuid:4").iterator(), onlyInSource::add, onlyInComparing::add);
+        Assert.assertEquals(1, common);
+        Assert.assertEquals(Arrays.asList("uuid:1", "uuid:3"), onlyInSource);
+        Assert.assertEquals(Arrays.asList("uuid:4"), onlyInComparing);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testUnsortedSource() {
+        SortedPidMerge.merge(Arrays.asList("uuid:1", "uuid:3", "uuid:2").iterator(), Arrays.asList("uuid:1").iterator(), (pid) -> {}, (pid) -> {});
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testUnsortedComparing() {
+        SortedPidMerge.merge(Arrays.asList("uuid:1").iterator(), Arrays.asList("uuid:5", "uuid:4").iterator(), (pid) -> {}, (pid) -> {});
+    }
+}
@@ -0,0 +1,68 @@
+package cz.inovatika.cdk.sync.utils;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SyncBucketsTest {
+
+    @Test
+    public void testBuckets() {
+        List<String> none = SyncBuckets.buckets(0);
+        Assert.assertEquals(2, none.size());
+        Assert.assertEquals("", none.get(0));
+        Assert.assertEquals("other", none.get(1));
+
+        List<String> two = SyncBuckets.buckets(2);
+        Assert.assertEquals(16 * 16 + 1, two.size());
+        Assert.assertEquals("00", two.get(0));
+        Assert.assertEquals("0f", two.get(15));
+        Assert.assertEquals("ff", two.get(255));
+        Assert.assertEquals("other", two.get(256));
+    }
+
+    @Test
+    public void testBucketQuery() {
+        Assert.assertEquals("pid:uuid\\:a*", SyncBuckets.bucketQuery("pid", "a"));
+        Assert.assertEquals("PID:uuid\\:*", SyncBuckets.bucketQuery("PID", ""));
+        Assert.assertEquals("(*:* -pid:uuid\\:*)", SyncBuckets.bucketQuery("pid", "other"));
+    }
+
+    @Test
+    public void testStateSavedAndLoaded() throws Exception {
+        File dir = File.createTempFile("sync-buckets", "");
+        dir.delete();
+        File stateFile = new File(dir, "sync-buckets.json");
+        try {
+            SyncBuckets buckets = new SyncBuckets(stateFile);
+            Assert.assertFalse(buckets.isUnchanged("lib/monograph", "a", "10|2024-01-01", "10|2024-01-01"));
+            buckets.compared("lib/monograph", "a", "10|2024-01-01", "9|2023-12-31");
+            Assert.assertTrue(stateFile.exists());
+
+            SyncBuckets loaded = new SyncBuckets(stateFile);
+            Assert.assertTrue(loaded.isUnchanged("lib/monograph", "a", "10|2024-01-01", "9|2023-12-31"));
+            // one side changed
+            Assert.assertFalse(loaded.isUnchanged("lib/monograph", "a", "11|2024-01-02", "9|2023-12-31"));
+            Assert.assertFalse(loaded.isUnchanged("lib/monograph", "b", "10|2024-01-01", "9|2023-12-31"));
+            Assert.assertFalse(loaded.isUnchanged("lib/periodical", "a", "10|2024-01-01", "9|2023-12-31"));
+        } finally {
+            stateFile.delete();
+            dir.delete();
+        }
+    }
+
+    @Test
+    public void testBrokenStateComparesAll() throws Exception {
+        File stateFile = File.createTempFile("sync-buckets", ".json");
+        try {
+            Files.write(stateFile.toPath(), "{\"lib/monograph\": {\"a\"".getBytes(StandardCharsets.UTF_8));
+            Assert.assertFalse(new SyncBuckets(stateFile).isUnchanged("lib/monograph", "a", "", ""));
+        } finally {
+            stateFile.delete();
+        }
+    }
+}
@@ -19,9 +19,11 @@ import cz.incad.kramerius.resourceindex.ResourceIndexModule;
 import cz.incad.kramerius.solr.SolrModule;
 import cz.incad.kramerius.statistics.NullStatisticsModule;
 import cz.incad.kramerius.utils.Dom4jUtils;
+import cz.incad.kramerius.utils.conf.KConfiguration;
 import cz.kramerius.adapters.ProcessingIndex;
 import cz.kramerius.searchIndex.indexer.SolrConfig;
 import cz.kramerius.searchIndex.indexer.SolrIndexAccess;
+import cz.kramerius.searchIndex.indexer.SolrUpdateBatches;
 import cz.kramerius.adapters.impl.krameriusNewApi.ProcessingIndexImplByKrameriusNewApis;
 
 import org.apache.commons.io.IOUtils;
@@ -199,11 +201,14 @@ public class SetLicenseProcess {
         
         //5. Aktualizuji se indexy vsech (vlastnich i nevlastnich) potomku (prida se licenses_of_ancestors=L) atomic updaty po davkach (muzou to byt az stovky tisic objektu)
         LOGGER.info("updating search index for all (own) descendants of target object");
-        PidsOfDescendantsProducer iterator = new PidsOfDescendantsProducer(targetPid, searchIndex, false);
-        while (iterator.hasNext()) {
-            List<String> pids = iterator.next();
-            indexerAccess.addSingleFieldValueForMultipleObjects(pids, SOLR_FIELD_LICENSES_OF_ANCESTORS, license, true, false);
-            LOGGER.info(String.format("Indexed: %d/%d", iterator.getReturned(), iterator.getTotal()));
+        try (SolrUpdateBatches batches = new SolrUpdateBatches(updateThreads())) {
+            PidsOfDescendantsProducer iterator = new PidsOfDescendantsProducer(targetPid, searchIndex, false);
+            while (iterator.hasNext()) {
+                List<String> pids = iterator.next();
+                batches.submit(() -> indexerAccess.addSingleFieldValueForMultipleObjects(pids, SOLR_FIELD_LICENSES_OF_ANCESTORS, license, true, false));
+                LOGGER.info(String.format("Indexed: %d/%d", iterator.getReturned(), iterator.getTotal()));
+            }
+            batches.await();
         }
 
         //6. Zmena indextime
@@ -217,6 +222,13 @@ public class SetLicenseProcess {
         }
     }
 
+    /**
+     * Pocet davek atomic updatu potomku, ktere se posilaji do indexu soubezne
+     */
+    private static int updateThreads() {
+        return KConfiguration.getInstance().getConfiguration().getInt("indexer.atomicUpdate.threads", 4);
+    }
+
     private static List<String> getPidsOfOwnAncestors(String targetPid, ProcessingIndex processingIndex)  {
 
         try {
@@ -321,21 +333,26 @@ public class SetLicenseProcess {
         if (!hasAncestorThatOwnsLicense(targetPid, license, processingIndex, repository)) {
             //5a. Aktualizuji se indexy vsech (vlastnich) potomku (odebere se licenses_of_ancestors=L) atomic updaty po davkach (muzou to byt az stovky tisic objektu)
             LOGGER.info("updating search index for all (own) descendants of target object");
-            PidsOfDescendantsProducer descendantsIterator = new PidsOfDescendantsProducer(targetPid, searchIndex, true);
-            while (descendantsIterator.hasNext()) {
-                List<String> pids = descendantsIterator.next();
-                indexerAccess.removeSingleFieldValueFromMultipleObjects(pids, SOLR_FIELD_LICENSES_OF_ANCESTORS, license, true, false);
-                LOGGER.info(String.format("Indexed: %d/%d", descendantsIterator.getReturned(), descendantsIterator.getTotal()));
-            }
-            //5b. Vsem potomkum ciloveho objektu, ktere take vlastni licenci, budou aktualizovany licence jejich potomku (prida se licenses_of_ancestors=L), protoze byly nepravem odebrany v kroku 5a.
-            List<String> pidsOfDescendantsOfTargetOwningLicence = getDescendantsOwningLicense(targetPid, license, repository, processingIndex);
-            for (String pid : pidsOfDescendantsOfTargetOwningLicence) {
-                PidsOfDescendantsProducer iterator = new PidsOfDescendantsProducer(pid, searchIndex, true);
-                while (iterator.hasNext()) {
-                    List<String> pids = iterator.next();
-                    indexerAccess.addSingleFieldValueForMultipleObjects(pids, SOLR_FIELD_LICENSES_OF_ANCESTORS, license, true, false);
-                    LOGGER.info(String.format("Indexed: %d/%d", iterator.getReturned(), iterator.getTotal()));
+            try (SolrUpdateBatches batches = new SolrUpdateBatches(updateThreads())) {
+                PidsOfDescendantsProducer descendantsIterator = new PidsOfDescendantsProducer(targetPid, searchIndex, true);
+                while (descendantsIterator.hasNext()) {
+                    List<String> pids = descendantsIterator.next();
+                    batches.submit(() -> indexerAccess.removeSingleFieldValueFromMultipleObjects(pids, SOLR_FIELD_LICENSES_OF_ANCESTORS, license, true, false));
+                    LOGGER.info(String.format("Indexed: %d/%d", descendantsIterator.getReturned(), descendantsIterator.getTotal()));
+                }
+                //odebrani musi byt dokonceno pred krokem 5b, jinak by mohlo prepsat pridani
+                batches.await();
+                //5b. Vsem potomkum ciloveho objektu, ktere take vlastni licenci, budou aktualizovany licence jejich potomku (prida se licenses_of_ancestors=L), protoze byly nepravem odebrany v kroku 5a.
+                List<String> pidsOfDescendantsOfTargetOwningLicence = getDescendantsOwningLicense(targetPid, license, repository, processingIndex);
+                for (String pid : pidsOfDescendantsOfTargetOwningLicence) {
+                    PidsOfDescendantsProducer iterator = new PidsOfDescendantsProducer(pid, searchIndex, true);
+                    while (iterator.hasNext()) {
+                        List<String> pids = iterator.next();
+                        batches.submit(() -> indexerAccess.addSingleFieldValueForMultipleObjects(pids, SOLR_FIELD_LICENSES_OF_ANCESTORS, license, true, false));
+                        LOGGER.info(String.format("Indexed: %d/%d", iterator.getReturned(), iterator.getTotal()));
+                    }
                 }
+                batches.await();
             }
         }
 
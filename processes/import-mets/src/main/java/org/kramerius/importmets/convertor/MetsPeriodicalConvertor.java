@@ -33,8 +33,10 @@ import javax.xml.bind.UnmarshalException;
 import javax.xml.bind.Unmarshaller;
 import java.io.File;
 import java.math.BigInteger;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -59,9 +61,15 @@ public class MetsPeriodicalConvertor extends BaseConvertor {
             policyID = config.isPolicyPublic() ? POLICY_PUBLIC : POLICY_PRIVATE;
             loadModsAndDcMap(mets);
             loadFileMap(mets);
-            processStructMap(mets);
-            for (Foxml obj : objects.values()) {
-                exportFoxml(obj);
+            beginExport();
+            boolean finished = false;
+            try {
+                processStructMap(mets);
+                // units that could not be exported as soon as they were complete (sound collection, tracks)
+                exportFoxmls(objects);
+                finished = true;
+            } finally {
+                endExport(finished);
             }
         } catch (Exception e) {
             throw new ServiceException(e);
@@ -166,10 +174,21 @@ public class MetsPeriodicalConvertor extends BaseConvertor {
         log.info("Loaded files: " + filecounter);
     }
 
+    /**
+     * Zpracuje strukturu; kazda jednotka se exportuje hned, jak je kompletni - strana po vytvoreni, logicka jednotka
+     * po zpracovani potomku a jejich structLink vazeb - takze se v pameti nedrzi vsechny jednotky najednou.
+     * Fyzicka struktura se zpracuje jako prvni, logicka na ni odkazuje.
+     */
     private void processStructMap(Mets mets) throws ServiceException {
+        indexStructLinks(mets.getStructLink());
         for (StructMapType sm : mets.getStructMap()) {
             if ("PHYSICAL".equalsIgnoreCase(sm.getTYPE())) {
                 processPages(sm);
+            }
+        }
+        for (StructMapType sm : mets.getStructMap()) {
+            if ("PHYSICAL".equalsIgnoreCase(sm.getTYPE())) {
+                continue;
             } else if ("LOGICAL".equalsIgnoreCase(sm.getTYPE())) {
                 singleVolumeMonograph = false;
                 processDiv(null, null, sm.getDiv());
@@ -186,6 +205,55 @@ public class MetsPeriodicalConvertor extends BaseConvertor {
 
     }
 
+    /*
+     * structLink vazby podle zdrojove jednotky (from), v poradi dokumentu
+     */
+    private Map<String, List<SmLink>> structLinks = new LinkedHashMap<String, List<SmLink>>();
+
+    /*
+     * exportovane jednotky - pid, MODS a soubory pro vazby, ktere na ne odkazuji
+     */
+    private Map<String, Foxml> exportedUnits = new HashMap<String, Foxml>();
+
+    private boolean pagesFirst = true;
+
+    private void indexStructLinks(StructLink structLink) {
+        this.pagesFirst = KConfiguration.getInstance().getConfiguration().getBoolean("convert.pagesFirst", true);
+        if (structLink == null) {
+            return;
+        }
+        for (Object o : structLink.getSmLinkOrSmLinkGrp()) {
+            if (o instanceof SmLink) {
+                SmLink smLink = (SmLink) o;
+                if (smLink.getFrom() == null || smLink.getTo() == null) continue;
+                structLinks.computeIfAbsent(smLink.getFrom(), from -> new ArrayList<SmLink>()).add(smLink);
+            }
+        }
+    }
+
+    /**
+     * Preda jednotku k exportu; v mape zustane jen odkaz s pid, MODS a soubory pro structLink vazby, ktere na ni odkazuji
+     */
+    private void exportUnit(String divId, Foxml foxml) {
+        objects.remove(divId);
+        Foxml reference = new Foxml();
+        reference.setPid(foxml.getPid());
+        reference.setTitle(foxml.getTitle());
+        reference.setMods(foxml.getMods());
+        if (foxml.getFiles() != null) {
+            for (FileDescriptor file : foxml.getFiles()) {
+                reference.addFiles(file);
+            }
+        }
+        exportedUnits.put(divId, reference);
+        submitExport(foxml);
+    }
+
+    private Foxml unit(String divId) {
+        Foxml foxml = objects.get(divId);
+        return foxml != null ? foxml : exportedUnits.get(divId);
+    }
+
     private Map<String, String> filePageMap = new HashMap<String, String>();
     private Multimap<String, FileDescriptor> audioFilesMap = ArrayListMultimap.create();
 
@@ -300,6 +368,10 @@ public class MetsPeriodicalConvertor extends BaseConvertor {
 
             String pageId = pageDiv.getID();
             objects.put(pageId, page);
+            if (!structLinks.containsKey(pageId)) {
+                // pages are only targets of structLink
+                exportUnit(pageId, page);
+            }
         }
     }
 
@@ -332,6 +404,13 @@ public class MetsPeriodicalConvertor extends BaseConvertor {
     private String soundCollectionId = null;  //root sound collection id for sound recordings, used in processStructLink for adding missing page relations
 
     private Foxml processDiv(Foxml parent, String parentModel, DivType div) {
+        return processDiv(parent, parentModel, div, true);
+    }
+
+    /**
+     * @param export export the unit when it is complete; false if the caller changes it afterwards
+     */
+    private Foxml processDiv(Foxml parent, String parentModel, DivType div, boolean export) {
         String divType = div.getTYPE();
         if ("SOUNDCOLLECTION".equalsIgnoreCase(divType)) {
             soundCollectionId = div.getID();
@@ -349,10 +428,14 @@ public class MetsPeriodicalConvertor extends BaseConvertor {
                 return null;
             }
             if (volumeDivs.size() > 1) {//if monograph div contains more subdivs, first is supposed to be the volume, the rest are supplements that will be nested in the volume.
-                Foxml volume = processDiv(null, null, volumeDivs.get(0));
+                Foxml volume = processDiv(null, null, volumeDivs.get(0), false);
                 for (int i = 1; i < volumeDivs.size(); i++) {
                     processDiv(volume, null, volumeDivs.get(i));
                 }
+                if (volume != null) {
+                    // supplements are added to the volume after it has been processed
+                    exportUnit(volumeDivs.get(0).getID(), volume);
+                }
             }
             return null;
         }
@@ -411,6 +494,11 @@ public class MetsPeriodicalConvertor extends BaseConvertor {
         for (DivType partDiv : div.getDiv()) {
             processDiv(foxml, model, partDiv);
         }
+        applyStructLinks(divID);
+        // sound collection gets pages from structLinks of all its parts, it is exported at the end
+        if (export && !divID.equals(soundCollectionId)) {
+            exportUnit(divID, foxml);
+        }
         return foxml;
     }
 
@@ -483,6 +571,7 @@ public class MetsPeriodicalConvertor extends BaseConvertor {
         for (DivType partDiv : div.getDiv()) {
             processElectronicDiv(foxml, partDiv);
         }
+        exportUnit(divID, foxml);
         return foxml;
     }
 
@@ -632,94 +721,108 @@ public class MetsPeriodicalConvertor extends BaseConvertor {
         return retval;
     }
 
+    /**
+     * Zpracuje zbyle structLink vazby (vazby jednotek, ktere se nezpracovaly v logicke strukture, napr. neplatne)
+     */
     protected void processStructLink(StructLink structLink) {
-        boolean pagesFirst = KConfiguration.getInstance().getConfiguration().getBoolean("convert.pagesFirst", true);
-        for (Object o : structLink.getSmLinkOrSmLinkGrp()) {
-            if (o instanceof SmLink) {
-                SmLink smLink = (SmLink) o;
-                String from = smLink.getFrom();
-                String to = smLink.getTo();
-                if (from == null || to == null) continue;
-                Foxml target = objects.get(to);
-                if (target == null && !(to.startsWith("DIV_STOPA") || to.startsWith("DIV_AUDIO"))) {
-                    log.warn("Invalid structLink from: " + from + " to: " + to);
-                    continue;
-                }
-                Foxml part = objects.get(from);
-                if (part == null) {
-                    log.warn("Invalid structLink from: " + from + " to: " + to);
-                    continue;
-                }
-                if (from.startsWith("ISSUE") || from.startsWith("VOLUME") || from.startsWith("SUPPLEMENT")) {
-                    if (isReprePage(target.getMods())) {
-                        if (part.getFiles() == null || part.getFiles().isEmpty()) {
-                            for (FileDescriptor targetFile : target.getFiles()) {
-                                if (StreamFileType.USER_IMAGE.equals(targetFile.getFileType()) || StreamFileType.MASTER_IMAGE.equals(targetFile.getFileType())) {
-                                    part.addFiles(targetFile);
-                                }
-                            }
+        for (String from : new ArrayList<String>(structLinks.keySet())) {
+            applyStructLinks(from);
+        }
+    }
+
+    /**
+     * Zpracuje structLink vazby dane jednotky; jednotka jeste nesmi byt exportovana
+     */
+    private void applyStructLinks(String from) {
+        List<SmLink> links = structLinks.remove(from);
+        if (links != null) {
+            for (SmLink smLink : links) {
+                applyStructLink(smLink);
+            }
+        }
+    }
+
+    private void applyStructLink(SmLink smLink) {
+        String from = smLink.getFrom();
+        String to = smLink.getTo();
+        Foxml target = unit(to);
+        if (target == null && !(to.startsWith("DIV_STOPA") || to.startsWith("DIV_AUDIO"))) {
+            log.warn("Invalid structLink from: " + from + " to: " + to);
+            return;
+        }
+        Foxml part = objects.get(from);
+        if (part == null) {
+            log.warn("Invalid structLink from: " + from + " to: " + to);
+            return;
+        }
+        if (from.startsWith("ISSUE") || from.startsWith("VOLUME") || from.startsWith("SUPPLEMENT")) {
+            if (isReprePage(target.getMods())) {
+                if (part.getFiles() == null || part.getFiles().isEmpty()) {
+                    for (FileDescriptor targetFile : target.getFiles()) {
+                        if (StreamFileType.USER_IMAGE.equals(targetFile.getFileType()) || StreamFileType.MASTER_IMAGE.equals(targetFile.getFileType())) {
+                            part.addFiles(targetFile);
                         }
                     }
-                    if (pagesFirst) {
-                        part.getRe().insertPage(target.getPid());
-                    } else {
-                        part.getRe().addRelation(RelsExt.HAS_PAGE, target.getPid(), false);
-                    }
-                } else if (from.startsWith("SOUNDCOLLECTION") || from.startsWith("SOUNDRECORDING") || from.startsWith("SOUNDPART")) {
-                    if (to.startsWith("DIV_STOPA") || to.startsWith("DIV_AUDIO")) {
-                        if (from.startsWith("SOUNDPART")) {
-                            Collection<FileDescriptor> fileDescriptors = audioFilesMap.get(to);
-                            for (FileDescriptor fileDescriptor : fileDescriptors) {
-                                if (KConfiguration.getInstance().getConfiguration().getBoolean("convert.userAudio", true)) {
-                                    if (StreamFileType.MASTER_AUDIO.equals(fileDescriptor.getFileType())) {
-                                        continue;
-                                    }
-                                } else {
-                                    if (StreamFileType.USER_AUDIO.equals(fileDescriptor.getFileType())) {
-                                        continue;
-                                    }
-                                }
-                                part.addFiles(fileDescriptor);
+                }
+            }
+            if (pagesFirst) {
+                part.getRe().insertPage(target.getPid());
+            } else {
+                part.getRe().addRelation(RelsExt.HAS_PAGE, target.getPid(), false);
+            }
+        } else if (from.startsWith("SOUNDCOLLECTION") || from.startsWith("SOUNDRECORDING") || from.startsWith("SOUNDPART")) {
+            if (to.startsWith("DIV_STOPA") || to.startsWith("DIV_AUDIO")) {
+                if (from.startsWith("SOUNDPART")) {
+                    Collection<FileDescriptor> fileDescriptors = audioFilesMap.get(to);
+                    for (FileDescriptor fileDescriptor : fileDescriptors) {
+                        if (KConfiguration.getInstance().getConfiguration().getBoolean("convert.userAudio", true)) {
+                            if (StreamFileType.MASTER_AUDIO.equals(fileDescriptor.getFileType())) {
+                                continue;
                             }
-                        } else if (from.startsWith("SOUNDRECORDING")) {
-                            Collection<FileDescriptor> fileDescriptors = audioFilesMap.get(to);
-                            Foxml track = createTrack(part);
-                            for (FileDescriptor fileDescriptor : fileDescriptors) {
-                                if (KConfiguration.getInstance().getConfiguration().getBoolean("convert.userAudio", true)) {
-                                    if (StreamFileType.MASTER_AUDIO.equals(fileDescriptor.getFileType())) {
-                                        continue;
-                                    }
-                                } else {
-                                    if (StreamFileType.USER_AUDIO.equals(fileDescriptor.getFileType())) {
-                                        continue;
-                                    }
-                                }
-                                track.addFiles(fileDescriptor);
+                        } else {
+                            if (StreamFileType.USER_AUDIO.equals(fileDescriptor.getFileType())) {
+                                continue;
                             }
-
-                        } else if (from.startsWith("SOUNDCOLLECTION")) {
-                            log.warn("Invalid structLink from: " + from + " to: " + to);
-                            continue;
                         }
-
-                    } else {
-                        if (pagesFirst) {
-                            part.getRe().insertPage(target.getPid());
+                        part.addFiles(fileDescriptor);
+                    }
+                } else if (from.startsWith("SOUNDRECORDING")) {
+                    Collection<FileDescriptor> fileDescriptors = audioFilesMap.get(to);
+                    Foxml track = createTrack(part);
+                    for (FileDescriptor fileDescriptor : fileDescriptors) {
+                        if (KConfiguration.getInstance().getConfiguration().getBoolean("convert.userAudio", true)) {
+                            if (StreamFileType.MASTER_AUDIO.equals(fileDescriptor.getFileType())) {
+                                continue;
+                            }
                         } else {
-                            part.getRe().addRelation(RelsExt.HAS_PAGE, target.getPid(), false);
+                            if (StreamFileType.USER_AUDIO.equals(fileDescriptor.getFileType())) {
+                                continue;
+                            }
                         }
+                        track.addFiles(fileDescriptor);
                     }
+
+                } else if (from.startsWith("SOUNDCOLLECTION")) {
+                    log.warn("Invalid structLink from: " + from + " to: " + to);
+                    return;
+                }
+
+            } else {
+                if (pagesFirst) {
+                    part.getRe().insertPage(target.getPid());
                 } else {
-                    part.getRe().addRelation(RelsExt.IS_ON_PAGE, target.getPid(), false);
-                    if (soundCollectionId != null) {
-                        Foxml soundCollection = objects.get(soundCollectionId);
-                        if (soundCollection != null) {
-                            if (pagesFirst) {
-                                soundCollection.getRe().insertPage(target.getPid());
-                            } else {
-                                soundCollection.getRe().addRelation(RelsExt.HAS_PAGE, target.getPid(), false);
-                            }
-                        }
+                    part.getRe().addRelation(RelsExt.HAS_PAGE, target.getPid(), false);
+                }
+            }
+        } else {
+            part.getRe().addRelation(RelsExt.IS_ON_PAGE, target.getPid(), false);
+            if (soundCollectionId != null) {
+                Foxml soundCollection = objects.get(soundCollectionId);
+                if (soundCollection != null) {
+                    if (pagesFirst) {
+                        soundCollection.getRe().insertPage(target.getPid());
+                    } else {
+                        soundCollection.getRe().addRelation(RelsExt.HAS_PAGE, target.getPid(), false);
                     }
                 }
             }
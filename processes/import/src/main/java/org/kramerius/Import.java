@@ -10,6 +10,7 @@ import com.sun.jersey.api.client.Client;
 import com.sun.jersey.api.client.ClientResponse;
 import com.sun.jersey.api.client.WebResource;
 
+import cz.incad.kramerius.Constants;
 import cz.incad.kramerius.FedoraAccess;
 import cz.incad.kramerius.FedoraNamespaceContext;
 import cz.incad.kramerius.FedoraNamespaces;
@@ -69,9 +70,12 @@ import java.net.Authenticator;
 import java.net.PasswordAuthentication;
 import java.nio.file.Files;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.Lock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.stream.Collectors;
 
 import cz.incad.kramerius.utils.*;
 
@@ -90,18 +94,23 @@ public class Import {
 
 
     static ObjectFactory of;
-    static int counter = 0;
+    static AtomicInteger counter = new AtomicInteger();
     private static final Logger log = Logger.getLogger(Import.class.getName());
 
-    // only syncronization object
-    private static Object marshallingLock = new Object();
-
-    private static Unmarshaller unmarshaller = null;
+    private static JAXBContext jaxbContext = null;
+    // unmarshaller is not thread safe; every worker has its own
+    private static final ThreadLocal<Unmarshaller> unmarshaller = ThreadLocal.withInitial(() -> {
+        try {
+            return jaxbContext.createUnmarshaller();
+        } catch (JAXBException e) {
+            throw new RuntimeException(e);
+        }
+    });
     private static Marshaller datastreamMarshaller = null;
 
     private static List<String> classicRootModels = null; //top-level models, not including convolutes
     private static SortingService sortingService;
-    private static Map<String, List<String>> updateMap = new HashMap<String, List<String>>();
+    private static Map<String, List<String>> updateMap = new ConcurrentHashMap<String, List<String>>();
 
     private static String imgTreePath = "";
     private static String imgTreeUrl = "";
@@ -109,8 +118,7 @@ public class Import {
 
     static {
         try {
-            JAXBContext jaxbContext = JAXBContext.newInstance(DigitalObject.class);
-            unmarshaller = jaxbContext.createUnmarshaller();
+            jaxbContext = JAXBContext.newInstance(DigitalObject.class);
             JAXBContext jaxbdatastreamContext = JAXBContext.newInstance(DatastreamType.class);
             datastreamMarshaller = jaxbdatastreamContext.createMarshaller();
             DocumentBuilderFactory documentBuilderFactory = DocumentBuilderFactory.newInstance();
@@ -239,8 +247,12 @@ public class Import {
             boolean updateExisting = Boolean.valueOf(System.getProperties().containsKey("ingest.updateExisting") ? System.getProperty("ingest.updateExisting") : KConfiguration.getInstance().getConfiguration().getString("ingest.updateExisting", "false"));
             log.info("INGEST updateExisting: " + updateExisting);
 
+            int threads = Integer.parseInt(System.getProperties().containsKey("ingest.threads") ? System.getProperty("ingest.threads") : KConfiguration.getInstance().getConfiguration().getString("ingest.threads", "1"));
+            boolean resume = Boolean.valueOf(System.getProperties().containsKey("ingest.resume") ? System.getProperty("ingest.resume") : KConfiguration.getInstance().getConfiguration().getString("ingest.resume", "false"));
+            log.info("INGEST threads: " + threads + ", resume: " + resume);
 
             long start = System.currentTimeMillis();
+            int counterAtStart = counter.get();
 
             File importFile = new File(importRoot);
             if (!importFile.exists()) {
@@ -250,45 +262,61 @@ public class Import {
 
             initialize(user, pwd);
 
-            Set<TitlePidTuple> classicRoots = new HashSet<TitlePidTuple>();
-            Set<TitlePidTuple> convolutes = new HashSet<TitlePidTuple>();
-            Set<TitlePidTuple> collections = new HashSet<TitlePidTuple>();
-
-            Set<String> sortRelations = new HashSet<String>();
-            if (importFile.isDirectory()) {
-                visitAllDirsAndFiles(fa, importFile, classicRoots, convolutes, collections, sortRelations, updateExisting);
-            } else {
-                BufferedReader reader = null;
-                try {
-                    reader = new BufferedReader(new FileReader(importFile));
-                } catch (FileNotFoundException e) {
-                    log.severe("Import file list " + importFile + " not found: " + e);
-                    throw new RuntimeException(e);
-                }
-                try {
-                    for (String line; (line = reader.readLine()) != null; ) {
-                        if ("".equals(line)) {
-                            continue;
-                        }
-                        File importItem = new File(line);
-                        if (!importItem.exists()) {
-                            log.severe("Import folder doesn't exist: " + importItem.getAbsolutePath());
-                            continue;
-                        }
-                        if (!importItem.isDirectory()) {
-                            log.severe("Import item is not a folder: " + importItem.getAbsolutePath());
-                            continue;
+            // sets are filled concurrently by import workers
+            Set<TitlePidTuple> classicRoots = ConcurrentHashMap.newKeySet();
+            Set<TitlePidTuple> convolutes = ConcurrentHashMap.newKeySet();
+            Set<TitlePidTuple> collections = ConcurrentHashMap.newKeySet();
+
+            Set<String> sortRelations = ConcurrentHashMap.newKeySet();
+            ImportManifest manifest = resume ? ImportManifest.open(importFile, new File(KConfiguration.getInstance().getConfiguration().getString("ingest.resume.directory", Constants.WORKING_DIR + File.separator + "import-manifests"))) : ImportManifest.disabled();
+            // objects merged or replaced before the interruption are not ingested again
+            sortRelations.addAll(manifest.getSortRelations());
+            for (String rootPid : manifest.getRoots()) {
+                classicRoots.add(new TitlePidTuple("", rootPid));
+            }
+            ImportWorkers workers = new ImportWorkers(threads);
+            try {
+                if (importFile.isDirectory()) {
+                    visitAllDirsAndFiles(fa, importFile, classicRoots, convolutes, collections, sortRelations, updateExisting, manifest, workers);
+                } else {
+                    BufferedReader reader = null;
+                    try {
+                        reader = new BufferedReader(new FileReader(importFile));
+                    } catch (FileNotFoundException e) {
+                        log.severe("Import file list " + importFile + " not found: " + e);
+                        throw new RuntimeException(e);
+                    }
+                    try {
+                        for (String line; (line = reader.readLine()) != null; ) {
+                            if ("".equals(line)) {
+                                continue;
+                            }
+                            File importItem = new File(line);
+                            if (!importItem.exists()) {
+                                log.severe("Import folder doesn't exist: " + importItem.getAbsolutePath());
+                                continue;
+                            }
+                            if (!importItem.isDirectory()) {
+                                log.severe("Import item is not a folder: " + importItem.getAbsolutePath());
+                                continue;
+                            }
+                            log.info("Importing " + importItem.getAbsolutePath());
+                            visitAllDirsAndFiles(fa, importItem, classicRoots, convolutes, collections, sortRelations, updateExisting, manifest, workers);
                         }
-                        log.info("Importing " + importItem.getAbsolutePath());
-                        visitAllDirsAndFiles(fa, importItem, classicRoots, convolutes, collections, sortRelations, updateExisting);
+                        reader.close();
+                    } catch (IOException e) {
+                        log.severe("Exception reading import list file: " + e);
+                        throw new RuntimeException(e);
                     }
-                    reader.close();
-                } catch (IOException e) {
-                    log.severe("Exception reading import list file: " + e);
-                    throw new RuntimeException(e);
+                }
+            } finally {
+                try {
+                    workers.await();
+                } finally {
+                    manifest.close();
                 }
             }
-            log.info("FINISHED INGESTION IN " + ((System.currentTimeMillis() - start) / 1000.0) + "s, processed " + counter + " files");
+            logPhase("INGESTION", counter.get() - counterAtStart, start);
 
             String startSortProperty = System.getProperties().containsKey("ingest.sortRelations") ? System.getProperty("ingest.sortRelations") : KConfiguration.getInstance().getConfiguration().getString("ingest.sortRelations", "true");
             if (Boolean.valueOf(startSortProperty)) {
@@ -297,16 +325,23 @@ public class Import {
                 if (sortRelations.isEmpty()) {
                     log.info("NO MERGED OBJECTS FOR RELATIONS SORTING FOUND.");
                 } else {
+                    long sortStart = System.currentTimeMillis();
                     for (String sortPid : sortRelations) {
                         sortingService.sortRelations(sortPid, false);
                     }
                     log.info("ALL MERGED OBJECTS RELATIONS SORTED.");
+                    logPhase("RELATIONS SORTING", sortRelations.size(), sortStart);
                 }
             } else {
                 log.info("RELATIONS SORTING DISABLED.");
             }
 
             if (startIndexer) {
+                // hard commit makes ingested relations visible to the indexer; no need to wait for soft commit
+                if (feeder != null) {
+                    feeder.commit();
+                }
+                long scheduleStart = System.currentTimeMillis();
 
                 List<String> addCollectionList = new ArrayList<>();
                 if (StringUtils.isAnyString(addcollections)) {
@@ -323,11 +358,6 @@ public class Import {
                     log.info("NO COLLECTIONS FOR INDEXING FOUND.");
                 } else {
                     try {
-                        String waitIndexerProperty = System.getProperties().containsKey("ingest.startIndexer.wait") ? System.getProperty("ingest.startIndexer.wait") : KConfiguration.getInstance().getConfiguration().getString("ingest.startIndexer.wait", "1000");
-                        // should wait
-                        log.info("Waiting for soft commit :" + waitIndexerProperty + " s");
-                        Thread.sleep(Integer.parseInt(waitIndexerProperty));
-
                         if (authToken != null) {
                             for (TitlePidTuple col : collections) {
 
@@ -347,11 +377,6 @@ public class Import {
                     log.info("NO CONVOLUTES FOR INDEXING FOUND.");
                 } else {
                     try {
-                        String waitIndexerProperty = System.getProperties().containsKey("ingest.startIndexer.wait") ? System.getProperty("ingest.startIndexer.wait") : KConfiguration.getInstance().getConfiguration().getString("ingest.startIndexer.wait", "1000");
-                        // should wait
-                        log.info("Waiting for soft commit :" + waitIndexerProperty + " s");
-                        Thread.sleep(Integer.parseInt(waitIndexerProperty));
-
                         if (authToken != null) {
                             for (TitlePidTuple convolute : convolutes) {
                                 ProcessScheduler.scheduleIndexation(convolute.pid, convolute.title, false, authToken);
@@ -369,11 +394,6 @@ public class Import {
                     log.info("NO ROOT OBJECTS FOR INDEXING FOUND.");
                 } else {
                     try {
-                        String waitIndexerProperty = System.getProperties().containsKey("ingest.startIndexer.wait") ? System.getProperty("ingest.startIndexer.wait") : KConfiguration.getInstance().getConfiguration().getString("ingest.startIndexer.wait", "1000");
-                        // should wait
-                        log.info("Waiting for soft commit :" + waitIndexerProperty + " s");
-                        Thread.sleep(Integer.parseInt(waitIndexerProperty));
-
                         if (authToken != null) {
                             for (TitlePidTuple root : classicRoots) {
 
@@ -392,10 +412,12 @@ public class Import {
                         log.log(Level.WARNING, e.getMessage(), e);
                     }
                 }
+                logPhase("INDEXER SCHEDULING", collections.size() + convolutes.size() + classicRoots.size(), scheduleStart);
 
             } else {
                 log.info("AUTO INDEXING DISABLED.");
             }
+            manifest.delete();
         } finally {
             if (feeder != null) {
                 feeder.commit();
@@ -404,6 +426,12 @@ public class Import {
 
     }
 
+    private static void logPhase(String phase, int objects, long start) {
+        double seconds = (System.currentTimeMillis() - start) / 1000.0;
+        double rate = seconds > 0 ? objects / seconds : objects;
+        log.info(String.format("FINISHED %s IN %.3fs, processed %d objects (%.2f objects/s)", phase, seconds, objects, rate));
+    }
+
     public static void initialize(final String user, final String pwd) {
         Authenticator.setDefault(new Authenticator() {
             protected PasswordAuthentication getPasswordAuthentication() {
@@ -417,7 +445,8 @@ public class Import {
                                              Set<TitlePidTuple> convolutes,
                                              Set<TitlePidTuple> collections,
 
-                                             Set<String> sortRelations, boolean updateExisting) {
+                                             Set<String> sortRelations, boolean updateExisting,
+                                             ImportManifest manifest, ImportWorkers workers) {
         if (importFile == null) {
             return;
         }
@@ -436,108 +465,122 @@ public class Import {
                 Arrays.sort(children);
             }
             for (int i = 0; i < children.length; i++) {
-                visitAllDirsAndFiles(fa, children[i], classicRoots, convolutes, collections, sortRelations, updateExisting);
+                visitAllDirsAndFiles(fa, children[i], classicRoots, convolutes, collections, sortRelations, updateExisting, manifest, workers);
             }
         } else {
-            DigitalObject dobj = null;
-            try {
-                if (!importFile.getName().toLowerCase().endsWith(".xml")) {
-                    return;
-                }
-                // must be syncrhonized
-                synchronized (marshallingLock) {
-                    Object obj = unmarshaller.unmarshal(importFile);
-                    dobj = (DigitalObject) obj;
-                }
-            } catch (Exception e) {
-                log.warning("Skipping file " + importFile.getName() + " - not an FOXML object. (" + e + ")");
-                log.log(Level.WARNING, "Underlying error was:", e);
+            if (!importFile.getName().toLowerCase().endsWith(".xml")) {
                 return;
             }
-            try {
-                if (updateMap.containsKey(dobj.getPID())) {
-                    log.info("Updating datastreams " + updateMap.get(dobj.getPID()) + " in object " + dobj.getPID());
-                    List<DatastreamType> importedDatastreams = dobj.getDatastream();
-                    List<String> datastreamsToUpdate = updateMap.get(dobj.getPID());
-                    for (String dsName : datastreamsToUpdate) {
-                        for (DatastreamType ds : importedDatastreams) {
-                            if (dsName.equalsIgnoreCase(ds.getID())) {
-                                log.info("Updating datastream " + ds.getID());
-                                DatastreamVersionType dsversion = ds.getDatastreamVersion().get(0);
-                                if (dsversion.getXmlContent() != null) {
-                                    Element element = dsversion.getXmlContent().getAny().get(0);
-                                    if (dsName.equals(FedoraUtils.DC_STREAM)) {
-                                        String rights = DCUtils.rightsFromDC(element);
-                                        if (rights != null) {
-                                            Element elm = findElement(element, "rights", DC_NAMESPACE_URI);
-                                            if (elm == null) {
-                                                elm = element.getOwnerDocument().createElementNS(DC_NAMESPACE_URI, "rights");
-                                                element.appendChild(elm);
-                                            }
-                                            elm.setTextContent(rights);
-                                        }
-                                    }
-
+            workers.submit(() -> importFile(fa, importFile, classicRoots, convolutes, collections, sortRelations, updateExisting, manifest));
+        }
+    }
 
-                                    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-                                    Source xmlSource = new DOMSource(element);
-                                    Result outputTarget = new StreamResult(outputStream);
-                                    try {
-                                        TransformerFactory.newInstance().newTransformer().transform(xmlSource, outputTarget);
-                                    } catch (TransformerException e) {
-                                        throw new RuntimeException(e);
+    private static void importFile(FedoraAccess fa, File importFile, Set<TitlePidTuple> classicRoots,
+                                   Set<TitlePidTuple> convolutes,
+                                   Set<TitlePidTuple> collections,
+                                   Set<String> sortRelations, boolean updateExisting, ImportManifest manifest) {
+        DigitalObject dobj = null;
+        try {
+            dobj = (DigitalObject) unmarshaller.get().unmarshal(importFile);
+        } catch (Exception e) {
+            log.warning("Skipping file " + importFile.getName() + " - not an FOXML object. (" + e + ")");
+            log.log(Level.WARNING, "Underlying error was:", e);
+            return;
+        }
+        try {
+            if (updateMap.containsKey(dobj.getPID())) {
+                log.info("Updating datastreams " + updateMap.get(dobj.getPID()) + " in object " + dobj.getPID());
+                List<DatastreamType> importedDatastreams = dobj.getDatastream();
+                List<String> datastreamsToUpdate = updateMap.get(dobj.getPID());
+                for (String dsName : datastreamsToUpdate) {
+                    for (DatastreamType ds : importedDatastreams) {
+                        if (dsName.equalsIgnoreCase(ds.getID())) {
+                            log.info("Updating datastream " + ds.getID());
+                            DatastreamVersionType dsversion = ds.getDatastreamVersion().get(0);
+                            if (dsversion.getXmlContent() != null) {
+                                Element element = dsversion.getXmlContent().getAny().get(0);
+                                if (dsName.equals(FedoraUtils.DC_STREAM)) {
+                                    String rights = DCUtils.rightsFromDC(element);
+                                    if (rights != null) {
+                                        Element elm = findElement(element, "rights", DC_NAMESPACE_URI);
+                                        if (elm == null) {
+                                            elm = element.getOwnerDocument().createElementNS(DC_NAMESPACE_URI, "rights");
+                                            element.appendChild(elm);
+                                        }
+                                        elm.setTextContent(rights);
                                     }
+                                }
 
-                                    final DigitalObject transactionDigitalObject = dobj;
 
+                                ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+                                Source xmlSource = new DOMSource(element);
+                                Result outputTarget = new StreamResult(outputStream);
+                                try {
+                                    TransformerFactory.newInstance().newTransformer().transform(xmlSource, outputTarget);
+                                } catch (TransformerException e) {
+                                    throw new RuntimeException(e);
+                                }
 
-                                    String mimeType = "text/xml";
-                                    Lock writeLock = AkubraDOManager.getWriteLock(transactionDigitalObject.getPID());
-                                    try {
-                                        if (fa.getInternalAPI().getObject(transactionDigitalObject.getPID()).streamExists(ds.getID())) {
-                                            mimeType = fa.getInternalAPI().getObject(transactionDigitalObject.getPID()).getStream(ds.getID()).getMimeType();
-                                            fa.getInternalAPI().getObject(transactionDigitalObject.getPID()).deleteStream(ds.getID());
-                                        }
-                                        fa.getInternalAPI().getObject(transactionDigitalObject.getPID()).createStream(ds.getID(), mimeType, new ByteArrayInputStream(outputStream.toByteArray()));
-                                    } finally {
-                                        writeLock.unlock();
-                                    }
+                                final DigitalObject transactionDigitalObject = dobj;
 
-                                } else if (dsversion.getBinaryContent() != null) {
-                                    throw new RuntimeException("Update of managed binary datastream content is not supported.");
-                                } else if (dsversion.getContentLocation() != null) {
 
-                                    final DigitalObject transactionDigitalObject = dobj;
-                                    Lock writeLock = AkubraDOManager.getWriteLock(transactionDigitalObject.getPID());
-                                    try {
-                                        String mimeType = fa.getInternalAPI().getObject(transactionDigitalObject.getPID()).getStream(ds.getID()).getMimeType();
+                                String mimeType = "text/xml";
+                                Lock writeLock = AkubraDOManager.getWriteLock(transactionDigitalObject.getPID());
+                                try {
+                                    if (fa.getInternalAPI().getObject(transactionDigitalObject.getPID()).streamExists(ds.getID())) {
+                                        mimeType = fa.getInternalAPI().getObject(transactionDigitalObject.getPID()).getStream(ds.getID()).getMimeType();
                                         fa.getInternalAPI().getObject(transactionDigitalObject.getPID()).deleteStream(ds.getID());
-                                        fa.getInternalAPI().getObject(transactionDigitalObject.getPID()).createRedirectedStream(ds.getID(), dsversion.getContentLocation().getREF(), mimeType);
-                                    } finally {
-                                        writeLock.unlock();
                                     }
+                                    fa.getInternalAPI().getObject(transactionDigitalObject.getPID()).createStream(ds.getID(), mimeType, new ByteArrayInputStream(outputStream.toByteArray()));
+                                } finally {
+                                    writeLock.unlock();
+                                }
 
+                            } else if (dsversion.getBinaryContent() != null) {
+                                throw new RuntimeException("Update of managed binary datastream content is not supported.");
+                            } else if (dsversion.getContentLocation() != null) {
+
+                                final DigitalObject transactionDigitalObject = dobj;
+                                Lock writeLock = AkubraDOManager.getWriteLock(transactionDigitalObject.getPID());
+                                try {
+                                    String mimeType = fa.getInternalAPI().getObject(transactionDigitalObject.getPID()).getStream(ds.getID()).getMimeType();
+                                    fa.getInternalAPI().getObject(transactionDigitalObject.getPID()).deleteStream(ds.getID());
+                                    fa.getInternalAPI().getObject(transactionDigitalObject.getPID()).createRedirectedStream(ds.getID(), dsversion.getContentLocation().getREF(), mimeType);
+                                } finally {
+                                    writeLock.unlock();
                                 }
+
                             }
                         }
                     }
+                }
+                if (classicRoots != null) {
+                    TitlePidTuple npt = new TitlePidTuple("", dobj.getPID());
+                    classicRoots.add(npt);
+                    log.info("Added updated object for indexing:" + dobj.getPID());
+                    //NOTE: inefficient for updated convolutes, everyting new/changed inside it will be indexed twice
+                }
+            } else {
+                final DigitalObject transactionDigitalObject = dobj;
+
+                if (manifest.isCompleted(dobj.getPID())) {
+                    log.info("Skipping already ingested object " + dobj.getPID());
+                } else {
+                    Set<String> objectSortRelations = new HashSet<>();
+                    Set<TitlePidTuple> objectRoots = new HashSet<>();
+                    ingest(fa.getInternalAPI(), importFile, objectSortRelations, classicRoots != null ? objectRoots : null, updateExisting);
+                    sortRelations.addAll(objectSortRelations);
                     if (classicRoots != null) {
-                        TitlePidTuple npt = new TitlePidTuple("", dobj.getPID());
-                        classicRoots.add(npt);
-                        log.info("Added updated object for indexing:" + dobj.getPID());
-                        //NOTE: inefficient for updated convolutes, everyting new/changed inside it will be indexed twice
+                        classicRoots.addAll(objectRoots);
                     }
-                } else {
-                    final DigitalObject transactionDigitalObject = dobj;
-
-                    ingest(fa.getInternalAPI(), importFile, sortRelations, classicRoots, updateExisting);
-                    checkModelIsClassicRoot(transactionDigitalObject, classicRoots);
-                    checkModelIsConvoluteOrCollection(transactionDigitalObject, convolutes, collections, classicRoots);
+                    manifest.markCompleted(dobj.getPID(), objectSortRelations, objectRoots.stream().map(tuple -> tuple.pid).collect(Collectors.toList()));
                 }
-            } catch (Throwable t) {
-                log.severe("Error when ingesting PID: " + dobj.getPID() + ", " + t.getMessage());
-                throw new RuntimeException(t);
+                checkModelIsClassicRoot(transactionDigitalObject, classicRoots);
+                checkModelIsConvoluteOrCollection(transactionDigitalObject, convolutes, collections, classicRoots);
             }
+        } catch (Throwable t) {
+            log.severe("Error when ingesting PID: " + dobj.getPID() + ", " + t.getMessage());
+            throw new RuntimeException(t);
         }
     }
 
@@ -580,9 +623,7 @@ public class Import {
         byte[] bytes = bos.toByteArray();
         DigitalObject obj = null;
         try {
-            synchronized (marshallingLock) {
-                obj = (DigitalObject) unmarshaller.unmarshal(new ByteArrayInputStream(bytes));
-            }
+            obj = (DigitalObject) unmarshaller.get().unmarshal(new ByteArrayInputStream(bytes));
         } catch (Exception e) {
             log.info("Skipping file " + filename + " - not an FOXML object.");
             log.log(Level.INFO, "Underlying error was:", e);
@@ -642,8 +683,8 @@ public class Import {
             writeLock.unlock();
         }
 
-        counter++;
-        log.info("Ingested:" + pid + " in " + (System.currentTimeMillis() - start) + "ms, count:" + counter);
+        int count = counter.incrementAndGet();
+        log.info("Ingested:" + pid + " in " + (System.currentTimeMillis() - start) + "ms, count:" + count);
     }
 
     public static void ingest(Repository repo, File file, Set<String> sortRelations, Set<TitlePidTuple> roots, boolean updateExisting) {
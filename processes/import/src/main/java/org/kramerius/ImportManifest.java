@@ -0,0 +1,196 @@
+package org.kramerius;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.commons.codec.digest.DigestUtils;
+
+/**
+ * Manifest of objects which have been already ingested from one import directory.
+ * <p>
+ * Every successfully ingested pid is appended to the manifest file so an interrupted import
+ * can be started again and skip everything that is already in the repository. Together with the pid, the manifest
+ * remembers merged and replaced objects which have to be indexed and objects whose relations have to be sorted,
+ * because a resumed import does not ingest them again and would not find them otherwise.
+ * <p>
+ * Manifests are stored in a separate directory (not in the import tree), one file per import root.
+ * The manifest is deleted when the whole import finishes.
+ */
+public class ImportManifest implements Closeable {
+
+    public static final Logger LOGGER = Logger.getLogger(ImportManifest.class.getName());
+
+    public static final String MANIFEST_SUFFIX = ".import-manifest";
+
+    private static final String COMPLETED = "C";
+    private static final String SORT_RELATIONS = "S";
+    private static final String ROOT = "R";
+
+    private final File file;
+    private final Set<String> completed = ConcurrentHashMap.newKeySet();
+    private final Set<String> sortRelations = ConcurrentHashMap.newKeySet();
+    private final Set<String> roots = ConcurrentHashMap.newKeySet();
+    private BufferedWriter writer;
+
+    private ImportManifest(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Opens (or creates) manifest for given import root; import root could be directory or import list file
+     * @param importRoot Import directory or list of import directories
+     * @param manifestDirectory Directory of manifests
+     * @return manifest
+     * @throws IOException Cannot read or create manifest file
+     */
+    public static ImportManifest open(File importRoot, File manifestDirectory) throws IOException {
+        if (!manifestDirectory.exists() && !manifestDirectory.mkdirs()) {
+            throw new IOException("Cannot create directory for import manifests " + manifestDirectory.getAbsolutePath());
+        }
+        ImportManifest manifest = new ImportManifest(manifestFile(importRoot, manifestDirectory));
+        manifest.read();
+        manifest.writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(manifest.file, true), StandardCharsets.UTF_8));
+        return manifest;
+    }
+
+    /**
+     * Returns manifest file of given import root; the name contains hash of the absolute path so different imports
+     * with the same directory name do not share manifest
+     */
+    static File manifestFile(File importRoot, File manifestDirectory) {
+        String path = importRoot.getAbsoluteFile().toPath().normalize().toString();
+        String name = importRoot.getName().replaceAll("[^A-Za-z0-9._-]", "_");
+        return new File(manifestDirectory, name + "-" + DigestUtils.md5Hex(path) + MANIFEST_SUFFIX);
+    }
+
+    private void read() throws IOException {
+        if (!this.file.exists()) {
+            return;
+        }
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(this.file), StandardCharsets.UTF_8))) {
+            for (String line; (line = reader.readLine()) != null; ) {
+                String[] parts = line.trim().split("\\s+", 2);
+                if (parts.length < 2) {
+                    // incomplete last line of an interrupted import
+                    continue;
+                }
+                switch (parts[0]) {
+                    case COMPLETED:
+                        this.completed.add(parts[1]);
+                        break;
+                    case SORT_RELATIONS:
+                        this.sortRelations.add(parts[1]);
+                        break;
+                    case ROOT:
+                        this.roots.add(parts[1]);
+                        break;
+                    default:
+                        LOGGER.warning(String.format("Unknown line in import manifest %s: %s", this.file.getAbsolutePath(), line));
+                }
+            }
+        }
+        LOGGER.info(String.format("Resuming import, manifest %s contains %d already ingested objects, %d objects for indexing and %d objects for sorting relations",
+                this.file.getAbsolutePath(), this.completed.size(), this.roots.size(), this.sortRelations.size()));
+    }
+
+    /**
+     * Returns manifest which does not remember anything; used when resuming is disabled
+     */
+    public static ImportManifest disabled() {
+        return new ImportManifest(null);
+    }
+
+    public boolean isCompleted(String pid) {
+        return this.completed.contains(pid);
+    }
+
+    /**
+     * Marks object as ingested
+     * @param pid Ingested object
+     * @param sortRelations Objects whose relations have to be sorted because of the ingest
+     * @param roots Objects which have to be indexed because of the ingest
+     */
+    public synchronized void markCompleted(String pid, Collection<String> sortRelations, Collection<String> roots) {
+        if (!this.completed.add(pid)) {
+            return;
+        }
+        this.sortRelations.addAll(sortRelations);
+        this.roots.addAll(roots);
+        if (this.writer != null) {
+            try {
+                // state first; the object is ingested again if the import is interrupted before the pid is written
+                for (String sortPid : sortRelations) {
+                    writeLine(SORT_RELATIONS, sortPid);
+                }
+                for (String rootPid : roots) {
+                    writeLine(ROOT, rootPid);
+                }
+                writeLine(COMPLETED, pid);
+                this.writer.flush();
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, String.format("Cannot write pid %s to import manifest: %s", pid, e.getMessage()), e);
+            }
+        }
+    }
+
+    private void writeLine(String type, String pid) throws IOException {
+        this.writer.write(type);
+        this.writer.write(' ');
+        this.writer.write(pid);
+        this.writer.newLine();
+    }
+
+    public int getCompletedCount() {
+        return this.completed.size();
+    }
+
+    /**
+     * Returns objects whose relations have to be sorted, collected by this and previous (interrupted) runs
+     */
+    public Set<String> getSortRelations() {
+        return Collections.unmodifiableSet(this.sortRelations);
+    }
+
+    /**
+     * Returns merged and replaced objects which have to be indexed, collected by this and previous (interrupted) runs
+     */
+    public Set<String> getRoots() {
+        return Collections.unmodifiableSet(this.roots);
+    }
+
+    /**
+     * Closes and removes manifest file; called after the import has been finished
+     */
+    public void delete() {
+        close();
+        if (this.file != null && this.file.exists() && !this.file.delete()) {
+            LOGGER.warning(String.format("Cannot delete import manifest %s", this.file.getAbsolutePath()));
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (this.writer != null) {
+            try {
+                this.writer.close();
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, e.getMessage(), e);
+            }
+            this.writer = null;
+        }
+    }
+}
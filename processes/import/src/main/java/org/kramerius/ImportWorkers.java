@@ -0,0 +1,85 @@
+package org.kramerius;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Bounded pool of parse/ingest workers used by {@link Import}.
+ * <p>
+ * Tasks are queued into bounded queue; when the queue is full, directory walker runs the task itself,
+ * which throttles the walk to the speed of the storage. With one thread, every task runs directly in the caller thread.
+ * The first failure stops accepting new tasks and is rethrown from {@link #await()}.
+ */
+public class ImportWorkers {
+
+    public static final Logger LOGGER = Logger.getLogger(ImportWorkers.class.getName());
+
+    private final ThreadPoolExecutor executor;
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+    public ImportWorkers(int threads) {
+        if (threads > 1) {
+            this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<>(threads * 4), new ThreadPoolExecutor.CallerRunsPolicy());
+        } else {
+            this.executor = null;
+        }
+    }
+
+    public void submit(Runnable task) {
+        rethrowFailure();
+        if (this.executor != null) {
+            this.executor.execute(() -> run(task));
+        } else {
+            task.run();
+        }
+    }
+
+    private void run(Runnable task) {
+        if (this.failure.get() != null) {
+            return;
+        }
+        try {
+            task.run();
+        } catch (Throwable e) {
+            // errors (e.g. OutOfMemoryError) must stop the import as well, they would be lost in the pool thread
+            if (!this.failure.compareAndSet(null, e)) {
+                LOGGER.log(Level.SEVERE, e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * Waits for all submitted tasks and rethrows the first failure
+     */
+    public void await() {
+        if (this.executor != null) {
+            this.executor.shutdown();
+            try {
+                while (!this.executor.awaitTermination(1, TimeUnit.MINUTES)) {
+                    LOGGER.info(String.format("Waiting for import workers, %d tasks still in queue", this.executor.getQueue().size()));
+                }
+            } catch (InterruptedException e) {
+                this.executor.shutdownNow();
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            }
+        }
+        rethrowFailure();
+    }
+
+    private void rethrowFailure() {
+        Throwable e = this.failure.get();
+        if (e instanceof RuntimeException) {
+            throw (RuntimeException) e;
+        } else if (e instanceof Error) {
+            throw (Error) e;
+        } else if (e != null) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package org.kramerius;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ImportManifestTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testResume() throws IOException {
+        File importRoot = folder.newFolder("import");
+        File manifests = new File(folder.getRoot(), "manifests");
+
+        ImportManifest manifest = ImportManifest.open(importRoot, manifests);
+        manifest.markCompleted("uuid:page", Collections.emptyList(), Collections.emptyList());
+        manifest.markCompleted("uuid:merged", Arrays.asList("uuid:merged"), Arrays.asList("uuid:merged"));
+        manifest.markCompleted("uuid:replaced", Collections.emptyList(), Arrays.asList("uuid:replaced"));
+        // interrupted import
+        manifest.close();
+
+        Assert.assertEquals(0, importRoot.list().length);
+        Assert.assertTrue(ImportManifest.manifestFile(importRoot, manifests).exists());
+
+        ImportManifest resumed = ImportManifest.open(importRoot, manifests);
+        Assert.assertEquals(3, resumed.getCompletedCount());
+        Assert.assertTrue(resumed.isCompleted("uuid:page"));
+        Assert.assertTrue(resumed.isCompleted("uuid:replaced"));
+        Assert.assertFalse(resumed.isCompleted("uuid:new"));
+        Assert.assertEquals(Collections.singleton("uuid:merged"), resumed.getSortRelations());
+        Assert.assertEquals(2, resumed.getRoots().size());
+        Assert.assertTrue(resumed.getRoots().containsAll(Arrays.asList("uuid:merged", "uuid:replaced")));
+
+        resumed.delete();
+        Assert.assertFalse(ImportManifest.manifestFile(importRoot, manifests).exists());
+        Assert.assertEquals(0, ImportManifest.open(importRoot, manifests).getCompletedCount());
+    }
+
+    @Test
+    public void testDifferentRootsWithSameName() throws IOException {
+        File manifests = folder.newFolder("manifests");
+        File first = new File(folder.newFolder("a"), "import");
+        File second = new File(folder.newFolder("b"), "import");
+        Assert.assertNotEquals(ImportManifest.manifestFile(first, manifests), ImportManifest.manifestFile(second, manifests));
+    }
+
+    @Test
+    public void testDisabled() {
+        ImportManifest manifest = ImportManifest.disabled();
+        manifest.markCompleted("uuid:page", Collections.emptyList(), Arrays.asList("uuid:page"));
+        Assert.assertTrue(manifest.isCompleted("uuid:page"));
+        manifest.delete();
+    }
+}
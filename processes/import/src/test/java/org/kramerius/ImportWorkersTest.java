@@ -0,0 +1,29 @@
+package org.kramerius;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ImportWorkersTest {
+
+    @Test
+    public void testAllTasksRun() {
+        AtomicInteger counter = new AtomicInteger();
+        ImportWorkers workers = new ImportWorkers(4);
+        for (int i = 0; i < 100; i++) {
+            workers.submit(counter::incrementAndGet);
+        }
+        workers.await();
+        Assert.assertEquals(100, counter.get());
+    }
+
+    @Test(expected = StackOverflowError.class)
+    public void testErrorInWorker() {
+        ImportWorkers workers = new ImportWorkers(2);
+        workers.submit(() -> {
+            throw new StackOverflowError();
+        });
+        workers.await();
+    }
+}
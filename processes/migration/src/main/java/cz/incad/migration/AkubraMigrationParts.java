@@ -7,18 +7,16 @@ import com.google.inject.name.Names;
 import com.qbizm.kramerius.imp.jaxb.DigitalObject;
 import cz.incad.kramerius.FedoraAccess;
 import cz.incad.kramerius.fedora.RepoModule;
-import cz.incad.kramerius.resourceindex.ProcessingIndexFeeder;
+import cz.incad.kramerius.resourceindex.BatchedProcessingIndexFeeder;
 import cz.incad.kramerius.resourceindex.ResourceIndexModule;
 import cz.incad.kramerius.solr.SolrModule;
 import cz.incad.kramerius.statistics.NullStatisticsModule;
 import cz.incad.kramerius.utils.RESTHelper;
 import cz.incad.kramerius.utils.XMLUtils;
 import cz.incad.kramerius.utils.conf.KConfiguration;
-import org.akubraproject.map.IdMapper;
 import org.antlr.stringtemplate.StringTemplate;
 import org.apache.commons.io.FileUtils;
-import org.apache.solr.client.solrj.SolrServerException;
-import org.fcrepo.server.storage.lowlevel.akubra.HashPathIdMapper;
+import org.apache.solr.client.solrj.SolrClient;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
@@ -30,20 +28,12 @@ import javax.xml.bind.Unmarshaller;
 import java.io.*;
 import java.net.URLEncoder;
 import java.nio.charset.Charset;
-import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
 import java.sql.SQLException;
 import java.util.Arrays;
 import java.util.List;
-import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
-import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import static cz.incad.kramerius.resourceindex.ProcessingIndexRebuild.rebuildProcessingIndex;
-import static cz.incad.migration.LegacyMigrationParts.LOG_MESSAGE_ITERATION;
 import static cz.incad.migration.Utils.BUILDER;
 import static cz.incad.migration.Utils.MD5;
 import static cz.incad.kramerius.utils.XMLUtils.*;
@@ -66,10 +56,15 @@ public enum AkubraMigrationParts {
                 String datastreamPattern = KConfiguration.getInstance().getProperty("datastreamStore.pattern");
 
                 Injector injector = Guice.createInjector(new SolrModule(), new ResourceIndexModule(), new RepoModule(), new NullStatisticsModule());
-                final ProcessingIndexFeeder feeder = injector.getInstance(ProcessingIndexFeeder.class);
                 final boolean rebuildProcessingIndex = "true".equalsIgnoreCase(args[1]);
-                processRoot( feeder,  datastreamSource,  datastreamPaths,  datastreamPattern,  false);
-                processRoot( feeder,  objectSource,  objectPaths,  objectPattern,  rebuildProcessingIndex);
+                BatchedProcessingIndexFeeder feeder = null;
+                if (rebuildProcessingIndex) {
+                    SolrClient solrClient = injector.getInstance(Key.get(SolrClient.class, Names.named("processingUpdate")));
+                    int batchSize = KConfiguration.getInstance().getConfiguration().getInt("akubra.migration.feeder.batch", 1000);
+                    feeder = new BatchedProcessingIndexFeeder(solrClient, batchSize);
+                }
+                new AkubraStoreMigration("datastreams", datastreamSource, datastreamPaths, datastreamPattern, null).migrate();
+                new AkubraStoreMigration("objects", objectSource, objectPaths, objectPattern, feeder).migrate();
 
             }catch(Exception ex) {
                 throw  new RuntimeException(ex);
@@ -81,60 +76,6 @@ public enum AkubraMigrationParts {
 
     };
 
-    private static void processRoot(ProcessingIndexFeeder feeder, String datastreamSource, String datastreamPaths, String datastreamPattern, boolean rebuildProcessingIndex) throws IOException, SolrServerException {
-        try {
-
-            if (rebuildProcessingIndex) {
-                feeder.deleteProcessingIndex();
-            }
-            Path objectStoreRoot = Paths.get(datastreamSource);
-            IdMapper idMapper = new HashPathIdMapper(datastreamPattern);
-            final AtomicInteger currentIteration = new AtomicInteger(0);
-            Files.walk(objectStoreRoot).parallel().filter(Files::isRegularFile).forEach(path -> {
-                try {
-                    if ((currentIteration.incrementAndGet() % LOG_MESSAGE_ITERATION) == 0) {
-                        LOGGER.info("Migrated " + currentIteration + " items.");
-                    }
-                    String filename = "";try {
-                        filename = java.net.URLDecoder.decode(path.getFileName().toString(), StandardCharsets.UTF_8.name());
-                        filename = filename.replace("info:fedora/", "");
-                        filename = filename.replace("/", "+");
-                    } catch (UnsupportedEncodingException e) {
-                        // not going to happen - value came from JDK's own StandardCharsets
-                    }
-                    String internalId = idMapper.getInternalId(LegacyMigrationParts.getBlobId(filename)).toString();
-                    String subdirPath = internalId.substring(internalId.indexOf(":") + 1, internalId.lastIndexOf("/"));
-                    String targetFileName = internalId.substring(internalId.lastIndexOf("/") + 1);
-                    File directory = new File(datastreamPaths, subdirPath);
-                    directory.mkdirs();
-
-                    File targetFile = new File(directory, targetFileName);
-                    boolean renamed = path.toFile().renameTo(targetFile);
-                    if (!renamed) {
-                        throw new RuntimeException("Cannot rename file " + path + " to " + targetFile.getAbsolutePath());
-                    }
-
-                    if (rebuildProcessingIndex) {
-                        FileInputStream inputStream = new FileInputStream(targetFile);
-                        DigitalObject digitalObject = LegacyMigrationParts.createDigitalObject(inputStream);
-                        rebuildProcessingIndex(feeder, digitalObject, false);
-                    }
-                } catch (Exception ex) {
-                    LOGGER.log(Level.SEVERE, "Error processing file: ", ex);
-                }
-            });
-
-        } catch (Exception ex) {
-            LOGGER.log(Level.SEVERE, "Error processing file: ", ex);
-        } finally {
-            if (feeder != null) {
-                feeder.commit();
-                LOGGER.info("Feeder commited.");
-            }
-        }
-    }
-
-
     abstract  void doMigrationPart(String[] args) throws SQLException, IOException, SAXException;
 
 
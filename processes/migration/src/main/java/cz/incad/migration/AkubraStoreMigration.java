@@ -0,0 +1,265 @@
+package cz.incad.migration;
+
+import com.qbizm.kramerius.imp.jaxb.DigitalObject;
+import cz.incad.kramerius.Constants;
+import cz.incad.kramerius.resourceindex.BatchedProcessingIndexFeeder;
+import cz.incad.kramerius.utils.conf.KConfiguration;
+import org.akubraproject.map.IdMapper;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.fcrepo.server.storage.lowlevel.akubra.HashPathIdMapper;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static cz.incad.kramerius.resourceindex.ProcessingIndexRebuild.rebuildProcessingIndex;
+import static cz.incad.migration.LegacyMigrationParts.LOG_MESSAGE_ITERATION;
+
+/**
+ * Restructures one store (objects or datastreams) into the Akubra layout.
+ * <p>
+ * Source directories are walked by one thread and their blobs are moved by a fixed pool of
+ * <code>akubra.migration.threads</code> workers (<code>akubra.migration.[name].threads</code> for the store), which should
+ * match what the device of the store can handle; the walk waits when the workers are busy. Progress is kept in
+ * {@link MigrationCheckpoint}, so a restarted migration skips finished directories. When the processing index is rebuilt,
+ * documents are sent in batches of <code>akubra.migration.feeder.batch</code>.
+ */
+public class AkubraStoreMigration {
+
+    static Logger LOGGER = Logger.getLogger(AkubraStoreMigration.class.getName());
+
+    private final String name;
+    private final Path sourceRoot;
+    private final String targetPath;
+    private final IdMapper idMapper;
+    private final BatchedProcessingIndexFeeder feeder;
+    private final int threads;
+
+    private final AtomicLong migrated = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private long total = -1;
+    private long start;
+
+    /**
+     * @param name Name of the store; used for configuration and checkpoint
+     * @param feeder Feeder of the processing index or null if the index is not rebuilt
+     */
+    public AkubraStoreMigration(String name, String source, String targetPath, String pattern, BatchedProcessingIndexFeeder feeder) {
+        this.name = name;
+        this.sourceRoot = Paths.get(source);
+        this.targetPath = targetPath;
+        this.idMapper = new HashPathIdMapper(pattern);
+        this.feeder = feeder;
+        int defaultThreads = KConfiguration.getInstance().getConfiguration().getInt("akubra.migration.threads", 4);
+        this.threads = KConfiguration.getInstance().getConfiguration().getInt("akubra.migration." + name + ".threads", defaultThreads);
+    }
+
+    private static File checkpointFile(String name) {
+        String dir = KConfiguration.getInstance().getConfiguration().getString("akubra.migration.checkpoint",
+                Constants.WORKING_DIR + File.separator + "migration");
+        return new File(dir, "akubra-" + name + ".checkpoint");
+    }
+
+    public void migrate() throws IOException, SolrServerException, InterruptedException {
+        MigrationCheckpoint checkpoint = new MigrationCheckpoint(checkpointFile(name));
+        if (feeder != null) {
+            if (checkpoint.isResumed()) {
+                reindexUnfinished(checkpoint);
+            } else {
+                feeder.deleteProcessingIndex();
+            }
+        }
+        if (KConfiguration.getInstance().getConfiguration().getBoolean("akubra.migration.count", true)) {
+            total = count(checkpoint);
+            LOGGER.info(String.format("Store %s: %d items to migrate", name, total));
+        }
+
+        start = System.currentTimeMillis();
+        AtomicInteger threadCounter = new AtomicInteger();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(threads * 4), r -> {
+            return new Thread(r, "akubra-migration-" + name + "-" + threadCounter.incrementAndGet());
+        }, new ThreadPoolExecutor.CallerRunsPolicy());
+        try {
+            Files.walkFileTree(sourceRoot, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                    String directory = relative(dir);
+                    if (!checkpoint.isDone(directory)) {
+                        executor.execute(() -> processDirectory(dir, directory, checkpoint));
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                    LOGGER.log(Level.SEVERE, "Error processing file: " + file, exc);
+                    failed.incrementAndGet();
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } finally {
+            executor.shutdown();
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            if (feeder != null) {
+                feeder.commit();
+                LOGGER.info("Feeder commited.");
+            }
+        }
+
+        long seconds = Math.max(1, (System.currentTimeMillis() - start) / 1000);
+        LOGGER.info(String.format("Store %s: migrated %d items, skipped %d, failed %d in %s (%d items/s)", name, migrated.get(),
+                skipped.get(), failed.get(), duration(seconds), migrated.get() / seconds));
+        if (failed.get() == 0) {
+            checkpoint.delete();
+        } else {
+            checkpoint.close();
+            LOGGER.warning(String.format("Store %s was not migrated completely; run the migration again to continue", name));
+        }
+    }
+
+    private String relative(Path dir) {
+        return sourceRoot.relativize(dir).toString();
+    }
+
+    /**
+     * Number of blobs in directories not finished yet
+     */
+    private long count(MigrationCheckpoint checkpoint) throws IOException {
+        AtomicLong counter = new AtomicLong();
+        Files.walkFileTree(sourceRoot, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (attrs.isRegularFile() && !checkpoint.isDone(relative(file.getParent()))) {
+                    counter.incrementAndGet();
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return counter.get();
+    }
+
+    private void reindexUnfinished(MigrationCheckpoint checkpoint) {
+        for (String target : checkpoint.getUnfinishedTargets()) {
+            File targetFile = new File(target);
+            if (targetFile.exists()) {
+                try {
+                    feed(targetFile);
+                } catch (Exception ex) {
+                    LOGGER.log(Level.SEVERE, "Error processing file: " + targetFile, ex);
+                }
+            }
+        }
+    }
+
+    private void processDirectory(Path dir, String directory, MigrationCheckpoint checkpoint) {
+        boolean complete = true;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+            for (Path path : stream) {
+                if (Files.isRegularFile(path)) {
+                    complete &= processBlob(path, directory, checkpoint);
+                }
+            }
+        } catch (IOException | DirectoryIteratorException ex) {
+            LOGGER.log(Level.SEVERE, "Error processing directory: " + dir, ex);
+            failed.incrementAndGet();
+            complete = false;
+        }
+        if (complete) {
+            if (feeder != null) {
+                feeder.afterFlush(() -> checkpoint.done(directory));
+            } else {
+                checkpoint.done(directory);
+            }
+        }
+    }
+
+    private boolean processBlob(Path path, String directory, MigrationCheckpoint checkpoint) {
+        try {
+            String filename = "";try {
+                filename = java.net.URLDecoder.decode(path.getFileName().toString(), StandardCharsets.UTF_8.name());
+                filename = filename.replace("info:fedora/", "");
+                filename = filename.replace("/", "+");
+            } catch (UnsupportedEncodingException e) {
+                // not going to happen - value came from JDK's own StandardCharsets
+            }
+            String internalId = idMapper.getInternalId(LegacyMigrationParts.getBlobId(filename)).toString();
+            String subdirPath = internalId.substring(internalId.indexOf(":") + 1, internalId.lastIndexOf("/"));
+            String targetFileName = internalId.substring(internalId.lastIndexOf("/") + 1);
+            File targetDirectory = new File(targetPath, subdirPath);
+            File targetFile = new File(targetDirectory, targetFileName);
+            if (path.toAbsolutePath().equals(targetFile.toPath().toAbsolutePath())) {
+                // store restructured in place; blob is already in its place
+                skipped.incrementAndGet();
+                if (feeder != null) {
+                    feed(targetFile);
+                }
+                return true;
+            }
+
+            checkpoint.moving(directory, targetFile.getAbsolutePath());
+            targetDirectory.mkdirs();
+            boolean renamed = path.toFile().renameTo(targetFile);
+            if (!renamed) {
+                throw new RuntimeException("Cannot rename file " + path + " to " + targetFile.getAbsolutePath());
+            }
+            if (feeder != null) {
+                feed(targetFile);
+            }
+            progress(migrated.incrementAndGet());
+            return true;
+        } catch (Exception ex) {
+            LOGGER.log(Level.SEVERE, "Error processing file: ", ex);
+            failed.incrementAndGet();
+            return false;
+        }
+    }
+
+    private void feed(File targetFile) throws Exception {
+        try (InputStream inputStream = new FileInputStream(targetFile)) {
+            DigitalObject digitalObject = LegacyMigrationParts.createDigitalObject(inputStream);
+            rebuildProcessingIndex(feeder, digitalObject, false);
+        }
+    }
+
+    private void progress(long current) {
+        if ((current % LOG_MESSAGE_ITERATION) == 0) {
+            long seconds = Math.max(1, (System.currentTimeMillis() - start) / 1000);
+            double rate = (double) current / seconds;
+            if (total > 0) {
+                long remaining = Math.max(0, total - current - skipped.get());
+                LOGGER.info(String.format("Migrated %d of %d items (%.1f items/s, ETA %s)", current, total, rate, duration((long) (remaining / rate))));
+            } else {
+                LOGGER.info(String.format("Migrated %d items (%.1f items/s)", current, rate));
+            }
+        }
+    }
+
+    private static String duration(long seconds) {
+        return String.format("%d:%02d:%02d", seconds / 3600, (seconds % 3600) / 60, seconds % 60);
+    }
+}
@@ -0,0 +1,118 @@
+package cz.incad.migration;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Journal of the Akubra store restructuring; allows an interrupted migration to continue.
+ * <p>
+ * Every blob is recorded (<code>M directory target</code>) before it is moved, every source directory is recorded
+ * (<code>D directory</code>) once all its blobs are moved and their processing index documents are sent. Finished
+ * directories are skipped after restart; blobs moved from unfinished directories are fed into processing index again.
+ */
+public class MigrationCheckpoint {
+
+    static Logger LOGGER = Logger.getLogger(MigrationCheckpoint.class.getName());
+
+    private static final String MOVED = "M";
+    private static final String DONE = "D";
+
+    private final File file;
+    private final boolean existed;
+    private final Set<String> doneDirectories = new HashSet<>();
+    private final List<String> unfinishedTargets = new ArrayList<>();
+
+    private final Writer writer;
+
+    public MigrationCheckpoint(File file) throws IOException {
+        this.file = file;
+        this.existed = file.exists();
+        if (existed) {
+            read();
+        } else if (file.getParentFile() != null) {
+            file.getParentFile().mkdirs();
+        }
+        this.writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    private void read() throws IOException {
+        // targets are kept only until their directory is finished
+        Map<String, List<String>> moved = new LinkedHashMap<>();
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split("\t");
+                if (parts.length == 3 && parts[0].equals(MOVED)) {
+                    moved.computeIfAbsent(parts[1], k -> new ArrayList<>()).add(parts[2]);
+                } else if (parts.length == 2 && parts[0].equals(DONE)) {
+                    doneDirectories.add(parts[1]);
+                    moved.remove(parts[1]);
+                } else if (!line.isEmpty()) {
+                    // last line of killed process may be incomplete
+                    LOGGER.warning(String.format("Ignoring checkpoint line '%s'", line));
+                }
+            }
+        }
+        moved.values().forEach(unfinishedTargets::addAll);
+        LOGGER.info(String.format("Continuing migration from checkpoint %s: %d finished directories, %d blobs of unfinished directories",
+                file.getAbsolutePath(), doneDirectories.size(), unfinishedTargets.size()));
+    }
+
+    /**
+     * Returns true if the migration continues from an existing checkpoint
+     */
+    public boolean isResumed() {
+        return existed;
+    }
+
+    public boolean isDone(String directory) {
+        return doneDirectories.contains(directory);
+    }
+
+    /**
+     * Targets of blobs moved from directories which were not finished
+     */
+    public List<String> getUnfinishedTargets() {
+        return unfinishedTargets;
+    }
+
+    public synchronized void moving(String directory, String target) throws IOException {
+        writer.write(MOVED + "\t" + directory + "\t" + target + "\n");
+        writer.flush();
+    }
+
+    public synchronized void done(String directory) {
+        try {
+            writer.write(DONE + "\t" + directory + "\n");
+            writer.flush();
+        } catch (IOException e) {
+            // directory is migrated again after restart
+            LOGGER.log(Level.WARNING, "Cannot write checkpoint: " + e.getMessage(), e);
+        }
+    }
+
+    public synchronized void close() throws IOException {
+        writer.close();
+    }
+
+    /**
+     * Removes the checkpoint of a finished migration
+     */
+    public synchronized void delete() throws IOException {
+        close();
+        Files.deleteIfExists(file.toPath());
+    }
+}
@@ -8,6 +8,7 @@ import cz.incad.kramerius.FedoraAccess;
 import cz.incad.kramerius.ObjectPidsPath;
 import cz.incad.kramerius.SolrAccess;
 import cz.incad.kramerius.security.*;
+import cz.incad.kramerius.security.impl.criteria.utils.PublicationDates;
 import cz.incad.kramerius.security.licenses.lock.ExclusiveLockMaps;
 
 /**
@@ -107,4 +108,9 @@ public class ProcessCriteriumContext implements RightCriteriumContext {
     public ExclusiveLockMaps getExclusiveLockMaps() {
         throw new UnsupportedOperationException("unsupported for this context");
     }
+
+    @Override
+    public PublicationDates getPublicationDates() {
+        return null;
+    }
 }
@@ -2,13 +2,24 @@ package cz.inovatika.sdnnt;
 
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
 
 import org.apache.commons.lang3.tuple.Pair;
 
+import cz.incad.kramerius.utils.conf.KConfiguration;
+
 public abstract class LicenseAPIFetcher {
+
+    public static final Logger LOGGER = Logger.getLogger(LicenseAPIFetcher.class.getName());
     
     public static final String FETCHER_LICENSES_KEY = "licenses";
     public static final String FETCHER_DATE_KEY = "date";
@@ -42,7 +53,62 @@ public abstract class LicenseAPIFetcher {
         return privateFilter;
     }
     
-    public abstract  Map<String, Map<String, Object>> check(Set<String> pids) throws IOException;
+    /**
+     * Checks given pids against the Kramerius instance. Pids are split into batches of <code>BATCH_SIZE</code>;
+     * batches are requested in parallel by <code>sdnnt.check.threads</code> threads
+     */
+    public Map<String, Map<String, Object>> check(Set<String> pids) throws IOException {
+        List<String> processingPids = new ArrayList<>(pids);
+        List<List<String>> batches = new ArrayList<>();
+        for (int start = 0; start < processingPids.size(); start += BATCH_SIZE) {
+            batches.add(processingPids.subList(start, Math.min(start + BATCH_SIZE, processingPids.size())));
+        }
+        int threads = Math.min(batches.size(), KConfiguration.getInstance().getConfiguration().getInt("sdnnt.check.threads", 4));
+        LOGGER.info(String.format("Number of iterations: %d, threads: %d", batches.size(), threads));
+
+        Map<String, Map<String, Object>> result = new HashMap<>();
+        long checkStart = System.currentTimeMillis();
+        if (threads <= 1) {
+            for (int i = 0; i < batches.size(); i++) {
+                result.putAll(checkBatch(batches.get(i)));
+                logProgress(i, checkStart);
+            }
+            return result;
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Map<String, Map<String, Object>>>> futures = new ArrayList<>();
+            for (List<String> batch : batches) {
+                futures.add(executor.submit(() -> checkBatch(batch)));
+            }
+            for (int i = 0; i < futures.size(); i++) {
+                result.putAll(futures.get(i).get());
+                logProgress(i, checkStart);
+            }
+            return result;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Checks one batch of pids (at most <code>BATCH_SIZE</code>)
+     */
+    protected abstract Map<String, Map<String, Object>> checkBatch(List<String> batchPids) throws IOException;
+
+    private static void logProgress(int iteration, long checkStart) {
+        if (iteration % 15 == 0) {
+            LOGGER.info(String.format("Current iteration is: %d, time: %d ", iteration, (System.currentTimeMillis() - checkStart)));
+        }
+    }
 
     public static enum Versions {
         
@@ -15,10 +15,18 @@ import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
 import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -35,11 +43,14 @@ import org.apache.solr.client.solrj.SolrQuery;
 import org.apache.solr.client.solrj.SolrServerException;
 import org.apache.solr.client.solrj.impl.HttpSolrClient;
 import org.apache.solr.client.solrj.request.UpdateRequest;
+import org.apache.solr.client.solrj.response.QueryResponse;
 import org.apache.solr.client.solrj.response.UpdateResponse;
+import org.apache.solr.client.solrj.util.ClientUtils;
 import org.apache.solr.common.SolrDocument;
 import org.apache.solr.common.SolrDocumentList;
 import org.apache.solr.common.SolrInputDocument;
 import org.apache.solr.common.SolrInputField;
+import org.apache.solr.common.params.CursorMarkParams;
 import org.json.JSONArray;
 import org.json.JSONObject;
 
@@ -80,6 +91,12 @@ public class SDNNTFetch {
 
     public static final Logger LOGGER = Logger.getLogger(SDNNTFetch.class.getName());
 
+    /** Number of main records compared with Kramerius in one batch */
+    private static final int DIFF_BATCH_SIZE = 1000;
+
+    /** Fields of the sync collection needed to calculate differences */
+    private static final String[] RECORD_FIELDS = { "id", "pid", "type", "state", "license", "has_granularity", "parent_id" };
+
     public static void main(String[] args) throws IOException, InterruptedException, SolrServerException {
         System.setProperty("solr.cloud.client.stallTime", "119999");
 
@@ -105,28 +122,19 @@ public class SDNNTFetch {
 
 
     public static void process(HttpSolrClient client, SyncConfig config) throws IOException, InterruptedException, SolrServerException {
-            long start = System.currentTimeMillis();
-            
-            //Map<String,String> pids2idents = new HashMap<>();
-            Map<String,List<String>> pids2idents = new HashMap<>();
-            
+            SyncCheckpoint checkpoint = SyncCheckpoint.open(config.getAcronym(), System.currentTimeMillis());
+            long start = checkpoint.getStart();
+            long fetchStart = System.currentTimeMillis();
             
             LOGGER.info("Connecting sdnnt list and iterating serials ");
-            iterateSDNNTFormat(client, config, config.getSdnntEndpoint(),  "SE", start, pids2idents);
+            iterateSDNNTFormat(client, config, config.getSdnntEndpoint(),  "SE", checkpoint);
             LOGGER.info("Connecting sdnnt list and iterating books ");
-            iterateSDNNTFormat(client, config, config.getSdnntEndpoint(),  "BK", start, pids2idents);
+            iterateSDNNTFormat(client, config, config.getSdnntEndpoint(),  "BK", checkpoint);
 
-            Map<String, String> idents2pid = new HashMap<>();
-            pids2idents.keySet().stream().forEach(pid-> {
-                List<String> idents = pids2idents.get(pid);
-                idents.forEach(ident-> {  idents2pid.put(ident, pid); });
-            });
-            
             long stop = System.currentTimeMillis();
-            LOGGER.info("SDNNT List fetched; It took " + (stop - start) + " ms");
+            LOGGER.info("SDNNT List fetched; It took " + (stop - fetchStart) + " ms");
             
-            OffsetDateTime offsetDateTime = OffsetDateTime.ofInstant(new Date(start).toInstant(), ZoneId.systemDefault());
-            String format = DateTimeFormatter.ISO_INSTANT.format(offsetDateTime);
+            String format = isoFormat(start);
             // one minute before process start
             client.deleteByQuery(config.getSyncCollection(), String.format("fetched:[* TO %s-1MINUTE] AND type:(main OR granularity)", format));
             
@@ -134,237 +142,229 @@ public class SDNNTFetch {
 
             if (config.getBaseUrl() != null) {
                 LicenseAPIFetcher apiFetcher = LicenseAPIFetcher.Versions.valueOf(config.getVersion()).build(config.getBaseUrl(), config.getVersion(), true);
+                updateDifferences(client, config, apiFetcher, checkpoint);
+                // one commit for all batches
+                if (config.getSyncCollection() != null) client.commit(config.getSyncCollection());
+            }
+            checkpoint.delete();
+    }
 
-                long kstart = System.currentTimeMillis();
-                Map<String, Map<String, Object>> fetchedObject = apiFetcher.check(pids2idents.keySet());
-                LOGGER.info("Kramerius documents fetched; It took " + (System.currentTimeMillis() - kstart) + " ms");
-                List<String> fetchedPids = new ArrayList<>(fetchedObject.keySet());
-                
-                int setsize = fetchedObject.size();
-                int batchsize = 5000;
-                int numberofiteration = setsize / batchsize;
-
-                List<String> allChangedIds = new ArrayList<>(100000);
-                Map<String, SolrInputDocument> allChanges = new HashMap<>(100000);
-
-                if (setsize % batchsize != 0) numberofiteration = numberofiteration + 1;
-                LOGGER.info(String.format("Updating data;  Number of iteration %d", numberofiteration));
-                long ustart = System.currentTimeMillis();
-                for (int i = 0; i < numberofiteration; i++) {
-                  
-                  List<String> batchChangedIds = new ArrayList<>();
-                    
-                  int from = i*batchsize;
-                  int to = Math.min((i+1)*batchsize, setsize);
-                  List<String> subList = fetchedPids.subList(from, to);
-
-                  for (int j = 0; j < subList.size(); j++) {
-                      
-                      String pid = subList.get(j);
-                      List<String> idents = pids2idents.get(pid);
-                      if (idents != null) {
-                          for (String ident : idents) {
-                              SolrInputDocument idoc =  null;
-                              if (allChanges.containsKey(ident)) {
-                                  idoc = allChanges.get(ident.toString());
-                              } else {
-                                  idoc = new SolrInputDocument();
-                                  idoc.setField("id", ident);
-                              }
-                              
-                              
-                              List<String> pidLicenses = (List<String>) fetchedObject.get(pid).get(LicenseAPIFetcher.FETCHER_LICENSES_KEY);
-                              if (pidLicenses != null && !pidLicenses.isEmpty()) {
-                                  for (String lic : pidLicenses) {
-                                      atomicAddDistinct(idoc, lic, "real_kram_licenses");
-                                  }
-                              }
-                              
-                              // titles
-                              List<String> titles = (List<String>) fetchedObject.get(pid).get(LicenseAPIFetcher.FETCHER_TITLES_KEY);
-                              if (titles != null && !titles.isEmpty()) {
-                                  for (String lic : titles) {
-                                      atomicAddDistinct(idoc, lic, "real_kram_titles_search");
-                                  }
-                              }
-
-                              atomicOneValSet(idoc, true, "real_kram_exists");
-                              
-                              String date = (String) fetchedObject.get(pid).get(LicenseAPIFetcher.FETCHER_DATE_KEY);
-                              if (date != null) {
-                                  atomicOneValSet(idoc, date, "real_kram_date");
-                              }
-                              
-                              String model = (String) fetchedObject.get(pid).get(LicenseAPIFetcher.FETCHER_MODEL_KEY);
-                              if (model != null) {
-                                  atomicOneValSet(idoc, model, "real_kram_model");
-                              }
-
-                              if (!allChangedIds.contains(ident.toString())) {
-                                  allChangedIds.add(ident);
-                                  batchChangedIds.add(ident);
-                                  allChanges.put(ident, idoc);
-                              }
-                          }
-                          
-                      }
-                      
-                  }
-
-                  LOGGER.info("Batch number "+i+"; Data updated;  It took " + (System.currentTimeMillis() - ustart) + " ms");
-                  LOGGER.info("Batch number "+i+"; Calculating differences");
-                  List<String> identifiers = subList.stream().map(pids2idents::get).flatMap(Collection::stream).collect(Collectors.toList());
-
-                  String collection = config.getSyncCollection();
-                  SolrDocumentList list = getById(client, identifiers, collection);
-                  for (SolrDocument rDoc : list) {
-                    Object ident = rDoc.getFieldValue("id");
-                    SolrInputDocument in = allChanges.get(ident.toString());
-
-                    Collection<Object> fieldValues = in.getFieldValues("real_kram_licenses");
-                    
-                    List<String> realKramLicenses = distinctValues(fieldValues);
-                    
-                    Collection<Object> syncMasterActions = in.getFieldValues("sync_actions");
-                    List<String> masterActions = distinctValues(syncMasterActions);
-
-                    Object type = rDoc.getFieldValue("type");
-
-                    boolean hasGranularity = rDoc.getFieldValue("has_granularity") != null ? (boolean) rDoc.getFieldValue("has_granularity") : false;
-                    boolean granularityItem = type != null ? type.toString().equals("granularity") : false;
-                    boolean dirty = false;
-
-                    Object rDocState = rDoc.getFieldValue("state");
-                    if (rDocState!= null &&  rDocState.toString().equals("A")) {
-                        // polozka granularity nebo samostatny titul
-                        if (granularityItem || !hasGranularity) {
-                            Object expectedLicense = rDoc.getFieldValue("license");
-                            if (expectedLicense != null) {
-                                if (expectedLicense.toString().equals("dnntt") && !realKramLicenses.contains("dnntt")) {
-                                    // ocekavana licence dnntt; kram licence dnnto -> zmena dnnto->dnntt
-                                    if (realKramLicenses.contains("dnnto")) {
-                                        atomicAddDistinct(in, SyncActionEnum.change_dnnto_dnntt.name(), "sync_actions");
-                                        atomicOneValSet(in, SyncActionEnum.change_dnnto_dnntt.getValue(), "sync_sort");
-                                        dirty = true;
-                                    } else {
-                                        atomicAddDistinct(in, SyncActionEnum.add_dnntt.name(), "sync_actions");
-                                        atomicOneValSet(in, SyncActionEnum.add_dnntt.getValue(), "sync_sort");
-                                        dirty = true;
-                                    }
-                                }
-
-                                if (expectedLicense.toString().equals("dnnto") && !realKramLicenses.contains("dnnto")) {
-                                    // ocekavana licence dnnto; kram licence dnntt -> zmena dnntt->dnnto
-                                    if (realKramLicenses.contains("dnntt")) {
-                                        atomicAddDistinct(in, SyncActionEnum.change_dnntt_dnnto.name() /*"change_dnnto_dnntt"*/, "sync_actions");
-                                        atomicOneValSet(in, SyncActionEnum.change_dnntt_dnnto.getValue() /*"change_dnnto_dnntt"*/, "sync_sort");
-                                        dirty = true;
-                                    } else {
-                                        atomicAddDistinct(in, SyncActionEnum.add_dnnto.name() /*"add_dnnto"*/, "sync_actions");
-                                        atomicOneValSet(in, SyncActionEnum.add_dnnto.getValue() /*"add_dnnto"*/, "sync_sort");
-                                        dirty = true;
-                                    }
-                                }
+    /**
+     * Compares records of this synchronization with the Kramerius instance and writes the differences batch by batch.
+     * <p>
+     * A batch holds <code>DIFF_BATCH_SIZE</code> main records (cursor over ids) together with their granularity items, so
+     * that a changed granularity item always finds its parent in the same batch. The next batch is read and checked against
+     * Kramerius while the current one is compared and written; only these two batches are held in memory. The cursor of
+     * every written batch is recorded in the checkpoint and an interrupted synchronization continues with the next batch.
+     */
+    private static void updateDifferences(HttpSolrClient client, SyncConfig config, LicenseAPIFetcher apiFetcher, SyncCheckpoint checkpoint) throws IOException, InterruptedException, SolrServerException {
+        String collection = config.getSyncCollection();
+        ExecutorService prefetch = Executors.newSingleThreadExecutor();
+        ExecutorService lookups = Executors.newFixedThreadPool(Math.max(1, config.getLookupThreads()));
+        long ustart = System.currentTimeMillis();
+        int batchNumber = 0;
+        try {
+            Future<SyncBatch> next = prefetch.submit(readBatch(client, collection, apiFetcher, lookups, checkpoint.getStart(), checkpoint.getDiffCursor()));
+            while (next != null) {
+                SyncBatch batch = waitFor(next);
+                next = batch.nextCursorMark != null ? prefetch.submit(readBatch(client, collection, apiFetcher, lookups, checkpoint.getStart(), batch.nextCursorMark)) : null;
+
+                Map<String, SolrInputDocument> changes = changes(batch.records, batch.checked);
+                if (!changes.isEmpty()) {
+                    UpdateRequest req = new UpdateRequest();
+                    req.add(changes.values());
+                    LOGGER.fine(String.format("Update batch with size %s",  req.getDocuments().size()));
+                    try {
+                        UpdateResponse response = req.process(client, collection);
+                        LOGGER.fine("qtime:"+response.getQTime());
+                    } catch (SolrServerException  | IOException e) {
+                        LOGGER.log(Level.SEVERE,e.getMessage());
+                    }
+                }
+                if (batch.nextCursorMark != null) {
+                    checkpoint.diffWritten(batch.nextCursorMark);
+                }
+                LOGGER.info(String.format("Batch number %d; %d records, %d changes; It took %d ms", batchNumber++, batch.records.size(), changes.size(), (System.currentTimeMillis() - ustart)));
+            }
+        } finally {
+            prefetch.shutdownNow();
+            lookups.shutdownNow();
+        }
+    }
+
+    /**
+     * Reads one batch of main records starting at given cursor, their granularity items, and checks pids of the records
+     */
+    private static Callable<SyncBatch> readBatch(HttpSolrClient client, String collection, LicenseAPIFetcher apiFetcher, ExecutorService lookups, long start, String cursorMark) {
+        return () -> {
+            SolrQuery query = new SolrQuery(String.format("fetched:[%s TO *] AND type:main", isoFormat(start)));
+            query.setFields(RECORD_FIELDS);
+            query.setRows(DIFF_BATCH_SIZE);
+            query.setSort(SolrQuery.SortClause.asc("id"));
+            query.set(CursorMarkParams.CURSOR_MARK_PARAM, cursorMark);
+            QueryResponse response = client.query(collection, query);
+
+            List<SolrDocument> records = new ArrayList<>(response.getResults());
+            List<String> parents = records.stream()
+                    .filter(doc -> Boolean.TRUE.equals(doc.getFieldValue("has_granularity")))
+                    .map(doc -> doc.getFieldValue("id").toString())
+                    .collect(Collectors.toList());
+            records.addAll(collect(granularityAsync(lookups, client, collection, start, parents)));
+
+            Set<String> pids = records.stream()
+                    .map(doc -> doc.getFirstValue("pid"))
+                    .filter(Objects::nonNull)
+                    .map(Object::toString)
+                    .collect(Collectors.toCollection(LinkedHashSet::new));
+            long kstart = System.currentTimeMillis();
+            Map<String, Map<String, Object>> checked = pids.isEmpty() ? new HashMap<>() : apiFetcher.check(pids);
+            LOGGER.info("Kramerius documents fetched; It took " + (System.currentTimeMillis() - kstart) + " ms");
+
+            String nextCursorMark = response.getNextCursorMark();
+            boolean hasNext = response.getResults().size() == DIFF_BATCH_SIZE && !cursorMark.equals(nextCursorMark);
+            return new SyncBatch(records, checked, hasNext ? nextCursorMark : null);
+        };
+    }
+
+    /**
+     * Calculates changes of the records of one batch; <code>checked</code> is the result of
+     * {@link LicenseAPIFetcher#check(Set)} for pids of the records. Records whose pid was not found in Kramerius are not
+     * changed, except for parents of changed granularity items.
+     */
+    static Map<String, SolrInputDocument> changes(List<SolrDocument> records, Map<String, Map<String, Object>> checked) {
+        Map<String, SolrInputDocument> changes = new LinkedHashMap<>();
+        for (SolrDocument rDoc : records) {
+            Object pid = rDoc.getFirstValue("pid");
+            Map<String, Object> kramObject = pid != null ? checked.get(pid.toString()) : null;
+            if (kramObject != null) {
+                String ident = rDoc.getFieldValue("id").toString();
+                SolrInputDocument idoc = new SolrInputDocument();
+                idoc.setField("id", ident);
+
+                List<String> pidLicenses = (List<String>) kramObject.get(LicenseAPIFetcher.FETCHER_LICENSES_KEY);
+                if (pidLicenses != null && !pidLicenses.isEmpty()) {
+                    for (String lic : pidLicenses) {
+                        atomicAddDistinct(idoc, lic, "real_kram_licenses");
+                    }
+                }
+
+                // titles
+                List<String> titles = (List<String>) kramObject.get(LicenseAPIFetcher.FETCHER_TITLES_KEY);
+                if (titles != null && !titles.isEmpty()) {
+                    for (String lic : titles) {
+                        atomicAddDistinct(idoc, lic, "real_kram_titles_search");
+                    }
+                }
+
+                atomicOneValSet(idoc, true, "real_kram_exists");
+
+                String date = (String) kramObject.get(LicenseAPIFetcher.FETCHER_DATE_KEY);
+                if (date != null) {
+                    atomicOneValSet(idoc, date, "real_kram_date");
+                }
+
+                String model = (String) kramObject.get(LicenseAPIFetcher.FETCHER_MODEL_KEY);
+                if (model != null) {
+                    atomicOneValSet(idoc, model, "real_kram_model");
+                }
+                changes.put(ident, idoc);
+            }
+        }
+
+        for (SolrDocument rDoc : records) {
+            SolrInputDocument in = changes.get(rDoc.getFieldValue("id").toString());
+            if (in == null) {
+                continue;
+            }
+
+            Collection<Object> fieldValues = in.getFieldValues("real_kram_licenses");
+            List<String> realKramLicenses = distinctValues(fieldValues);
+
+            Object type = rDoc.getFieldValue("type");
+
+            boolean hasGranularity = rDoc.getFieldValue("has_granularity") != null ? (boolean) rDoc.getFieldValue("has_granularity") : false;
+            boolean granularityItem = type != null ? type.toString().equals("granularity") : false;
+            boolean dirty = false;
+
+            Object rDocState = rDoc.getFieldValue("state");
+            if (rDocState!= null &&  rDocState.toString().equals("A")) {
+                // polozka granularity nebo samostatny titul
+                if (granularityItem || !hasGranularity) {
+                    Object expectedLicense = rDoc.getFieldValue("license");
+                    if (expectedLicense != null) {
+                        if (expectedLicense.toString().equals("dnntt") && !realKramLicenses.contains("dnntt")) {
+                            // ocekavana licence dnntt; kram licence dnnto -> zmena dnnto->dnntt
+                            if (realKramLicenses.contains("dnnto")) {
+                                atomicAddDistinct(in, SyncActionEnum.change_dnnto_dnntt.name(), "sync_actions");
+                                atomicOneValSet(in, SyncActionEnum.change_dnnto_dnntt.getValue(), "sync_sort");
+                                dirty = true;
+                            } else {
+                                atomicAddDistinct(in, SyncActionEnum.add_dnntt.name(), "sync_actions");
+                                atomicOneValSet(in, SyncActionEnum.add_dnntt.getValue(), "sync_sort");
+                                dirty = true;
                             }
                         }
-                    } else {
-                        if (granularityItem || !hasGranularity) {
-                            
+
+                        if (expectedLicense.toString().equals("dnnto") && !realKramLicenses.contains("dnnto")) {
+                            // ocekavana licence dnnto; kram licence dnntt -> zmena dnntt->dnnto
                             if (realKramLicenses.contains("dnntt")) {
-                                atomicAddDistinct(in, SyncActionEnum.remove_dnntt.name() /*"remove_dnntt"*/, "sync_actions");
-                                atomicOneValSet(in, SyncActionEnum.remove_dnntt.getValue() /*"remove_dnntt"*/, "sync_sort");
+                                atomicAddDistinct(in, SyncActionEnum.change_dnntt_dnnto.name() /*"change_dnnto_dnntt"*/, "sync_actions");
+                                atomicOneValSet(in, SyncActionEnum.change_dnntt_dnnto.getValue() /*"change_dnnto_dnntt"*/, "sync_sort");
                                 dirty = true;
-                            }
-                            if (realKramLicenses.contains("dnnto")) {
-                                atomicAddDistinct(in, SyncActionEnum.remove_dnnto.name() /*"remove_dnnto"*/, "sync_actions");
-                                if (!realKramLicenses.contains("dnntt")) {
-                                    atomicOneValSet(in, SyncActionEnum.remove_dnnto.getValue() /*"remove_dnnto"*/, "sync_sort");
-                                }
+                            } else {
+                                atomicAddDistinct(in, SyncActionEnum.add_dnnto.name() /*"add_dnnto"*/, "sync_actions");
+                                atomicOneValSet(in, SyncActionEnum.add_dnnto.getValue() /*"add_dnnto"*/, "sync_sort");
                                 dirty = true;
                             }
                         }
                     }
-                    
-                    // ja vim ze mam polozku granulairity ... tak menim parenta 
-                    if (dirty && granularityItem) {
-                        Object field = rDoc.getFieldValue("parent_id"); 
-                        if (field!= null) {
-                            if (allChangedIds.contains(field.toString())) {
-                                SolrInputDocument masterIn = allChanges.get(field.toString());
-
-                                Collection<Object> masterInSyncActions = masterIn.getFieldValues("sync_actions");
-                                List<String> actions = distinctValues(masterInSyncActions);
-
-                                if (!actions.contains(SyncActionEnum.partial_change.name())) {
-                                    atomicAddDistinct(masterIn, SyncActionEnum.partial_change.name(), "sync_actions");
-                                    atomicOneValSet(masterIn,  SyncActionEnum.partial_change.getValue() /* "partial_change"*/, "sync_sort");
-                                }
-                                //if (fieldValue.con)
-                            } else {
-                                
-                                String masterId = field.toString();
-                                String pid = idents2pid.get(masterId);
-                                        
-                                SolrInputDocument masterIn = new SolrInputDocument();
-                                masterIn.setField("id", masterId);
-                                atomicAddDistinct(masterIn, SyncActionEnum.partial_change.name(), "sync_actions");
-                                atomicOneValSet(masterIn,  SyncActionEnum.partial_change.getValue() /* "partial_change"*/, "sync_sort");
-
-                                if (fetchedObject.keySet().contains(pid)) {
-                                    atomicOneValSet(masterIn,  true, "real_kram_exists");
-                                    
-                                    List<String> pidLicenses = (List<String>) fetchedObject.get(pid).get(LicenseAPIFetcher.FETCHER_LICENSES_KEY);
-                                    if (pidLicenses != null && !pidLicenses.isEmpty()) {
-                                        for (String lic : pidLicenses) {
-                                            atomicAddDistinct(masterIn, lic, "real_kram_licenses");
-                                        }
-                                    }
-                                    
-                                    // titles
-                                    List<String> titles = (List<String>) fetchedObject.get(pid).get(LicenseAPIFetcher.FETCHER_TITLES_KEY);
-                                    if (titles != null && !titles.isEmpty()) {
-                                        for (String lic : titles) {
-                                            atomicAddDistinct(masterIn, lic, "real_kram_titles_search");
-                                        }
-                                    }
-
-                                    String date = (String) fetchedObject.get(pid).get(LicenseAPIFetcher.FETCHER_DATE_KEY);
-                                    if (date != null) {
-                                        atomicOneValSet(masterIn, date, "real_kram_date");
-                                    }
-                                    
-                                    String model = (String) fetchedObject.get(pid).get(LicenseAPIFetcher.FETCHER_MODEL_KEY);
-                                    if (model != null) {
-                                        atomicOneValSet(masterIn, model, "real_kram_model");
-                                    }
-                                }
-
-                                allChangedIds.add(field.toString());
-                                batchChangedIds.add(field.toString());
-                                allChanges.put(field.toString(), masterIn);
-                            }
+                }
+            } else {
+                if (granularityItem || !hasGranularity) {
+
+                    if (realKramLicenses.contains("dnntt")) {
+                        atomicAddDistinct(in, SyncActionEnum.remove_dnntt.name() /*"remove_dnntt"*/, "sync_actions");
+                        atomicOneValSet(in, SyncActionEnum.remove_dnntt.getValue() /*"remove_dnntt"*/, "sync_sort");
+                        dirty = true;
+                    }
+                    if (realKramLicenses.contains("dnnto")) {
+                        atomicAddDistinct(in, SyncActionEnum.remove_dnnto.name() /*"remove_dnnto"*/, "sync_actions");
+                        if (!realKramLicenses.contains("dnntt")) {
+                            atomicOneValSet(in, SyncActionEnum.remove_dnnto.getValue() /*"remove_dnnto"*/, "sync_sort");
                         }
+                        dirty = true;
                     }
-                  }
-                  
-                  
-                  if (!allChangedIds.isEmpty()) {
-                      UpdateRequest req = new UpdateRequest();
-                      batchChangedIds.forEach(ident-> {
-                          req.add(allChanges.get(ident));
-                      });
-                      LOGGER.fine(String.format("Update batch with size %s",  req.getDocuments().size()));
-                      try {
-                          UpdateResponse response = req.process(client, config.getSyncCollection());
-                          LOGGER.fine("qtime:"+response.getQTime());
-                          if (config.getSyncCollection() != null) client.commit(config.getSyncCollection());
-                      } catch (SolrServerException  | IOException e) {
-                          LOGGER.log(Level.SEVERE,e.getMessage());
-                      }
-                  }
-              }
-              
+                }
+            }
+
+            // ja vim ze mam polozku granulairity ... tak menim parenta 
+            if (dirty && granularityItem) {
+                Object field = rDoc.getFieldValue("parent_id");
+                if (field!= null) {
+                    // parent is in the same batch; if its pid was not found in Kramerius, only the action is written
+                    SolrInputDocument masterIn = changes.get(field.toString());
+                    if (masterIn == null) {
+                        masterIn = new SolrInputDocument();
+                        masterIn.setField("id", field.toString());
+                        changes.put(field.toString(), masterIn);
+                    }
+
+                    Collection<Object> masterInSyncActions = masterIn.getFieldValues("sync_actions");
+                    List<String> actions = distinctValues(masterInSyncActions);
+
+                    if (!actions.contains(SyncActionEnum.partial_change.name())) {
+                        atomicAddDistinct(masterIn, SyncActionEnum.partial_change.name(), "sync_actions");
+                        atomicOneValSet(masterIn,  SyncActionEnum.partial_change.getValue() /* "partial_change"*/, "sync_sort");
+                    }
+                }
             }
+        }
+        return changes;
+    }
+
+    private static String isoFormat(long time) {
+        OffsetDateTime offsetDateTime = OffsetDateTime.ofInstant(new Date(time).toInstant(), ZoneId.systemDefault());
+        return DateTimeFormatter.ISO_INSTANT.format(offsetDateTime);
     }
 
 
@@ -390,21 +390,78 @@ public class SDNNTFetch {
 
 
 
-    private static SolrDocumentList getById(HttpSolrClient client, List<String> pids, String collection)
-            throws SolrServerException, IOException {
-        SolrDocumentList list = new SolrDocumentList();
+    /**
+     * Reads granularity items of given main records of this synchronization in parallel
+     */
+    private static List<Future<SolrDocumentList>> granularityAsync(ExecutorService executor, HttpSolrClient client, String collection, long start, List<String> parentIds) {
+        List<Future<SolrDocumentList>> futures = new ArrayList<>();
         int getBatch = 100;
-        int numberOfBatch = pids.size() / getBatch;
-        numberOfBatch = numberOfBatch + (pids.size() % getBatch == 0 ? 0 : 1);
-        for (int i = 0; i < numberOfBatch; i++) {
-            int from = i*getBatch;
-            int to = Math.min((i+1)*getBatch, pids.size());
-            List<String> subPids = pids.subList(from, to);
-            list.addAll(client.getById(collection, subPids));
+        for (int from = 0; from < parentIds.size(); from += getBatch) {
+            List<String> subIds = parentIds.subList(from, Math.min(from + getBatch, parentIds.size()));
+            SolrQuery query = new SolrQuery(String.format("fetched:[%s TO *] AND type:granularity", isoFormat(start)));
+            query.addFilterQuery(subIds.stream().map(ClientUtils::escapeQueryChars).collect(Collectors.joining(" OR ", "parent_id:(", ")")));
+            query.setFields(RECORD_FIELDS);
+            futures.add(executor.submit(() -> queryAll(client, collection, query)));
+        }
+        return futures;
+    }
+
+    private static SolrDocumentList queryAll(HttpSolrClient client, String collection, SolrQuery query) throws SolrServerException, IOException {
+        SolrDocumentList list = new SolrDocumentList();
+        query.setRows(DIFF_BATCH_SIZE);
+        query.setSort(SolrQuery.SortClause.asc("id"));
+        String cursorMark = CursorMarkParams.CURSOR_MARK_START;
+        while (true) {
+            query.set(CursorMarkParams.CURSOR_MARK_PARAM, cursorMark);
+            QueryResponse response = client.query(collection, query);
+            list.addAll(response.getResults());
+            String nextCursorMark = response.getNextCursorMark();
+            if (cursorMark.equals(nextCursorMark)) {
+                break;
+            }
+            cursorMark = nextCursorMark;
         }
         return list;
     }
 
+    private static SolrDocumentList collect(List<Future<SolrDocumentList>> futures) throws SolrServerException, IOException, InterruptedException {
+        SolrDocumentList list = new SolrDocumentList();
+        for (Future<SolrDocumentList> future : futures) {
+            list.addAll(waitFor(future));
+        }
+        return list;
+    }
+
+    private static <T> T waitFor(Future<T> future) throws SolrServerException, IOException, InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof SolrServerException) throw (SolrServerException) cause;
+            if (cause instanceof IOException) throw (IOException) cause;
+            if (cause instanceof InterruptedException) throw (InterruptedException) cause;
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * Records of one batch of differences and results of their check in Kramerius
+     */
+    private static class SyncBatch {
+
+        private final List<SolrDocument> records;
+        private final Map<String, Map<String, Object>> checked;
+        /** Cursor of the next batch, null for the last one */
+        private final String nextCursorMark;
+
+        private SyncBatch(List<SolrDocument> records, Map<String, Map<String, Object>> checked, String nextCursorMark) {
+            this.records = records;
+            this.checked = checked;
+            this.nextCursorMark = nextCursorMark;
+        }
+    }
+
     public static void atomicOneValSet(SolrInputDocument idoc, Object fValue, String fName) {
         Object fieldValue = idoc.getFieldValue(fName);
         if (fieldValue == null) {
@@ -495,157 +552,156 @@ public class SDNNTFetch {
             SyncConfig config, 
             String sdnntChangesEndpoint, 
             String format, 
-            long startProcess,
-            Map<String,List<String>> pids2oais) throws IOException, InterruptedException, SolrServerException {
-        List<SolrInputDocument> docs = new ArrayList<>();
-        Map<String, AtomicInteger> counters = new HashMap<>();
+            SyncCheckpoint checkpoint) throws IOException, InterruptedException, SolrServerException {
+        if (checkpoint.isDone(format)) {
+            LOGGER.info(String.format("Format %s has been already fetched", format));
+            return;
+        }
+        Map<String, AtomicInteger> counters = checkpoint.counters(format);
+        long startProcess = checkpoint.getStart();
         
         int sum = 0;
-        String token = "*";
-        String prevToken = "";
+        String token = checkpoint.getToken(format);
         Client c = Client.create();
         LOGGER.info(String.format("SDNNT changes endpoint is %s", sdnntChangesEndpoint));
         String sdnntApiEndpoint = sdnntChangesEndpoint + "?format=" + format + "&rows=1000&resumptionToken=%s&digital_library="+config.getAcronym();
-        while (token != null && !token.equals(prevToken)) {
-            String formatted = String.format(sdnntApiEndpoint, token);
+        ExecutorService prefetch = Executors.newSingleThreadExecutor();
+        try {
+            Future<JSONObject> page = prefetch.submit(fetchPage(c, String.format(sdnntApiEndpoint, token), format));
+            while (page != null) {
+                JSONObject resObject = waitFor(page);
+                String nextToken = resObject.optString("resumptiontoken");
+                boolean hasNext = nextToken != null && !nextToken.equals(token);
+                // next page is downloaded while this one is written
+                page = hasNext ? prefetch.submit(fetchPage(c, String.format(sdnntApiEndpoint, nextToken), format)) : null;
+
+                JSONArray items = resObject.getJSONArray("items");
+                sum = sum+items.length();
+                LOGGER.info("Size :"+items.length() +" and sum:"+(sum));
+                List<String> idents = new ArrayList<>(items.length());
+                List<SolrInputDocument> docs = toDocs(items, counters, startProcess, idents);
+                if (docs.size() > 0) {
+                    UpdateRequest req = new UpdateRequest();
+                    req.add(docs);
+                    UpdateResponse response = req.process(client, config.getSyncCollection());
+                    LOGGER.fine("qtime:"+response.getQTime());
+                }
+                if (hasNext) {
+                    checkpoint.pageWritten(format, nextToken, idents);
+                }
+                token = nextToken;
+            }
+        } finally {
+            prefetch.shutdownNow();
+        }
+        client.commit(config.getSyncCollection());
+        checkpoint.formatDone(format);
+    }
+
+    private static Callable<JSONObject> fetchPage(Client c, String url, String format) {
+        return () -> {
             LOGGER.info("Conctacting sdnnt instance "+format);
-            File file = throttle(c, formatted);
-            String response = FileUtils.readFileToString(file, Charset.forName("UTF-8"));
-            JSONObject resObject = new JSONObject(response);
+            File file = throttle(c, url);
+            try {
+                return new JSONObject(FileUtils.readFileToString(file, Charset.forName("UTF-8")));
+            } finally {
+                file.delete();
+            }
+        };
+    }
+
+    private static List<SolrInputDocument> toDocs(JSONArray items, Map<String, AtomicInteger> counters, long startProcess, List<String> idents) {
+        List<SolrInputDocument> docs = new ArrayList<>();
+        for (int i = 0; i < items.length(); i++) {
             
-            prevToken = token;
-            token = resObject.optString("resumptiontoken");
             
-            JSONArray items = resObject.getJSONArray("items");
-            sum = sum+items.length();
-            System.out.println("Size :"+items.length() +" and sum:"+(sum));
-            for (int i = 0; i < items.length(); i++) {
-                
-                
-                JSONObject mainObject = items.getJSONObject(i);
-                String ident = mainObject.getString("catalog_identifier");
-                if (!counters.containsKey(ident)) {
-                    counters.put(ident, new AtomicInteger(0));
-                }
-                counters.get(ident).addAndGet(1);
-                
-                SolrInputDocument doc = new SolrInputDocument();
-                doc.setField("id", ident+"_"+counters.get(ident).get());
-                
-                String catalogIdentifier = mainObject.getString("catalog_identifier");
-                
-                doc.setField("catalog", mainObject.getString("catalog_identifier"));
-                doc.setField("title", mainObject.getString("title"));
-                doc.setField("type_of_rec", mainObject.getString("type"));
-                doc.setField("state", mainObject.getString("state"));
-                doc.setField("state", mainObject.getString("state"));
-                doc.setField("fetched", new Date(startProcess));
-                // controlfield 008 
-                
-                JSONObject skc = mainObject.optJSONObject("skc");
-                if (skc != null) {
-                    String controlField008 = skc.optString("controlfield_008");
-                    if (controlField008 != null) {
-                        
-                        String typeOfDate = controlField008.substring(6, 7);
-                        String date1 = controlField008.substring(7, 11);
-                        String date2 = controlField008.substring(11, 15);
-                        doc.setField("controlField_typeofdate", typeOfDate);
-                        doc.setField("controlField_date1", date1);
-                        doc.setField("controlField_date2", date2);
-                    }
+            JSONObject mainObject = items.getJSONObject(i);
+            String ident = mainObject.getString("catalog_identifier");
+            idents.add(ident);
+            if (!counters.containsKey(ident)) {
+                counters.put(ident, new AtomicInteger(0));
+            }
+            counters.get(ident).addAndGet(1);
+            
+            SolrInputDocument doc = new SolrInputDocument();
+            doc.setField("id", ident+"_"+counters.get(ident).get());
+            
+            doc.setField("catalog", mainObject.getString("catalog_identifier"));
+            doc.setField("title", mainObject.getString("title"));
+            doc.setField("type_of_rec", mainObject.getString("type"));
+            doc.setField("state", mainObject.getString("state"));
+            doc.setField("fetched", new Date(startProcess));
+            // controlfield 008 
+            
+            JSONObject skc = mainObject.optJSONObject("skc");
+            if (skc != null) {
+                String controlField008 = skc.optString("controlfield_008");
+                if (controlField008 != null) {
+                    
+                    String typeOfDate = controlField008.substring(6, 7);
+                    String date1 = controlField008.substring(7, 11);
+                    String date2 = controlField008.substring(11, 15);
+                    doc.setField("controlField_typeofdate", typeOfDate);
+                    doc.setField("controlField_date1", date1);
+                    doc.setField("controlField_date2", date2);
                 }
-                
-                
-                if (mainObject.has("pid")) {
-                    doc.setField("pid", mainObject.getString("pid"));
-                    if (!pids2oais.containsKey(mainObject.getString("pid"))) {
-                        pids2oais.put(mainObject.getString("pid"), new ArrayList<>());
-                    }
+            }
+            
+            
+            if (mainObject.has("pid")) {
+                doc.setField("pid", mainObject.getString("pid"));
+            }
+            
+            if (mainObject.has("license")) {
+                doc.setField("license", mainObject.getString("license"));
+            }
+            doc.setField("type", "main");
 
-                    pids2oais .get(mainObject.getString("pid")).add(ident+"_"+counters.get(ident).get());
-                }
+            
+            if (mainObject.has("granularity")) {
                 
-                if (mainObject.has("license")) {
-                    doc.setField("license", mainObject.getString("license"));
-                }
-                doc.setField("type", "main");
+                JSONArray gr = mainObject.getJSONArray("granularity");
+                doc.setField("has_granularity", gr.length()>0);
 
-                
-                if (mainObject.has("granularity")) {
+                for (int j = 0; j < gr.length(); j++) {
+                    JSONObject item = gr.getJSONObject(j);
                     
-                    JSONArray gr = mainObject.getJSONArray("granularity");
-                    doc.setField("has_granularity", gr.length()>0);
-
-                    for (int j = 0; j < gr.length(); j++) {
-                        JSONObject item = gr.getJSONObject(j);
-                        
-                        SolrInputDocument gDod = new SolrInputDocument();
-                        gDod.setField("parent_id", ident+"_"+counters.get(ident).get());
-                        if (item.has("states")) {
-                            Object state = item.get("states");
-                            if (state instanceof JSONArray) {
-                                JSONArray stateArr = (JSONArray) state;
-                                if (stateArr.length() > 0) {
-                                    gDod.setField("state", stateArr.getString(0));
-                                }
-                            } else {
-                                gDod.setField("state", state.toString());
-                            }
-                        }
-                        
-                        gDod.setField("type", "granularity");
-                        
-                        if (item.has("pid")) {
-                            gDod.setField("pid", item.getString("pid"));
-                            if (!pids2oais.containsKey(item.getString("pid"))) {
-                                pids2oais.put(item.getString("pid"), new ArrayList<>());
+                    SolrInputDocument gDod = new SolrInputDocument();
+                    gDod.setField("parent_id", ident+"_"+counters.get(ident).get());
+                    if (item.has("states")) {
+                        Object state = item.get("states");
+                        if (state instanceof JSONArray) {
+                            JSONArray stateArr = (JSONArray) state;
+                            if (stateArr.length() > 0) {
+                                gDod.setField("state", stateArr.getString(0));
                             }
-                            //pids2oais.put(item.getString("pid"), ident+"_"+counters.get(ident).get()+"_"+item.getString("pid"));
-                            pids2oais.get(item.getString("pid")).add(ident+"_"+counters.get(ident).get()+"_"+item.getString("pid"));
-                            gDod.setField("id", ident+"_"+counters.get(ident).get()+"_"+item.getString("pid"));
-                        }
-                        
-                        if (item.has("license")) {
-                            gDod.setField("license", item.getString("license"));
+                        } else {
+                            gDod.setField("state", state.toString());
                         }
-                        gDod.setField("fetched", new Date(startProcess));
-
-                        docs.add(gDod);
                     }
-                } else {
-                               //"has_granularity"
-                    doc.setField("has_granularity", false);
-                }
-                docs.add(doc);
-                
-            }
-        }
-        
-        if (docs.size() > 0) {
-            int setsize = docs.size();
-            int batchsize = 10000;
-            int numberofiteration = docs.size() / batchsize;
-            if (setsize % batchsize != 0) numberofiteration = numberofiteration + 1;
-            for (int i = 0; i < numberofiteration; i++) {
-                int from = i*batchsize;
-                int to = Math.min((i+1)*batchsize, setsize);
-                List<SolrInputDocument> batchDocs = docs.subList(from, to);
-                LOGGER.info(String.format("Updating records %d - %d and size %d", from, to,batchDocs.size()));
-                
-                UpdateRequest req = new UpdateRequest();
-                for (SolrInputDocument bDoc : batchDocs) {
-                    req.add(bDoc);
-                }
-                try {
-                    UpdateResponse response = req.process(client, config.getSyncCollection());
-                    client.commit(config.getSyncCollection());
-                    LOGGER.info("qtime:"+response.getQTime());
-                } catch (SolrServerException  | IOException e) {
-                    LOGGER.log(Level.SEVERE,e.getMessage());
+                    
+                    gDod.setField("type", "granularity");
+                    
+                    if (item.has("pid")) {
+                        gDod.setField("pid", item.getString("pid"));
+                        gDod.setField("id", ident+"_"+counters.get(ident).get()+"_"+item.getString("pid"));
+                    }
+                    
+                    if (item.has("license")) {
+                        gDod.setField("license", item.getString("license"));
+                    }
+                    gDod.setField("fetched", new Date(startProcess));
+
+                    docs.add(gDod);
                 }
+            } else {
+                           //"has_granularity"
+                doc.setField("has_granularity", false);
             }
+            docs.add(doc);
+            
         }
+        return docs;
     }
 
     private static String gItemState(JSONObject gItem) {
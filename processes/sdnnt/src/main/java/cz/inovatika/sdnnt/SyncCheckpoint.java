@@ -0,0 +1,195 @@
+package cz.inovatika.sdnnt;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import cz.incad.kramerius.Constants;
+import cz.incad.kramerius.utils.conf.KConfiguration;
+
+/**
+ * Journal of a running SDNNT synchronization; allows an interrupted synchronization to continue from the last written page.
+ * <p>
+ * First line of the journal holds acronym and start of the synchronization; every written page of SDNNT list appends
+ * one line with format, resumption token of the next page and catalog identifiers of the page (they are needed to restore
+ * counters of the identifiers). Finished format appends a line with <code>done</code> flag. Every written batch of
+ * differences appends a line with the cursor of the next batch. The journal is deleted when the synchronization finishes; journal older than <code>sdnnt.sync.checkpoint.maxage</code> hours is ignored.
+ */
+public class SyncCheckpoint {
+
+    public static final Logger LOGGER = Logger.getLogger(SyncCheckpoint.class.getName());
+
+    private final File file;
+    private final long start;
+    private final Set<String> doneFormats = new HashSet<>();
+    private final Map<String, String> tokens = new HashMap<>();
+    private final Map<String, Map<String, AtomicInteger>> counters = new HashMap<>();
+    private String diffCursor = "*";
+
+    private SyncCheckpoint(File file, long start) {
+        this.file = file;
+        this.start = start;
+    }
+
+    /**
+     * Returns journal of interrupted synchronization of the same library, or starts a new one
+     */
+    public static SyncCheckpoint open(String acronym, long now) throws IOException {
+        File file = checkpointFile();
+        long maxAge = KConfiguration.getInstance().getConfiguration().getLong("sdnnt.sync.checkpoint.maxage", 24) * 60 * 60 * 1000;
+        if (file.exists()) {
+            SyncCheckpoint restored = restore(file, acronym, now, maxAge);
+            if (restored != null) {
+                LOGGER.info(String.format("Resuming synchronization started at %d; finished formats %s, resumption tokens %s", restored.start, restored.doneFormats, restored.tokens));
+                return restored;
+            }
+            LOGGER.info("Ignoring checkpoint " + file.getAbsolutePath());
+        }
+        return create(file, acronym, now);
+    }
+
+    static SyncCheckpoint create(File file, String acronym, long now) throws IOException {
+        if (file.getParentFile() != null) {
+            file.getParentFile().mkdirs();
+        }
+        SyncCheckpoint checkpoint = new SyncCheckpoint(file, now);
+        JSONObject header = new JSONObject();
+        header.put("acronym", acronym != null ? acronym : "");
+        header.put("start", now);
+        Files.write(file.toPath(), (header.toString() + "\n").getBytes(StandardCharsets.UTF_8));
+        return checkpoint;
+    }
+
+    static SyncCheckpoint restore(File file, String acronym, long now, long maxAge) {
+        try {
+            List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+            if (lines.isEmpty()) {
+                return null;
+            }
+            JSONObject header = new JSONObject(lines.get(0));
+            long start = header.getLong("start");
+            if (!header.optString("acronym").equals(acronym != null ? acronym : "") || now - start > maxAge) {
+                return null;
+            }
+            SyncCheckpoint checkpoint = new SyncCheckpoint(file, start);
+            for (int i = 1; i < lines.size(); i++) {
+                JSONObject page;
+                try {
+                    page = new JSONObject(lines.get(i));
+                } catch (JSONException e) {
+                    // last line written only partially
+                    break;
+                }
+                if (page.has("diff")) {
+                    checkpoint.diffCursor = page.getString("diff");
+                    continue;
+                }
+                String format = page.getString("format");
+                if (page.optBoolean("done")) {
+                    checkpoint.doneFormats.add(format);
+                    continue;
+                }
+                checkpoint.tokens.put(format, page.getString("token"));
+                Map<String, AtomicInteger> formatCounters = checkpoint.counters(format);
+                JSONArray idents = page.getJSONArray("idents");
+                for (int j = 0; j < idents.length(); j++) {
+                    formatCounters.computeIfAbsent(idents.getString(j), k -> new AtomicInteger(0)).incrementAndGet();
+                }
+            }
+            return checkpoint;
+        } catch (IOException | JSONException e) {
+            LOGGER.log(Level.WARNING, "Cannot read checkpoint: " + e.getMessage(), e);
+            return null;
+        }
+    }
+
+    /**
+     * Start of the synchronization; all fetched records are marked with this time
+     */
+    public long getStart() {
+        return start;
+    }
+
+    public boolean isDone(String format) {
+        return doneFormats.contains(format);
+    }
+
+    /**
+     * Resumption token of the first page which is not written yet
+     */
+    public String getToken(String format) {
+        return tokens.getOrDefault(format, "*");
+    }
+
+    /**
+     * Counters of catalog identifiers of the format restored from written pages
+     */
+    public Map<String, AtomicInteger> counters(String format) {
+        return counters.computeIfAbsent(format, k -> new HashMap<>());
+    }
+
+    /**
+     * Cursor of the first batch of differences which is not written yet
+     */
+    public String getDiffCursor() {
+        return diffCursor;
+    }
+
+    public void pageWritten(String format, String nextToken, List<String> idents) throws IOException {
+        JSONObject page = new JSONObject();
+        page.put("format", format);
+        page.put("token", nextToken);
+        page.put("idents", new JSONArray(idents));
+        append(page);
+    }
+
+    public void formatDone(String format) throws IOException {
+        JSONObject done = new JSONObject();
+        done.put("format", format);
+        done.put("done", true);
+        append(done);
+        doneFormats.add(format);
+    }
+
+    public void diffWritten(String nextCursorMark) throws IOException {
+        JSONObject diff = new JSONObject();
+        diff.put("diff", nextCursorMark);
+        append(diff);
+        diffCursor = nextCursorMark;
+    }
+
+    public void delete() {
+        if (file.exists() && !file.delete()) {
+            LOGGER.warning("Cannot delete checkpoint " + file.getAbsolutePath());
+        }
+    }
+
+    private void append(JSONObject line) throws IOException {
+        try (Writer writer = new BufferedWriter(Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8, StandardOpenOption.APPEND))) {
+            writer.write(line.toString());
+            writer.write("\n");
+        }
+    }
+
+    private static File checkpointFile() {
+        String path = KConfiguration.getInstance().getConfiguration().getString("sdnnt.sync.checkpoint",
+                Constants.WORKING_DIR + File.separator + "sdnnt" + File.separator + "sync-checkpoint.json");
+        return new File(path);
+    }
+}
@@ -14,6 +14,8 @@ public class SyncConfig {
     
     private String syncCollection;
     private String syncSolrHost;
+
+    private int lookupThreads = KConfiguration.getInstance().getConfiguration().getInt("sdnnt.sync.lookup.threads", 4);
     
     public SyncConfig(String baseUrl, String version, String acronym,  String syncSolrHost, String syncCollection) {
         super();
@@ -83,4 +85,8 @@ public class SyncConfig {
     public String getSdnntEndpoint() {
         return sdnntEndpoint;
     }
+    
+    public int getLookupThreads() {
+        return lookupThreads;
+    }
 }
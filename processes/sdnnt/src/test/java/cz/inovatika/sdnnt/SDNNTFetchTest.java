@@ -0,0 +1,62 @@
+package cz.inovatika.sdnnt;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.solr.common.SolrDocument;
+import org.apache.solr.common.SolrInputDocument;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SDNNTFetchTest {
+
+    @Test
+    public void testGranularityChangeMarksParent() {
+        SolrDocument main = record("ident_1", "uuid:main", "main", "A", null);
+        main.setField("has_granularity", true);
+        SolrDocument item = record("ident_1_uuid:item", "uuid:item", "granularity", "A", "dnnto");
+        item.setField("parent_id", "ident_1");
+        SolrDocument unchanged = record("ident_2", "uuid:other", "main", "A", "dnntt");
+        unchanged.setField("has_granularity", false);
+
+        Map<String, Map<String, Object>> checked = new HashMap<>();
+        checked.put("uuid:item", kramerius(Collections.<String>emptyList()));
+        checked.put("uuid:other", kramerius(Arrays.asList("dnntt")));
+
+        Map<String, SolrInputDocument> changes = SDNNTFetch.changes(Arrays.asList(main, item, unchanged), checked);
+
+        Assert.assertEquals(SDNNTFetch.SyncActionEnum.add_dnnto.name(), modifier(changes.get("ident_1_uuid:item"), "sync_actions"));
+        Assert.assertEquals(true, modifier(changes.get("ident_1_uuid:item"), "real_kram_exists"));
+        // parent is not in Kramerius, only the partial change is written
+        Assert.assertEquals(SDNNTFetch.SyncActionEnum.partial_change.name(), modifier(changes.get("ident_1"), "sync_actions"));
+        Assert.assertNull(changes.get("ident_1").getFieldValue("real_kram_exists"));
+        Assert.assertNull(changes.get("ident_2").getFieldValue("sync_actions"));
+        Assert.assertEquals(3, changes.size());
+    }
+
+    private static SolrDocument record(String id, String pid, String type, String state, String license) {
+        SolrDocument doc = new SolrDocument();
+        doc.setField("id", id);
+        doc.setField("pid", pid);
+        doc.setField("type", type);
+        doc.setField("state", state);
+        if (license != null) {
+            doc.setField("license", license);
+        }
+        return doc;
+    }
+
+    private static Map<String, Object> kramerius(List<String> licenses) {
+        Map<String, Object> object = new HashMap<>();
+        object.put(LicenseAPIFetcher.FETCHER_LICENSES_KEY, licenses);
+        return object;
+    }
+
+    private static Object modifier(SolrInputDocument doc, String field) {
+        Map<String, Object> modifier = (Map<String, Object>) doc.getFieldValue(field);
+        return modifier.values().iterator().next();
+    }
+}
@@ -0,0 +1,62 @@
+package cz.inovatika.sdnnt;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SyncCheckpointTest {
+
+    private static final long MAX_AGE = 24 * 60 * 60 * 1000;
+
+    @Test
+    public void testRestoreInterruptedSynchronization() throws Exception {
+        File file = File.createTempFile("sync-checkpoint", ".json");
+        try {
+            SyncCheckpoint checkpoint = SyncCheckpoint.create(file, "ABA001", 1000);
+            checkpoint.pageWritten("SE", "se-2", Arrays.asList("ident1", "ident2", "ident1"));
+            checkpoint.formatDone("SE");
+            checkpoint.pageWritten("BK", "bk-2", Arrays.asList("ident3"));
+            checkpoint.pageWritten("BK", "bk-3", Arrays.asList("ident3", "ident4"));
+            checkpoint.diffWritten("cursor-2");
+            // interrupted while the line was written
+            Files.write(file.toPath(), "{\"format\":\"BK\",\"tok".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+            SyncCheckpoint restored = SyncCheckpoint.restore(file, "ABA001", 2000, MAX_AGE);
+            Assert.assertNotNull(restored);
+            Assert.assertEquals(1000, restored.getStart());
+            Assert.assertTrue(restored.isDone("SE"));
+            Assert.assertFalse(restored.isDone("BK"));
+            Assert.assertEquals("bk-3", restored.getToken("BK"));
+            Assert.assertEquals(2, restored.counters("SE").get("ident1").get());
+            Assert.assertEquals(1, restored.counters("SE").get("ident2").get());
+            Assert.assertEquals(2, restored.counters("BK").get("ident3").get());
+            Assert.assertEquals(1, restored.counters("BK").get("ident4").get());
+            Assert.assertEquals("cursor-2", restored.getDiffCursor());
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testNewSynchronization() throws Exception {
+        File file = File.createTempFile("sync-checkpoint", ".json");
+        try {
+            SyncCheckpoint.create(file, "ABA001", 1000).pageWritten("SE", "se-2", Collections.singletonList("ident1"));
+            SyncCheckpoint restored = SyncCheckpoint.restore(file, "ABA001", 1000, MAX_AGE);
+            Assert.assertEquals("*", restored.getToken("BK"));
+            Assert.assertEquals("*", restored.getDiffCursor());
+
+            // other library or too old
+            Assert.assertNull(SyncCheckpoint.restore(file, "ABA002", 1000, MAX_AGE));
+            Assert.assertNull(SyncCheckpoint.restore(file, "ABA001", 1000 + MAX_AGE + 1, MAX_AGE));
+        } finally {
+            file.delete();
+        }
+    }
+}
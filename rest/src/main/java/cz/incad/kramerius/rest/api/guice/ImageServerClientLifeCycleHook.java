@@ -0,0 +1,24 @@
+package cz.incad.kramerius.rest.api.guice;
+
+import cz.incad.kramerius.rest.apiNew.client.v70.ZoomifyHelper;
+import cz.incad.kramerius.service.LifeCycleHook;
+
+import java.util.logging.Logger;
+
+/**
+ * Closes pooled http client used for proxying image server requests
+ */
+public class ImageServerClientLifeCycleHook implements LifeCycleHook {
+
+    private static final Logger LOGGER = Logger.getLogger(ImageServerClientLifeCycleHook.class.getName());
+
+    @Override
+    public void startNotification() {
+    }
+
+    @Override
+    public void shutdownNotification() {
+        LOGGER.info("Shutting down image server client");
+        ZoomifyHelper.closeImageServerClient();
+    }
+}
@@ -3,6 +3,7 @@ package cz.incad.kramerius.rest.api.iiif;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import cz.incad.kramerius.FedoraAccess;
 import cz.incad.kramerius.SolrAccess;
+import cz.incad.kramerius.imaging.utils.TilesUrlCache;
 import cz.incad.kramerius.rest.api.exceptions.GenericApplicationException;
 import cz.incad.kramerius.rest.api.k5.client.SolrMemoization;
 import cz.incad.kramerius.rest.api.k5.client.item.exceptions.PIDNotFound;
@@ -83,6 +84,9 @@ public class IiifAPI {
     @Inject
     private SolrMemoization solrMemoization;
 
+    @Inject
+    private TilesUrlCache tilesUrlCache;
+
     private FedoraAccess fedoraAccess;
 
     private SolrAccess solrAccess;
@@ -197,7 +201,7 @@ public class IiifAPI {
                 .map(pid -> CompletableFuture.runAsync(() -> {
                     String iiifEndpoint = null;
                     try {
-                        iiifEndpoint = IIIFUtils.iiifImageEndpoint(pid, this.fedoraAccess);
+                        iiifEndpoint = IIIFUtils.iiifImageEndpoint(pid, this.fedoraAccess, this.tilesUrlCache);
                     } catch (IOException e) {
                         LOGGER.log(Level.SEVERE, e.getMessage());
                     }
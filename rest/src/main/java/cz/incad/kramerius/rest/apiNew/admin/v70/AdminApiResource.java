@@ -14,9 +14,12 @@ import javax.inject.Inject;
 import javax.inject.Provider;
 import javax.servlet.http.HttpServletRequest;
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.UUID;
@@ -187,6 +190,25 @@ public abstract class AdminApiResource extends ApiResource {
         processSchedulingHelper.scheduleProcess("new_indexer_index_object", paramsList, userid, username, batchToken, processName);
     }
 
+    /**
+     * Schedules reindexation of many objects; pids are passed in a file (pidlist_file:), so that neither the command line
+     * of the process nor its name grows with the number of objects
+     */
+    protected void scheduleReindexationOfPidlistInBatch(List<String> pids, String userid, String username, String indexationType, String batchToken, boolean ignoreInconsistentObjects, String title) throws IOException {
+        File pidlistFile = File.createTempFile("reindex_pidlist_", ".txt");
+        Files.write(pidlistFile.toPath(), pids, StandardCharsets.UTF_8);
+        List<String> paramsList = new ArrayList<>();
+        paramsList.add(indexationType);
+        paramsList.add("pidlist_file:" + pidlistFile.getAbsolutePath());
+        paramsList.add(Boolean.toString(ignoreInconsistentObjects));
+        paramsList.add(title);
+
+        String processName = title != null
+                ? String.format("Reindexace %s (%d objektů, typ %s)", title, pids.size(), indexationType)
+                : String.format("Reindexace %d objektů (typ %s)", pids.size(), indexationType);
+        processSchedulingHelper.scheduleProcess("new_indexer_index_object", paramsList, userid, username, batchToken, processName);
+    }
+
     protected void scheduleReindexation(String objectPid, String userid, String username, String indexationType, boolean ignoreInconsistentObjects, String title) {
         scheduleReindexationInBatch(objectPid, userid, username, indexationType, UUID.randomUUID().toString(), ignoreInconsistentObjects, title);
     }
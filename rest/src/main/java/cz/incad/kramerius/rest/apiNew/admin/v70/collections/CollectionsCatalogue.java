@@ -0,0 +1,120 @@
+package cz.incad.kramerius.rest.apiNew.admin.v70.collections;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.solr.client.solrj.SolrServerException;
+import org.ehcache.Cache;
+import org.ehcache.CacheManager;
+import org.ehcache.config.builders.CacheConfigurationBuilder;
+import org.ehcache.config.builders.ExpiryPolicyBuilder;
+import org.ehcache.config.builders.ResourcePoolsBuilder;
+import org.json.JSONObject;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+import cz.incad.kramerius.fedora.om.RepositoryException;
+import cz.incad.kramerius.fedora.om.impl.AkubraDOManager;
+import cz.incad.kramerius.utils.conf.KConfiguration;
+
+/**
+ * In-memory catalogue of collections used by collection listings (names, descriptions, keywords, thumbnail state, clips; without content and items).
+ * <p>
+ * Listing of all collections otherwise reads FOXML properties, MODS, RELS-EXT and datastreams of every collection on every call.
+ * Entry is removed when the collection is changed by {@link CollectionsResource} and when the object changes in the repository
+ * on any node of the cluster (see {@link AkubraDOManager#addInvalidationListener(java.util.function.Consumer)});
+ * entries expire after <code>collections.catalogue.ttl</code> seconds as a safety net.
+ * <p>
+ * Every invalidation increments generation of the pid; a collection loaded while its generation changed is returned
+ * but not kept in the catalogue, because it could have been read before the change.
+ */
+@Singleton
+public class CollectionsCatalogue {
+
+    public static final Logger LOGGER = Logger.getLogger(CollectionsCatalogue.class.getName());
+
+    private static final String CACHE_ALIAS = "CollectionsCatalogue";
+
+    private static final int GENERATION_STRIPES = 64;
+
+    private final Cache<String, JSONObject> catalogue;
+    private final AtomicLongArray generations = new AtomicLongArray(GENERATION_STRIPES);
+
+    @Inject
+    public CollectionsCatalogue(CacheManager cacheManager) {
+        if (KConfiguration.getInstance().getConfiguration().getBoolean("collections.catalogue.enabled", true)) {
+            Cache<String, JSONObject> existing = cacheManager.getCache(CACHE_ALIAS, String.class, JSONObject.class);
+            if (existing == null) {
+                existing = cacheManager.createCache(CACHE_ALIAS,
+                        CacheConfigurationBuilder.newCacheConfigurationBuilder(String.class, JSONObject.class,
+                                ResourcePoolsBuilder.heap(KConfiguration.getInstance().getConfiguration().getInt("collections.catalogue.size", 10000)))
+                                .withExpiry(ExpiryPolicyBuilder.timeToLiveExpiration(
+                                        Duration.ofSeconds(KConfiguration.getInstance().getConfiguration().getInt("collections.catalogue.ttl", 3600)))).build());
+            }
+            this.catalogue = existing;
+            try {
+                AkubraDOManager.addInvalidationListener(this::invalidate);
+            } catch (Throwable e) {
+                LOGGER.log(Level.WARNING, "Cannot register collections catalogue invalidation, entries will only expire: " + e.getMessage(), e);
+            }
+        } else {
+            this.catalogue = null;
+        }
+    }
+
+    /**
+     * Loads listing representation of the collection from repository
+     */
+    @FunctionalInterface
+    public interface CollectionLoader {
+        JSONObject load() throws IOException, RepositoryException, SolrServerException;
+    }
+
+    /**
+     * Returns listing representation of the collection; loader is called only if the collection is not in the catalogue.
+     * Returned object is shared and must not be modified
+     */
+    public JSONObject get(String pid, CollectionLoader loader) throws IOException, RepositoryException, SolrServerException {
+        if (this.catalogue == null) {
+            return loader.load();
+        }
+        JSONObject collection = this.catalogue.get(pid);
+        if (collection == null) {
+            int stripe = stripe(pid);
+            long generation = this.generations.get(stripe);
+            collection = loader.load();
+            if (collection != null) {
+                this.catalogue.put(pid, collection);
+                // invalidated while loading; invalidation could have run before the put
+                if (this.generations.get(stripe) != generation) {
+                    this.catalogue.remove(pid, collection);
+                }
+            }
+        }
+        return collection;
+    }
+
+    public void invalidate(String pid) {
+        if (this.catalogue != null && pid != null) {
+            this.generations.incrementAndGet(stripe(pid));
+            this.catalogue.remove(pid);
+        }
+    }
+
+    public void clear() {
+        if (this.catalogue != null) {
+            for (int i = 0; i < GENERATION_STRIPES; i++) {
+                this.generations.incrementAndGet(i);
+            }
+            this.catalogue.clear();
+        }
+    }
+
+    private static int stripe(String pid) {
+        return (pid.hashCode() & Integer.MAX_VALUE) % GENERATION_STRIPES;
+    }
+}
@@ -22,6 +22,7 @@ import cz.incad.kramerius.security.SpecialObjects;
 import cz.incad.kramerius.security.User;
 import cz.incad.kramerius.utils.Dom4jUtils;
 import cz.incad.kramerius.utils.StringUtils;
+import cz.incad.kramerius.utils.conf.KConfiguration;
 import cz.incad.kramerius.utils.imgs.ImageMimeType;
 import cz.incad.kramerius.utils.imgs.KrameriusImageSupport;
 import cz.incad.kramerius.utils.java.Pair;
@@ -103,6 +104,9 @@ public class CollectionsResource extends AdminApiResource {
     @Inject
     Provider<HttpServletRequest> requestProvider;
 
+    @Inject
+    CollectionsCatalogue collectionsCatalogue;
+
     /**
      * Creates new collection and assigns a pid to it.
      *
@@ -196,8 +200,7 @@ public class CollectionsResource extends AdminApiResource {
             JSONArray collections = new JSONArray();
             for (String pid : pidsOfObjectsByModel.getSecond()) {
                 try {
-                    Collection collection = fetchCollectionFromRepository(pid, false, false);
-                    collections.put(collection.toJson());
+                    collections.put(collectionsCatalogue.get(pid, () -> fetchCollectionFromRepository(pid, false, false).toJson()));
                 } catch (RepositoryException e) {
                     //ignoring broken collection and still returning other collections (instead of error response)
                     LOGGER.log(Level.SEVERE, e.getMessage(), e);
@@ -250,8 +253,7 @@ public class CollectionsResource extends AdminApiResource {
                 JSONArray collections = new JSONArray();
                 for (String pid : pids) {
                     try {
-                        Collection collection = fetchCollectionFromRepository(pid, false, false);
-                        collections.put(collection.toJson());
+                        collections.put(collectionsCatalogue.get(pid, () -> fetchCollectionFromRepository(pid, false, false).toJson()));
                     } catch (RepositoryException e) {
                         //ignoring broken collection and still returning other collections (instead of error response)
                         LOGGER.log(Level.SEVERE, e.getMessage(), e);
@@ -315,6 +317,7 @@ public class CollectionsResource extends AdminApiResource {
                             
                         RepositoryApi repoApi = krameriusRepositoryApi.getLowLevelApi();
                         repoApi.updateBinaryDatastream(pid, KnownDatastreams.IMG_THUMB.name(), "image/png", bos.toByteArray());
+                        collectionsCatalogue.invalidate(pid);
 
                         Collection nCol = fetchCollectionFromRepository(pid, true, true);
                         return Response.ok(nCol.toJson()).build();
@@ -366,6 +369,7 @@ public class CollectionsResource extends AdminApiResource {
                     krameriusRepositoryApi.updateMods(pid, foxmlBuilder.buildMods(updated));
                     //rebuild and update rels-ext (because of "standalone")
                     krameriusRepositoryApi.updateRelsExt(pid, foxmlBuilder.buildRelsExt(updated, itemsInCollection));
+                    collectionsCatalogue.invalidate(pid);
                     //schedule reindexation - (only collection object)
                     scheduleReindexation(pid, user1.getLoginname(), user1.getLoginname(), "OBJECT", false, "sbírka " + pid);
                 }
@@ -453,12 +457,12 @@ public class CollectionsResource extends AdminApiResource {
                 }
                 //save updated rels-ext
                 krameriusRepositoryApi.updateRelsExt(collectionPid, relsExt);
+                collectionsCatalogue.invalidate(collectionPid);
                 //schedule reindexations - 1. newly added item (whole tree and foster trees), 2. no need to re-index collection
-                //TODO: mozna optimalizace: pouzit zde indexaci typu COLLECTION_ITEMS (neimplementovana)
                 if (StringUtils.isAnyString(indexation) && indexation.trim().toLowerCase().equals("false")) {
                     LOGGER.info("Ommiting indexation");
                 } else {
-                    scheduleReindexation(itemPid, user.getLoginname(), user.getLoginname(), "TREE_AND_FOSTER_TREES", false, itemPid);
+                    scheduleItemsReindexation(collectionPid, Collections.singletonList(itemPid), user);
                 }
                 
                 //LOGGER.info("addItemToCollection end, Thread " + Thread.currentThread().getName());
@@ -547,15 +551,14 @@ public class CollectionsResource extends AdminApiResource {
                 if (atLeastOneAdded) {
                     //save updated rels-ext
                     krameriusRepositoryApi.updateRelsExt(collectionPid, relsExt);
+                    collectionsCatalogue.invalidate(collectionPid);
                     //no need to re-index collection itself
 
                     if (StringUtils.isAnyString(indexation) && indexation.trim().toLowerCase().equals("false")) {
                         LOGGER.info("Ommiting indexation");
                     } else {
-                        for (String itemPid : pidsAdded) {
-                            //TODO: mozna optimalizace: pouzit zde indexaci typu COLLECTION_ITEMS (neimplementovana)
-                            scheduleReindexation(itemPid, user.getLoginname(), user.getLoginname(), "TREE_AND_FOSTER_TREES", false, itemPid);
-                        }
+                        //one process for all added items
+                        scheduleItemsReindexation(collectionPid, pidsAdded, user);
                     }
 
                 }
@@ -580,6 +583,29 @@ public class CollectionsResource extends AdminApiResource {
         }
     }
 
+    /**
+     * Schedules one reindexation process for all items whose membership in collection has changed.
+     * Indexation type COLLECTION_ITEMS rewrites only fields related to collections (see IndexationType), the type can be changed by <code>collections.itemsIndexationType</code>
+     */
+    private void scheduleItemsReindexation(String collectionPid, List<String> itemPids, User user) throws IOException {
+        scheduleItemsReindexationInBatch(collectionPid, itemPids, user, UUID.randomUUID().toString(), false);
+    }
+
+    /**
+     * More items are passed to the process in a file (bulk add could exceed the limit of one command line argument)
+     */
+    private void scheduleItemsReindexationInBatch(String collectionPid, List<String> itemPids, User user, String batchToken, boolean ignoreInconsistentObjects) throws IOException {
+        if (itemPids.size() == 1) {
+            scheduleReindexationInBatch(itemPids.get(0), user.getLoginname(), user.getLoginname(), itemsIndexationType(), batchToken, ignoreInconsistentObjects, "sbírka " + collectionPid);
+        } else if (!itemPids.isEmpty()) {
+            scheduleReindexationOfPidlistInBatch(itemPids, user.getLoginname(), user.getLoginname(), itemsIndexationType(), batchToken, ignoreInconsistentObjects, "sbírka " + collectionPid);
+        }
+    }
+
+    private static String itemsIndexationType() {
+        return KConfiguration.getInstance().getConfiguration().getString("collections.itemsIndexationType", "COLLECTION_ITEMS");
+    }
+
     private void checkCanAddItemToCollection(String itemPid, String collectionPid) throws
             SolrServerException, RepositoryException, IOException {
         //pid of object that item is to be added into must belong to collection
@@ -663,16 +689,11 @@ public class CollectionsResource extends AdminApiResource {
 
                 // save updated rels-ext
                 krameriusRepositoryApi.updateRelsExt(collectionPid, relsExt);
+                collectionsCatalogue.invalidate(collectionPid);
 
-                reindexCollection.forEach(itemPid -> {
-                    // schedule reindexations - 1. item that was removed (whole tree and foster
-                    // trees), 2. no need to re-index collection
-                    // TODO: mozna optimalizace: pouzit zde indexaci typu COLLECTION_ITEMS
-                    // (neimplementovana)
-                    scheduleReindexation(itemPid, user1.getLoginname(), user1.getLoginname(), "TREE_AND_FOSTER_TREES",
-                            false, itemPid);
-
-                });
+                // schedule reindexations - 1. items that were removed (whole trees and foster
+                // trees) in one process, 2. no need to re-index collection
+                scheduleItemsReindexation(collectionPid, reindexCollection, user1);
 
             } catch (WebApplicationException e) {
                 throw e;
@@ -726,9 +747,9 @@ public class CollectionsResource extends AdminApiResource {
                 }
                 //save updated rels-ext
                 krameriusRepositoryApi.updateRelsExt(collectionPid, relsExt);
+                collectionsCatalogue.invalidate(collectionPid);
                 //schedule reindexations - 1. item that was removed (whole tree and foster trees), 2. no need to re-index collection
-                //TODO: mozna optimalizace: pouzit zde indexaci typu COLLECTION_ITEMS (neimplementovana)
-                scheduleReindexation(itemPid, user1.getLoginname(), user1.getLoginname(), "TREE_AND_FOSTER_TREES", false, itemPid);
+                scheduleItemsReindexation(collectionPid, Collections.singletonList(itemPid), user1);
                 return Response.status(Response.Status.OK).build();
             } catch (WebApplicationException e) {
                 throw e;
@@ -783,14 +804,12 @@ public class CollectionsResource extends AdminApiResource {
             }
             //delete collection object form repository (not managed datastreams, since those for IMG_THUMB are referenced from other objects - pages)
             krameriusRepositoryApi.getLowLevelApi().deleteObject(pid, false);
+            collectionsCatalogue.invalidate(pid);
             //schedule reindexations - 1. deleted collection (only object) , 2. all children (both own and foster, their wholes tree and foster trees), 3. no need to reindex collections owning this one
             String batchToken = UUID.randomUUID().toString();
             scheduleReindexationInBatch(pid, user1.getLoginname(), user1.getLoginname(), "OBJECT", batchToken, false, "sbírka " + pid);
            
-            for (String childPid : childrenPids) {
-                //TODO: mozna optimalizace: pouzit zde indexaci typu COLLECTION_ITEMS (neimplementovana)
-                scheduleReindexationInBatch(childPid, user1.getLoginname(), user1.getLoginname(), "TREE_AND_FOSTER_TREES", batchToken, true, childPid);
-            }
+            scheduleItemsReindexationInBatch(pid, childrenPids, user1, batchToken, true);
             return Response.ok().build();
         } catch (WebApplicationException e) {
             throw e;
@@ -853,6 +872,7 @@ public class CollectionsResource extends AdminApiResource {
                     jsonArray.remove(index);
                     
                     krameriusRepositoryApi.getLowLevelApi().updateBinaryDatastream(collectionPid, COLLECTION_CLIPS, "application/json", jsonArray.toString().getBytes(Charset.forName("UTF-8")));
+                    collectionsCatalogue.invalidate(collectionPid);
                     Collection collection = fetchCollectionFromRepository(collectionPid, true, true);
                     return Response.ok(collection.toJson()).build();
                     
@@ -925,6 +945,7 @@ public class CollectionsResource extends AdminApiResource {
                     }
                     if (cuttingsModified) {
                         krameriusRepositoryApi.getLowLevelApi().updateBinaryDatastream(collectionPid, COLLECTION_CLIPS, "application/json", fetchedJSONArray.toString().getBytes(Charset.forName("UTF-8")));
+                        collectionsCatalogue.invalidate(collectionPid);
                         for (String thumbName : thumbsToDelete) {
                             if (this.krameriusRepositoryApi.getLowLevelApi().datastreamExists(collectionPid, thumbName)) {
                                 this.krameriusRepositoryApi.getLowLevelApi().deleteDatastream(collectionPid, thumbName);
@@ -998,6 +1019,7 @@ public class CollectionsResource extends AdminApiResource {
                 jsonArray.put(json);
                 
                 krameriusRepositoryApi.getLowLevelApi().updateBinaryDatastream(collectionPid, COLLECTION_CLIPS, "application/json", jsonArray.toString().getBytes(Charset.forName("UTF-8")));
+                collectionsCatalogue.invalidate(collectionPid);
                 Collection collection = fetchCollectionFromRepository(collectionPid, true, true);
                 return Response.ok(collection.toJson()).build();
             }
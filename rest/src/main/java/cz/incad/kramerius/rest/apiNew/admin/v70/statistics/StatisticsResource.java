@@ -18,14 +18,13 @@ package cz.incad.kramerius.rest.apiNew.admin.v70.statistics;
 
 import static org.apache.http.HttpStatus.SC_BAD_REQUEST;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
+import java.io.BufferedOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.io.StringWriter;
+import java.io.OutputStreamWriter;
 import java.net.URLEncoder;
-import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.text.ParseException;
 import java.time.OffsetDateTime;
 import java.time.format.DateTimeFormatter;
@@ -42,6 +41,7 @@ import java.util.concurrent.Semaphore;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
+import java.util.zip.GZIPOutputStream;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.ws.rs.Consumes;
@@ -64,6 +64,7 @@ import javax.ws.rs.core.UriInfo;
 
 import org.apache.commons.csv.CSVFormat;
 import org.apache.commons.csv.CSVPrinter;
+import org.apache.commons.io.output.DeferredFileOutputStream;
 import org.apache.http.client.HttpResponseException;
 import org.json.JSONArray;
 import org.json.JSONException;
@@ -104,7 +105,6 @@ import cz.incad.kramerius.statistics.filters.StatisticsFiltersContainer;
 import cz.incad.kramerius.statistics.filters.VisibilityFilter;
 import cz.incad.kramerius.statistics.filters.VisibilityFilter.VisbilityType;
 import cz.incad.kramerius.statistics.formatters.report.StatisticsReportFormatter;
-import cz.incad.kramerius.utils.IOUtils;
 import cz.incad.kramerius.utils.StringUtils;
 import cz.incad.kramerius.utils.conf.KConfiguration;
 import cz.incad.kramerius.utils.database.Offset;
@@ -122,6 +122,11 @@ public class StatisticsResource {
     
     public static final Semaphore STATISTIC_SEMAPHORE = new Semaphore(1);
 
+    private static final int STREAM_BUFFER_SIZE = 64 * 1024;
+
+    /** Size of an export kept in memory before it is spooled to a temporary file */
+    private static final int SPOOL_THRESHOLD = 8 * 1024 * 1024;
+
 
     @Inject
     @Named("database")
@@ -525,34 +530,41 @@ public class StatisticsResource {
                     if (results.isEmpty()) {
                     	StatisticsReportFormatter selectedFormatter =  opts.get();
                         String info = "";
-
-                        final ByteArrayOutputStream bos = new ByteArrayOutputStream();
-
-                        try {
-                            STATISTIC_SEMAPHORE.acquire();
-                            selectedFormatter.addInfo(bos, info);
-                            selectedFormatter.beforeProcess(bos);
-
-                            // Must be synchronized - only one report at the time
-                            //report.prepareViews(action != null ? ReportedAction.valueOf(action) : null,new StatisticsFiltersContainer(new StatisticsFilter []{dateFilter,modelFilter,  multimodelFilter, annualYearFilter, pidsFilter}));
-                            report.processAccessLog(action != null ? ReportedAction.valueOf(action) : null, selectedFormatter,new StatisticsFiltersContainer(new StatisticsFilter []{dateFilter,modelFilter,visFilter, multimodelFilter, annualYearFilter,  pidsFilter, licenseFilter, idFilter}));
-                            selectedFormatter.afterProcess(bos);
-
-                            return Response.ok(new StreamingOutput() {
-                                @Override
-                                public void write(OutputStream output) throws IOException, WebApplicationException {
-                                    IOUtils.copyStreams(new ByteArrayInputStream(bos.toByteArray()), output);
+                        ReportedAction reportedAction = action != null ? ReportedAction.valueOf(action) : null;
+                        StatisticsFiltersContainer container = new StatisticsFiltersContainer(new StatisticsFilter []{dateFilter,modelFilter,visFilter, multimodelFilter, annualYearFilter,  pidsFilter, licenseFilter, idFilter});
+
+                        // records are formatted to a spool (memory up to SPOOL_THRESHOLD, then temporary file) while the semaphore is held;
+                        // the spool is written to the client after the semaphore is released, so a slow client does not block other exports
+                        StreamingOutput body = output -> {
+                            DeferredFileOutputStream spool = new DeferredFileOutputStream(SPOOL_THRESHOLD, "statistics-export", ".tmp", null);
+                            try {
+                                try {
+                                    // Must be synchronized - only one report at the time (formatters keep state)
+                                    STATISTIC_SEMAPHORE.acquire();
+                                } catch (InterruptedException e) {
+                                    Thread.currentThread().interrupt();
+                                    throw new IOException(e);
                                 }
-                            }).header("Content-disposition",  "attachment; filename="+file).build();
-                        } catch (IOException e) {
-                            throw new GenericApplicationException(e.getMessage());
-                        } catch (StatisticsReportException e) {
-                            throw new GenericApplicationException(e.getMessage());
-                        } catch (InterruptedException e) {
-                            throw new GenericApplicationException(e.getMessage());
-                        } finally {
-                            STATISTIC_SEMAPHORE.release();
-                        }
+                                try (OutputStream formatted = new BufferedOutputStream(spool, STREAM_BUFFER_SIZE)) {
+                                    selectedFormatter.addInfo(formatted, info);
+                                    selectedFormatter.beforeProcess(formatted);
+                                    report.processAccessLog(reportedAction, selectedFormatter, container);
+                                    selectedFormatter.afterProcess(formatted);
+                                } catch (StatisticsReportException e) {
+                                    LOGGER.log(Level.SEVERE, e.getMessage(), e);
+                                    throw new IOException(e);
+                                } finally {
+                                    STATISTIC_SEMAPHORE.release();
+                                }
+                                spool.writeTo(output);
+                            } finally {
+                                spool.close();
+                                if (!spool.isInMemory() && spool.getFile() != null && spool.getFile().exists() && !spool.getFile().delete()) {
+                                    LOGGER.warning(String.format("Cannot delete spool of statistics export %s", spool.getFile().getAbsolutePath()));
+                                }
+                            }
+                        };
+                        return streamedResponse(body, null).header("Content-disposition",  "attachment; filename="+file).build();
                     } else {
                     	String body = results.stream().collect(Collectors.joining("\n"));
                         return Response.status(Response.Status.BAD_REQUEST).entity(body).build();
@@ -660,40 +672,37 @@ public class StatisticsResource {
                 String clientUrl = KConfiguration.getInstance().getConfiguration().getString("client");
 
                 
-                StringWriter writer = new StringWriter();
-                CSVPrinter csvPrinter = new CSVPrinter(writer, CSVFormat.DEFAULT
-                        .withCommentMarker('#')
-                        .withDelimiter(';'));
-                    
-                
-                formatCSVComments(fmtAttributes, fqs, csvName, csvPrinter);
-                
-                
-                for (int i = 0; i < facet.length(); i += 2) {
-                    String value = facet.getString(i);
-                    int count = facet.getInt(i + 1);
-                    String url = clientUrl+"/uuid/"+value;
-                    String title = "";
-                    if (mapping.containsKey(value)) {
-                        JSONObject doc =mapping.get(value);
-                        String model = doc.getString("model");
-                        List<String> topLevelModels = Lists.transform(KConfiguration.getInstance().getConfiguration().getList("fedora.topLevelModels"), Functions.toStringFunction());
-                        if (topLevelModels.contains(model) || model.equals("collection")) {
-                            // pouze root title
-                            title = String.format("%s",doc.optString("root.title"));
-                        } else {
-                            title = String.format("%s / %s",doc.optString("root.title"), doc.optString("title.search"));
+                List<String> topLevelModels = Lists.transform(KConfiguration.getInstance().getConfiguration().getList("fedora.topLevelModels"), Functions.toStringFunction());
+                StreamingOutput csv = output -> {
+                    CSVPrinter csvPrinter = new CSVPrinter(new OutputStreamWriter(output, StandardCharsets.UTF_8), CSVFormat.DEFAULT
+                            .withCommentMarker('#')
+                            .withDelimiter(';'));
+
+                    formatCSVComments(fmtAttributes, fqs, csvName, csvPrinter);
+
+                    for (int i = 0; i < facet.length(); i += 2) {
+                        String value = facet.getString(i);
+                        int count = facet.getInt(i + 1);
+                        String url = clientUrl+"/uuid/"+value;
+                        String title = "";
+                        if (mapping.containsKey(value)) {
+                            JSONObject doc =mapping.get(value);
+                            String model = doc.getString("model");
+                            if (topLevelModels.contains(model) || model.equals("collection")) {
+                                // pouze root title
+                                title = String.format("%s",doc.optString("root.title"));
+                            } else {
+                                title = String.format("%s / %s",doc.optString("root.title"), doc.optString("title.search"));
+                            }
                         }
+
+                        csvPrinter.printRecord(count, value, title, url);
                     }
-                    
-                    csvPrinter.printRecord(count, value, title, url);
-                }
 
-                csvPrinter.flush();
-                csvPrinter.close();
-                String csvData = writer.toString();
+                    csvPrinter.flush();
+                };
 
-                ResponseBuilder response = Response.ok(csvData.getBytes(Charset.forName("UTF-8")), "text/csv; charset=UTF-8");
+                ResponseBuilder response = streamedResponse(csv, "text/csv; charset=UTF-8");
                 response.header("Content-Disposition", String.format("attachment; filename=\"%s\"",csvName));
                 return response.build();
                 
@@ -759,14 +768,8 @@ public class StatisticsResource {
                     JSONObject facetCountObject = new JSONObject(buildSearchResponseJson).optJSONObject("facet_counts");
                     JSONArray facet = facetCountObject.getJSONObject("facet_fields").getJSONArray("all_models");
                     
-                    StringWriter writer = new StringWriter();
-                    CSVPrinter csvPrinter = new CSVPrinter(writer, CSVFormat.DEFAULT
-                            .withCommentMarker('#')
-                            .withDelimiter(';'));
-                    
                     String csvName = fmtAttributes.containsKey("fmt_filename") ?  fmtAttributes.get("fmt_filename").get(0) :  String.format("%s.csv",csvFacetName);
-                    formatCSVComments(fmtAttributes, new ArrayList<>(), csvName, csvPrinter);
-                    
+
                     /** models from AnualCSVFormatter */
                     List<String> allowedValues = Arrays.asList("monograph",
                             "periodicalvolume",
@@ -779,18 +782,22 @@ public class StatisticsResource {
                             "map"
                             );
 
-                    for (int i = 0; i < facet.length(); i += 2) {
-                        String value = facet.getString(i);
-                        int count = facet.getInt(i + 1);
-                        if (allowedValues == null || allowedValues.contains(value)) {
-                            csvPrinter.printRecord(count, value);
+                    StreamingOutput csv = output -> {
+                        CSVPrinter csvPrinter = new CSVPrinter(new OutputStreamWriter(output, StandardCharsets.UTF_8), CSVFormat.DEFAULT
+                                .withCommentMarker('#')
+                                .withDelimiter(';'));
+                        formatCSVComments(fmtAttributes, new ArrayList<>(), csvName, csvPrinter);
+                        for (int i = 0; i < facet.length(); i += 2) {
+                            String value = facet.getString(i);
+                            int count = facet.getInt(i + 1);
+                            if (allowedValues == null || allowedValues.contains(value)) {
+                                csvPrinter.printRecord(count, value);
+                            }
                         }
-                    }
-                    csvPrinter.flush();
-                    csvPrinter.close();
-                    String csvData = writer.toString();
+                        csvPrinter.flush();
+                    };
 
-                    ResponseBuilder response = Response.ok(csvData.getBytes(Charset.forName("UTF-8")), "text/csv; charset=UTF-8");
+                    ResponseBuilder response = streamedResponse(csv, "text/csv; charset=UTF-8");
                     response.header("Content-Disposition", String.format("attachment; filename=\"%s\"",csvName));
                     return response.build();
                 } else {
@@ -852,31 +859,26 @@ public class StatisticsResource {
                 JSONObject facetCountObject = new JSONObject(buildSearchResponseJson).optJSONObject("facet_counts");
                 JSONArray facet = facetCountObject.getJSONObject("facet_fields").getJSONArray(csvFacetName);
 
-                StringWriter writer = new StringWriter();
-                CSVPrinter csvPrinter = new CSVPrinter(writer, CSVFormat.DEFAULT
-                        .withCommentMarker('#')
-                        .withDelimiter(';'));
-                
-                    
-                formatCSVComments(fmtAttributes, fqs, csvName, csvPrinter);
-                
-                List<String> allowedValues = null;
-                if (fmtAttributes.containsKey("fmt_allowedvalues")) {
-                    allowedValues =  fmtAttributes.get("fmt_allowedvalues");
-                }
-                
-                for (int i = 0; i < facet.length(); i += 2) {
-                    String value = facet.getString(i);
-                    int count = facet.getInt(i + 1);
-                    if (allowedValues == null || allowedValues.contains(value)) {
-                        csvPrinter.printRecord(count, value);
+                List<String> allowedValues = fmtAttributes.containsKey("fmt_allowedvalues") ? fmtAttributes.get("fmt_allowedvalues") : null;
+
+                StreamingOutput csv = output -> {
+                    CSVPrinter csvPrinter = new CSVPrinter(new OutputStreamWriter(output, StandardCharsets.UTF_8), CSVFormat.DEFAULT
+                            .withCommentMarker('#')
+                            .withDelimiter(';'));
+
+                    formatCSVComments(fmtAttributes, fqs, csvName, csvPrinter);
+
+                    for (int i = 0; i < facet.length(); i += 2) {
+                        String value = facet.getString(i);
+                        int count = facet.getInt(i + 1);
+                        if (allowedValues == null || allowedValues.contains(value)) {
+                            csvPrinter.printRecord(count, value);
+                        }
                     }
-                }
-                csvPrinter.flush();
-                csvPrinter.close();
-                String csvData = writer.toString();
+                    csvPrinter.flush();
+                };
 
-                ResponseBuilder response = Response.ok(csvData.getBytes(Charset.forName("UTF-8")), "text/csv; charset=UTF-8");
+                ResponseBuilder response = streamedResponse(csv, "text/csv; charset=UTF-8");
                 response.header("Content-Disposition", String.format("attachment; filename=\"%s\"",csvName));
                 return response.build();
                 
@@ -1109,6 +1111,30 @@ public class StatisticsResource {
     
     
 
+    /**
+     * Response writing the body directly to the client; the body is compressed if the client accepts gzip
+     * @param body Body of the response
+     * @param mimeType Content type or null for type given by the resource method
+     */
+    ResponseBuilder streamedResponse(StreamingOutput body, String mimeType) {
+        String acceptEncoding = this.requestProvider.get().getHeader(HttpHeaders.ACCEPT_ENCODING);
+        boolean gzip = acceptEncoding != null && acceptEncoding.toLowerCase().contains("gzip");
+        StreamingOutput entity = output -> {
+            OutputStream stream = gzip ? new GZIPOutputStream(output, STREAM_BUFFER_SIZE) : new BufferedOutputStream(output, STREAM_BUFFER_SIZE);
+            body.write(stream);
+            if (gzip) {
+                ((GZIPOutputStream) stream).finish();
+            }
+            stream.flush();
+        };
+        ResponseBuilder response = mimeType != null ? Response.ok(entity, mimeType) : Response.ok(entity);
+        response.header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        if (gzip) {
+            response.header(HttpHeaders.CONTENT_ENCODING, "gzip");
+        }
+        return response;
+    }
+
     protected String logsEndpoint() {
         String loggerPoint = KConfiguration.getInstance().getProperty("k7.log.solr.point","http://localhost:8983/solr/logs");
         String selectEndpoint = loggerPoint + (loggerPoint.endsWith("/") ? "" : "/" ) +"";
@@ -31,6 +31,7 @@ import com.google.inject.name.Names;
 import cz.incad.kramerius.FedoraAccess;
 import cz.incad.kramerius.ObjectPidsPath;
 import cz.incad.kramerius.SolrAccess;
+import cz.incad.kramerius.imaging.utils.TilesUrlCache;
 import cz.incad.kramerius.impl.SolrAccessImplNewIndex;
 import cz.incad.kramerius.rest.IIPImagesSupport;
 import cz.incad.kramerius.rest.api.exceptions.ActionNotAllowed;
@@ -78,6 +79,9 @@ public class CDKIIIFResource extends AbstractTileResource {
     @Inject
     AggregatedAccessLogs aggregatedAccessLogs;
 
+    @Inject
+    TilesUrlCache tilesUrlCache;
+
     @Inject
     protected transient HttpAsyncClient client;
 
@@ -98,7 +102,7 @@ public class CDKIIIFResource extends AbstractTileResource {
             if (permited) {
                 try {
                     reportAccess(aggregatedAccessLogs, pid);
-                    String u = IIIFUtils.iiifImageEndpoint(pid, this.fedoraAccess);
+                    String u = IIIFUtils.iiifImageEndpoint(pid, this.fedoraAccess, this.tilesUrlCache);
                     if (u != null) {
                         if (!u.endsWith("/")) { u = u+"/"; }
                         u = u +"info.json";
@@ -157,7 +161,7 @@ public class CDKIIIFResource extends AbstractTileResource {
     }
 
     public void iiifTile(String pid, String region, String size, String rotation,String qf) throws IOException {
-        String u = IIIFUtils.iiifImageEndpoint(pid, this.fedoraAccess);
+        String u = IIIFUtils.iiifImageEndpoint(pid, this.fedoraAccess, this.tilesUrlCache);
         if(u != null) {
 
             String defaultMime = ItemsResource.IIIF_SUPPORTED_MIMETYPES.get("jpg");
@@ -9,6 +9,7 @@ import cz.incad.kramerius.audio.AudioFormat;
 import cz.incad.kramerius.audio.AudioStreamForwardingHelper;
 import cz.incad.kramerius.audio.AudioStreamId;
 import cz.incad.kramerius.fedora.om.RepositoryException;
+import cz.incad.kramerius.imaging.utils.TilesUrlCache;
 import cz.incad.kramerius.repository.ExtractStructureHelper;
 import cz.incad.kramerius.repository.KrameriusRepositoryApi;
 import cz.incad.kramerius.repository.KrameriusRepositoryApi.KnownDatastreams;
@@ -18,8 +19,11 @@ import cz.incad.kramerius.rest.IIPImagesSupport;
 import cz.incad.kramerius.rest.api.exceptions.ActionNotAllowed;
 import cz.incad.kramerius.rest.apiNew.admin.v70.collections.CutItem;
 import cz.incad.kramerius.rest.apiNew.client.v70.epub.EPubFileTypes;
+import cz.incad.kramerius.rest.apiNew.client.v70.utils.ByteRanges;
+import cz.incad.kramerius.rest.apiNew.client.v70.utils.ConditionalRequests;
 import cz.incad.kramerius.rest.apiNew.client.v70.utils.RightRuntimeInformations;
 import cz.incad.kramerius.rest.apiNew.client.v70.utils.RightRuntimeInformations.RuntimeInformation;
+import cz.incad.kramerius.rest.apiNew.client.v70.utils.ThumbnailSourceCache;
 import cz.incad.kramerius.rest.apiNew.exceptions.BadRequestException;
 import cz.incad.kramerius.rest.apiNew.exceptions.ForbiddenException;
 import cz.incad.kramerius.rest.apiNew.exceptions.InternalErrorException;
@@ -42,6 +46,7 @@ import cz.incad.kramerius.utils.ApplicationURL;
 import cz.incad.kramerius.utils.Dom4jUtils;
 import cz.incad.kramerius.utils.FedoraUtils;
 import cz.incad.kramerius.utils.RESTHelper;
+import cz.incad.kramerius.utils.RelsExtHelper;
 import cz.incad.kramerius.utils.StringUtils;
 import cz.incad.kramerius.utils.XMLUtils;
 import cz.incad.kramerius.utils.conf.KConfiguration;
@@ -72,6 +77,7 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.ws.rs.*;
 import javax.ws.rs.client.ClientBuilder;
+import javax.ws.rs.core.CacheControl;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.PathSegment;
@@ -80,6 +86,7 @@ import javax.ws.rs.core.StreamingOutput;
 import javax.ws.rs.core.UriInfo;
 import javax.ws.rs.core.Response.ResponseBuilder;
 import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.xpath.XPathExpressionException;
 
 import java.awt.image.BufferedImage;
 import java.io.ByteArrayInputStream;
@@ -100,8 +107,11 @@ import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.StandardCopyOption;
 import java.security.NoSuchAlgorithmException;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -177,12 +187,6 @@ public class ItemsResource extends ClientApiResource {
      * Byte serving this way is more efficient and better tested.
      */
     private static final boolean AUDIO_SERVE_WITH_FORWARDING = true;
-    /**
-     * Only relevant with AUDIO_SERVE_WITH_FORWARDING=false
-     * Disable byte-serving when audio data is serverd through Kramerius Repository (Akubra).
-     * It would be inefficient to use byte-serving this way. Since Kramerius Repository (Akubra) has to fetch whole audio file again for every byte-serving request
-     */
-    private static final boolean AUDIO_SERVED_BY_AKUBRA_IGNORE_RANGE = true;
 
     private static final int SEARCH_INDEX_BATCH_SIZE = 98;
 
@@ -195,6 +199,12 @@ public class ItemsResource extends ClientApiResource {
     @Inject
     ZoomifyHelper zoomifyHelper;
 
+    @Inject
+    ThumbnailSourceCache thumbnailSourceCache;
+
+    @Inject
+    TilesUrlCache tilesUrlCache;
+
     @Inject
     AudioStreamForwardingHelper audioHelper;
 
@@ -280,8 +290,8 @@ public class ItemsResource extends ClientApiResource {
             json.put(RightRuntimeInformations.PROVIDED_BY_LICENSES, extracrtedInformation.getProvidingLicensesAsJSONArray());
             json.put(RightRuntimeInformations.ACCESSIBLE_LOCSK, extracrtedInformation.getLockAsJSONArray());
                        
-            
-            return Response.ok(json).build();
+            // depends on the user, only the browser may store it
+            return conditionalJson(json, ConditionalRequests.cacheControl("INFO", false));
         } catch (WebApplicationException e) {
             throw e;
         } catch (Throwable e) {
@@ -302,7 +312,13 @@ public class ItemsResource extends ClientApiResource {
         try {
             checkSupportedObjectPid(pid);
             checkObjectExists(pid);
-            return Response.ok(extractAvailableDataInfo(pid)).build();
+            Date lastModified = getObjectLastModified(pid);
+            String etag = ConditionalRequests.etag(pid, "info/data", lastModified.getTime());
+            CacheControl cacheControl = cacheControl("INFO", pid);
+            if (ConditionalRequests.isNotModified(requestProvider.get(), etag, lastModified)) {
+                return ConditionalRequests.notModified(etag, lastModified, cacheControl);
+            }
+            return ConditionalRequests.validators(Response.ok(extractAvailableDataInfo(pid)), etag, lastModified, cacheControl).build();
         } catch (WebApplicationException e) {
             throw e;
         } catch (Throwable e) {
@@ -326,7 +342,55 @@ public class ItemsResource extends ClientApiResource {
             JSONObject responseJson = new JSONObject();
             RuntimeInformation extracrtedInformation = RightRuntimeInformations.extractInformations(this.rightsResolver, this.solrAccess, pid);
             responseJson.put("licenses", extracrtedInformation.getLockAsJSONArray());
-            return Response.ok(responseJson).build();
+            return conditionalJson(responseJson, ConditionalRequests.cacheControl("INFO", false));
+        } catch (WebApplicationException e) {
+            throw e;
+        } catch (Throwable e) {
+            LOGGER.log(Level.SEVERE, e.getMessage(), e);
+            throw new InternalErrorException(e.getMessage());
+        } finally {
+            if (event != null) {
+                this.apiCallMonitor.stop(event, userProvider.get().getLoginname());
+            }
+        }
+    }
+
+    /**
+     * Informace o licencích a přístupnosti pro více objektů najednou (např. stránka výsledků vyhledávání).
+     * Vstup: {"pids":["uuid:...", ...]}, výstup: {"uuid:...":{"accessible":true, "providedByLicenses":[...], "accessibleLocks":[...]}, ...};
+     * objekty, které nejsou ve vyhledávacím indexu, ve výstupu chybí. Maximální počet objektů je api.client.licenses.batch.max.
+     */
+    @POST
+    @Path("info/providedByLicenses")
+    @Consumes(MediaType.APPLICATION_JSON)
+    @Produces(MediaType.APPLICATION_JSON + ";charset=utf-8")
+    public Response getProvidingLicensesBatch(JSONObject rawdata) {
+        ApiCallEvent event = this.apiCallMonitor.start("/client/v7.0/items", "/client/v7.0/items/info/providedByLicenses", "", "POST");
+        try {
+            if (rawdata == null || !(rawdata.opt("pids") instanceof org.json.JSONArray)) {
+                throw new BadRequestException("expecting 'pids' array");
+            }
+            org.json.JSONArray pidsArray = rawdata.getJSONArray("pids");
+            int max = KConfiguration.getInstance().getConfiguration().getInt("api.client.licenses.batch.max", 100);
+            if (pidsArray.length() > max) {
+                throw new BadRequestException("too many pids (%d), maximum is %d", pidsArray.length(), max);
+            }
+            List<String> pids = new ArrayList<>();
+            for (int i = 0; i < pidsArray.length(); i++) {
+                String pid = pidsArray.getString(i);
+                checkSupportedObjectPid(pid);
+                pids.add(pid);
+            }
+            Map<String, RuntimeInformation> informations = RightRuntimeInformations.extractInformations(this.rightsResolver, this.solrAccess, this.userProvider.get(), pids);
+            JSONObject responseJson = new JSONObject();
+            informations.forEach((pid, information) -> {
+                JSONObject pidJson = new JSONObject();
+                pidJson.put("accessible", information.isAccessible());
+                pidJson.put(RightRuntimeInformations.PROVIDED_BY_LICENSES, information.getProvidingLicensesAsJSONArray());
+                pidJson.put(RightRuntimeInformations.ACCESSIBLE_LOCSK, information.getLockAsJSONArray());
+                responseJson.put(pid, pidJson);
+            });
+            return Response.ok(responseJson.toString()).build();
         } catch (WebApplicationException e) {
             throw e;
         } catch (Throwable e) {
@@ -352,7 +416,9 @@ public class ItemsResource extends ClientApiResource {
         try {
             checkSupportedObjectPid(pid);
             checkObjectExists(pid);
-            return Response.ok(ExtractStructureHelper.extractStructureInfo(this.krameriusRepositoryApi, pid)).build();
+            // structure comes from the resource index, so the validator is computed from the response itself
+            JSONObject structure = ExtractStructureHelper.extractStructureInfo(this.krameriusRepositoryApi, pid);
+            return conditionalJson(structure, cacheControl("INFO", pid));
         } catch (WebApplicationException e) {
             throw e;
         } catch (Throwable e) {
@@ -377,7 +443,13 @@ public class ItemsResource extends ClientApiResource {
         try {
             checkSupportedObjectPid(pid);
             checkObjectExists(pid);
-            return Response.ok(extractImageSourceInfo(pid)).build();
+            Date lastModified = getObjectLastModified(pid);
+            String etag = ConditionalRequests.etag(pid, "info/image", lastModified.getTime());
+            CacheControl cacheControl = cacheControl("INFO", pid);
+            if (ConditionalRequests.isNotModified(requestProvider.get(), etag, lastModified)) {
+                return ConditionalRequests.notModified(etag, lastModified, cacheControl);
+            }
+            return ConditionalRequests.validators(Response.ok(extractImageSourceInfo(pid)), etag, lastModified, cacheControl).build();
         } catch (WebApplicationException e) {
             throw e;
         } catch (Throwable e) {
@@ -481,9 +553,13 @@ public class ItemsResource extends ClientApiResource {
         try {
             checkSupportedObjectPid(pid);
             checkObjectAndDatastreamExist(pid, KrameriusRepositoryApi.KnownDatastreams.BIBLIO_MODS);
+            RepositoryApi.DatastreamVersion version = latestDatastreamVersion(pid, KrameriusRepositoryApi.KnownDatastreams.BIBLIO_MODS);
+            Response notModified = checkNotModified(pid, KrameriusRepositoryApi.KnownDatastreams.BIBLIO_MODS, version);
+            if (notModified != null) {
+                return notModified;
+            }
             Document mods = krameriusRepositoryApi.getMods(pid, true);
-            return Response.ok()
-                    .entity(mods.asXML())
+            return datastreamValidators(Response.ok().entity(mods.asXML()), pid, KrameriusRepositoryApi.KnownDatastreams.BIBLIO_MODS, version)
                     .build();
         } catch (WebApplicationException e) {
             throw e;
@@ -525,8 +601,13 @@ public class ItemsResource extends ClientApiResource {
         try {
             checkSupportedObjectPid(pid);
             checkObjectAndDatastreamExist(pid, KrameriusRepositoryApi.KnownDatastreams.BIBLIO_DC);
+            RepositoryApi.DatastreamVersion version = latestDatastreamVersion(pid, KrameriusRepositoryApi.KnownDatastreams.BIBLIO_DC);
+            Response notModified = checkNotModified(pid, KrameriusRepositoryApi.KnownDatastreams.BIBLIO_DC, version);
+            if (notModified != null) {
+                return notModified;
+            }
             Document dc = krameriusRepositoryApi.getDublinCore(pid, true);
-            return Response.ok().entity(dc.asXML()).build();
+            return datastreamValidators(Response.ok().entity(dc.asXML()), pid, KrameriusRepositoryApi.KnownDatastreams.BIBLIO_DC, version).build();
         } catch (WebApplicationException e) {
             throw e;
         } catch (Throwable e) {
@@ -924,15 +1005,25 @@ public class ItemsResource extends ClientApiResource {
         try {
             checkSupportedObjectPid(pid);
             checkObjectExists(pid);
-            Pair<InputStream, String> imgThumb = getFirstAvailableImgThumb(pid);
-            if (imgThumb == null) {
+            String sourcePid = getPidOfFirstAvailableDatastream(pid, KrameriusRepositoryApi.KnownDatastreams.IMG_THUMB);
+            if (sourcePid == null) {
                 throw new NotFoundException("no image/thumb available for object %s (and it's descendants)", pid);
             } else {
+                RepositoryApi.DatastreamVersion version = latestDatastreamVersion(sourcePid, KrameriusRepositoryApi.KnownDatastreams.IMG_THUMB);
+                Response notModified = checkNotModified(sourcePid, KrameriusRepositoryApi.KnownDatastreams.IMG_THUMB, version);
+                if (notModified != null) {
+                    return notModified;
+                }
+                InputStream imgThumb = krameriusRepositoryApi.getImgThumb(sourcePid);
+                if (imgThumb == null) {
+                    throw new NotFoundException("no image/thumb available for object %s (and it's descendants)", pid);
+                }
                 StreamingOutput stream = output -> {
-                    IOUtils.copy(imgThumb.getFirst(), output);
-                    IOUtils.closeQuietly(imgThumb.getFirst());
+                    IOUtils.copy(imgThumb, output);
+                    IOUtils.closeQuietly(imgThumb);
                 };
-                return Response.ok().entity(stream).type(imgThumb.getSecond()).build();
+                ResponseBuilder builder = Response.ok().entity(stream).type(krameriusRepositoryApi.getImgThumbMimetype(sourcePid));
+                return datastreamValidators(builder, sourcePid, KrameriusRepositoryApi.KnownDatastreams.IMG_THUMB, version).build();
             }
         } catch (WebApplicationException e) {
             throw e;
@@ -951,15 +1042,25 @@ public class ItemsResource extends ClientApiResource {
         try {
             checkSupportedObjectPid(pid);
             checkObjectExists(pid);
-            Pair<InputStream, String> imgPreview = getFirstAvailableImgPreview(pid);
-            if (imgPreview == null) {
+            String sourcePid = getPidOfFirstAvailableDatastream(pid, KrameriusRepositoryApi.KnownDatastreams.IMG_PREVIEW);
+            if (sourcePid == null) {
                 throw new NotFoundException("no image/preview available for object %s (and it's descendants)", pid);
             } else {
+                RepositoryApi.DatastreamVersion version = latestDatastreamVersion(sourcePid, KrameriusRepositoryApi.KnownDatastreams.IMG_PREVIEW);
+                Response notModified = checkNotModified(sourcePid, KrameriusRepositoryApi.KnownDatastreams.IMG_PREVIEW, version);
+                if (notModified != null) {
+                    return notModified;
+                }
+                InputStream imgPreview = krameriusRepositoryApi.getImgPreview(sourcePid);
+                if (imgPreview == null) {
+                    throw new NotFoundException("no image/preview available for object %s (and it's descendants)", pid);
+                }
                 StreamingOutput stream = output -> {
-                    IOUtils.copy(imgPreview.getFirst(), output);
-                    IOUtils.closeQuietly(imgPreview.getFirst());
+                    IOUtils.copy(imgPreview, output);
+                    IOUtils.closeQuietly(imgPreview);
                 };
-                return Response.ok().entity(stream).type(imgPreview.getSecond()).build();
+                ResponseBuilder builder = Response.ok().entity(stream).type(krameriusRepositoryApi.getImgPreviewMimetype(sourcePid));
+                return datastreamValidators(builder, sourcePid, KrameriusRepositoryApi.KnownDatastreams.IMG_PREVIEW, version).build();
             }
         } catch (WebApplicationException e) {
             throw e;
@@ -984,10 +1085,10 @@ public class ItemsResource extends ClientApiResource {
                 audioHelper.forwardHttpHEAD(audioStreamId, request, builder);
                 return builder.build();
             } else {
-                if (AUDIO_SERVED_BY_AKUBRA_IGNORE_RANGE) {
-                    return Response.ok().build();
-                } else {
+                if (isAudioRangeEnabled()) {
                     return Response.ok().header("Accept-Ranges", "bytes").build();
+                } else {
+                    return Response.ok().build();
                 }
             }
         } catch (WebApplicationException e) {
@@ -1028,6 +1129,10 @@ public class ItemsResource extends ClientApiResource {
                 return builder.build();
             } else {
                 String mimeType = krameriusRepositoryApi.getAudioMp3Mimetype(pid);
+                File file = krameriusRepositoryApi.getLowLevelApi().getLatestVersionOfDatastreamFile(pid, dsId.toString());
+                if (file != null) {
+                    return getAudioDataFromFile(mimeType, file, pid, dsId);
+                }
                 InputStream is = krameriusRepositoryApi.getAudioMp3(pid);
                 return getAudioDataFromAkubra(mimeType, is, pid);
             }
@@ -1039,48 +1144,38 @@ public class ItemsResource extends ClientApiResource {
         }
     }
 
+    /**
+     * Content of the datastream stored in Akubra datastream store is sent directly from the file, so that byte serving
+     * does not need to read the whole audio file for every request
+     */
+    private Response getAudioDataFromFile(String mimeType, File file, String pid, KrameriusRepositoryApi.KnownDatastreams dsId) {
+        HttpServletRequest request = requestProvider.get();
+        if (ByteRanges.isInitialRequest(request)) {
+            reportAccess(pid, dsId.toString());
+        }
+        return ByteRanges.response(file, mimeType, request, isAudioRangeEnabled(), getAudioMaxRanges());
+    }
+
+    /**
+     * Content which is not stored as a file (inline or external datastream) is streamed whole, without byte serving
+     */
     private Response getAudioDataFromAkubra(String mimeType, InputStream is, String pid) throws IOException {
-        String headerRange = requestProvider.get().getHeader("Range");
-        boolean useRange = !AUDIO_SERVED_BY_AKUBRA_IGNORE_RANGE && //not disabled
-                headerRange != null && !headerRange.isEmpty() && //Range present
-                !"bytes=0-".equals(headerRange) && //Chrome uses this and expects 200 instead of 206
-                headerRange.matches("bytes=\\d*-\\d*"); //ignoring different units or <unit>=<range-start>-<range-end>, <range-start>-<range-end>, <range-start>-<range-end>
-        if (!useRange) { //request without header Range or header Range ignored
-            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
-            int totalSize = IOUtils.copy(is, buffer);
-            IOUtils.closeQuietly(is);
-            byte[] dataComplete = buffer.toByteArray();
-            Response.ResponseBuilder resp = Response.ok().entity(dataComplete).type(mimeType)
-                    .header("Content-Length", totalSize);
-            if (!AUDIO_SERVED_BY_AKUBRA_IGNORE_RANGE) {
-                resp.header("Accept-Ranges", "bytes");
-            }
-            return resp.build();
-        } else { //using header Range
-            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
-            int totalSize = IOUtils.copy(is, buffer);
-            IOUtils.closeQuietly(is);
-            //this should be cached (in Akubra?), next requests with Range for this resource will very probably follow
-            byte[] dataComplete = buffer.toByteArray();
-            Integer start = 0;
-            Integer end = dataComplete.length;
-            String[] rangeItems = headerRange.substring(("bytes=".length())).split("-");
-            if (!rangeItems[0].equals("")) {
-                start = Integer.valueOf(rangeItems[0]);
-            }
-            if (rangeItems.length == 2 && !rangeItems[1].equals("")) {
-                start = Integer.valueOf(rangeItems[1]);
+        StreamingOutput stream = output -> {
+            try {
+                IOUtils.copy(is, output);
+            } finally {
+                IOUtils.closeQuietly(is);
             }
-            byte[] dataInRange = Arrays.copyOfRange(dataComplete, start, end);
+        };
+        return Response.ok().entity(stream).type(mimeType).build();
+    }
 
-            Response.ResponseBuilder resp = Response.status(206).entity(dataInRange).type(mimeType)
-                    .header("Accept-Ranges", "bytes")
-                    .header("Content-Length", totalSize);
-            if (!(start == 0 && end == totalSize)) {
-                resp.header("Content-Range", String.format("bytes %d-%d/%d", start, end - 1, totalSize));
-            }
-            return resp.build();
-        }
+    private static boolean isAudioRangeEnabled() {
+        return KConfiguration.getInstance().getConfiguration().getBoolean("audio.akubra.range.enabled", true);
+    }
+
+    private static int getAudioMaxRanges() {
+        return KConfiguration.getInstance().getConfiguration().getInt("audio.akubra.range.maxRanges", 16);
     }
 
     @HEAD
@@ -1098,10 +1193,10 @@ public class ItemsResource extends ClientApiResource {
                 audioHelper.forwardHttpHEAD(audioStreamId, request, builder);
                 return builder.build();
             } else {
-                if (AUDIO_SERVED_BY_AKUBRA_IGNORE_RANGE) {
-                    return Response.ok().build();
-                } else {
+                if (isAudioRangeEnabled()) {
                     return Response.ok().header("Accept-Ranges", "bytes").build();
+                } else {
+                    return Response.ok().build();
                 }
             }
         } catch (WebApplicationException e) {
@@ -1132,6 +1227,10 @@ public class ItemsResource extends ClientApiResource {
                 return builder.build();
             } else {
                 String mimeType = krameriusRepositoryApi.getAudioOggMimetype(pid);
+                File file = krameriusRepositoryApi.getLowLevelApi().getLatestVersionOfDatastreamFile(pid, dsId.toString());
+                if (file != null) {
+                    return getAudioDataFromFile(mimeType, file, pid, dsId);
+                }
                 InputStream is = krameriusRepositoryApi.getAudioOgg(pid);
                 return getAudioDataFromAkubra(mimeType, is, pid);
             }
@@ -1158,10 +1257,10 @@ public class ItemsResource extends ClientApiResource {
                 audioHelper.forwardHttpHEAD(audioStreamId, request, builder);
                 return builder.build();
             } else {
-                if (AUDIO_SERVED_BY_AKUBRA_IGNORE_RANGE) {
-                    return Response.ok().build();
-                } else {
+                if (isAudioRangeEnabled()) {
                     return Response.ok().header("Accept-Ranges", "bytes").build();
+                } else {
+                    return Response.ok().build();
                 }
             }
         } catch (WebApplicationException e) {
@@ -1192,6 +1291,10 @@ public class ItemsResource extends ClientApiResource {
                 return builder.build();
             } else {
                 String mimeType = krameriusRepositoryApi.getAudioWavMimetype(pid);
+                File file = krameriusRepositoryApi.getLowLevelApi().getLatestVersionOfDatastreamFile(pid, dsId.toString());
+                if (file != null) {
+                    return getAudioDataFromFile(mimeType, file, pid, dsId);
+                }
                 InputStream is = krameriusRepositoryApi.getAudioWav(pid);
                 return getAudioDataFromAkubra(mimeType, is, pid);
             }
@@ -1203,6 +1306,16 @@ public class ItemsResource extends ClientApiResource {
         }
     }
 
+    private String tilesUrl(String pid) throws IOException {
+        return this.tilesUrlCache.getTilesUrl(pid, () -> {
+            try (InputStream stream = krameriusRepositoryApi.getLowLevelApi().getLatestVersionOfDatastream(pid, "RELS-EXT")) {
+                return RelsExtHelper.getRelsExtTilesUrl(XMLUtils.parseDocument(stream, true));
+            } catch (RepositoryException | ParserConfigurationException | SAXException | XPathExpressionException e) {
+                throw new IOException(e.getMessage(), e);
+            }
+        });
+    }
+
     //@Path("{pid}/image/zoomify/ImageProperties.xml")
 
 
@@ -1215,9 +1328,7 @@ public class ItemsResource extends ClientApiResource {
             pid = URLDecoder.decode(pid, "UTF-8");
             checkUserIsAllowedToReadObject(pid); 
             reportAccess( pid, null);
-            InputStream stream = krameriusRepositoryApi.getLowLevelApi().getLatestVersionOfDatastream(pid, "RELS-EXT");
-            org.w3c.dom.Document relsExt = XMLUtils.parseDocument(stream, true);
-            String u = IIIFUtils.iiifImageEndpoint(relsExt);
+            String u = IIIFUtils.iiifImageEndpointFromTilesUrl(tilesUrl(pid));
             if (u != null) {
                 if (!u.endsWith("/")) { u = u+"/"; }
                 u = u +"info.json";
@@ -1235,8 +1346,7 @@ public class ItemsResource extends ClientApiResource {
             } else {
                 throw new BadRequestException("bad request");
             }
-        } catch (JSONException | RepositoryException | IOException | ParserConfigurationException
-                | SAXException e) {
+        } catch (JSONException | IOException e) {
             LOGGER.log(Level.SEVERE, e.getMessage(), e);
             throw new InternalErrorException(e.getMessage());
         }
@@ -1265,9 +1375,7 @@ public class ItemsResource extends ClientApiResource {
                 }
             }
             
-            InputStream stream = krameriusRepositoryApi.getLowLevelApi().getLatestVersionOfDatastream(pid, "RELS-EXT");
-            org.w3c.dom.Document relsExt = XMLUtils.parseDocument(stream, true);
-            String u = IIIFUtils.iiifImageEndpoint(relsExt);
+            String u = IIIFUtils.iiifImageEndpointFromTilesUrl(tilesUrl(pid));
             if(u != null) {
                 // size can contain ^ or ! 
                 if (size.contains("^") || size.contains("!")) {
@@ -1697,34 +1805,104 @@ public class ItemsResource extends ClientApiResource {
         }
     }
 
-    Pair<InputStream, String> getFirstAvailableImgThumb(String pid) throws IOException, RepositoryException {
-        InputStream is = krameriusRepositoryApi.getImgThumb(pid);
-        if (is != null) {
-            String mimeType = krameriusRepositoryApi.getImgThumbMimetype(pid);
-            return new Pair<>(is, mimeType);
+    /**
+     * Vrací pid tohoto objektu, nebo prvního potomka, který má daný datastream; null, pokud takový není.
+     */
+    String getPidOfFirstAvailableDatastream(String pid, KrameriusRepositoryApi.KnownDatastreams dsId) throws IOException, RepositoryException {
+        List<String> path = getPathToFirstAvailableDatastream(pid, dsId);
+        return path != null ? path.get(path.size() - 1) : null;
+    }
+
+    /**
+     * Cesta od tohoto objektu k prvnímu potomkovi, který má daný datastream (včetně obou); null, pokud takový není.
+     * Nalezená cesta se pamatuje v {@link ThumbnailSourceCache} pro objekt i všechny procházené potomky; změna kteréhokoli
+     * objektu na cestě záznam zneplatní.
+     */
+    private List<String> getPathToFirstAvailableDatastream(String pid, KrameriusRepositoryApi.KnownDatastreams dsId) throws IOException, RepositoryException {
+        List<String> cached = thumbnailSourceCache != null ? thumbnailSourceCache.get(pid, dsId) : null;
+        if (cached != null) {
+            if (krameriusRepositoryApi.getLowLevelApi().datastreamExists(cached.get(cached.size() - 1), dsId.toString())) {
+                return cached;
+            }
+            // source changed or was removed
+            thumbnailSourceCache.invalidate(pid);
+        }
+        long resolved = System.currentTimeMillis();
+        List<String> path = null;
+        if (krameriusRepositoryApi.getLowLevelApi().datastreamExists(pid, dsId.toString())) {
+            path = Arrays.asList(pid);
         } else {
             String pidOfFirstChild = getPidOfFirstChild(pid);
-            if (pidOfFirstChild != null) {
-                return getFirstAvailableImgThumb(pidOfFirstChild);
-            } else {
-                return null;
+            List<String> childPath = pidOfFirstChild != null ? getPathToFirstAvailableDatastream(pidOfFirstChild, dsId) : null;
+            if (childPath != null) {
+                path = new ArrayList<>(childPath.size() + 1);
+                path.add(pid);
+                path.addAll(childPath);
             }
         }
+        if (path != null && thumbnailSourceCache != null) {
+            thumbnailSourceCache.put(pid, dsId, path, resolved);
+        }
+        return path;
     }
 
-    Pair<InputStream, String> getFirstAvailableImgPreview(String pid) throws IOException, RepositoryException {
-        InputStream is = krameriusRepositoryApi.getImgPreview(pid);
-        if (is != null) {
-            String mimeType = krameriusRepositoryApi.getImgPreviewMimetype(pid);
-            return new Pair<>(is, mimeType);
-        } else {
-            String pidOfFirstChild = getPidOfFirstChild(pid);
-            if (pidOfFirstChild != null) {
-                return getFirstAvailableImgPreview(pidOfFirstChild);
-            } else {
-                return null;
-            }
+    /**
+     * Poslední verze datastreamu; čte se jednou za požadavek a předává se do {@link #checkNotModified} i {@link #datastreamValidators}
+     */
+    private RepositoryApi.DatastreamVersion latestDatastreamVersion(String pid, KrameriusRepositoryApi.KnownDatastreams dsId) throws IOException, RepositoryException {
+        return krameriusRepositoryApi.getLowLevelApi().getLatestDatastreamVersion(pid, dsId.toString());
+    }
+
+    /**
+     * Odpověď 304, pokud klient má aktuální verzi datastreamu (podle ETag, Last-Modified); obsah datastreamu se nečte
+     */
+    private Response checkNotModified(String pid, KrameriusRepositoryApi.KnownDatastreams dsId, RepositoryApi.DatastreamVersion version) throws IOException, RepositoryException {
+        if (version == null) {
+            return null;
+        }
+        String etag = datastreamEtag(pid, dsId, version);
+        if (ConditionalRequests.isNotModified(requestProvider.get(), etag, version.created)) {
+            return ConditionalRequests.notModified(etag, version.created, cacheControl(dsId.toString(), pid));
+        }
+        return null;
+    }
+
+    private ResponseBuilder datastreamValidators(ResponseBuilder builder, String pid, KrameriusRepositoryApi.KnownDatastreams dsId, RepositoryApi.DatastreamVersion version) throws IOException, RepositoryException {
+        if (version == null) {
+            return builder;
+        }
+        return ConditionalRequests.validators(builder, datastreamEtag(pid, dsId, version), version.created, cacheControl(dsId.toString(), pid));
+    }
+
+    private static String datastreamEtag(String pid, KrameriusRepositoryApi.KnownDatastreams dsId, RepositoryApi.DatastreamVersion version) {
+        return ConditionalRequests.etag(pid, dsId, version.id, version.created != null ? version.created.getTime() : null);
+    }
+
+    /**
+     * JSON odpověď s ETag spočítaným z obsahu; pro data, která nemají vlastní verzi (závisí na uživateli nebo indexu)
+     */
+    private Response conditionalJson(JSONObject json, CacheControl cacheControl) {
+        String body = json.toString();
+        String etag = ConditionalRequests.etag(body);
+        if (ConditionalRequests.isNotModified(requestProvider.get(), etag, null)) {
+            return ConditionalRequests.notModified(etag, null, cacheControl);
+        }
+        return ConditionalRequests.validators(Response.ok(body), etag, null, cacheControl).build();
+    }
+
+    private Date getObjectLastModified(String pid) throws IOException, RepositoryException {
+        LocalDateTime lastModified = krameriusRepositoryApi.getLowLevelApi().getPropertyLastModified(pid);
+        // lastModifiedDate is written in local time of the repository (see RepositoryApiImpl)
+        return lastModified != null ? Date.from(lastModified.atZone(ZoneId.systemDefault()).toInstant()) : new Date(0);
+    }
+
+    private CacheControl cacheControl(String kind, String pid) throws IOException, RepositoryException {
+        boolean publicAccess = true;
+        if (ConditionalRequests.dependsOnAccessibility(kind)) {
+            Document relsExt = krameriusRepositoryApi.getRelsExt(pid, false);
+            publicAccess = "policy:public".equals(Dom4jUtils.stringOrNullFromFirstElementByXpath(relsExt.getRootElement(), "//policy"));
         }
+        return ConditionalRequests.cacheControl(kind, publicAccess);
     }
 
     private String getPidOfFirstChild(String pid) throws IOException, RepositoryException {
@@ -42,7 +42,6 @@ import cz.incad.kramerius.rest.apiNew.client.v70.utils.RightRuntimeInformations;
 import cz.incad.kramerius.rest.apiNew.client.v70.utils.RightRuntimeInformations.RuntimeInformation;
 import cz.incad.kramerius.rest.apiNew.exceptions.InternalErrorException;
 import cz.incad.kramerius.security.User;
-import cz.incad.kramerius.security.impl.criteria.utils.CriteriaLicenseUtils;
 import cz.incad.kramerius.security.licenses.impl.lock.ExclusiveLockMapItemImpl;
 import cz.incad.kramerius.security.licenses.lock.ExclusiveLock;
 import cz.incad.kramerius.security.licenses.lock.ExclusiveLockMap;
@@ -69,21 +68,19 @@ public class LocksResource extends ClientApiResource {
             ExclusiveLockMap lockMap = this.exclusiveLockMaps.findHash(hash);
             if (lockMap != null) {
                 String tokenId = user.getSessionAttributes().get("token_id");
-                synchronized (CriteriaLicenseUtils.INTERNAL_SYNC_LOCK) {
-                    ExclusiveLockMapItem item = lockMap.findByTokenId(tokenId);
-                    if (item != null) {
-                        if (item.isValid(Instant.now())) {
-                            JSONObject jsonObject = item.toJSONObject();
-                            return Response.ok(jsonObject.toString()).type(MediaType.APPLICATION_JSON).build();
-                        } else {
-                            LOGGER.log(Level.SEVERE, String.format("Item  %s is not valid!, Deregistering ", item.toJSONObject().toString()));
-                            lockMap.deregisterItem(item);
-                            return Response.status(Status.NOT_FOUND).build();
-                        }
+                ExclusiveLockMapItem item = lockMap.findByTokenId(tokenId);
+                if (item != null) {
+                    if (item.isValid(Instant.now())) {
+                        JSONObject jsonObject = item.toJSONObject();
+                        return Response.ok(jsonObject.toString()).type(MediaType.APPLICATION_JSON).build();
                     } else {
-                        LOGGER.log(Level.SEVERE,String.format("Item by token id is not found %s", tokenId));
+                        LOGGER.log(Level.SEVERE, String.format("Item  %s is not valid!, Deregistering ", item.toJSONObject().toString()));
+                        lockMap.deregisterItem(item);
                         return Response.status(Status.NOT_FOUND).build();
                     }
+                } else {
+                    LOGGER.log(Level.SEVERE,String.format("Item by token id is not found %s", tokenId));
+                    return Response.status(Status.NOT_FOUND).build();
                 }
             } else {
                 LOGGER.log(Level.SEVERE,"Exclusive map not found ");
@@ -109,22 +106,24 @@ public class LocksResource extends ClientApiResource {
             if (lockMap != null) {
                 String tokenId = user.getSessionAttributes().get("token_id");
                 if (tokenId != null) {
-                    synchronized (CriteriaLicenseUtils.INTERNAL_SYNC_LOCK) {
-                        ExclusiveLockMapItem item = lockMap.findByTokenId(tokenId);
-                        if (item != null && item.isValid(Instant.now())) {
-                            item.refresh(Instant.now());
-                            JSONObject jsonObject = item.toJSONObject();
-                            return Response.ok(jsonObject.toString()).type(MediaType.APPLICATION_JSON).build();
+                    ExclusiveLockMapItem item = lockMap.findByTokenId(tokenId);
+                    if (item != null && item.isValid(Instant.now())) {
+                        lockMap.refresh(tokenId);
+                        ExclusiveLockMapItem refreshed = lockMap.findByTokenId(tokenId);
+                        if (refreshed == null) {
+                            // expired or released meanwhile (e.g. on other node); the client has to register again
+                            return Response.status(Status.GONE).type(MediaType.APPLICATION_JSON).build();
+                        }
+                        return Response.ok(refreshed.toJSONObject().toString()).type(MediaType.APPLICATION_JSON).build();
+                    } else {
+                        ExclusiveLock lock = lockMap.getAssociatedExcelusiveLock();
+                        Instant now = Instant.now();
+                        ExclusiveLockMapItem nitem = new ExclusiveLockMapItemImpl(tokenId, lock.getRefreshInterval(), now, now, now.plusSeconds(lock.getMaxInterval()), user.getLoginname());
+                        // checking free place and registering is atomic (also across the cluster)
+                        if (lockMap.tryRegisterItem(nitem)) {
+                            return Response.ok(nitem.toJSONObject().toString()).type(MediaType.APPLICATION_JSON).build();
                         } else {
-                            if (lockMap.checkAvailabitlity()) {
-                                ExclusiveLock lock = lockMap.getAssociatedExcelusiveLock();
-                                Instant now = Instant.now();
-                                ExclusiveLockMapItem nitem = new ExclusiveLockMapItemImpl(tokenId, lock.getRefreshInterval(), now, now, now.plusSeconds(lock.getMaxInterval()), user.getLoginname());
-                                lockMap.registerItem(nitem);
-                                return Response.ok(nitem.toJSONObject().toString()).type(MediaType.APPLICATION_JSON).build();
-                            } else {
-                                return Response.status(409).type(MediaType.APPLICATION_JSON).build();
-                            }
+                            return Response.status(409).type(MediaType.APPLICATION_JSON).build();
                         }
                     }
                 } else {
@@ -152,14 +151,12 @@ public class LocksResource extends ClientApiResource {
             User user = this.userProvider.get();
             ExclusiveLockMap lockMap = this.exclusiveLockMaps.findHash(hash);
             String tokenId = user.getSessionAttributes().get("token_id");
-            synchronized (CriteriaLicenseUtils.INTERNAL_SYNC_LOCK) {
-                ExclusiveLockMapItem item = lockMap.findByTokenId(tokenId);
-                if (item != null) {
-                    lockMap.deregisterItem(item);
-                    return Response.ok().type(MediaType.APPLICATION_JSON).build();
-                } else {
-                    return Response.status(Status.NOT_FOUND).build();
-                }
+            ExclusiveLockMapItem item = lockMap.findByTokenId(tokenId);
+            if (item != null) {
+                lockMap.deregisterItem(item);
+                return Response.ok().type(MediaType.APPLICATION_JSON).build();
+            } else {
+                return Response.status(Status.NOT_FOUND).build();
             }
         } catch (WebApplicationException e) {
             throw e;
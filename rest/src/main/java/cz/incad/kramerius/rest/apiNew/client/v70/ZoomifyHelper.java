@@ -7,6 +7,8 @@ import cz.incad.kramerius.FedoraNamespaces;
 import cz.incad.kramerius.MostDesirable;
 import cz.incad.kramerius.imaging.DeepZoomCacheService;
 import cz.incad.kramerius.imaging.DeepZoomTileSupport;
+import cz.incad.kramerius.imaging.utils.ImageServerMetrics;
+import cz.incad.kramerius.imaging.utils.TilesUrlCache;
 import cz.incad.kramerius.rest.apiNew.exceptions.NotFoundException;
 import cz.incad.kramerius.statistics.StatisticsAccessLog;
 import cz.incad.kramerius.statistics.accesslogs.AggregatedAccessLogs;
@@ -19,10 +21,12 @@ import org.apache.commons.io.IOUtils;
 import org.apache.http.Header;
 import org.apache.http.HttpEntity;
 import org.apache.http.client.HttpResponseException;
+import org.apache.http.client.config.RequestConfig;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
 import org.apache.hc.client5.http.async.HttpAsyncClient;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
@@ -42,6 +46,7 @@ import java.io.*;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 
 import static org.apache.http.HttpStatus.SC_OK;
@@ -54,6 +59,9 @@ public class ZoomifyHelper {
 
     static java.util.logging.Logger LOGGER = java.util.logging.Logger.getLogger(ZoomifyHelper.class.getName());
 
+    /** Pooled client shared by all image server requests */
+    private static volatile CloseableHttpClient IMAGE_SERVER_CLIENT;
+
     @Inject
     DeepZoomCacheService cacheService;
 
@@ -67,6 +75,9 @@ public class ZoomifyHelper {
     @Inject
     MostDesirable mostDesirable;
 
+    @Inject
+    TilesUrlCache tilesUrlCache;
+
     //@javax.inject.Inject
     //protected transient HttpAsyncClient client;
 
@@ -87,7 +98,7 @@ public class ZoomifyHelper {
         if (imageNotModified(req, imgFullLastModified)) {
             return Response.notModified().build();
         }
-        String tilesUrl = RelsExtHelper.getRelsExtTilesUrl(pid, this.fedoraAccess);
+        String tilesUrl = this.tilesUrlCache.getTilesUrl(pid, this.fedoraAccess);
         //no tiles-url
         if (tilesUrl == null || tilesUrl.isEmpty()) {
             throw new NotFoundException("no tiles-url available for object %s", pid);
@@ -108,7 +119,7 @@ public class ZoomifyHelper {
         if (imageNotModified(req, imgFullLastModified)) {
             return Response.notModified().build();
         }
-        String tilesUrl = RelsExtHelper.getRelsExtTilesUrl(pid, this.fedoraAccess);
+        String tilesUrl = this.tilesUrlCache.getTilesUrl(pid, this.fedoraAccess);
         //no tiles-url
         if (tilesUrl == null || tilesUrl.isEmpty()) {
             throw new NotFoundException("no tiles-url available for object %s", pid);
@@ -131,39 +142,18 @@ public class ZoomifyHelper {
             }
 
             Dimension originalResolution = cacheService.getResolutionFromFile(pid);
-            int maxLevels = tileSupport.getLevels(originalResolution, tileSupport.getTileSize());
 
             int offset = tileSupport.getClosestLevel(originalResolution, tileSupport.getTileSize(), 1);
             //deepzoom level
             int offsetLevel = requestedLevel + (offset);
 
-            boolean tileCached = cacheService.isDeepZoomTilePresent(pid, offsetLevel, srow, scol);
-            if (!tileCached) {
-                // File dFile = cacheService.getDeepZoomLevelsFile(uuid);
-                BufferedImage original = null;
-                if (cacheService.isDeepZoomOriginalPresent(pid)) {
-                    original = cacheService.getDeepZoomOriginal(pid);
-                } else {
-                    original = cacheService.createDeepZoomOriginalImageFromFedoraRAW(pid);
-                    cacheService.writeDeepZoomOriginalImage(pid, original);
-                }
-
-                double scale = tileSupport.getScale(requestedLevel, maxLevels);
-                Dimension scaled = tileSupport.getScaledDimension(new Dimension(original.getWidth(null), original.getHeight(null)), scale);
-                int rows = tileSupport.getRows(scaled);
-                int cols = tileSupport.getCols(scaled);
-                int base = srow * cols;
-                base = base + scol;
-                LOGGER.info("scale is " + scale + " and dimension is " + scaled);
-
-                KrameriusImageSupport.ScalingMethod method = KrameriusImageSupport.ScalingMethod.valueOf(KConfiguration.getInstance().getProperty("deepZoom.scalingMethod", "BICUBIC_STEPPED"));
-                boolean iterateScaling = KConfiguration.getInstance().getConfiguration().getBoolean("deepZoom.iterateScaling", true);
-                BufferedImage tile = this.tileSupport.getTileFromBigImage(original, requestedLevel, base, tileSupport.getTileSize(), method, iterateScaling);
-                cacheService.writeDeepZoomTile(pid, offsetLevel, srow, scol, tile);
-            }
-            InputStream is = cacheService.getDeepZoomTileStream(pid, offsetLevel, srow, scol);
+            // missing tile is generated together with its whole level; concurrent requests share one decode
+            InputStream is = cacheService.getOrCreateDeepZoomTileStream(pid, offsetLevel, requestedLevel, tileSupport.getTileSize(), srow, scol);
+            // closing the stream releases the cached folder for eviction
             StreamingOutput stream = output -> {
-                IOUtils.copy(is, output);
+                try (InputStream in = is) {
+                    IOUtils.copy(in, output);
+                }
             };
             resp.entity(stream);
             resp.type("image/jpeg");
@@ -220,79 +210,103 @@ public class ZoomifyHelper {
             tilesUrl = tilesUrl.substring(0, tilesUrl.length() - 1);
         }
         String imagePropertiesUrl = tilesUrl + "/ImageProperties.xml";
-        //readFromImageServerNonblocking(imagePropertiesUrl, resp);
-        readFromImageServerBlocking(imagePropertiesUrl, resp);
+        readFromImageServer(imagePropertiesUrl, resp);
         return resp.build();
     }
 
-    private void readFromImageServerBlocking(String url, Response.ResponseBuilder response) throws IOException {
+    /**
+     * Streams response of the image server directly to the client; connections are taken from shared pool
+     * and the body is not buffered in memory
+     */
+    private void readFromImageServer(String url, Response.ResponseBuilder response) throws IOException {
         HttpGet httpGet = new HttpGet(url);
-        try (CloseableHttpClient client = HttpClients.createDefault()) {
-            try (CloseableHttpResponse imgServerResponse = client.execute(httpGet)) {
-                if (imgServerResponse.getStatusLine().getStatusCode() == SC_OK) {
-                    HttpEntity entity = imgServerResponse.getEntity();
-                    response.type(entity.getContentType().getValue());
-                    try (InputStream imgSrvIn = entity.getContent()) {
-                        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
-                        IOUtils.copy(imgSrvIn, buffer);
-                        ByteArrayInputStream bufferIn = new ByteArrayInputStream(buffer.toByteArray());
-                        StreamingOutput stream = output -> {
-                            IOUtils.copy(bufferIn, output);
-                        };
-                        response.entity(stream);
-                        //response.setHeader("Access-Control-Allow-Origin", "*");
-                        Header cacheControl = imgServerResponse.getLastHeader("Cache-Control");
-                        if (cacheControl != null) {
-                            response.header(cacheControl.getName(), cacheControl.getValue());
-                        }
-                        Header lastModified = imgServerResponse.getLastHeader("Last-Modified");
-                        if (lastModified != null) {
-                            response.header(lastModified.getName(), lastModified.getValue());
+        long start = System.nanoTime();
+        CloseableHttpResponse imgServerResponse = imageServerClient().execute(httpGet);
+        boolean streaming = false;
+        try {
+            if (imgServerResponse.getStatusLine().getStatusCode() == SC_OK) {
+                HttpEntity entity = imgServerResponse.getEntity();
+                response.type(entity.getContentType().getValue());
+                StreamingOutput sout = new StreamingOutput() {
+                    @Override
+                    public void write(OutputStream os) throws IOException, WebApplicationException {
+                        boolean failed = true;
+                        try (InputStream io = entity.getContent()) {
+                            byte[] buff = new byte[16384];
+                            int count = 0;
+                            while ((count = io.read(buff, 0, buff.length)) != -1) {
+                                os.write(buff, 0, count);
+                            }
+                            failed = false;
+                        } finally {
+                            imgServerResponse.close();
+                            ImageServerMetrics.record(url, start, failed);
                         }
                     }
-                } else {
-                    throw new HttpResponseException(imgServerResponse.getStatusLine().getStatusCode(), imgServerResponse.getStatusLine().getReasonPhrase());
+                };
+                response.entity(sout);
+                if (entity.getContentLength() >= 0) {
+                    response.header("Content-Length", entity.getContentLength());
                 }
+                //response.setHeader("Access-Control-Allow-Origin", "*");
+                Header cacheControl = imgServerResponse.getLastHeader("Cache-Control");
+                if (cacheControl != null) {
+                    response.header(cacheControl.getName(), cacheControl.getValue());
+                }
+                Header lastModified = imgServerResponse.getLastHeader("Last-Modified");
+                if (lastModified != null) {
+                    response.header(lastModified.getName(), lastModified.getValue());
+                }
+                streaming = true;
+            } else {
+                ImageServerMetrics.record(url, start, true);
+                throw new HttpResponseException(imgServerResponse.getStatusLine().getStatusCode(), imgServerResponse.getStatusLine().getReasonPhrase());
+            }
+        } finally {
+            if (!streaming) {
+                imgServerResponse.close();
             }
         }
     }
 
-    private void readFromImageServerNonblocking(String url, Response.ResponseBuilder response) throws IOException {
-        HttpGet httpGet = new HttpGet(url);
-        try (CloseableHttpClient client = HttpClients.createDefault()) {
-            try (CloseableHttpResponse imgServerResponse = client.execute(httpGet)) {
-                if (imgServerResponse.getStatusLine().getStatusCode() == SC_OK) {
-                    HttpEntity entity = imgServerResponse.getEntity();
-                    response.type(entity.getContentType().getValue());
-                    StreamingOutput sout = new StreamingOutput() {
-                        @Override
-                        public void write(OutputStream os) throws IOException, WebApplicationException {
-                            try (InputStream io = entity.getContent()) {
-                                byte[] buff = new byte[16384];
-                                int count = 0;
-                                while ((count = io.read(buff, 0, buff.length)) != -1) {
-                                    os.write(buff, 0, count);
-                                }
-                            } finally {
-                                imgServerResponse.close();
-                            }
-                        }
-                    };
-                    response.entity(sout);
-                    //response.setHeader("Access-Control-Allow-Origin", "*");
-                    Header cacheControl = imgServerResponse.getLastHeader("Cache-Control");
-                    if (cacheControl != null) {
-                        response.header(cacheControl.getName(), cacheControl.getValue());
-                    }
-                    Header lastModified = imgServerResponse.getLastHeader("Last-Modified");
-                    if (lastModified != null) {
-                        response.header(lastModified.getName(), lastModified.getValue());
-                    }
-                } else {
-                    throw new HttpResponseException(imgServerResponse.getStatusLine().getStatusCode(), imgServerResponse.getStatusLine().getReasonPhrase());
+    /**
+     * Closes pooled client of the image server; called on application shutdown
+     */
+    public static void closeImageServerClient() {
+        synchronized (ZoomifyHelper.class) {
+            if (IMAGE_SERVER_CLIENT != null) {
+                try {
+                    IMAGE_SERVER_CLIENT.close();
+                } catch (IOException e) {
+                    LOGGER.log(Level.WARNING, "Cannot close image server client: " + e.getMessage(), e);
+                }
+                IMAGE_SERVER_CLIENT = null;
+            }
+        }
+    }
+
+    private static CloseableHttpClient imageServerClient() {
+        if (IMAGE_SERVER_CLIENT == null) {
+            synchronized (ZoomifyHelper.class) {
+                if (IMAGE_SERVER_CLIENT == null) {
+                    int httpTimeout = KConfiguration.getInstance().getConfiguration().getInt("http.timeout", 10000);
+                    int httpConnections = KConfiguration.getInstance().getConfiguration().getInt("http.connections", 50);
+                    PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager(10, TimeUnit.MINUTES);
+                    connectionManager.setMaxTotal(httpConnections);
+                    connectionManager.setDefaultMaxPerRoute(httpConnections);
+                    RequestConfig requestConfig = RequestConfig.custom()
+                            .setConnectTimeout(httpTimeout)
+                            .setConnectionRequestTimeout(httpTimeout)
+                            .setSocketTimeout(httpTimeout)
+                            .build();
+                    IMAGE_SERVER_CLIENT = HttpClients.custom()
+                            .setConnectionManager(connectionManager)
+                            .setDefaultRequestConfig(requestConfig)
+                            .build();
                 }
             }
         }
+        return IMAGE_SERVER_CLIENT;
     }
 
     private boolean useFromReplicated() {
@@ -367,8 +381,7 @@ public class ZoomifyHelper {
             throw new IOException("tiles-url not found");
         }
         String tileUrl = String.format("%s/TileGroup%d/%d-%d-%d.jpg", tilesUrl, tileGroup, level, x, y);
-        //readFromImageServerNonblocking(tileUrl, resp);
-        readFromImageServerBlocking(tileUrl, resp);
+        readFromImageServer(tileUrl, resp);
         return resp.build();
     }
 
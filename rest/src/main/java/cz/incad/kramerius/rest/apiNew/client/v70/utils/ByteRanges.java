@@ -0,0 +1,283 @@
+package cz.incad.kramerius.rest.apiNew.client.v70.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+
+/**
+ * Byte serving (headers <code>Range</code>, <code>If-Range</code>, <code>If-None-Match</code>) of content stored in a file.
+ * <p>
+ * Content is transferred directly from the file channel to the response, memory used by a request does not depend on the size
+ * of the file or of the requested ranges. More ranges are sent as <code>multipart/byteranges</code>; overlapping ranges are merged
+ * and requests with more than <code>maxRanges</code> ranges are answered with the whole content.
+ */
+public class ByteRanges {
+
+    private static final Pattern RANGE_SPEC = Pattern.compile("(\\d*)-(\\d*)");
+    private static final String CRLF = "\r\n";
+
+    private ByteRanges() {}
+
+    /**
+     * Inclusive range of bytes
+     */
+    public static class Range {
+
+        private final long start;
+        private final long end;
+
+        public Range(long start, long end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        public long getStart() {
+            return start;
+        }
+
+        public long getEnd() {
+            return end;
+        }
+
+        public long length() {
+            return end - start + 1;
+        }
+
+        String contentRange(long total) {
+            return String.format("bytes %d-%d/%d", start, end, total);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Range && ((Range) o).start == start && ((Range) o).end == end;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(start) * 31 + Long.hashCode(end);
+        }
+
+        @Override
+        public String toString() {
+            return start + "-" + end;
+        }
+    }
+
+    /**
+     * Parses value of header <code>Range</code> against content of given length.
+     * Returns null if the header is missing or is not valid (whole content is sent), empty list if no range is satisfiable,
+     * otherwise sorted ranges with overlapping and adjacent ranges merged.
+     */
+    public static List<Range> parse(String header, long length) {
+        if (header == null || !header.startsWith("bytes=")) {
+            return null;
+        }
+        List<Range> ranges = new ArrayList<>();
+        for (String spec : header.substring("bytes=".length()).split(",")) {
+            Matcher matcher = RANGE_SPEC.matcher(spec.trim());
+            if (!matcher.matches() || (matcher.group(1).isEmpty() && matcher.group(2).isEmpty())) {
+                return null;
+            }
+            long start;
+            long end;
+            try {
+                if (matcher.group(1).isEmpty()) {
+                    // suffix: last n bytes
+                    long suffix = Long.parseLong(matcher.group(2));
+                    if (suffix == 0) {
+                        continue;
+                    }
+                    start = Math.max(0, length - suffix);
+                    end = length - 1;
+                } else {
+                    start = Long.parseLong(matcher.group(1));
+                    end = length - 1;
+                    if (!matcher.group(2).isEmpty()) {
+                        long last = Long.parseLong(matcher.group(2));
+                        if (last < start) {
+                            return null;
+                        }
+                        end = Math.min(last, length - 1);
+                    }
+                }
+            } catch (NumberFormatException e) {
+                return null;
+            }
+            if (start < length) {
+                ranges.add(new Range(start, end));
+            }
+        }
+        return merge(ranges);
+    }
+
+    private static List<Range> merge(List<Range> ranges) {
+        if (ranges.size() < 2) {
+            return ranges;
+        }
+        ranges.sort(Comparator.comparingLong(Range::getStart));
+        List<Range> merged = new ArrayList<>();
+        Range current = ranges.get(0);
+        for (Range next : ranges.subList(1, ranges.size())) {
+            if (next.start <= current.end + 1) {
+                current = new Range(current.start, Math.max(current.end, next.end));
+            } else {
+                merged.add(current);
+                current = next;
+            }
+        }
+        merged.add(current);
+        return merged;
+    }
+
+    /**
+     * Returns true if the request asks for the beginning of the content (no <code>Range</code> header or range starting at 0);
+     * players following up with further ranges of the same content are not counted as new accesses
+     */
+    public static boolean isInitialRequest(HttpServletRequest request) {
+        String header = request.getHeader("Range");
+        return header == null || !header.startsWith("bytes=") || header.substring("bytes=".length()).trim().startsWith("0-");
+    }
+
+    /**
+     * Entity tag of the file derived from its length and the last modification
+     */
+    public static String etag(File file) {
+        return "\"" + Long.toHexString(file.length()) + "-" + Long.toHexString(file.lastModified()) + "\"";
+    }
+
+    /**
+     * Builds response with content of the file
+     * @param file File with content
+     * @param mimeType Mimetype of the content
+     * @param request Http request with conditional and range headers
+     * @param acceptRanges Whether header <code>Range</code> is respected
+     * @param maxRanges Maximal number of ranges in one request
+     */
+    public static Response response(File file, String mimeType, HttpServletRequest request, boolean acceptRanges, int maxRanges) {
+        long length = file.length();
+        long lastModified = file.lastModified();
+        String etag = etag(file);
+        if (ConditionalRequests.matches(request.getHeader("If-None-Match"), etag)) {
+            return Response.notModified().header("ETag", etag).build();
+        }
+        List<Range> ranges = null;
+        String rangeHeader = request.getHeader("Range");
+        // Chrome uses "bytes=0-" and expects 200 instead of 206
+        if (acceptRanges && !"bytes=0-".equals(rangeHeader) && ifRange(request.getHeader("If-Range"), etag, lastModified)) {
+            ranges = parse(rangeHeader, length);
+            if (ranges != null && ranges.size() > maxRanges) {
+                ranges = null;
+            }
+        }
+        Response.ResponseBuilder builder;
+        if (ranges == null) {
+            builder = Response.ok(body(file, Collections.singletonList(new Range(0, length - 1)), null, mimeType, length))
+                    .type(mimeType)
+                    .header("Content-Length", length);
+        } else if (ranges.isEmpty()) {
+            builder = Response.status(416).header("Content-Range", "bytes */" + length);
+        } else if (ranges.size() == 1) {
+            Range range = ranges.get(0);
+            builder = Response.status(206).entity(body(file, ranges, null, mimeType, length))
+                    .type(mimeType)
+                    .header("Content-Range", range.contentRange(length))
+                    .header("Content-Length", range.length());
+        } else {
+            String boundary = UUID.randomUUID().toString().replace("-", "");
+            long contentLength = partsEnd(boundary).length;
+            for (Range range : ranges) {
+                contentLength += partHeader(boundary, mimeType, range, length).length + range.length();
+            }
+            builder = Response.status(206).entity(body(file, ranges, boundary, mimeType, length))
+                    .type("multipart/byteranges; boundary=" + boundary)
+                    .header("Content-Length", contentLength);
+        }
+        if (acceptRanges) {
+            builder.header("Accept-Ranges", "bytes");
+        }
+        return builder.header("ETag", etag).lastModified(new Date(lastModified)).build();
+    }
+
+    /**
+     * Header <code>If-Range</code> is either entity tag (compared strongly) or date of the last modification
+     */
+    private static boolean ifRange(String ifRange, String etag, long lastModified) {
+        if (ifRange == null) {
+            return true;
+        }
+        ifRange = ifRange.trim();
+        if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+            return ifRange.equals(etag);
+        }
+        try {
+            long date = ZonedDateTime.parse(ifRange, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+            return lastModified / 1000 <= date / 1000;
+        } catch (DateTimeParseException e) {
+            return false;
+        }
+    }
+
+    private static byte[] partHeader(String boundary, String mimeType, Range range, long length) {
+        String header = CRLF + "--" + boundary + CRLF
+                + "Content-Type: " + mimeType + CRLF
+                + "Content-Range: " + range.contentRange(length) + CRLF
+                + CRLF;
+        return header.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static byte[] partsEnd(String boundary) {
+        return (CRLF + "--" + boundary + "--" + CRLF).getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static StreamingOutput body(File file, List<Range> ranges, String boundary, String mimeType, long length) {
+        return output -> {
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                WritableByteChannel target = Channels.newChannel(output);
+                for (Range range : ranges) {
+                    if (boundary != null) {
+                        output.write(partHeader(boundary, mimeType, range, length));
+                    }
+                    transfer(channel, range, target, output);
+                }
+                if (boundary != null) {
+                    output.write(partsEnd(boundary));
+                }
+            }
+        };
+    }
+
+    private static void transfer(FileChannel channel, Range range, WritableByteChannel target, OutputStream output) throws IOException {
+        long position = range.start;
+        long remaining = range.length();
+        while (remaining > 0) {
+            long transferred = channel.transferTo(position, remaining, target);
+            if (transferred <= 0) {
+                // file was truncated meanwhile
+                throw new IOException("Unexpected end of file at position " + position);
+            }
+            position += transferred;
+            remaining -= transferred;
+        }
+        output.flush();
+    }
+}
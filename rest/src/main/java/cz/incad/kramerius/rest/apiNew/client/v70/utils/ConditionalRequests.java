@@ -0,0 +1,151 @@
+package cz.incad.kramerius.rest.apiNew.client.v70.utils;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Date;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.ws.rs.core.CacheControl;
+import javax.ws.rs.core.Response;
+
+import cz.incad.kramerius.utils.conf.KConfiguration;
+
+/**
+ * Validators (<code>ETag</code>, <code>Last-Modified</code>), conditional requests (<code>If-None-Match</code>,
+ * <code>If-Modified-Since</code>) and <code>Cache-Control</code> of client API responses.
+ * <p>
+ * Cache policy is configured per kind of data (<code>IMG_THUMB</code>, <code>IMG_PREVIEW</code>, <code>BIBLIO_MODS</code>,
+ * <code>DC</code>, <code>INFO</code>) and accessibility of the object:
+ * <code>api.client.cache.[kind].public.maxAge</code> for objects accessible by everyone (shared caches may store them),
+ * <code>api.client.cache.[kind].private.maxAge</code> for other objects (only the browser may store them).
+ * Max age 0 means that the response must be revalidated on every use; negative value disables caching.
+ */
+public class ConditionalRequests {
+
+    private ConditionalRequests() {}
+
+    /**
+     * Strong entity tag derived from given parts (e.g. pid, datastream and its version)
+     */
+    public static String etag(Object... parts) {
+        StringBuilder builder = new StringBuilder();
+        for (Object part : parts) {
+            builder.append(part).append('|');
+        }
+        return "\"" + digest(builder.toString()) + "\"";
+    }
+
+    private static String digest(String value) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(value.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder();
+            // 16 bytes are enough for an entity tag
+            for (int i = 0; i < 16; i++) {
+                hex.append(String.format("%02x", digest[i]));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Returns true if the client has the current representation; <code>If-None-Match</code> takes precedence over <code>If-Modified-Since</code>
+     * @param etag Entity tag of the current representation
+     * @param lastModified Last modification of the current representation or null
+     */
+    public static boolean isNotModified(HttpServletRequest request, String etag, Date lastModified) {
+        String ifNoneMatch = request.getHeader("If-None-Match");
+        if (ifNoneMatch != null) {
+            return matches(ifNoneMatch, etag);
+        }
+        String ifModifiedSince = request.getHeader("If-Modified-Since");
+        if (ifModifiedSince != null && lastModified != null) {
+            try {
+                long date = ZonedDateTime.parse(ifModifiedSince.trim(), DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+                return lastModified.getTime() / 1000 <= date / 1000;
+            } catch (DateTimeParseException e) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Weak comparison of entity tags from header <code>If-None-Match</code>
+     */
+    public static boolean matches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String tag : ifNoneMatch.split(",")) {
+            tag = tag.trim();
+            if (tag.equals("*") || tag.equals(etag) || tag.equals("W/" + etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Response 304 with the validators and cache policy
+     */
+    public static Response notModified(String etag, Date lastModified, CacheControl cacheControl) {
+        return validators(Response.notModified(), etag, lastModified, cacheControl).build();
+    }
+
+    /**
+     * Adds validators and cache policy to the response
+     */
+    public static Response.ResponseBuilder validators(Response.ResponseBuilder builder, String etag, Date lastModified, CacheControl cacheControl) {
+        builder.header("ETag", etag);
+        if (lastModified != null) {
+            // header has precision of seconds
+            builder.lastModified(new Date(lastModified.getTime() / 1000 * 1000));
+        }
+        if (cacheControl != null) {
+            builder.cacheControl(cacheControl);
+        }
+        return builder;
+    }
+
+    /**
+     * Returns true if the policy of given kind of data differs for public and non-public objects, so that accessibility of the object
+     * has to be known
+     */
+    public static boolean dependsOnAccessibility(String kind) {
+        return maxAge(kind, true) != maxAge(kind, false);
+    }
+
+    /**
+     * Cache policy of given kind of data
+     * @param kind Kind of data
+     * @param publicAccess Whether the object is accessible by everyone
+     * @return Cache policy or null if caching is disabled
+     */
+    public static CacheControl cacheControl(String kind, boolean publicAccess) {
+        int maxAge = maxAge(kind, publicAccess);
+        if (maxAge < 0) {
+            return null;
+        }
+        CacheControl cacheControl = new CacheControl();
+        cacheControl.setNoTransform(false);
+        cacheControl.setPrivate(!publicAccess);
+        if (maxAge == 0) {
+            cacheControl.setNoCache(true);
+        } else {
+            cacheControl.setMaxAge(maxAge);
+        }
+        return cacheControl;
+    }
+
+    private static int maxAge(String kind, boolean publicAccess) {
+        String access = publicAccess ? "public" : "private";
+        int defaultMaxAge = KConfiguration.getInstance().getConfiguration().getInt("api.client.cache." + access + ".maxAge", publicAccess ? 3600 : 0);
+        return KConfiguration.getInstance().getConfiguration().getInt("api.client.cache." + kind + "." + access + ".maxAge", defaultMaxAge);
+    }
+}
@@ -3,8 +3,10 @@ package cz.incad.kramerius.rest.apiNew.client.v70.utils;
 import java.io.IOException;
 import java.net.URLEncoder;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.stream.Collectors;
 
 import org.apache.commons.lang3.tuple.Triple;
 import org.json.JSONArray;
@@ -18,6 +20,7 @@ import cz.incad.kramerius.security.Right;
 import cz.incad.kramerius.security.RightsResolver;
 import cz.incad.kramerius.security.RightsReturnObject;
 import cz.incad.kramerius.security.SecuredActions;
+import cz.incad.kramerius.security.User;
 import cz.incad.kramerius.security.impl.criteria.Licenses;
 import cz.incad.kramerius.security.impl.criteria.LicensesGEOIPFiltered;
 import cz.incad.kramerius.security.impl.criteria.LicensesIPFiltered;
@@ -59,28 +62,8 @@ public class RightRuntimeInformations {
             }
             for (ObjectPidsPath p : pidsPathList) {
                 RightsReturnObject actionAllowed = rightsResolver.isActionAllowed(SecuredActions.A_READ.getFormalName(), pid, ImageStreams.IMG_FULL.getStreamName(), p);
-             
-                if (actionAllowed.getRight() != null && actionAllowed.getRight().getCriteriumWrapper() != null) {
-                    String qName = actionAllowed.getRight().getCriteriumWrapper().getRightCriterium().getQName();
-                    
-                    if (/*qName.equals(ReadDNNTFlag.class.getName()) ||
-                            qName.equals(ReadDNNTFlagIPFiltered.class.getName()) ||*/
-                            
-                            LicensesCriteria(qName)
-                    ) {
-                        Map<String, String> evaluateInfoMap = actionAllowed.getEvaluateInfoMap();
-                        if (evaluateInfoMap.containsKey(ReadDNNTLabels.PROVIDED_BY_LABEL)) {
-                            licenseList.add(evaluateInfoMap.get(ReadDNNTLabels.PROVIDED_BY_LABEL));
-                        }
-                        
-                        if (evaluateInfoMap.containsKey(ExclusiveLockMap.LOCK_HASH)) {
-                            String hash = evaluateInfoMap.get(ExclusiveLockMap.LOCK_HASH);
-                            String type = evaluateInfoMap.get(ExclusiveLockMap.LOCK_TYPE);
-                            locks.add(Triple.of(hash, type, actionAllowed.getRight()));
-                            
-                        }
-                        break;
-                    }
+                if (collectLicenseInformations(actionAllowed, licenseList, locks)) {
+                    break;
                 }
             }
         }
@@ -89,6 +72,81 @@ public class RightRuntimeInformations {
         
     }
     
+    /**
+     * Extracts the same information as {@link #extractInformations(RightsResolver, SolrAccess, String)} for several objects at once
+     * (e.g. one page of search results); paths of all objects are found by one search index request and rights are evaluated
+     * by one {@link RightsResolver#isActionAllowedForObjects(User, String, String[], String, ObjectPidsPath[])} call.
+     * Information is also marked as accessible if reading of the object is allowed by any of its paths.
+     * @return Information keyed by pid; objects missing in the search index are not present
+     */
+    public static Map<String, RuntimeInformation> extractInformations(RightsResolver rightsResolver, SolrAccess solrAccess, User user, List<String> pids) throws IOException {
+        Map<String, RuntimeInformation> informations = new LinkedHashMap<>();
+        if (pids.isEmpty()) {
+            return informations;
+        }
+        String condition = pids.stream().map(pid -> "\"" + pid + "\"").collect(Collectors.joining(" OR "));
+        String encoded = URLEncoder.encode("pid:(" + condition + ")", "UTF-8");
+        JSONObject solrResponseJson = solrAccess.requestWithSelectReturningJson("q=" + encoded + "&fl=pid,pid_paths&rows=" + pids.size());
+
+        List<String> requestedPids = new ArrayList<>();
+        List<ObjectPidsPath> requestedPaths = new ArrayList<>();
+        JSONArray docs = solrResponseJson.getJSONObject("response").getJSONArray("docs");
+        for (int i = 0; i < docs.length(); i++) {
+            JSONObject doc = docs.getJSONObject(i);
+            JSONArray pidPaths = doc.optJSONArray("pid_paths");
+            if (pidPaths != null) {
+                for (int j = 0; j < pidPaths.length(); j++) {
+                    requestedPids.add(doc.getString("pid"));
+                    requestedPaths.add(new ObjectPidsPath(pidPaths.getString(j)));
+                }
+            }
+        }
+        RightsReturnObject[] results = rightsResolver.isActionAllowedForObjects(user, SecuredActions.A_READ.getFormalName(),
+                requestedPids.toArray(new String[requestedPids.size()]), ImageStreams.IMG_FULL.getStreamName(),
+                requestedPaths.toArray(new ObjectPidsPath[requestedPaths.size()]));
+
+        Map<String, List<RightsReturnObject>> resultsByPid = new LinkedHashMap<>();
+        for (int i = 0; i < results.length; i++) {
+            resultsByPid.computeIfAbsent(requestedPids.get(i), k -> new ArrayList<>()).add(results[i]);
+        }
+        for (String pid : pids) {
+            List<RightsReturnObject> pidResults = resultsByPid.get(pid);
+            if (pidResults == null) {
+                continue;
+            }
+            List<String> licenseList = new ArrayList<>();
+            List<Triple<String, String, Right>> locks = new ArrayList<>();
+            // licenses and locks from the first path provided by a license, as for one object
+            for (RightsReturnObject actionAllowed : pidResults) {
+                if (collectLicenseInformations(actionAllowed, licenseList, locks)) {
+                    break;
+                }
+            }
+            boolean accessible = pidResults.stream().anyMatch(RightsReturnObject::flag);
+            informations.put(pid, new RuntimeInformation(licenseList, locks, accessible));
+        }
+        return informations;
+    }
+
+    private static boolean collectLicenseInformations(RightsReturnObject actionAllowed, List<String> licenseList, List<Triple<String, String, Right>> locks) {
+        if (actionAllowed.getRight() != null && actionAllowed.getRight().getCriteriumWrapper() != null) {
+            String qName = actionAllowed.getRight().getCriteriumWrapper().getRightCriterium().getQName();
+            if (LicensesCriteria(qName)) {
+                Map<String, String> evaluateInfoMap = actionAllowed.getEvaluateInfoMap();
+                if (evaluateInfoMap.containsKey(ReadDNNTLabels.PROVIDED_BY_LABEL)) {
+                    licenseList.add(evaluateInfoMap.get(ReadDNNTLabels.PROVIDED_BY_LABEL));
+                }
+                if (evaluateInfoMap.containsKey(ExclusiveLockMap.LOCK_HASH)) {
+                    String hash = evaluateInfoMap.get(ExclusiveLockMap.LOCK_HASH);
+                    String type = evaluateInfoMap.get(ExclusiveLockMap.LOCK_TYPE);
+                    locks.add(Triple.of(hash, type, actionAllowed.getRight()));
+                }
+                return true;
+            }
+        }
+        return false;
+    }
+
     public static boolean LicensesCriteria(String qName) {
         return LicensesCriteriaList.NAMES.contains(qName);
     }
@@ -98,12 +156,25 @@ public class RightRuntimeInformations {
         private List<String> providingLicenses;
         // hash, type, right
         private List<Triple<String, String, Right>> locks;
+        private boolean accessible;
  
         public RuntimeInformation(List<String> providingLicenses, List<Triple<String, String, Right>> locks) {
             super();
             this.providingLicenses = providingLicenses;
             this.locks = locks;
         }
+
+        public RuntimeInformation(List<String> providingLicenses, List<Triple<String, String, Right>> locks, boolean accessible) {
+            this(providingLicenses, locks);
+            this.accessible = accessible;
+        }
+
+        /**
+         * Returns true if reading of the object is allowed; known only for information extracted for several objects at once
+         */
+        public boolean isAccessible() {
+            return accessible;
+        }
         
         // getProvidedLicenses
         public List<String> getProvidingLicenses() {
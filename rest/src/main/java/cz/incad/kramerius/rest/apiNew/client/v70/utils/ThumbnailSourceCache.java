@@ -0,0 +1,125 @@
+package cz.incad.kramerius.rest.apiNew.client.v70.utils;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.ehcache.Cache;
+import org.ehcache.CacheManager;
+import org.ehcache.config.builders.CacheConfigurationBuilder;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+import cz.incad.kramerius.fedora.om.impl.AkubraDOManager;
+import cz.incad.kramerius.repository.KrameriusRepositoryApi.KnownDatastreams;
+import cz.incad.kramerius.utils.cache.CacheTiers;
+import cz.incad.kramerius.utils.conf.KConfiguration;
+
+/**
+ * Maps object to the object whose IMG_THUMB (IMG_PREVIEW) is shown for it, i.e. the object itself or its first descendant having
+ * the datastream; thumbnail of a periodical, volume or title then costs one lookup instead of walking down the tree.
+ * <p>
+ * Every entry holds the whole path from the object to the source and the time the path was resolved. Change of any object
+ * (see {@link AkubraDOManager#addInvalidationListener(java.util.function.Consumer)}) removes its own entry and stamps its
+ * stripe with the time of the change; an entry whose path has a member changed after the resolution is not returned, so a
+ * changed structure of any ancestor of the source is noticed as well. Stripes are shared by several objects, a change may
+ * therefore also drop unrelated entries, which are only resolved again.
+ * <p>
+ * Tiers and time to live are configured as other local caches (<code>cache.ThumbnailSourceCache.*</code>, see
+ * {@link CacheTiers}); with a disk tier the map survives restart. Changes made while the application was stopped are
+ * noticed only by the caller, which checks that the source still has the datastream, or when the entry expires.
+ */
+@Singleton
+public class ThumbnailSourceCache {
+
+    public static final Logger LOGGER = Logger.getLogger(ThumbnailSourceCache.class.getName());
+
+    private static final String CACHE_ALIAS = "ThumbnailSourceCache";
+
+    private static final KnownDatastreams[] CACHED_DATASTREAMS = {KnownDatastreams.IMG_THUMB, KnownDatastreams.IMG_PREVIEW};
+
+    private static final int STRIPES = 4096;
+
+    private static final String SEPARATOR = " ";
+
+    private final Cache<String, String> cache;
+
+    /** Time of the last change of an object of the stripe */
+    private final AtomicLongArray changes = new AtomicLongArray(STRIPES);
+
+    @Inject
+    public ThumbnailSourceCache(CacheManager cacheManager) {
+        if (isEnabled()) {
+            Cache<String, String> existing = cacheManager.getCache(CACHE_ALIAS, String.class, String.class);
+            if (existing == null) {
+                existing = cacheManager.createCache(CACHE_ALIAS,
+                        CacheConfigurationBuilder.newCacheConfigurationBuilder(String.class, String.class,
+                                CacheTiers.resourcePools(cacheManager, CACHE_ALIAS, 100000, 0))
+                                .withExpiry(CacheTiers.expiry(CACHE_ALIAS)).build());
+            }
+            this.cache = existing;
+            try {
+                AkubraDOManager.addInvalidationListener(this::invalidate);
+            } catch (Throwable e) {
+                LOGGER.log(Level.WARNING, "Cannot register thumbnail source cache invalidation, entries will only expire: " + e.getMessage(), e);
+            }
+        } else {
+            this.cache = null;
+        }
+    }
+
+    /**
+     * Returns path from given object to the object providing the datastream (both included) or null if it is not cached
+     * or a member of the path has changed since the path was resolved
+     */
+    public List<String> get(String pid, KnownDatastreams dsId) {
+        String value = cache != null ? cache.get(key(pid, dsId)) : null;
+        if (value == null) {
+            return null;
+        }
+        String[] parts = value.split(SEPARATOR);
+        long resolved = Long.parseLong(parts[0]);
+        List<String> path = Arrays.asList(parts).subList(1, parts.length);
+        for (String member : path) {
+            if (changes.get(stripe(member)) >= resolved) {
+                cache.remove(key(pid, dsId));
+                return null;
+            }
+        }
+        return path;
+    }
+
+    /**
+     * @param path Path from the object to the object providing the datastream
+     * @param resolved Time when resolution of the path started; the entry is ignored if a member changed since then
+     */
+    public void put(String pid, KnownDatastreams dsId, List<String> path, long resolved) {
+        if (cache != null) {
+            cache.put(key(pid, dsId), resolved + SEPARATOR + String.join(SEPARATOR, path));
+        }
+    }
+
+    public void invalidate(String pid) {
+        if (cache != null && pid != null) {
+            changes.accumulateAndGet(stripe(pid), System.currentTimeMillis(), Math::max);
+            for (KnownDatastreams dsId : CACHED_DATASTREAMS) {
+                cache.remove(key(pid, dsId));
+            }
+        }
+    }
+
+    private static int stripe(String pid) {
+        return (pid.hashCode() & 0x7fffffff) % STRIPES;
+    }
+
+    private static String key(String pid, KnownDatastreams dsId) {
+        return pid + "/" + dsId;
+    }
+
+    private static boolean isEnabled() {
+        return KConfiguration.getInstance().getConfiguration().getBoolean("thumbnails.sourceCache.enabled", true);
+    }
+}
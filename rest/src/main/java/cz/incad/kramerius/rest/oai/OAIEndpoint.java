@@ -30,8 +30,10 @@ import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.PathSegment;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
 import javax.ws.rs.core.UriInfo;
 import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.transform.TransformerException;
 
 import org.json.JSONObject;
 import org.w3c.dom.Document;
@@ -101,6 +103,9 @@ public class OAIEndpoint extends ClientApiResource {
     @Inject
     ProxyFilter proxyFilter;
 
+    @Inject
+    OAIRecordsRenderer recordsRenderer;
+
     
     public OAIEndpoint() {
     }
@@ -172,15 +177,21 @@ public class OAIEndpoint extends ClientApiResource {
 				 boolean cdkServerMode = KConfiguration.getInstance().getConfiguration().getBoolean("cdk.server.mode");
 				 if (cdkServerMode) {
 					// cdk
-					oaiVerb.performOnCDKSide(this.userProvider, clientProvider,  instances, configManager, this.proxyFilter, this.solrAccess, this.requestProvider.get(), oai, oaiRoot);
+					oaiVerb.performOnCDKSide(this.userProvider, clientProvider,  instances, configManager, this.proxyFilter, this.solrAccess, this.requestProvider.get(), this.recordsRenderer, oai, oaiRoot);
 				 } else {
 					// local	
-					oaiVerb.performOnLocal(configManager, this.fedoraAccess, solrAccess, this.requestProvider.get(), oai, oaiRoot);
+					oaiVerb.performOnLocal(configManager, this.fedoraAccess, solrAccess, this.requestProvider.get(), this.recordsRenderer, oai, oaiRoot);
 				 }
 
-                 StringWriter writer = new StringWriter();
-                 XMLUtils.print(oai, writer);
-                 return Response.ok(writer.toString()).build();
+                 // serialized directly into the response, large ListRecords pages are not copied into string
+                 StreamingOutput output = out -> {
+                     try {
+                         XMLUtils.print(oai, out);
+                     } catch (TransformerException e) {
+                         throw new IOException(e.getMessage(), e);
+                     }
+                 };
+                 return Response.ok(output).build();
             } catch(OAIException e) {
                 throw e;
             } catch (Exception e) {
@@ -220,6 +220,12 @@ public class OAIRecord {
 	}
 	
     public Element toHeaderOnLocal(Document doc, FedoraAccess fa, OAISet set ) throws IOException {
+        String pid = OAITools.pidFromOAIIdentifier(this.identifier);
+        return toHeaderOnLocal(doc, set, fa.isObjectAvailable(pid));
+    }
+
+    /** render header when availability of the object is already known */
+    public Element toHeaderOnLocal(Document doc, OAISet set, boolean available) {
         Element header = doc.createElement("header");
 
         Element identifier = doc.createElement("identifier");
@@ -240,7 +246,7 @@ public class OAIRecord {
 		
 		// local 
 		String pid = OAITools.pidFromOAIIdentifier(this.identifier);
-		if (!fa.isObjectAvailable(pid) && (!pid.contains("_"))) {
+		if (!available && (!pid.contains("_"))) {
 			header.setAttribute("status", "deleted");
 		}
         return header;
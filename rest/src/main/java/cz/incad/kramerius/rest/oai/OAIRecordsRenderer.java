@@ -0,0 +1,278 @@
+package cz.incad.kramerius.rest.oai;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.transform.TransformerException;
+
+import org.ehcache.Cache;
+import org.ehcache.CacheManager;
+import org.ehcache.config.builders.CacheConfigurationBuilder;
+import org.ehcache.config.builders.ExpiryPolicyBuilder;
+import org.ehcache.config.builders.ResourcePoolsBuilder;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.xml.sax.SAXException;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+import cz.incad.kramerius.fedora.om.impl.AkubraDOManager;
+import cz.incad.kramerius.utils.XMLUtils;
+import cz.incad.kramerius.utils.conf.KConfiguration;
+
+/**
+ * Renders records of one ListRecords page.
+ * <p>
+ * Every record (header and metadata) is rendered by a worker into its own scratch document, because DOM is not thread safe;
+ * the finished record is imported into the response in the original order. At most <code>oai.listRecords.window</code>
+ * records of one request are rendered at once, workers are shared by all requests (<code>oai.listRecords.threads</code>).
+ * Workers get a copy of the request values ({@link #detach(HttpServletRequest)}), never the container request.
+ * <p>
+ * Rendered metadata can be cached (<code>oai.metadataCache.enabled</code>, <code>.size</code>, <code>.ttl</code>); one entry per pid
+ * holds all rendered variants (metadata prefix, set and application url, which is part of the metadata). The entry
+ * is dropped when the object changes in the local repository. Records of CDK come from source libraries whose changes are
+ * not announced, they would stay stale until the entry expires; they are cached only with
+ * <code>oai.metadataCache.cdk.enabled</code>.
+ * <p>
+ * Workers are stopped by {@link #shutdown()} when the application stops (see {@link OAIRecordsRendererLifeCycleHook}).
+ */
+@Singleton
+public class OAIRecordsRenderer {
+
+    public static final Logger LOGGER = Logger.getLogger(OAIRecordsRenderer.class.getName());
+
+    private static final String METADATA_CACHE_ALIAS = "OAIMetadataCache";
+
+    private ExecutorService executor;
+    private final Cache<String, CachedMetadata> metadataCache;
+    private final boolean cacheCDKMetadata;
+
+    @Inject
+    public OAIRecordsRenderer(CacheManager cacheManager) {
+        if (KConfiguration.getInstance().getConfiguration().getBoolean("oai.metadataCache.enabled", false)) {
+            Cache<String, CachedMetadata> existing = cacheManager.getCache(METADATA_CACHE_ALIAS, String.class, CachedMetadata.class);
+            if (existing == null) {
+                existing = cacheManager.createCache(METADATA_CACHE_ALIAS,
+                        CacheConfigurationBuilder.newCacheConfigurationBuilder(String.class, CachedMetadata.class,
+                                ResourcePoolsBuilder.heap(KConfiguration.getInstance().getConfiguration().getInt("oai.metadataCache.size", 10000)))
+                                .withExpiry(ExpiryPolicyBuilder.timeToLiveExpiration(
+                                        Duration.ofSeconds(KConfiguration.getInstance().getConfiguration().getInt("oai.metadataCache.ttl", 3600)))).build());
+            }
+            this.metadataCache = existing;
+            this.cacheCDKMetadata = KConfiguration.getInstance().getConfiguration().getBoolean("oai.metadataCache.cdk.enabled", false);
+            try {
+                AkubraDOManager.addInvalidationListener(this::invalidate);
+            } catch (Throwable e) {
+                LOGGER.log(Level.WARNING, "Cannot register OAI metadata cache invalidation, entries will only expire: " + e.getMessage(), e);
+            }
+        } else {
+            this.metadataCache = null;
+            this.cacheCDKMetadata = false;
+        }
+    }
+
+    /**
+     * Renders one record into given scratch document
+     */
+    @FunctionalInterface
+    public interface RecordRenderer {
+        Element render(OAIRecord record, Document scratch) throws IOException;
+    }
+
+    /**
+     * Returns copy of the request values which can be used by worker threads; must be called on the request thread
+     */
+    public static HttpServletRequest detach(HttpServletRequest request) {
+        return request instanceof OAIRequestSnapshot ? request : new OAIRequestSnapshot(request);
+    }
+
+    /**
+     * Renders all records and appends them to the parent element, keeping the order of records
+     * @param records Records of the page
+     * @param parent ListRecords element
+     * @param renderer Renders one record
+     * @throws IOException First failure of the renderer
+     */
+    public void renderRecords(List<OAIRecord> records, Element parent, RecordRenderer renderer) throws IOException {
+        Document doc = parent.getOwnerDocument();
+        int threads = KConfiguration.getInstance().getConfiguration().getInt("oai.listRecords.threads", 4);
+        if (threads <= 1 || records.size() <= 1) {
+            for (OAIRecord rec : records) {
+                parent.appendChild(doc.importNode(renderOne(rec, renderer), true));
+            }
+            return;
+        }
+        int window = KConfiguration.getInstance().getConfiguration().getInt("oai.listRecords.window", threads * 2);
+        ExecutorService workers = executor(threads);
+        Deque<Future<Element>> inFlight = new ArrayDeque<>();
+        int next = 0;
+        try {
+            while (next < records.size() || !inFlight.isEmpty()) {
+                while (next < records.size() && inFlight.size() < window) {
+                    OAIRecord rec = records.get(next++);
+                    inFlight.add(workers.submit(() -> renderOne(rec, renderer)));
+                }
+                Element record = inFlight.poll().get();
+                parent.appendChild(doc.importNode(record, true));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e.getMessage(), e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else {
+                throw new IOException(cause.getMessage(), cause);
+            }
+        } finally {
+            for (Future<Element> f : inFlight) {
+                f.cancel(true);
+            }
+        }
+    }
+
+    private static Element renderOne(OAIRecord rec, RecordRenderer renderer) throws IOException {
+        try {
+            Document scratch = XMLUtils.crateDocument("record");
+            return renderer.render(rec, scratch);
+        } catch (ParserConfigurationException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Returns metadata element from cache or renders it by loader; returned element is owned by the scratch document
+     * @param export Metadata format
+     * @param set Selected set
+     * @param identifier OAI identifier
+     * @param applicationUrl Application url of the request (taken on the request thread)
+     * @param scratch Document owning the result
+     * @param loader Renders metadata when they are not cached; it may return null for unavailable metadata, which is not cached
+     */
+    public Element metadata(MetadataExport export, OAISet set, String identifier, String applicationUrl, Document scratch, Supplier<Element> loader) {
+        String pid = OAITools.pidFromOAIIdentifier(identifier);
+        if (this.metadataCache == null || pid == null) {
+            return loader.get();
+        }
+        String variant = export.getMetadataPrefix() + "|" + (set != null ? set.getSetSpec() : "") + "|" + applicationUrl;
+        CachedMetadata cachedMetadata = this.metadataCache.get(pid);
+        String cached = cachedMetadata != null ? cachedMetadata.get(variant) : null;
+        if (cached != null) {
+            try {
+                Document parsed = XMLUtils.parseDocument(new StringReader(cached), false);
+                return (Element) scratch.importNode(parsed.getDocumentElement(), true);
+            } catch (ParserConfigurationException | SAXException | IOException e) {
+                LOGGER.log(Level.WARNING, String.format("Cannot use cached metadata %s %s, rendering again", pid, variant), e);
+                this.metadataCache.remove(pid);
+            }
+        }
+        Element rendered = loader.get();
+        if (rendered != null) {
+            try {
+                StringWriter writer = new StringWriter();
+                XMLUtils.print(rendered, writer);
+                store(pid, variant, writer.toString());
+            } catch (TransformerException e) {
+                LOGGER.log(Level.WARNING, e.getMessage(), e);
+            }
+        }
+        return rendered;
+    }
+
+    /**
+     * Returns metadata of a CDK record; cached only with <code>oai.metadataCache.cdk.enabled</code>, see
+     * {@link #metadata(MetadataExport, OAISet, String, String, Document, Supplier)}
+     */
+    public Element metadataOnCDKSide(MetadataExport export, OAISet set, String identifier, String applicationUrl, Document scratch, Supplier<Element> loader) {
+        return this.cacheCDKMetadata ? metadata(export, set, identifier, applicationUrl, scratch, loader) : loader.get();
+    }
+
+    private void store(String pid, String variant, String xml) {
+        // variants of one pid are rendered concurrently by different requests
+        for (int attempt = 0; attempt < 3; attempt++) {
+            CachedMetadata current = this.metadataCache.get(pid);
+            if (current == null) {
+                if (this.metadataCache.putIfAbsent(pid, new CachedMetadata(Collections.singletonMap(variant, xml))) == null) {
+                    return;
+                }
+            } else if (this.metadataCache.replace(pid, current, current.with(variant, xml))) {
+                return;
+            }
+        }
+    }
+
+    private synchronized ExecutorService executor(int threads) {
+        if (this.executor == null) {
+            AtomicInteger counter = new AtomicInteger();
+            this.executor = Executors.newFixedThreadPool(threads, r -> {
+                Thread t = new Thread(r, "oai-records-" + counter.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        return this.executor;
+    }
+
+    /**
+     * Stops workers; records being rendered are interrupted
+     */
+    public synchronized void shutdown() {
+        if (this.executor != null) {
+            this.executor.shutdownNow();
+            this.executor = null;
+        }
+    }
+
+    /**
+     * Removes all cached metadata formats of given pid
+     */
+    public void invalidate(String pid) {
+        if (this.metadataCache != null && pid != null) {
+            this.metadataCache.remove(pid);
+        }
+    }
+
+    /**
+     * Rendered metadata variants of one pid; immutable, a new variant creates a new instance
+     */
+    static final class CachedMetadata {
+
+        private final Map<String, String> variants;
+
+        private CachedMetadata(Map<String, String> variants) {
+            this.variants = variants;
+        }
+
+        String get(String variant) {
+            return this.variants.get(variant);
+        }
+
+        CachedMetadata with(String variant, String xml) {
+            Map<String, String> copy = new HashMap<>(this.variants);
+            copy.put(variant, xml);
+            return new CachedMetadata(Collections.unmodifiableMap(copy));
+        }
+    }
+}
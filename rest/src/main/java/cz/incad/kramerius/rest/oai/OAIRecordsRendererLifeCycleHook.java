@@ -0,0 +1,28 @@
+package cz.incad.kramerius.rest.oai;
+
+import java.util.logging.Logger;
+
+import javax.inject.Inject;
+
+import cz.incad.kramerius.service.LifeCycleHook;
+
+/**
+ * Stops workers of {@link OAIRecordsRenderer}
+ */
+public class OAIRecordsRendererLifeCycleHook implements LifeCycleHook {
+
+    private static final Logger LOGGER = Logger.getLogger(OAIRecordsRendererLifeCycleHook.class.getName());
+
+    @Inject
+    private OAIRecordsRenderer recordsRenderer;
+
+    @Override
+    public void startNotification() {
+    }
+
+    @Override
+    public void shutdownNotification() {
+        LOGGER.info("Shutting down OAI records renderer");
+        recordsRenderer.shutdown();
+    }
+}
@@ -56,7 +56,7 @@ public enum OAIVerb {
     ListMetadataFormats {
 
 		@Override
-        public void performOnLocal(ConfigManager configManager, FedoraAccess fa, SolrAccess solrAccess, HttpServletRequest request, Document doc, Element rootElement) throws OAIException{
+        public void performOnLocal(ConfigManager configManager, FedoraAccess fa, SolrAccess solrAccess, HttpServletRequest request, OAIRecordsRenderer renderer, Document doc, Element rootElement) throws OAIException{
 
             Element requestElement = OAITools.requestElement(doc, OAIVerb.ListMetadataFormats,null,ApplicationURL.applicationURL(request),null);
             doc.getDocumentElement().appendChild(requestElement);
@@ -87,7 +87,7 @@ public enum OAIVerb {
         }
 		
 		 @Override
-        public void performOnCDKSide(Provider<User> userProvider, Provider<Client> clientProvider, Instances instances, ConfigManager configManager,ProxyFilter proxyFilter, SolrAccess solrAccess, HttpServletRequest request, Document doc, Element rootElement) throws OAIException{
+        public void performOnCDKSide(Provider<User> userProvider, Provider<Client> clientProvider, Instances instances, ConfigManager configManager,ProxyFilter proxyFilter, SolrAccess solrAccess, HttpServletRequest request, OAIRecordsRenderer renderer, Document doc, Element rootElement) throws OAIException{
 
             Element requestElement = OAITools.requestElement(doc, OAIVerb.ListMetadataFormats,null,ApplicationURL.applicationURL(request),null);
             doc.getDocumentElement().appendChild(requestElement);
@@ -121,7 +121,7 @@ public enum OAIVerb {
     },
     ListSets {
 		@Override
-        public void performOnLocal(ConfigManager configManager, FedoraAccess fa, SolrAccess solrAccess, HttpServletRequest request, Document doc, Element rootElement) throws OAIException{
+        public void performOnLocal(ConfigManager configManager, FedoraAccess fa, SolrAccess solrAccess, HttpServletRequest request, OAIRecordsRenderer renderer, Document doc, Element rootElement) throws OAIException{
             try {
                 Element requestElement = OAITools.requestElement(doc, OAIVerb.ListSets, null,ApplicationURL.applicationURL(request), null);
                 doc.getDocumentElement().appendChild(requestElement);
@@ -165,7 +165,7 @@ public enum OAIVerb {
         }
 
 		@Override
-        public void performOnCDKSide(Provider<User> userProvider,Provider<Client> clientProvider, Instances instances, ConfigManager configManager,ProxyFilter proxyFilter, SolrAccess solrAccess, HttpServletRequest request, Document doc, Element rootElement) throws OAIException{
+        public void performOnCDKSide(Provider<User> userProvider,Provider<Client> clientProvider, Instances instances, ConfigManager configManager,ProxyFilter proxyFilter, SolrAccess solrAccess, HttpServletRequest request, OAIRecordsRenderer renderer, Document doc, Element rootElement) throws OAIException{
             try {
                 Element requestElement = OAITools.requestElement(doc, OAIVerb.ListSets, null,ApplicationURL.applicationURL(request), null);
                 doc.getDocumentElement().appendChild(requestElement);
@@ -213,7 +213,7 @@ public enum OAIVerb {
     Identify {
 
 		@Override
-        public void performOnLocal(ConfigManager configManager, FedoraAccess fa, SolrAccess solrAccess, HttpServletRequest request, Document doc, Element rootElement) throws OAIException {
+        public void performOnLocal(ConfigManager configManager, FedoraAccess fa, SolrAccess solrAccess, HttpServletRequest request, OAIRecordsRenderer renderer, Document doc, Element rootElement) throws OAIException {
 
             try {
                 String url = ApplicationURL.applicationURL(request);
@@ -294,7 +294,7 @@ public enum OAIVerb {
         }
 		
 		@Override
-        public void performOnCDKSide(Provider<User> userProvider,Provider<Client> clientProvider, Instances instances, ConfigManager configManager,ProxyFilter proxyFilter,  SolrAccess solrAccess, HttpServletRequest request, Document doc, Element rootElement) throws OAIException {
+        public void performOnCDKSide(Provider<User> userProvider,Provider<Client> clientProvider, Instances instances, ConfigManager configManager,ProxyFilter proxyFilter,  SolrAccess solrAccess, HttpServletRequest request, OAIRecordsRenderer renderer, Document doc, Element rootElement) throws OAIException {
 
             try {
                 String url = ApplicationURL.applicationURL(request);
@@ -381,7 +381,7 @@ public enum OAIVerb {
     ListRecords {
 			
 		@Override
-        public void performOnLocal(ConfigManager configManager, FedoraAccess fa, SolrAccess solrAccess, HttpServletRequest request, Document doc, Element rootElement) throws OAIException{
+        public void performOnLocal(ConfigManager configManager, FedoraAccess fa, SolrAccess solrAccess, HttpServletRequest request, OAIRecordsRenderer renderer, Document doc, Element rootElement) throws OAIException{
 
             OAISet selectedSet =  null;
             MetadataExport selectedMetadata = null;
@@ -453,42 +453,12 @@ public enum OAIVerb {
                         if (resumptionToken != null) {
                             String solrCursor = OAITools.solrCursorMarkFromResumptionToken(resumptionToken);
                             results = selectedSet.findRecordsOnLocal(solrAccess, solrCursor,metadataPrefix,rows,from, until);
-                            for (OAIRecord oaiRec : results.getRecords()) { 
-
-                                Element record= doc.createElement("record");
-                                Element header = oaiRec.toHeaderOnLocal(doc, fa, selectedSet);
-                                record.appendChild(header);
-
-                                String pid = OAITools.pidFromOAIIdentifier(oaiRec.getIdentifier());
-                                if (fa.isObjectAvailable(pid)) {
-                                    Element metadata = doc.createElement("metadata");
-                                    metadata.appendChild(oaiRec.toMetadataOnLocal(request, fa, doc, selectedMetadata,selectedSet));
-                                    record.appendChild(metadata);
-                                }
-                                
-                                identify.appendChild(record);
-                                
-                            }
+                            renderRecordsOnLocal(renderer, results, request, fa, selectedMetadata, selectedSet, identify);
                         } else {
 
                             results = selectedSet.findRecordsOnLocal(solrAccess,"*", metadataPrefix,rows,from, until);
                             if (results.getCompleteListSize() > 0) {
-                                for (OAIRecord oaiRec : results.getRecords()) { 
-
-                                    Element record= doc.createElement("record");
-                                    Element header = oaiRec.toHeaderOnLocal(doc, fa, selectedSet);
-                                    
-                                    record.appendChild(header);
-
-                                    String pid = OAITools.pidFromOAIIdentifier(oaiRec.getIdentifier());
-                                    if (fa.isObjectAvailable(pid)) {
-                                        Element metadata = doc.createElement("metadata");
-                                        metadata.appendChild(oaiRec.toMetadataOnLocal(request, fa, doc, selectedMetadata,selectedSet));
-                                        record.appendChild(metadata);
-                                    }
-                                    
-                                    identify.appendChild(record);
-                                }
+                                renderRecordsOnLocal(renderer, results, request, fa, selectedMetadata, selectedSet, identify);
                            } else {
                                 throw new OAIException(ErrorCode.noRecordsMatch, OAIVerb.ListIdentifiers, selectedSet, ApplicationURL.applicationURL(request),selectedMetadata);
                             }
@@ -517,7 +487,7 @@ public enum OAIVerb {
         }
 		
 		@Override
-        public void performOnCDKSide(Provider<User> userProvider,Provider<Client> clientProvider, Instances instances, ConfigManager configManager,ProxyFilter proxyFilter,  SolrAccess solrAccess, HttpServletRequest request, Document doc, Element rootElement) throws OAIException{
+        public void performOnCDKSide(Provider<User> userProvider,Provider<Client> clientProvider, Instances instances, ConfigManager configManager,ProxyFilter proxyFilter,  SolrAccess solrAccess, HttpServletRequest request, OAIRecordsRenderer renderer, Document doc, Element rootElement) throws OAIException{
 
             OAISet selectedSet =  null;
             MetadataExport selectedMetadata = null;
@@ -584,26 +554,7 @@ public enum OAIVerb {
                             results = selectedSet.findRecordsOnCDKSide(proxyFilter, solrAccess, solrCursor,metadataPrefix,rows, from, until);
 
                             if (results.getCompleteListSize() > 0) {
-                                for (OAIRecord oaiRec : results.getRecords()) { 
-
-                                    Element record= doc.createElement("record");
-                                    Element header = oaiRec.toHeaderOnCDKSide(doc, selectedSet, solrAccess, userProvider, clientProvider, instances, request, null);
-                                    
-                                    Element metadata = doc.createElement("metadata");
-                                    Element metadataElm = oaiRec.toMetadataOnCDKSide(solrAccess, userProvider, clientProvider, instances, request,  doc, oaiRec.getIdentifier(), selectedMetadata,selectedSet);
-                                    if (metadataElm != null) {
-                                        metadata.appendChild(metadataElm);
-                                    } else {
-                                        header.setAttribute("status","deleted");
-                                    }
-                                    
-                                    record.appendChild(header);
-                                    record.appendChild(metadata);
-                                    
-                                    identify.appendChild(record);
-                                    
-                                    
-                                }
+                                renderRecordsOnCDKSide(renderer, results, userProvider, clientProvider, instances, solrAccess, request, selectedMetadata, selectedSet, identify);
                             } else {
                                 throw new OAIException(ErrorCode.noRecordsMatch, OAIVerb.ListIdentifiers, selectedSet, ApplicationURL.applicationURL(request),selectedMetadata);
                             }
@@ -611,25 +562,7 @@ public enum OAIVerb {
                         } else {
                             results = selectedSet.findRecordsOnCDKSide(proxyFilter, solrAccess,"*", metadataPrefix,rows, from, until);
                             if (results.getCompleteListSize() > 0) {
-                                for (OAIRecord oaiRec : results.getRecords()) { 
-
-                                    Element record= doc.createElement("record");
-                                    Element header = oaiRec.toHeaderOnCDKSide(doc, selectedSet, solrAccess, userProvider, clientProvider, instances, request, null);
-                                    //Element header = oaiRec.toHeader(doc, selectedSet);
-                                    
-                                    Element metadata = doc.createElement("metadata");
-                                    Element metadataElm = oaiRec.toMetadataOnCDKSide(solrAccess, userProvider, clientProvider, instances, request,  doc, oaiRec.getIdentifier(), selectedMetadata,selectedSet);
-                                    if (metadataElm != null) {
-                                        metadata.appendChild(metadataElm);
-                                    } else {
-                                        header.setAttribute("status","deleted");
-                                    }
-
-                                    record.appendChild(header);
-                                    record.appendChild(metadata);
-                                    
-                                    identify.appendChild(record);
-                                }
+                                renderRecordsOnCDKSide(renderer, results, userProvider, clientProvider, instances, solrAccess, request, selectedMetadata, selectedSet, identify);
                             } else {
                                 throw new OAIException(ErrorCode.noRecordsMatch, OAIVerb.ListIdentifiers, selectedSet, ApplicationURL.applicationURL(request),selectedMetadata);
                             }
@@ -661,7 +594,7 @@ public enum OAIVerb {
     },
     ListIdentifiers {
         
-		public void performOnLocal(ConfigManager configManager, FedoraAccess fa, SolrAccess solrAccess, HttpServletRequest request, Document doc, Element rootElement) throws OAIException{
+		public void performOnLocal(ConfigManager configManager, FedoraAccess fa, SolrAccess solrAccess, HttpServletRequest request, OAIRecordsRenderer renderer, Document doc, Element rootElement) throws OAIException{
 			OAISet selectedSet =  null;
             MetadataExport selectedMetadata = null;
             try {
@@ -758,7 +691,7 @@ public enum OAIVerb {
             }
 		}
 
-        public void performOnCDKSide(Provider<User> userProvider,Provider<Client> clientProvider, Instances instances, ConfigManager configManager,ProxyFilter proxyFilter,  SolrAccess solrAccess, HttpServletRequest request, Document doc, Element rootElement) throws OAIException{
+        public void performOnCDKSide(Provider<User> userProvider,Provider<Client> clientProvider, Instances instances, ConfigManager configManager,ProxyFilter proxyFilter,  SolrAccess solrAccess, HttpServletRequest request, OAIRecordsRenderer renderer, Document doc, Element rootElement) throws OAIException{
 			OAISet selectedSet =  null;
             MetadataExport selectedMetadata = null;
             try {
@@ -867,9 +800,9 @@ public enum OAIVerb {
 /*		
         @Override
 <<<<<<< HEAD
-        public void perform(ConfigManager configManager, FedoraAccess fa, SolrAccess solrAccess, HttpServletRequest request, Document doc, Element rootElement) throws OAIException{
+        public void perform(ConfigManager configManager, FedoraAccess fa, SolrAccess solrAccess, HttpServletRequest request, OAIRecordsRenderer renderer, Document doc, Element rootElement) throws OAIException{
 =======
-        public void perform(Provider<User> userProvider,Provider<Client> clientProvider, Instances instances, ConfigManager configManager,ProxyFilter proxyFilter,  SolrAccess solrAccess, HttpServletRequest request, Document doc, Element rootElement) throws OAIException{
+        public void perform(Provider<User> userProvider,Provider<Client> clientProvider, Instances instances, ConfigManager configManager,ProxyFilter proxyFilter,  SolrAccess solrAccess, HttpServletRequest request, OAIRecordsRenderer renderer, Document doc, Element rootElement) throws OAIException{
 >>>>>>> cdk_akubra
 
             OAISet selectedSet =  null;
@@ -1020,7 +953,7 @@ public enum OAIVerb {
 	
     GetRecord {
         @Override
-        public void performOnLocal(ConfigManager configManager, FedoraAccess fa, SolrAccess solrAccess, HttpServletRequest request, Document doc, Element rootElement) throws OAIException{
+        public void performOnLocal(ConfigManager configManager, FedoraAccess fa, SolrAccess solrAccess, HttpServletRequest request, OAIRecordsRenderer renderer, Document doc, Element rootElement) throws OAIException{
 			MetadataExport selectedMetadata = null;
             try {
                 String baseUrl = ApplicationURL.applicationURL(request);
@@ -1071,7 +1004,7 @@ public enum OAIVerb {
             }
 		}
 		
-        public void performOnCDKSide(Provider<User> userProvider,Provider<Client> clientProvider, Instances instances, ConfigManager configManager, ProxyFilter proxyFilter, SolrAccess solrAccess, HttpServletRequest request, Document doc, Element rootElement) throws OAIException{
+        public void performOnCDKSide(Provider<User> userProvider,Provider<Client> clientProvider, Instances instances, ConfigManager configManager, ProxyFilter proxyFilter, SolrAccess solrAccess, HttpServletRequest request, OAIRecordsRenderer renderer, Document doc, Element rootElement) throws OAIException{
 			MetadataExport selectedMetadata = null;
             try {
                 String baseUrl = ApplicationURL.applicationURL(request);
@@ -1137,11 +1070,60 @@ public enum OAIVerb {
     private static final String REPOSITORY_NAME = "oai.repositoryName";
     private static final String REPOSITORY_ROWS_IN_RESULTS = "oai.rowsInResults";
 
-    public abstract void performOnLocal(ConfigManager configManager, FedoraAccess fa, SolrAccess solrAccess, HttpServletRequest request, Document doc, Element rootElement) throws Exception;
+    public abstract void performOnLocal(ConfigManager configManager, FedoraAccess fa, SolrAccess solrAccess, HttpServletRequest request, OAIRecordsRenderer renderer, Document doc, Element rootElement) throws Exception;
     
     
     // Perform on CDK side 
-    public abstract void performOnCDKSide( Provider<User> userPRovider, Provider<Client> clientProvider, Instances instances, ConfigManager configManager, ProxyFilter proxyFilter,  SolrAccess solrAccess, HttpServletRequest request, Document doc, Element rootElement) throws Exception;
+    public abstract void performOnCDKSide( Provider<User> userPRovider, Provider<Client> clientProvider, Instances instances, ConfigManager configManager, ProxyFilter proxyFilter,  SolrAccess solrAccess, HttpServletRequest request, OAIRecordsRenderer renderer, Document doc, Element rootElement) throws Exception;
     
     public static Logger LOGGER = Logger.getLogger(OAIVerb.class.getName());
+
+    /** ListRecords page on local side; records are rendered in parallel, see {@link OAIRecordsRenderer} */
+    private static void renderRecordsOnLocal(OAIRecordsRenderer renderer, OAIResults results, HttpServletRequest request, FedoraAccess fa, MetadataExport selectedMetadata, OAISet selectedSet, Element listRecords) throws IOException {
+        // workers must not read the container request
+        HttpServletRequest detached = OAIRecordsRenderer.detach(request);
+        String applicationUrl = ApplicationURL.applicationURL(detached);
+        renderer.renderRecords(results.getRecords(), listRecords, (oaiRec, scratch) -> {
+            Element record = scratch.getDocumentElement();
+            String pid = OAITools.pidFromOAIIdentifier(oaiRec.getIdentifier());
+            boolean available = fa.isObjectAvailable(pid);
+            record.appendChild(oaiRec.toHeaderOnLocal(scratch, selectedSet, available));
+            if (available) {
+                Element metadata = scratch.createElement("metadata");
+                Element metadataElm = renderer.metadata(selectedMetadata, selectedSet, oaiRec.getIdentifier(), applicationUrl, scratch,
+                        () -> oaiRec.toMetadataOnLocal(detached, fa, scratch, selectedMetadata, selectedSet));
+                if (metadataElm != null) {
+                    metadata.appendChild(metadataElm);
+                }
+                record.appendChild(metadata);
+            }
+            return record;
+        });
+    }
+
+    /** ListRecords page on CDK side; records are fetched from source libraries in parallel, see {@link OAIRecordsRenderer} */
+    private static void renderRecordsOnCDKSide(OAIRecordsRenderer renderer, OAIResults results, Provider<User> userProvider, Provider<Client> clientProvider, Instances instances, SolrAccess solrAccess, HttpServletRequest request, MetadataExport selectedMetadata, OAISet selectedSet, Element listRecords) throws IOException {
+        // request scoped providers and the container request cannot be used from worker threads
+        User user = userProvider.get();
+        Client client = clientProvider.get();
+        Provider<User> requestUser = () -> user;
+        Provider<Client> requestClient = () -> client;
+        HttpServletRequest detached = OAIRecordsRenderer.detach(request);
+        String applicationUrl = ApplicationURL.applicationURL(detached);
+        renderer.renderRecords(results.getRecords(), listRecords, (oaiRec, scratch) -> {
+            Element record = scratch.getDocumentElement();
+            Element header = oaiRec.toHeaderOnCDKSide(scratch, selectedSet, solrAccess, requestUser, requestClient, instances, detached, null);
+            Element metadata = scratch.createElement("metadata");
+            Element metadataElm = renderer.metadataOnCDKSide(selectedMetadata, selectedSet, oaiRec.getIdentifier(), applicationUrl, scratch,
+                    () -> oaiRec.toMetadataOnCDKSide(solrAccess, requestUser, requestClient, instances, detached, scratch, oaiRec.getIdentifier(), selectedMetadata, selectedSet));
+            if (metadataElm != null) {
+                metadata.appendChild(metadataElm);
+            } else {
+                header.setAttribute("status","deleted");
+            }
+            record.appendChild(header);
+            record.appendChild(metadata);
+            return record;
+        });
+    }
 }
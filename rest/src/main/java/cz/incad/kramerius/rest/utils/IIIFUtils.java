@@ -31,38 +31,35 @@ import com.sun.jersey.api.client.WebResource;
 import com.sun.jersey.api.client.config.ClientConfig;
 
 import cz.incad.kramerius.FedoraAccess;
+import cz.incad.kramerius.imaging.utils.ImageServerMetrics;
+import cz.incad.kramerius.imaging.utils.TilesUrlCache;
 import cz.incad.kramerius.utils.RelsExtHelper;
 
 public class IIIFUtils {
 
     public static final Logger LOGGER = Logger.getLogger(IIIFUtils.class.getName());
     
-    public static String iiifImageEndpoint(String pid, FedoraAccess fedoraAccess) throws IOException {
-        try {
-            String url = RelsExtHelper.getRelsExtTilesUrl(pid, fedoraAccess);
-            if (url == null)
-                return null;
-            if (url.trim().equals(RelsExtHelper.CACHE_RELS_EXT_LITERAL))
-                return null;
-            return url.replaceAll("[z|Z]oomify|deepZoom","iiif");
-        } catch (XPathExpressionException  e) {
-            throw new IOException(e.getMessage());
-        }
+    public static String iiifImageEndpoint(String pid, FedoraAccess fedoraAccess, TilesUrlCache tilesUrlCache) throws IOException {
+        return iiifImageEndpointFromTilesUrl(tilesUrlCache.getTilesUrl(pid, fedoraAccess));
     }
 
     public static String iiifImageEndpoint( Document relsExt) throws IOException {
         try {
-            String url = RelsExtHelper.getRelsExtTilesUrl(relsExt);
-            if (url == null)
-                return null;
-            if (url.trim().equals(RelsExtHelper.CACHE_RELS_EXT_LITERAL))
-                return null;
-            return url.replaceAll("[z|Z]oomify|deepZoom","iiif");
+            return iiifImageEndpointFromTilesUrl(RelsExtHelper.getRelsExtTilesUrl(relsExt));
         } catch (XPathExpressionException  e) {
             throw new IOException(e.getMessage());
         }
     }
 
+    /** Converts tiles-url from RELS-EXT to IIIF endpoint; returns null for objects without tiles-url or with embedded deep zoom cache */
+    public static String iiifImageEndpointFromTilesUrl(String url) {
+        if (url == null)
+            return null;
+        if (url.trim().equals(RelsExtHelper.CACHE_RELS_EXT_LITERAL))
+            return null;
+        return url.replaceAll("[z|Z]oomify|deepZoom","iiif");
+    }
+
     public static void copyFromImageServer(Client c, String urlString, ByteArrayOutputStream bos, ResponseBuilder builder) throws IOException {
         IIIFUtils.copyFromImageServer(c,urlString, bos, builder, null);
     }
@@ -71,7 +68,9 @@ public class IIIFUtils {
             throws IOException {
         c.getProperties().put(ClientConfig.PROPERTY_FOLLOW_REDIRECTS, true);
         WebResource r = c.resource(urlString);
+        long start = System.nanoTime();
         ClientResponse clientResponse = r.accept(MediaType.MEDIA_TYPE_WILDCARD).get(ClientResponse.class);
+        ImageServerMetrics.record(urlString, start, clientResponse.getStatus() >= 400);
         final InputStream input = clientResponse.getEntityInputStream();
         StreamingOutput stream = new StreamingOutput() {
             public void write(OutputStream output) throws IOException, WebApplicationException {
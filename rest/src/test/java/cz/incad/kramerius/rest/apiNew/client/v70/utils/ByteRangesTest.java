@@ -0,0 +1,43 @@
+package cz.incad.kramerius.rest.apiNew.client.v70.utils;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import cz.incad.kramerius.rest.apiNew.client.v70.utils.ByteRanges.Range;
+
+public class ByteRangesTest {
+
+    @Test
+    public void testSingleRanges() {
+        Assert.assertEquals(Arrays.asList(new Range(0, 499)), ByteRanges.parse("bytes=0-499", 1000));
+        Assert.assertEquals(Arrays.asList(new Range(500, 999)), ByteRanges.parse("bytes=500-", 1000));
+        Assert.assertEquals(Arrays.asList(new Range(900, 999)), ByteRanges.parse("bytes=-100", 1000));
+        // end behind the content and suffix longer than the content
+        Assert.assertEquals(Arrays.asList(new Range(900, 999)), ByteRanges.parse("bytes=900-5000", 1000));
+        Assert.assertEquals(Arrays.asList(new Range(0, 999)), ByteRanges.parse("bytes=-5000", 1000));
+    }
+
+    @Test
+    public void testMultipleRanges() {
+        Assert.assertEquals(Arrays.asList(new Range(0, 99), new Range(500, 599)), ByteRanges.parse("bytes=500-599, 0-99", 1000));
+        // overlapping and adjacent ranges are merged
+        Assert.assertEquals(Arrays.asList(new Range(0, 299)), ByteRanges.parse("bytes=0-99,50-199,200-299", 1000));
+        // unsatisfiable range is dropped
+        Assert.assertEquals(Arrays.asList(new Range(0, 9)), ByteRanges.parse("bytes=0-9,2000-3000", 1000));
+    }
+
+    @Test
+    public void testInvalidAndUnsatisfiable() {
+        Assert.assertNull(ByteRanges.parse(null, 1000));
+        Assert.assertNull(ByteRanges.parse("items=0-10", 1000));
+        Assert.assertNull(ByteRanges.parse("bytes=10-5", 1000));
+        Assert.assertNull(ByteRanges.parse("bytes=-", 1000));
+        Assert.assertNull(ByteRanges.parse("bytes=a-b", 1000));
+        Assert.assertEquals(Collections.emptyList(), ByteRanges.parse("bytes=1000-", 1000));
+        Assert.assertEquals(Collections.emptyList(), ByteRanges.parse("bytes=-0", 1000));
+        Assert.assertEquals(Collections.emptyList(), ByteRanges.parse("bytes=0-", 0));
+    }
+}
@@ -0,0 +1,49 @@
+package cz.incad.kramerius.rest.apiNew.client.v70.utils;
+
+import java.util.Date;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.easymock.EasyMock;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ConditionalRequestsTest {
+
+    @Test
+    public void testEtag() {
+        String etag = ConditionalRequests.etag("uuid:1", "IMG_THUMB", "IMG_THUMB.0", 1000L);
+        Assert.assertTrue(etag.startsWith("\"") && etag.endsWith("\""));
+        Assert.assertEquals(etag, ConditionalRequests.etag("uuid:1", "IMG_THUMB", "IMG_THUMB.0", 1000L));
+        Assert.assertNotEquals(etag, ConditionalRequests.etag("uuid:1", "IMG_THUMB", "IMG_THUMB.1", 1000L));
+    }
+
+    @Test
+    public void testMatches() {
+        Assert.assertTrue(ConditionalRequests.matches("\"a\"", "\"a\""));
+        Assert.assertTrue(ConditionalRequests.matches("\"b\", W/\"a\"", "\"a\""));
+        Assert.assertTrue(ConditionalRequests.matches("*", "\"a\""));
+        Assert.assertFalse(ConditionalRequests.matches("\"b\"", "\"a\""));
+        Assert.assertFalse(ConditionalRequests.matches(null, "\"a\""));
+    }
+
+    @Test
+    public void testIfModifiedSince() {
+        // Sun, 06 Nov 1994 08:49:37 GMT
+        Date lastModified = new Date(784111777000L);
+        Assert.assertTrue(ConditionalRequests.isNotModified(request(null, "Sun, 06 Nov 1994 08:49:37 GMT"), "\"a\"", new Date(lastModified.getTime() + 500)));
+        Assert.assertFalse(ConditionalRequests.isNotModified(request(null, "Sun, 06 Nov 1994 08:49:36 GMT"), "\"a\"", lastModified));
+        Assert.assertFalse(ConditionalRequests.isNotModified(request(null, "invalid"), "\"a\"", lastModified));
+        // If-None-Match takes precedence
+        Assert.assertFalse(ConditionalRequests.isNotModified(request("\"b\"", "Sun, 06 Nov 1994 08:49:37 GMT"), "\"a\"", lastModified));
+        Assert.assertTrue(ConditionalRequests.isNotModified(request("\"a\"", null), "\"a\"", lastModified));
+    }
+
+    private static HttpServletRequest request(String ifNoneMatch, String ifModifiedSince) {
+        HttpServletRequest request = EasyMock.createMock(HttpServletRequest.class);
+        EasyMock.expect(request.getHeader("If-None-Match")).andReturn(ifNoneMatch).anyTimes();
+        EasyMock.expect(request.getHeader("If-Modified-Since")).andReturn(ifModifiedSince).anyTimes();
+        EasyMock.replay(request);
+        return request;
+    }
+}
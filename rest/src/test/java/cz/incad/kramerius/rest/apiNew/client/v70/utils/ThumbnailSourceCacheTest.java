@@ -0,0 +1,39 @@
+package cz.incad.kramerius.rest.apiNew.client.v70.utils;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.ehcache.CacheManager;
+import org.ehcache.config.builders.CacheManagerBuilder;
+import org.junit.Assert;
+import org.junit.Test;
+
+import cz.incad.kramerius.repository.KrameriusRepositoryApi.KnownDatastreams;
+
+public class ThumbnailSourceCacheTest {
+
+    @Test
+    public void testChangeOnPathInvalidatesEntry() {
+        CacheManager cacheManager = CacheManagerBuilder.newCacheManagerBuilder().build(true);
+        try {
+            ThumbnailSourceCache cache = new ThumbnailSourceCache(cacheManager);
+            List<String> path = Arrays.asList("uuid:periodical", "uuid:volume", "uuid:page");
+
+            cache.put("uuid:periodical", KnownDatastreams.IMG_THUMB, path, System.currentTimeMillis());
+            Assert.assertEquals(path, cache.get("uuid:periodical", KnownDatastreams.IMG_THUMB));
+            Assert.assertNull(cache.get("uuid:periodical", KnownDatastreams.IMG_PREVIEW));
+
+            // structure of the volume changed, e.g. another first page
+            cache.invalidate("uuid:volume");
+            Assert.assertNull(cache.get("uuid:periodical", KnownDatastreams.IMG_THUMB));
+
+            // path resolved after the change
+            cache.put("uuid:periodical", KnownDatastreams.IMG_THUMB, path, System.currentTimeMillis() + 1);
+            Assert.assertEquals(path, cache.get("uuid:periodical", KnownDatastreams.IMG_THUMB));
+            cache.invalidate("uuid:periodical");
+            Assert.assertNull(cache.get("uuid:periodical", KnownDatastreams.IMG_THUMB));
+        } finally {
+            cacheManager.close();
+        }
+    }
+}
@@ -451,10 +451,9 @@ public class Main {
                 String imgFullMime = repositoryAdapter.getImgFullMimetype(pid);
                 Integer audioLength = "track".equals(repositoryNode.getModel()) ? detectAudioLength(repositoryNode.getPid(), repositoryAdapter) : null;
                 SolrInput solrInput = solrInputBuilder.processObjectFromRepository(foxmlDoc, ocrText, repositoryNode, nodeManager, imgFullMime, audioLength, true);
-                String solrInputStr = solrInput.getDocument().asXML();
-                //System.out.println(solrInputStr);
+                //System.out.println(solrInput.getDocument().asXML());
                 System.out.println("indexing " + pid);
-                solrAccess.indexFromXmlString(solrInputStr, true);
+                solrAccess.indexSolrInput(solrInput, true);
             }
         }
     }
@@ -8,6 +8,7 @@ import org.apache.http.auth.UsernamePasswordCredentials;
 import org.apache.http.client.CredentialsProvider;
 import org.apache.http.client.HttpClient;
 import org.apache.http.impl.client.BasicCredentialsProvider;
+import org.apache.solr.client.solrj.SolrRequest;
 import org.apache.solr.client.solrj.SolrServerException;
 import org.apache.solr.client.solrj.impl.HttpClientUtil;
 import org.apache.solr.client.solrj.impl.HttpSolrClient;
@@ -28,6 +29,7 @@ import java.io.*;
 import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -39,6 +41,7 @@ public class SolrIndexAccess {
     public static final int MAX_TIME_WITHOUT_COMMIT_MS = 15000; //15 seconds
     public static final int CONNECTION_TIMEOUT = 10000;
     public static final int SOCKET_TIMEOUT = 60000;
+    public static final int COMPOSITE_ID_BATCH_SIZE = 1000;
 
     private final HttpSolrClient solrClient;
     private final String collection; //because solrClient is buggy and still requires explicit collection-name as a parameter for some operations even though it gets collection-name in the constructor
@@ -109,11 +112,23 @@ public class SolrIndexAccess {
     }
 
     private UpdateResponse indexFromXmlInputStream(InputStream in, boolean explicitCommit) throws IOException, SolrServerException, DocumentException {
-        List<SolrInputDocument> solrDoc = extractSolrInputDocuments(in);
+        return indexSolrInputDocuments(extractSolrInputDocuments(in), explicitCommit);
+    }
+
+    /**
+     * Indexes document built by the indexer; the document goes to Solr directly, without XML representation
+     */
+    public UpdateResponse indexSolrInput(SolrInput solrInput, boolean explicitCommit) throws IOException, SolrServerException {
+        return indexSolrInputDocuments(Collections.singletonList(solrInput.toSolrInputDocument()), explicitCommit);
+    }
+
+    /**
+     * Sends all documents in one update request
+     */
+    public UpdateResponse indexSolrInputDocuments(List<SolrInputDocument> docs, boolean explicitCommit) throws IOException, SolrServerException {
         UpdateResponse addResponse = null;
-        for (SolrInputDocument doc : solrDoc) {
-            //there will always only be on ADD anyway
-            addResponse = solrClient.add(collection, doc, MAX_TIME_WITHOUT_COMMIT_MS);
+        if (!docs.isEmpty()) {
+            addResponse = solrClient.add(collection, docs, MAX_TIME_WITHOUT_COMMIT_MS);
         }
         if (explicitCommit) {
             solrClient.commit(collection);
@@ -214,6 +229,42 @@ public class SolrIndexAccess {
         return "";
     }
 
+    /**
+     * Resolves composite ids of many objects at once, one terms query per {@link #COMPOSITE_ID_BATCH_SIZE} pids.
+     * Pids which are not in the index are mapped to an empty string, the same as in {@link #getCompositeIdByPid(String)}
+     */
+    public Map<String, String> getCompositeIdsByPids(List<String> pids) throws SolrServerException, IOException {
+        Map<String, String> result = new HashMap<>();
+        for (Map.Entry<String, SolrDocument> entry : getObjectsByPids(pids, "pid,compositeId").entrySet()) {
+            result.put(entry.getKey(), (String) entry.getValue().getFieldValue("compositeId"));
+        }
+        for (String pid : pids) {
+            result.putIfAbsent(pid, "");
+        }
+        return result;
+    }
+
+    /**
+     * Returns indexed documents of given objects keyed by pid, one terms query per {@link #COMPOSITE_ID_BATCH_SIZE} pids.
+     * Objects which are not in the index are missing in the result
+     * @param outputFieldList Returned fields, must contain pid
+     */
+    public Map<String, SolrDocument> getObjectsByPids(List<String> pids, String outputFieldList) throws SolrServerException, IOException {
+        Map<String, SolrDocument> result = new HashMap<>();
+        for (int from = 0; from < pids.size(); from += COMPOSITE_ID_BATCH_SIZE) {
+            List<String> batch = pids.subList(from, Math.min(from + COMPOSITE_ID_BATCH_SIZE, pids.size()));
+            Map<String, String> queryParamMap = new HashMap<>();
+            queryParamMap.put("q", "{!terms f=pid}" + String.join(",", batch));
+            queryParamMap.put("fl", outputFieldList);
+            queryParamMap.put("rows", Integer.toString(batch.size()));
+            QueryResponse response = solrClient.query(collection, new MapSolrParams(queryParamMap), SolrRequest.METHOD.POST);
+            for (SolrDocument doc : response.getResults()) {
+                result.put((String) doc.getFieldValue("pid"), doc);
+            }
+        }
+        return result;
+    }
+
     public SolrDocumentList searchInAllFields(String query,  String outputFieldList) throws IOException, SolrServerException {
         Map<String, String> queryParamMap = new HashMap<>();
         queryParamMap.put("q", query);
@@ -262,11 +313,12 @@ public class SolrIndexAccess {
     public void addSingleFieldValueForMultipleObjects(List<String> pids, String fieldName, Object value, boolean indexTime, boolean explicitCommit) {
         if (!pids.isEmpty()) {
             try {
+                Map<String, String> compositeIds = IterationUtils.useCompositeId() ? getCompositeIdsByPids(pids) : null;
                 List<SolrInputDocument> inputDocs = new ArrayList<>();
                 for (String pid : pids) {
                     SolrInputDocument inputDoc = new SolrInputDocument();
-                    if (IterationUtils.useCompositeId()){
-                        inputDoc.addField("compositeId", getCompositeIdByPid(pid));
+                    if (compositeIds != null){
+                        inputDoc.addField("compositeId", compositeIds.get(pid));
                     }
                     inputDoc.addField("pid", pid);
 
@@ -297,11 +349,12 @@ public class SolrIndexAccess {
     public void removeSingleFieldValueFromMultipleObjects(List<String> pids, String fieldName, Object value, boolean indexTime, boolean explicitCommit) {
         if (!pids.isEmpty()) {
             try {
+                Map<String, String> compositeIds = IterationUtils.useCompositeId() ? getCompositeIdsByPids(pids) : null;
                 List<SolrInputDocument> inputDocs = new ArrayList<>();
                 for (String pid : pids) {
                     SolrInputDocument inputDoc = new SolrInputDocument();
-                    if (IterationUtils.useCompositeId()){
-                        inputDoc.addField("compositeId", getCompositeIdByPid(pid));
+                    if (compositeIds != null){
+                        inputDoc.addField("compositeId", compositeIds.get(pid));
                     }
                     inputDoc.addField("pid", pid);
 
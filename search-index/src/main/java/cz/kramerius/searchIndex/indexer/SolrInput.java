@@ -1,5 +1,6 @@
 package cz.kramerius.searchIndex.indexer;
 
+import org.apache.solr.common.SolrInputDocument;
 import org.dom4j.Document;
 import org.dom4j.DocumentHelper;
 import org.dom4j.Element;
@@ -72,6 +73,43 @@ public class SolrInput {
         return doc;
     }
 
+    /**
+     * Builds document for SolrJ directly from the fields, without serializing into XML and parsing it again.
+     * Field order and values are the same as in {@link #getDocument()}; characters not allowed in XML are removed,
+     * so the document is equal to what Solr would get from the XML form.
+     */
+    public SolrInputDocument toSolrInputDocument() {
+        SolrInputDocument solrDoc = new SolrInputDocument();
+        List<String> fieldNames = new ArrayList<>(fields.keySet());
+        Collections.sort(fieldNames);
+        for (String fieldName : fieldNames) {
+            for (String value : fields.get(fieldName)) {
+                String cleaned = removeInvalidXmlChars(value);
+                if (!cleaned.isEmpty()) {
+                    solrDoc.addField(fieldName, cleaned);
+                }
+            }
+        }
+        return solrDoc;
+    }
+
+    static String removeInvalidXmlChars(String value) {
+        StringBuilder builder = null;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            boolean valid = c == 0x9 || c == 0xA || c == 0xD || (c >= 0x20 && c <= 0xFFFD);
+            if (!valid) {
+                if (builder == null) {
+                    builder = new StringBuilder(value.length());
+                    builder.append(value, 0, i);
+                }
+            } else if (builder != null) {
+                builder.append(c);
+            }
+        }
+        return builder == null ? value : builder.toString().trim();
+    }
+
     public Map<String, List<String>> getFieldsCopy() {
         Map<String, List<String>> fieldsCopy = new HashMap<>();
         for (String key : fields.keySet()) {
@@ -0,0 +1,96 @@
+package cz.kramerius.searchIndex.indexer;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Submits batches of atomic updates to Solr from several threads.
+ * <p>
+ * Producer of the batches (typically iteration over descendants with cursor) continues with the next batch while previous
+ * batches are being sent; at most <code>maxInFlight</code> batches are sent at once and the producer waits for a free slot.
+ * Batches of one phase must be finished by {@link #await()} before a phase which touches the same field starts,
+ * because batches are not sent in order.
+ */
+public class SolrUpdateBatches implements AutoCloseable {
+
+    private static final Logger LOGGER = Logger.getLogger(SolrUpdateBatches.class.getName());
+
+    private final ExecutorService executor;
+    private final Semaphore inFlight;
+    private final int maxInFlight;
+    private final AtomicReference<RuntimeException> failure = new AtomicReference<>();
+
+    public SolrUpdateBatches(int maxInFlight) {
+        this.maxInFlight = Math.max(1, maxInFlight);
+        this.inFlight = new Semaphore(this.maxInFlight);
+        this.executor = this.maxInFlight > 1 ? Executors.newFixedThreadPool(this.maxInFlight) : null;
+    }
+
+    /**
+     * Sends one batch; blocks while <code>maxInFlight</code> batches are being sent
+     */
+    public void submit(Runnable batch) {
+        rethrowFailure();
+        if (this.executor == null) {
+            batch.run();
+            return;
+        }
+        try {
+            this.inFlight.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+        this.executor.execute(() -> {
+            try {
+                batch.run();
+            } catch (RuntimeException e) {
+                if (!this.failure.compareAndSet(null, e)) {
+                    LOGGER.log(Level.SEVERE, e.getMessage(), e);
+                }
+            } finally {
+                this.inFlight.release();
+            }
+        });
+    }
+
+    /**
+     * Waits until all submitted batches are sent and rethrows the first failure
+     */
+    public void await() {
+        if (this.executor != null) {
+            try {
+                this.inFlight.acquire(this.maxInFlight);
+                this.inFlight.release(this.maxInFlight);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            }
+        }
+        rethrowFailure();
+    }
+
+    private void rethrowFailure() {
+        RuntimeException e = this.failure.get();
+        if (e != null) {
+            throw e;
+        }
+    }
+
+    @Override
+    public void close() {
+        if (this.executor != null) {
+            this.executor.shutdown();
+            try {
+                this.executor.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
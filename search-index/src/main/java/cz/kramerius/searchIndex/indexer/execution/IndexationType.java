@@ -53,8 +53,16 @@ public enum IndexationType {
      */
     TREE_AND_FOSTER_TREES,
 
-    //COLLECTION_ITEMS,
-    //TODO: optimalizace: nový typ indexace COLLECTION_ITEMS, co by řešil jen věci související se sbírkami a licencemi
+    /**
+     * Prochází se celý strom a stromy všech nevlastních potomků jako u TREE_AND_FOSTER_TREES, ale atomic updaty se přepíší jen pole,
+     * která závisí na příslušnosti ke sbírkám: pid_paths, in_collections, in_collections.direct, licenses_of_ancestors a indexed.
+     * Hodnoty se pro každý uzel počítají znovu z repozitáře, takže zůstane zachována i nepřímá příslušnost ke sbírce (S1 -> S2 -> X).
+     * Hodnota indexer_version se nemění. Plně se indexují jen objekty, které v indexu ještě nejsou, a objekty se stránkami z PDF.
+     * Vhodné po přidání objektů do sbírky, odebrání ze sbírky a odebrání licence sbírce.
+     */
+    COLLECTION_ITEMS,
+
+    //Poznamky k COLLECTION_ITEMS:
     //Musí pracovat korektně s licencemi a udržovat si např. seznam licencí předků (nejen vlastních), přepisovat dolů i licence, jako to dela Indexer
     //Také musí aktualizovat timestampy (pole indexed) kvuli sklizeni zmen, ale nemenit hodnotu v poli indexer_version
     //uplatneni:
@@ -69,5 +77,6 @@ public enum IndexationType {
     //                        X muze mit stale na licenci narok a to z jineho zdroje (jeho vlastni predek, jina sbirka)
     //indexed               - kvuli sklizeni zmen je potreba aktualizovat
     //Obecna indexace tohle vsechno resi, nicmene dela i veci, ktere v techto scenanarich nejsou relevantni (typicky indexace fulltextu).
+    //COLLECTION_ITEMS proto hodnoty techto poli nepridava/neodebira, ale pro kazdy uzel je pocita znovu (RepositoryNode) a zapisuje je atomic updatem 'set'.
 
 }
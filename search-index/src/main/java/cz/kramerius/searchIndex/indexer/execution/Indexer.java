@@ -21,14 +21,23 @@ import javax.sound.sampled.UnsupportedAudioFileException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 public class Indexer {
     private static final Logger LOGGER = Logger.getLogger(Indexer.class.getName());
 
+    private static final int PDF_PAGES_BATCH_SIZE = 100; //pages extracted from pdf are sent to solr in batches
+
+    private static final int COLLECTION_FIELDS_BATCH_SIZE = 500; //atomic updates of collection fields (indexation type COLLECTION_ITEMS) are sent to solr in batches
+
     public static final int INDEXER_VERSION = 19; //this should be updated after every change in logic, that affects full indexation
 
     private final SolrConfig solrConfig;
@@ -128,8 +137,14 @@ public class Indexer {
             if (node != null && setFullIndexationInProgress) {
                 setFullIndexationInProgress(pid, node);
             }
-            indexObjectWithCounters(pid, node, counters, setFullIndexationInProgress, progressListener);
-            processChildren(pid, node, counters, type, true, progressListener);
+            if (type == IndexationType.COLLECTION_ITEMS) {
+                List<RepositoryNode> pending = new ArrayList<>();
+                updateCollectionFieldsOfTree(pid, node, pending, counters, progressListener);
+                flushCollectionFields(pending, counters, progressListener);
+            } else {
+                indexObjectWithCounters(pid, node, counters, setFullIndexationInProgress, progressListener);
+                processChildren(pid, node, counters, type, true, progressListener);
+            }
             if (node != null && setFullIndexationInProgress) {
                 clearFullIndexationInProgress(pid, node);
             }
@@ -182,8 +197,7 @@ public class Indexer {
                 solrInput.addField("full_indexation_in_progress", Boolean.TRUE.toString());
                 solrInput.addField("indexer_version", String.valueOf(INDEXER_VERSION));
                 ensureCompositeId(solrInput, repositoryNode, pid);
-                String solrInputStr = solrInput.getDocument().asXML();
-                solrIndexer.indexFromXmlString(solrInputStr, false);
+                solrIndexer.indexSolrInput(solrInput, false);
             } catch (Exception e) {
                 throw new RuntimeException(e);
             }
@@ -231,13 +245,11 @@ public class Indexer {
                 Integer audioLength = "track".equals(repositoryNode.getModel()) ? detectAudioLength(repositoryNode.getPid()) : null;
                 try {
                     SolrInput solrInput = solrInputBuilder.processObjectFromRepository(foxmlDoc, ocrText, repositoryNode, nodeManager, imgFullMime, audioLength, setFullIndexationInProgress);
-                    String solrInputStr = solrInput.getDocument().asXML();
-                    solrIndexer.indexFromXmlString(solrInputStr, false);
-                } catch (DocumentException e) {  //try to reindex without ocr - TODO: hack, ocr should be properly escaped
-                    //typical root cause: Caused by: org.xml.sax.SAXParseException; lineNumber: 2; columnNumber: 2302; Character reference "&#6" is an invalid XML character.
+                    solrIndexer.indexSolrInput(solrInput, false);
+                } catch (DocumentException e) {  //try to reindex without ocr
+                    //invalid xml characters are removed in SolrInput.toSolrInputDocument(), this only covers ocr which breaks the builder itself
                     SolrInput solrInput = solrInputBuilder.processObjectFromRepository(foxmlDoc, "", repositoryNode, nodeManager, imgFullMime, audioLength, setFullIndexationInProgress);
-                    String solrInputStr = solrInput.getDocument().asXML();
-                    solrIndexer.indexFromXmlString(solrInputStr, false);
+                    solrIndexer.indexSolrInput(solrInput, false);
                 }
                 counters.incrementIndexed();
                 report("");
@@ -284,17 +296,22 @@ public class Indexer {
         InputStream imgFull = krameriusRepositoryFascade.getImgFull(pid);
         PdfExtractor extractor = new PdfExtractor(pid, imgFull);
         int pages = extractor.getPagesCount();
+        List<SolrInputDocument> batch = new ArrayList<>();
         for (int i = 0; i < pages; i++) {
             int pageNumber = i + 1;
             counters.incrementProcessed();
             report("extracting page " + pageNumber + "/" + pages);
             String ocrText = normalizeWhitespacesForOcrText(extractor.getPageText(i));
             SolrInput solrInput = solrInputBuilder.processPageFromPdf(nodeManager, repositoryNode, pageNumber, ocrText);
-            String solrInputStr = solrInput.getDocument().asXML();
-            solrIndexer.indexFromXmlString(solrInputStr, false);
+            batch.add(solrInput.toSolrInputDocument());
+            if (batch.size() >= PDF_PAGES_BATCH_SIZE) {
+                solrIndexer.indexSolrInputDocuments(batch, false);
+                batch.clear();
+            }
             counters.incrementIndexed();
             report("");
         }
+        solrIndexer.indexSolrInputDocuments(batch, false);
     }
 
     static String normalizeWhitespacesForOcrText(String ocrText) {
@@ -396,6 +413,104 @@ public class Indexer {
         }
     }
 
+    /**
+     * Collects nodes of the tree and foster trees (same as TREE_AND_FOSTER_TREES) and updates their collection fields in batches
+     */
+    private void updateCollectionFieldsOfTree(String pid, RepositoryNode node, List<RepositoryNode> pending, Counters counters, ProgressListener progressListener) {
+        if (shutDown) {
+            return;
+        }
+        if (node == null) {
+            //missing object is reported (and possibly removed from index) the same way as in full indexation
+            indexObjectWithCounters(pid, null, counters, false, progressListener);
+            return;
+        }
+        pending.add(node);
+        if (pending.size() >= COLLECTION_FIELDS_BATCH_SIZE) {
+            flushCollectionFields(pending, counters, progressListener);
+        }
+        for (String childPid : node.getPidsOfOwnChildren()) {
+            updateCollectionFieldsOfTree(childPid, nodeManager.getKrameriusNode(childPid), pending, counters, progressListener);
+        }
+        for (String childPid : node.getPidsOfFosterChildren()) {
+            updateCollectionFieldsOfTree(childPid, nodeManager.getKrameriusNode(childPid), pending, counters, progressListener);
+        }
+    }
+
+    /**
+     * Sends atomic updates of collection fields for pending nodes; nodes which are not in the index yet and nodes with pages from pdf
+     * (pages have their own pid_paths and in_collections) are indexed fully
+     */
+    private void flushCollectionFields(List<RepositoryNode> pending, Counters counters, ProgressListener progressListener) {
+        if (pending.isEmpty()) {
+            return;
+        }
+        List<RepositoryNode> nodes = new ArrayList<>(pending);
+        pending.clear();
+        try {
+            List<String> pids = new ArrayList<>();
+            for (RepositoryNode node : nodes) {
+                pids.add(node.getPid());
+            }
+            Map<String, SolrDocument> indexed = solrIndexer.getObjectsByPids(pids, "pid,compositeId");
+            String now = ZonedDateTime.now().format(DateTimeFormatter.ISO_INSTANT);
+            List<SolrInputDocument> updates = new ArrayList<>();
+            for (RepositoryNode node : nodes) {
+                String pid = node.getPid();
+                SolrDocument indexedDoc = indexed.get(pid);
+                if (indexedDoc == null || (!"page".equals(node.getModel()) && "application/pdf".equals(krameriusRepositoryFascade.getImgFullMimetype(pid)))) {
+                    indexObjectWithCounters(pid, node, counters, false, progressListener);
+                    continue;
+                }
+                counters.incrementProcessed();
+                updates.add(collectionFieldsUpdate(node, IterationUtils.useCompositeId() ? indexedDoc.getFieldValue("compositeId") : null, now));
+                counters.incrementIndexed();
+                if (progressListener != null) {
+                    progressListener.onProgress(counters.getProcessed());
+                }
+            }
+            solrIndexer.indexSolrInputDocuments(updates, false);
+            report("collection fields updated for " + updates.size() + " objects");
+        } catch (IOException e) {
+            counters.incrementErrors();
+            reportError(" I/O error", e);
+        } catch (SolrServerException e) {
+            counters.incrementErrors();
+            reportError(" Solr server error", e);
+        } catch (SolrException e) {
+            counters.incrementErrors();
+            reportError(" Solr error", e);
+        }
+    }
+
+    /**
+     * Returns atomic update of all fields which depend on foster parents (collections) of the node
+     * @param compositeId Composite id of the indexed document or null if composite ids are not used
+     * @param indexed Value of the indexed timestamp
+     */
+    public static SolrInputDocument collectionFieldsUpdate(RepositoryNode node, Object compositeId, String indexed) {
+        SolrInputDocument updateDoc = new SolrInputDocument();
+        if (compositeId != null) {
+            updateDoc.addField("compositeId", compositeId);
+        }
+        updateDoc.addField("pid", node.getPid());
+        setField(updateDoc, "pid_paths", node.getAllPidPathsThroughAllParents());
+        setField(updateDoc, "foster_parents.pids", node.getPidsOfFosterParents());
+        setField(updateDoc, "in_collections", node.getPidsOfAnyAncestorsOfTypeCollection());
+        setField(updateDoc, "in_collections.direct", node.getPidsOfFosterParentsOfTypeCollection());
+        setField(updateDoc, "licenses_of_ancestors", node.getLicensesOfAncestors());
+        Map<String, Object> timestamp = new HashMap<>();
+        timestamp.put("set", indexed);
+        updateDoc.addField("indexed", timestamp);
+        return updateDoc;
+    }
+
+    private static void setField(SolrInputDocument updateDoc, String fieldName, List<String> values) {
+        Map<String, Object> updateData = new HashMap<>();
+        updateData.put("set", values == null || values.isEmpty() ? null : new ArrayList<>(new LinkedHashSet<>(values)));
+        updateDoc.addField(fieldName, updateData);
+    }
+
     private void commitAfterLastIndexation(Counters counters) {
         try {
             solrIndexer.commit();
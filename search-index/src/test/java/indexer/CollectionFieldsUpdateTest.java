@@ -0,0 +1,54 @@
+package indexer;
+
+import cz.kramerius.searchIndex.indexer.execution.Indexer;
+import cz.kramerius.searchIndex.indexer.nodes.RepositoryNode;
+import org.apache.solr.common.SolrInputDocument;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+public class CollectionFieldsUpdateTest {
+
+    private static RepositoryNode node(List<String> fosterParents, List<String> fosterParentsOfTypeCollection) {
+        return new RepositoryNode("uuid:monograph", "monograph", null,
+                "uuid:monograph", "monograph", Arrays.asList("uuid:monograph", "uuid:collection/uuid:monograph"),
+                "uuid:monograph", "monograph", null,
+                null, null, null, null,
+                fosterParents, fosterParentsOfTypeCollection, fosterParentsOfTypeCollection,
+                Collections.emptyList(), Collections.emptyList(),
+                null, null, null, null,
+                null, Arrays.asList("dnnto"));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Object setValue(SolrInputDocument updateDoc, String field) {
+        return ((Map<String, Object>) updateDoc.getFieldValue(field)).get("set");
+    }
+
+    @Test
+    public void fosterParentsAreUpdated() {
+        SolrInputDocument updateDoc = Indexer.collectionFieldsUpdate(node(Arrays.asList("uuid:collection"), Arrays.asList("uuid:collection")), null, "2024-01-01T00:00:00Z");
+        assertEquals("uuid:monograph", updateDoc.getFieldValue("pid"));
+        assertEquals(Arrays.asList("uuid:collection"), setValue(updateDoc, "foster_parents.pids"));
+        assertEquals(Arrays.asList("uuid:collection"), setValue(updateDoc, "in_collections.direct"));
+        assertEquals(Arrays.asList("uuid:monograph", "uuid:collection/uuid:monograph"), setValue(updateDoc, "pid_paths"));
+        assertEquals(Arrays.asList("dnnto"), setValue(updateDoc, "licenses_of_ancestors"));
+        assertEquals("2024-01-01T00:00:00Z", setValue(updateDoc, "indexed"));
+        assertNull(updateDoc.getFieldValue("compositeId"));
+    }
+
+    @Test
+    public void removedFromLastCollection() {
+        SolrInputDocument updateDoc = Indexer.collectionFieldsUpdate(node(null, null), "uuid:monograph!uuid:monograph", "2024-01-01T00:00:00Z");
+        // field is removed, not left with the old foster parents
+        assertNull(setValue(updateDoc, "foster_parents.pids"));
+        assertNull(setValue(updateDoc, "in_collections"));
+        assertEquals("uuid:monograph!uuid:monograph", updateDoc.getFieldValue("compositeId"));
+    }
+}
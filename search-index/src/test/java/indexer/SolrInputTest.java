@@ -0,0 +1,56 @@
+package indexer;
+
+import cz.kramerius.searchIndex.indexer.SolrInput;
+import org.apache.solr.common.SolrInputDocument;
+import org.dom4j.Element;
+import org.dom4j.Node;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+public class SolrInputTest {
+
+    @Test
+    public void directDocumentMatchesXml() {
+        SolrInput solrInput = new SolrInput();
+        solrInput.addField("pid", "uuid:1");
+        solrInput.addField("model", "page");
+        solrInput.addField("titles.search", " first ");
+        solrInput.addField("titles.search", "second");
+        solrInput.addField("titles.search", "first");
+        solrInput.addField("empty", "  ");
+
+        SolrInputDocument solrDoc = solrInput.toSolrInputDocument();
+
+        List<String> xmlFieldNames = new ArrayList<>();
+        for (Node node : solrInput.getDocument().selectNodes("add/doc/field")) {
+            Element field = (Element) node;
+            String name = field.attributeValue("name");
+            if (!xmlFieldNames.contains(name)) {
+                xmlFieldNames.add(name);
+            }
+            assertFalse(solrDoc.getFieldValues(name) == null);
+        }
+        assertEquals(xmlFieldNames, new ArrayList<>(solrDoc.getFieldNames()));
+        assertEquals(Arrays.asList("first", "second"), new ArrayList<>(solrDoc.getFieldValues("titles.search")));
+        assertNull(solrDoc.getField("empty"));
+    }
+
+    @Test
+    public void invalidXmlCharactersAreRemoved() {
+        SolrInput solrInput = new SolrInput();
+        solrInput.addField("pid", "uuid:1");
+        solrInput.addField("text_ocr", "line\u0006one\nline two");
+        solrInput.addField("broken", "\u0001\u0002");
+
+        SolrInputDocument solrDoc = solrInput.toSolrInputDocument();
+        assertEquals("lineone\nline two", solrDoc.getFieldValue("text_ocr"));
+        assertNull(solrDoc.getField("broken"));
+    }
+}
@@ -3,6 +3,7 @@ package cz.incad.Kramerius;
 import cz.incad.Kramerius.backend.guice.GuiceServlet;
 import cz.incad.kramerius.FedoraAccess;
 import cz.incad.kramerius.FedoraNamespaces;
+import cz.incad.kramerius.imaging.utils.ImageServerMetrics;
 import cz.incad.kramerius.imaging.utils.ImageUtils;
 import cz.incad.kramerius.security.SecurityException;
 import cz.incad.kramerius.utils.FedoraUtils;
@@ -56,6 +57,7 @@ import java.util.Date;
 import java.util.List;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 
 import cz.incad.kramerius.utils.*;
@@ -218,6 +220,7 @@ public abstract class AbstractImageServlet extends GuiceServlet {
     public void copyFromImageServer(String urlString, final HttpServletResponse resp)
             throws IOException {
         final WritableByteChannel channel = Channels.newChannel(resp.getOutputStream());
+        final AtomicInteger upstreamStatus = new AtomicInteger();
         AsyncRequestProducer producer = AsyncRequestBuilder.get(urlString).build();
         AbstractBinResponseConsumer<HttpResponse> consumer = new AbstractBinResponseConsumer()
         {
@@ -247,6 +250,7 @@ public abstract class AbstractImageServlet extends GuiceServlet {
             @Override
             protected void start(HttpResponse response, ContentType contentType) throws HttpException, IOException {
                 int statusCode = response.getCode();
+                upstreamStatus.set(statusCode);
                 resp.setStatus(statusCode);
                 if (statusCode == 200) {
                     resp.setContentType(contentType.getMimeType());
@@ -267,14 +271,19 @@ public abstract class AbstractImageServlet extends GuiceServlet {
         };
 
 
+        long start = System.nanoTime();
         Future<HttpResponse> responseFuture = client.execute(producer, consumer, null, null, null);
 
+        boolean failed = true;
         try {
             responseFuture.get(); // wait for request
+            failed = upstreamStatus.get() >= 400;
         } catch (InterruptedException e) {
             throw new IOException(e.getMessage());
         } catch (ExecutionException e) {
             throw new IOException(e.getMessage());
+        } finally {
+            ImageServerMetrics.record(urlString, start, failed);
         }
     }
 
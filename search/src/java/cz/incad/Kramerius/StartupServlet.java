@@ -40,6 +40,7 @@ import cz.incad.kramerius.security.database.SecurityDbInitializer;
 import cz.incad.kramerius.service.LifeCycleHookRegistry;
 import cz.incad.kramerius.service.TextsService;
 import cz.incad.kramerius.statistics.database.StatisticDbInitializer;
+import cz.incad.kramerius.statistics.impl.StatisticsRollup;
 import cz.incad.kramerius.users.database.LoggedUserDbHelper;
 import cz.incad.kramerius.utils.DatabaseUtils;
 import cz.inovatika.folders.db.FolderDatabaseInitializer;
@@ -97,6 +98,8 @@ public class StartupServlet extends GuiceServlet {
 
             // statistics tables
             StatisticDbInitializer.initDatabase(connection, versionService);
+            // daily rollups of statistics
+            StatisticsRollup.schedule(this.connectionProvider);
 
             // folder database
             FolderDatabaseInitializer.initDatabase(connection, versionService);
@@ -134,6 +137,7 @@ public class StartupServlet extends GuiceServlet {
     @Override
     public void destroy() {
         super.destroy();
+        StatisticsRollup.shutdown();
 
         if (this.lifecycleRegistry != null) {
             this.lifecycleRegistry.shutdownNotification();
@@ -23,8 +23,10 @@ import cz.incad.kramerius.processes.impl.ProcessSchedulerImpl;
 import cz.incad.kramerius.relation.RelationService;
 import cz.incad.kramerius.relation.impl.RelationServiceImpl;
 import cz.incad.kramerius.rest.api.guice.HttpAsyncClientLifeCycleHook;
+import cz.incad.kramerius.rest.api.guice.ImageServerClientLifeCycleHook;
 import cz.incad.kramerius.rest.api.guice.HttpAsyncClientProvider;
 import cz.incad.kramerius.rest.apiNew.monitoring.APICallMonitor;
+import cz.incad.kramerius.rest.oai.OAIRecordsRendererLifeCycleHook;
 import cz.incad.kramerius.rest.apiNew.monitoring.impl.SolrAPICallMonitor;
 import cz.incad.kramerius.security.SecuredFedoraAccessImpl;
 import cz.incad.kramerius.service.GoogleAnalytics;
@@ -117,6 +119,8 @@ public class BaseModule extends AbstractModule {
         Multibinder<LifeCycleHook> lfhooks = Multibinder.newSetBinder(binder(), LifeCycleHook.class);
         lfhooks.addBinding().to(CacheLifeCycleHook.class);
         lfhooks.addBinding().to(HttpAsyncClientLifeCycleHook.class);
+        lfhooks.addBinding().to(ImageServerClientLifeCycleHook.class);
+        lfhooks.addBinding().to(OAIRecordsRendererLifeCycleHook.class);
 //        lfhooks.addBinding().to(AudioLifeCycleHook.class);
         
     }
@@ -1,7 +1,8 @@
 package cz.incad.Kramerius.backend.guice;
 
 import com.google.inject.Provider;
-import cz.incad.Kramerius.utils.DocumentSerializer;
+import cz.incad.kramerius.utils.cache.CacheTiers;
+import cz.incad.kramerius.utils.cache.DocumentSerializer;
 import org.ehcache.CacheManager;
 import org.ehcache.config.builders.CacheManagerBuilder;
 import org.w3c.dom.Document;
@@ -15,9 +16,7 @@ public class CacheProvider implements Provider<CacheManager> {
 
     @Override
     public CacheManager get() {
-        CacheManager cacheManager = CacheManagerBuilder.newCacheManagerBuilder()
-                .withSerializer(Document.class, DocumentSerializer.class).build();
-        cacheManager.init();
-        return cacheManager;
+        return CacheTiers.createCacheManager(CacheManagerBuilder.newCacheManagerBuilder()
+                .withSerializer(Document.class, DocumentSerializer.class), "web");
     }
 }
@@ -33,6 +33,7 @@ import cz.incad.kramerius.ObjectPidsPath;
 import cz.incad.kramerius.SolrAccess;
 import cz.incad.kramerius.imaging.DeepZoomCacheService;
 import cz.incad.kramerius.imaging.DeepZoomTileSupport;
+import cz.incad.kramerius.imaging.utils.TilesUrlCache;
 import cz.incad.kramerius.security.RightsResolver;
 import cz.incad.kramerius.security.SecuredActions;
 import cz.incad.kramerius.security.User;
@@ -68,6 +69,9 @@ public class DeepZoomServlet extends AbstractImageServlet {
     @Inject
     AggregatedAccessLogs aggregatedAccessLogs;
 
+    @Inject
+    TilesUrlCache tilesUrlCache;
+
     @Override
     public void init() throws ServletException {
         super.init();
@@ -128,7 +132,7 @@ public class DeepZoomServlet extends AbstractImageServlet {
         reportAccess(pid);
         setDateHaders(pid,FedoraUtils.IMG_FULL_STREAM, resp);
         setResponseCode(pid,FedoraUtils.IMG_FULL_STREAM, req, resp);
-        String relsExtUrl = RelsExtHelper.getRelsExtTilesUrl(pid, this.fedoraAccess);
+        String relsExtUrl = this.tilesUrlCache.getTilesUrl(pid, this.fedoraAccess);
         if (relsExtUrl != null) {
             if (!relsExtUrl.equals(RelsExtHelper.CACHE_RELS_EXT_LITERAL)) {
                 try {
@@ -181,7 +185,7 @@ public class DeepZoomServlet extends AbstractImageServlet {
     private void renderTile(String pid, String slevel, String stile, HttpServletRequest req, HttpServletResponse resp) throws IOException, XPathExpressionException {
         setDateHaders(pid, FedoraUtils.IMG_FULL_STREAM, resp);
         setResponseCode(pid,FedoraUtils.IMG_FULL_STREAM, req, resp);
-        String relsExtUrl = RelsExtHelper.getRelsExtTilesUrl(pid, this.fedoraAccess);
+        String relsExtUrl = this.tilesUrlCache.getTilesUrl(pid, this.fedoraAccess);
         if (relsExtUrl != null) {
             if (!relsExtUrl.equals(RelsExtHelper.CACHE_RELS_EXT_LITERAL)) {
                 try {
@@ -243,32 +247,11 @@ public class DeepZoomServlet extends AbstractImageServlet {
 
                 } else {
                     // bereme z cache nebo pocitame, vykresulejeme, ukladame a vracime
-                    boolean tilePresent = cacheService.isDeepZoomTilePresent(pid, ilevel, Integer.parseInt(srow), Integer.parseInt(scol));
-                    if (!tilePresent) {
-                        // File dFile = cacheService.getDeepZoomLevelsFile(uuid);
-                        BufferedImage original = null;
-                        if (cacheService.isDeepZoomOriginalPresent(pid)) {
-                            original = cacheService.getDeepZoomOriginal(pid);
-                        } else {
-                            original = cacheService.createDeepZoomOriginalImageFromFedoraRAW(pid);
-                            cacheService.writeDeepZoomOriginalImage(pid, original);
-                        }
-
-                        long levels = tileSupport.getLevels(original, 1);
-                        double scale = tileSupport.getScale(ilevel, levels);
-
-                        Dimension scaled = tileSupport.getScaledDimension(new Dimension(original.getWidth(null), original.getHeight(null)), scale);
-                        int rows = tileSupport.getRows(scaled);
-                        int cols = tileSupport.getCols(scaled);
-                        int base = Integer.parseInt(srow) * cols;
-                        base = base + Integer.parseInt(scol);
-
-                        BufferedImage tile = this.tileSupport.getTileFromBigImage(original, ilevel, base, 1, getScalingMethod(), turnOnIterateScaling());
-                        cacheService.writeDeepZoomTile(pid, ilevel, Integer.parseInt(srow), Integer.parseInt(scol), tile);
+                    // missing tile is generated together with its whole level; concurrent requests share one decode
+                    try (InputStream is = cacheService.getOrCreateDeepZoomTileStream(pid, ilevel, ilevel, 1, Integer.parseInt(srow), Integer.parseInt(scol))) {
+                        resp.setContentType(ImageMimeType.JPEG.getValue());
+                        IOUtils.copy(is, resp.getOutputStream());
                     }
-                    InputStream is = cacheService.getDeepZoomTileStream(pid, ilevel, Integer.parseInt(srow), Integer.parseInt(scol));
-                    resp.setContentType(ImageMimeType.JPEG.getValue());
-                    IOUtils.copy(is, resp.getOutputStream());
                 }
             }
         } catch (NumberFormatException e) {
@@ -7,6 +7,7 @@ import cz.incad.Kramerius.AbstractImageServlet;
 import cz.incad.kramerius.FedoraAccess;
 import cz.incad.kramerius.ObjectPidsPath;
 import cz.incad.kramerius.SolrAccess;
+import cz.incad.kramerius.imaging.utils.TilesUrlCache;
 import cz.incad.kramerius.rest.utils.IIIFUtils;
 import cz.incad.kramerius.security.RightsResolver;
 import cz.incad.kramerius.security.SecuredActions;
@@ -63,6 +64,9 @@ public class IiifServlet extends AbstractImageServlet {
     @Inject
     AggregatedAccessLogs aggregatedAccessLogs;
 
+    @Inject
+    TilesUrlCache tilesUrlCache;
+
     private static final java.util.logging.Logger LOGGER = java.util.logging.Logger.getLogger(IiifServlet.class.getName());
 
 
@@ -86,7 +90,7 @@ public class IiifServlet extends AbstractImageServlet {
             if (permited) {
                 try {
                     
-                    String u = IIIFUtils.iiifImageEndpoint(pid, this.fedoraAccess);
+                    String u = IIIFUtils.iiifImageEndpoint(pid, this.fedoraAccess, this.tilesUrlCache);
                     if (u != null) {
                         StringBuilder url = new StringBuilder(u);
                         while (tokenizer.hasMoreTokens()) {
@@ -56,6 +56,7 @@ import cz.incad.kramerius.ObjectPidsPath;
 import cz.incad.kramerius.SolrAccess;
 import cz.incad.kramerius.imaging.DeepZoomCacheService;
 import cz.incad.kramerius.imaging.DeepZoomTileSupport;
+import cz.incad.kramerius.imaging.utils.TilesUrlCache;
 import cz.incad.kramerius.security.RightsResolver;
 import cz.incad.kramerius.security.SecuredActions;
 import cz.incad.kramerius.security.User;
@@ -100,6 +101,9 @@ public class ZoomifyServlet extends AbstractImageServlet {
     @Inject
     MostDesirable mostDesirable;
 
+    @Inject
+    TilesUrlCache tilesUrlCache;
+
     
     @Override
     public ScalingMethod getScalingMethod() {
@@ -169,7 +173,7 @@ public class ZoomifyServlet extends AbstractImageServlet {
         setResponseCode(pid,FedoraUtils.IMG_FULL_STREAM, req, resp);
         mostDesirable.saveAccess(pid, new java.util.Date());
 
-        String relsExtUrl = RelsExtHelper.getRelsExtTilesUrl(pid, this.fedoraAccess);
+        String relsExtUrl = this.tilesUrlCache.getTilesUrl(pid, this.fedoraAccess);
         if (relsExtUrl != null) {
             if (!relsExtUrl.equals(RelsExtHelper.CACHE_RELS_EXT_LITERAL)) {
                 try {
@@ -271,7 +275,7 @@ public class ZoomifyServlet extends AbstractImageServlet {
     private void renderTile(String pid, String slevel, String x, String y, String ext, HttpServletRequest req, HttpServletResponse resp) throws IOException, XPathExpressionException {
         setDateHaders(pid, FedoraUtils.IMG_FULL_STREAM, resp);
         setResponseCode(pid,FedoraUtils.IMG_FULL_STREAM, req, resp);
-        String relsExtUrl = RelsExtHelper.getRelsExtTilesUrl(pid, this.fedoraAccess);
+        String relsExtUrl = this.tilesUrlCache.getTilesUrl(pid, this.fedoraAccess);
         if (relsExtUrl != null) {
             if (!relsExtUrl.equals(RelsExtHelper.CACHE_RELS_EXT_LITERAL)) {
                 try {
@@ -302,7 +306,6 @@ public class ZoomifyServlet extends AbstractImageServlet {
 
             Dimension originalResolution = cacheService.getResolutionFromFile(pid);
             int requestedLevel = Integer.parseInt(slevel);
-            int maxLevels = tileSupport.getLevels(originalResolution, tileSupport.getTileSize());
 
             int offset = tileSupport.getClosestLevel(originalResolution , tileSupport.getTileSize(), 1);
             //deepzoom level
@@ -311,34 +314,11 @@ public class ZoomifyServlet extends AbstractImageServlet {
             String srow = y;
             String scol = x;
             
-            boolean tilePresent = cacheService.isDeepZoomTilePresent(pid, offsetLevel, Integer.parseInt(srow), Integer.parseInt(scol));
-            if (!tilePresent) {
-                // File dFile = cacheService.getDeepZoomLevelsFile(uuid);
-                BufferedImage original = null;
-                if (cacheService.isDeepZoomOriginalPresent(pid)) {
-                    original = cacheService.getDeepZoomOriginal(pid);
-                } else {
-                    original = cacheService.createDeepZoomOriginalImageFromFedoraRAW(pid);
-                    cacheService.writeDeepZoomOriginalImage(pid, original);
-                }
-
-                double scale = tileSupport.getScale(requestedLevel, maxLevels);
-                //ilevel = 
-                // TODO: vyzkouset
-                Dimension scaled = tileSupport.getScaledDimension(new Dimension(original.getWidth(null), original.getHeight(null)), scale);
-                int rows = tileSupport.getRows(scaled);
-                int cols = tileSupport.getCols(scaled);
-                int base = Integer.parseInt(srow) * cols;
-                base = base + Integer.parseInt(scol);
-
-                LOGGER.info("scale is "+scale+" and dimension is "+scaled);
-                
-                BufferedImage tile = this.tileSupport.getTileFromBigImage(original, requestedLevel, base, tileSupport.getTileSize(), getScalingMethod(), turnOnIterateScaling());
-                cacheService.writeDeepZoomTile(pid, offsetLevel, Integer.parseInt(srow), Integer.parseInt(scol), tile);
+            // missing tile is generated together with its whole level; concurrent requests share one decode
+            try (InputStream is = cacheService.getOrCreateDeepZoomTileStream(pid, offsetLevel, requestedLevel, tileSupport.getTileSize(), Integer.parseInt(srow), Integer.parseInt(scol))) {
+                resp.setContentType(ImageMimeType.JPEG.getValue());
+                IOUtils.copyStreams(is, resp.getOutputStream());
             }
-            InputStream is = cacheService.getDeepZoomTileStream(pid, offsetLevel, Integer.parseInt(srow), Integer.parseInt(scol));
-            resp.setContentType(ImageMimeType.JPEG.getValue());
-            IOUtils.copyStreams(is, resp.getOutputStream());
 
         } catch (NumberFormatException e) {
             LOGGER.log(Level.SEVERE, e.getMessage(), e);
@@ -10,8 +10,7 @@ import org.ehcache.CacheManager;
 import org.ehcache.config.builders.CacheConfigurationBuilder;
 import org.ehcache.config.builders.ResourcePoolsBuilder;
 import org.ehcache.config.units.MemoryUnit;
-import org.ehcache.expiry.Duration;
-import org.ehcache.expiry.Expirations;
+import org.ehcache.config.builders.ExpiryPolicyBuilder;
 
 
 import javax.servlet.jsp.JspTagException;
@@ -19,8 +18,8 @@ import java.io.*;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.net.URLConnection;
+import java.time.Duration;
 import java.util.List;
-import java.util.concurrent.TimeUnit;
 
 public class URLContentCache {
 
@@ -43,8 +42,8 @@ public class URLContentCache {
             cache = cacheManager.createCache(CACHE_ALIAS,
                     CacheConfigurationBuilder.newCacheConfigurationBuilder(String.class, String.class,
                             ResourcePoolsBuilder.heap(1000).offheap(32, MemoryUnit.MB))
-                            .withExpiry(Expirations.timeToLiveExpiration(
-                                    Duration.of(KConfiguration.getInstance().getCacheTimeToLiveExpiration(), TimeUnit.SECONDS))).build());
+                            .withExpiry(ExpiryPolicyBuilder.timeToLiveExpiration(
+                                    Duration.ofSeconds(KConfiguration.getInstance().getCacheTimeToLiveExpiration()))).build());
         }
 
     }
@@ -2,6 +2,7 @@ package cz.incad.kramerius.audio;
 
 import java.util.logging.Logger;
 import javax.inject.Inject;
+import javax.inject.Named;
 
 import org.ehcache.CacheManager;
 import cz.incad.kramerius.service.LifeCycleHook;
@@ -14,10 +15,18 @@ public class CacheLifeCycleHook implements LifeCycleHook {
     @Inject
     private CacheManager cacheManager;
 
+    // closed as well, so that persistent disk tiers of the object cache survive restart
+    @com.google.inject.Inject(optional = true)
+    @Named("akubraCacheManager")
+    private CacheManager akubraCacheManager;
+
     @Override
     public void shutdownNotification() {
         LOGGER.info("shutting down Ehcache Manager");
         cacheManager.close();
+        if (akubraCacheManager != null) {
+            akubraCacheManager.close();
+        }
     }
 
     @Override
@@ -28,8 +28,7 @@ import org.ehcache.CacheManager;
 import org.ehcache.config.builders.CacheConfigurationBuilder;
 import org.ehcache.config.builders.ResourcePoolsBuilder;
 import org.ehcache.config.units.MemoryUnit;
-import org.ehcache.expiry.Duration;
-import org.ehcache.expiry.Expirations;
+import org.ehcache.config.builders.ExpiryPolicyBuilder;
 import org.w3c.dom.Document;
 
 import javax.inject.Inject;
@@ -41,7 +40,7 @@ import javax.xml.xpath.XPathExpressionException;
 import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.util.concurrent.TimeUnit;
+import java.time.Duration;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -86,8 +85,8 @@ public class CachingFedoraUrlManager implements RepositoryUrlManager, Initializa
             cache = cacheManager.createCache(CACHE_ALIAS,
                     CacheConfigurationBuilder.newCacheConfigurationBuilder(AudioStreamId.class, URL.class,
                             ResourcePoolsBuilder.heap(1000).offheap(32, MemoryUnit.MB))
-                            .withExpiry(Expirations.timeToLiveExpiration(
-                                    Duration.of(  KConfiguration.getInstance().getCacheTimeToLiveExpiration(), TimeUnit.SECONDS))).build());
+                            .withExpiry(ExpiryPolicyBuilder.timeToLiveExpiration(
+                                    Duration.ofSeconds(KConfiguration.getInstance().getCacheTimeToLiveExpiration()))).build());
         }
     }
 
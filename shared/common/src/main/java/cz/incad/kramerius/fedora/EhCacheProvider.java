@@ -2,8 +2,13 @@ package cz.incad.kramerius.fedora;
 
 import com.google.inject.Provider;
 
+import com.qbizm.kramerius.imp.jaxb.DigitalObject;
+import cz.incad.kramerius.utils.cache.CacheTiers;
+import cz.incad.kramerius.utils.cache.DigitalObjectSerializer;
+import cz.incad.kramerius.utils.cache.DocumentSerializer;
 import org.ehcache.CacheManager;
 import org.ehcache.config.builders.CacheManagerBuilder;
+import org.w3c.dom.Document;
 
 /**
  * CacheProvider
@@ -14,9 +19,8 @@ public class EhCacheProvider implements Provider<CacheManager> {
 
     @Override
     public CacheManager get() {
-        CacheManager cacheManager = CacheManagerBuilder.newCacheManagerBuilder().build();
-               // .withSerializer(Document.class, DocumentSerializer.class).build();
-        cacheManager.init();
-        return cacheManager;
+        return CacheTiers.createCacheManager(CacheManagerBuilder.newCacheManagerBuilder()
+                .withSerializer(DigitalObject.class, DigitalObjectSerializer.class)
+                .withSerializer(Document.class, DocumentSerializer.class), "akubra");
     }
 }
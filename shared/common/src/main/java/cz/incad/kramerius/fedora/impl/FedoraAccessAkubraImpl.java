@@ -4,7 +4,9 @@ import com.google.inject.Inject;
 import com.google.inject.name.Named;
 import com.qbizm.kramerius.imp.jaxb.DatastreamVersionType;
 import com.qbizm.kramerius.imp.jaxb.DigitalObject;
+import cz.incad.kramerius.ProcessSubtreeException;
 import cz.incad.kramerius.StreamHeadersObserver;
+import cz.incad.kramerius.TreeNodeProcessor;
 import cz.incad.kramerius.fedora.AbstractFedoraAccess;
 import cz.incad.kramerius.fedora.om.Repository;
 import cz.incad.kramerius.fedora.om.RepositoryException;
@@ -12,6 +14,7 @@ import cz.incad.kramerius.fedora.om.impl.AkubraDOManager;
 import cz.incad.kramerius.fedora.om.impl.AkubraRepository;
 import cz.incad.kramerius.fedora.om.impl.AkubraUtils;
 import cz.incad.kramerius.resourceindex.ProcessingIndexFeeder;
+import cz.incad.kramerius.resourceindex.SubtreeTraversal;
 import cz.incad.kramerius.statistics.StatisticsAccessLog;
 import cz.incad.kramerius.statistics.accesslogs.AggregatedAccessLogs;
 import cz.incad.kramerius.utils.FedoraUtils;
@@ -36,6 +39,7 @@ public class FedoraAccessAkubraImpl extends AbstractFedoraAccess {
     private Repository repository;
     private ProcessingIndexFeeder feeder;
     private AggregatedAccessLogs accessLog;
+    private SubtreeTraversal traversal;
 
 
     @Inject
@@ -46,6 +50,7 @@ public class FedoraAccessAkubraImpl extends AbstractFedoraAccess {
             this.feeder = feeder;
             this.repository = AkubraRepository.build(feeder, this.manager);
             this.accessLog = accessLog;
+            this.traversal = new SubtreeTraversal(feeder, this::getRelsExt);
 
         } catch (Exception e) {
             throw new IOException(e);
@@ -91,6 +96,28 @@ public class FedoraAccessAkubraImpl extends AbstractFedoraAccess {
         }
     }
 
+    /**
+     * Walks the subtree by the processing index (see {@link SubtreeTraversal}); RELS-EXT of every object is read only if
+     * <code>processingIndex.traversal.enabled</code> is false
+     */
+    @Override
+    public void processSubtree(String pid, TreeNodeProcessor processor) throws ProcessSubtreeException, IOException {
+        if (!SubtreeTraversal.isEnabled()) {
+            super.processSubtree(pid, processor);
+            return;
+        }
+        try {
+            this.traversal.process(makeSureObjectPid(pid), processor);
+        } catch (LexerException e) {
+            LOGGER.warning("Error in pid: " + pid);
+            throw new ProcessSubtreeException(e);
+        }
+    }
+
+    public SubtreeTraversal getSubtreeTraversal() {
+        return this.traversal;
+    }
+
     @Override
     public String getFedoraVersion() throws IOException {
         return "Akubra";
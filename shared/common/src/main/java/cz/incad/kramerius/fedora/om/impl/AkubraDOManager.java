@@ -7,6 +7,8 @@ import com.hazelcast.client.config.XmlClientConfigBuilder;
 import com.hazelcast.config.GroupConfig;
 import com.hazelcast.core.*;
 import com.qbizm.kramerius.imp.jaxb.*;
+import cz.incad.kramerius.utils.cache.CacheTiers;
+import cz.incad.kramerius.utils.cache.TwoLevelCache;
 import cz.incad.kramerius.utils.conf.KConfiguration;
 import org.akubraproject.BlobStore;
 import org.akubraproject.fs.FSBlobStore;
@@ -16,9 +18,6 @@ import org.apache.commons.io.IOUtils;
 import org.ehcache.Cache;
 import org.ehcache.CacheManager;
 import org.ehcache.config.builders.CacheConfigurationBuilder;
-import org.ehcache.config.builders.ResourcePoolsBuilder;
-import org.ehcache.expiry.Duration;
-import org.ehcache.expiry.Expirations;
 import org.fcrepo.server.errors.LowlevelStorageException;
 import org.fcrepo.server.errors.ObjectAlreadyInLowlevelStorageException;
 import org.fcrepo.server.errors.ObjectNotInLowlevelStorageException;
@@ -40,9 +39,10 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
+import java.util.function.Consumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -50,14 +50,17 @@ public class AkubraDOManager {
     public static final Logger LOGGER = Logger.getLogger(AkubraDOManager.class.getName());
     private KConfiguration configuration = KConfiguration.getInstance();
     private ILowlevelStorage storage;
+    private File datastreamStoreBase;
+    private IdMapper datastreamStoreMapper;
 
     private static HazelcastInstance hzInstance;
     //private static IMap<String, Integer> pidLocks;
 
     private static DistributedLockService lockService ;
     private static ITopic<String> cacheInvalidator;
+    private static final List<Consumer<String>> invalidationListeners = new CopyOnWriteArrayList<>();
 
-    private static Cache<String, DigitalObject> objectCache;
+    private static TwoLevelCache<DigitalObject> objectCache;
     private static final String DIGITALOBJECT_CACHE_ALIAS = "DigitalObjectCache";
 
     private static Unmarshaller unmarshaller = null;
@@ -103,6 +106,15 @@ public class AkubraDOManager {
                 if (objectCache != null && message != null) {
                     objectCache.remove(message.getMessageObject());
                 }
+                if (message != null) {
+                    for (Consumer<String> listener : invalidationListeners) {
+                        try {
+                            listener.accept(message.getMessageObject());
+                        } catch (RuntimeException e) {
+                            LOGGER.log(Level.WARNING, e.getMessage(), e);
+                        }
+                    }
+                }
             }
         });
     }
@@ -111,14 +123,16 @@ public class AkubraDOManager {
         try {
             this.storage = initLowLevelStorage();
             if (cacheManager != null) {
-                objectCache = cacheManager.getCache(DIGITALOBJECT_CACHE_ALIAS, String.class, DigitalObject.class);
-                if (objectCache == null) {
-                    objectCache = cacheManager.createCache(DIGITALOBJECT_CACHE_ALIAS,
+                Cache<String, DigitalObject> localCache = cacheManager.getCache(DIGITALOBJECT_CACHE_ALIAS, String.class, DigitalObject.class);
+                if (localCache == null) {
+                    localCache = cacheManager.createCache(DIGITALOBJECT_CACHE_ALIAS,
                             CacheConfigurationBuilder.newCacheConfigurationBuilder(String.class, DigitalObject.class,
-                                    ResourcePoolsBuilder.heap(3000))
-                                    .withExpiry(Expirations.timeToLiveExpiration(
-                                            Duration.of(configuration.getCacheTimeToLiveExpiration(), TimeUnit.SECONDS))).build());
+                                    CacheTiers.resourcePools(cacheManager, DIGITALOBJECT_CACHE_ALIAS, 3000, 0))
+                                    .withExpiry(CacheTiers.expiry(DIGITALOBJECT_CACHE_ALIAS)).build());
                 }
+                objectCache = new TwoLevelCache<>(DIGITALOBJECT_CACHE_ALIAS, localCache,
+                        TwoLevelCache.isClusterEnabled(DIGITALOBJECT_CACHE_ALIAS) ? hzInstance : null, new DigitalObjectCodec(),
+                        CacheTiers.timeToLive(DIGITALOBJECT_CACHE_ALIAS), () -> CacheTiers.describeTiers(cacheManager, DIGITALOBJECT_CACHE_ALIAS));
             }
         } catch (Exception ex) {
             throw new IOException(ex);
@@ -139,6 +153,8 @@ public class AkubraDOManager {
         BlobStore objectStore = new IdMappingBlobStore(new URI("urn:example.org:objectStore"), fsObjectStore, fsObjectStoreMapper);
         BlobStore fsDatastreamStore = new FSBlobStore(new URI("urn:example.org:fsDatastreamStore"), new File(configuration.getProperty("datastreamStore.path")));
         IdMapper fsDatastreamStoreMapper = new HashPathIdMapper(configuration.getProperty("datastreamStore.pattern"));
+        this.datastreamStoreBase = new File(configuration.getProperty("datastreamStore.path"));
+        this.datastreamStoreMapper = fsDatastreamStoreMapper;
         BlobStore datastreamStore = new IdMappingBlobStore(new URI("urn:example.org:datastreamStore"), fsDatastreamStore, fsDatastreamStoreMapper);
         AkubraLowlevelStorage retval = new AkubraLowlevelStorage(objectStore, datastreamStore, true, true);
         return retval;
@@ -208,6 +224,11 @@ public class AkubraDOManager {
                 synchronized (unmarshaller) {
                     obj = unmarshaller.unmarshal(inputStream);
                 }
+                retval = (DigitalObject) obj;
+                if (useCache) {
+                    // still under the read lock, so that an older version cannot overwrite the change in the cluster cache
+                    objectCache.put(pid, retval);
+                }
             } catch (ObjectNotInLowlevelStorageException ex) {
                 return null;
             } catch (Exception e) {
@@ -215,10 +236,6 @@ public class AkubraDOManager {
             } finally {
                 lock.unlock();
             }
-            retval = (DigitalObject) obj;
-            if (useCache) {
-                objectCache.put(pid, retval);
-            }
         }
         return retval;
     }
@@ -231,6 +248,24 @@ public class AkubraDOManager {
         }
     }
 
+    /**
+     * Returns file of the datastream in the datastream store; null if datastreams are not stored in files (legacyfs) or the file does not exist
+     * @param dsKey Datastream key (pid+dsId+dsVersionId)
+     */
+    public File getDatastreamFile(String dsKey) {
+        if (this.datastreamStoreBase == null) {
+            return null;
+        }
+        try {
+            URI internalId = this.datastreamStoreMapper.getInternalId(AkubraLowlevelStorage.getBlobId(dsKey));
+            File file = new File(this.datastreamStoreBase, internalId.getRawSchemeSpecificPart());
+            return file.isFile() ? file : null;
+        } catch (IllegalArgumentException e) {
+            LOGGER.log(Level.WARNING, "Cannot resolve datastream file " + dsKey + ": " + e.getMessage());
+            return null;
+        }
+    }
+
     public InputStream retrieveObject(String objectKey) throws IOException {
         Lock lock = getReadLock(objectKey);
         try {
@@ -494,9 +529,53 @@ public class AkubraDOManager {
     }
 
     private static void invalidateCache(String pid) {
+        if (objectCache != null) {
+            objectCache.removeEverywhere(pid);
+        }
         cacheInvalidator.publish(pid);
     }
 
+    private static class DigitalObjectCodec implements TwoLevelCache.Codec<DigitalObject> {
+
+        @Override
+        public void write(DigitalObject value, OutputStream out) throws IOException {
+            try {
+                synchronized (marshaller) {
+                    marshaller.marshal(value, out);
+                }
+            } catch (Exception e) {
+                throw new IOException(e);
+            }
+        }
+
+        @Override
+        public DigitalObject read(InputStream in) throws IOException {
+            try {
+                synchronized (unmarshaller) {
+                    return (DigitalObject) unmarshaller.unmarshal(in);
+                }
+            } catch (Exception e) {
+                throw new IOException(e);
+            }
+        }
+    }
+
+    /**
+     * Registers listener which is notified (on every cluster member) whenever the object with given pid is changed or deleted;
+     * used by caches derived from object content
+     * @param listener Listener receiving pid of the changed object
+     */
+    public static void addInvalidationListener(Consumer<String> listener) {
+        invalidationListeners.add(listener);
+    }
+
+    /**
+     * Hazelcast client shared by the repository; used also by other cluster-wide structures
+     */
+    public static HazelcastInstance getHazelcastInstance() {
+        return hzInstance;
+    }
+
 
     public static void shutdown() {
         if (lockService != null) {
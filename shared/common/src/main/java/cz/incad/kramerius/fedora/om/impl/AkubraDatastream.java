@@ -66,6 +66,13 @@ public class AkubraDatastream implements RepositoryDatastream {
     }
 
 
+    /**
+     * Returns file with content of the latest version or null if the content is not stored in a file of the datastream store
+     */
+    public File getContentFile() throws RepositoryException {
+        return AkubraUtils.getStreamFile(AkubraUtils.getLastStreamVersion(datastream), manager);
+    }
+
     @Override
     public Document getMetadata() throws RepositoryException {
         return null;
@@ -83,6 +90,13 @@ public class AkubraDatastream implements RepositoryDatastream {
         return this.type;
     }
 
+    /**
+     * Returns id of the latest version (e.g. IMG_THUMB.1)
+     */
+    public String getVersionId() throws RepositoryException {
+        return AkubraUtils.getLastStreamVersion(datastream).getID();
+    }
+
     @Override
     public Date getLastModified() throws RepositoryException {
         return AkubraUtils.getLastStreamVersion(datastream).getCREATED().toGregorianCalendar().getTime();
@@ -18,6 +18,7 @@ import javax.xml.datatype.DatatypeFactory;
 import javax.xml.datatype.XMLGregorianCalendar;
 import javax.xml.transform.TransformerException;
 import java.io.ByteArrayInputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.StringWriter;
@@ -108,6 +109,26 @@ public class AkubraUtils {
         }
     }
 
+    /**
+     * Returns file with the content of managed datastream version or null if the content is not stored in the datastream store
+     * (inline XML, binary content, external URL)
+     */
+    public static File getStreamFile(DatastreamVersionType stream, AkubraDOManager manager) {
+        if (stream.getXmlContent() != null || stream.getContentLocation() == null) {
+            return null;
+        }
+        String ref = stream.getContentLocation().getREF();
+        if (stream.getContentLocation().getTYPE().equals("INTERNAL_ID")) {
+            return manager.getDatastreamFile(ref);
+        } else if (stream.getContentLocation().getTYPE().equals("URL") && ref.startsWith(LOCAL_REF_PREFIX)) {
+            String[] refArray = ref.replace(LOCAL_REF_PREFIX, "").split("/");
+            if (refArray.length == 2) {
+                return manager.getDatastreamFile(refArray[0] + "+" + refArray[1] + "+" + refArray[1] + ".0");
+            }
+        }
+        return null;
+    }
+
     private static InputStream readFromURL(String url) throws IOException {
         URL searchURL = new URL(url);
         URLConnection conn = searchURL.openConnection();
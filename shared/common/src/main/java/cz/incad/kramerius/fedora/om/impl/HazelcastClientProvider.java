@@ -0,0 +1,35 @@
+package cz.incad.kramerius.fedora.om.impl;
+
+import com.google.inject.Provider;
+import com.google.inject.Singleton;
+import com.hazelcast.core.HazelcastInstance;
+
+/**
+ * Hazelcast client of the repository ({@link AkubraDOManager#getHazelcastInstance()}) for cluster-wide structures.
+ * <p>
+ * The client is obtained when it is requested for the first time, not when the provider is created. If it cannot be obtained,
+ * {@link #get()} fails with {@link IllegalStateException}; the components which are configured for cluster mode must not
+ * silently continue with local state.
+ */
+@Singleton
+public class HazelcastClientProvider implements Provider<HazelcastInstance> {
+
+    private volatile HazelcastInstance instance;
+
+    @Override
+    public HazelcastInstance get() {
+        HazelcastInstance found = this.instance;
+        if (found == null) {
+            try {
+                found = AkubraDOManager.getHazelcastInstance();
+            } catch (Throwable e) {
+                throw new IllegalStateException("Cannot obtain Hazelcast client: " + e.getMessage(), e);
+            }
+            if (found == null) {
+                throw new IllegalStateException("Hazelcast client has not been created");
+            }
+            this.instance = found;
+        }
+        return found;
+    }
+}
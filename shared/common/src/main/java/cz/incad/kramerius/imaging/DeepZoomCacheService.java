@@ -154,6 +154,22 @@ public interface DeepZoomCacheService {
      */
     public InputStream getDeepZoomTileStream(String pid, int ilevel, int row, int col) throws IOException;
 
+    /**
+     * Returns input stream of the tile; if the tile is not present in cache, all tiles of its level
+     * are generated from one decode of the original image. Concurrent requests for the same pid
+     * wait for one generation instead of decoding the original again.
+     *
+     * @param pid PID of the page
+     * @param ilevel level under which the tile is stored in cache
+     * @param displayLevel scale level used for scaling the original image
+     * @param minSize the smallest size of image (in deepZoom protocol is 1px, in IIP is tileSize)
+     * @param row Tile row
+     * @param col Tile col
+     * @return InputStream tile stream
+     * @throws IOException IO error has been occurred
+     */
+    public InputStream getOrCreateDeepZoomTileStream(String pid, int ilevel, int displayLevel, int minSize, int row, int col) throws IOException;
+
     /**
      * Returns true if full scaled image is present in cache
      * 
@@ -129,6 +129,31 @@ public interface DeepZoomTileSupport {
      */
     public double getScale(int displayLevel, long maxLevel);
 
+    /**
+     * Scales given image to the given display level; the result could be cut into tiles
+     * by {@link #getTileFromScaledImage(BufferedImage, int, int)} without scaling it again for every tile
+     *
+     * @param image RAW Image
+     * @param displayLevel Scale level of the image
+     * @param minSize
+     *            the smallest size of image (in deepZoom protocol is 1px, in
+     *            IIP is tileSize)
+     * @param method Scaling method
+     * @param iterateScaling flag for determine if algorithm should use iterate scaling
+     * @return scaled image
+     */
+    public BufferedImage getScaledImageForLevel(BufferedImage image, int displayLevel, int minSize, ScalingMethod method, boolean iterateScaling);
+
+    /**
+     * Cuts one tile from the image which has been already scaled to the requested level
+     *
+     * @param scaled Scaled image
+     * @param row Tile row
+     * @param col Tile col
+     * @return one tile
+     */
+    public BufferedImage getTileFromScaledImage(BufferedImage scaled, int row, int col);
+
     /**
      * Returns scaled dimension
      * @param original Original dimension
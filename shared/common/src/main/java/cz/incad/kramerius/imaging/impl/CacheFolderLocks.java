@@ -0,0 +1,89 @@
+package cz.incad.kramerius.imaging.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Users of the pid folders of the deep zoom cache.
+ * <p>
+ * A request pins the folder for the whole time it works with it, including reading of the returned tile stream, and holds
+ * the read lock of the folder while it checks, generates and opens files. Tiles of one folder are generated by one
+ * request at a time (generation lock). Eviction deletes a folder only if it is not pinned and holds the write lock
+ * meanwhile, so requests coming during the deletion wait and then generate the tiles again. Folders are identified by
+ * their path, which is independent of the form of the pid.
+ */
+class CacheFolderLocks {
+
+    private final ConcurrentHashMap<String, FolderLock> folders = new ConcurrentHashMap<>();
+
+    /**
+     * Deletes a folder
+     */
+    @FunctionalInterface
+    interface FolderAction {
+        void run(File folder) throws IOException;
+    }
+
+    /**
+     * Pins the folder; every pin must be released by {@link #unpin(File)}, from any thread
+     */
+    FolderLock pin(File folder) {
+        // users are counted inside compute, so the lock cannot be removed between lookup and use
+        return this.folders.compute(key(folder), (key, current) -> {
+            FolderLock lock = current != null ? current : new FolderLock();
+            lock.users++;
+            return lock;
+        });
+    }
+
+    void unpin(File folder) {
+        this.folders.compute(key(folder), (key, current) -> --current.users == 0 ? null : current);
+    }
+
+    boolean isPinned(File folder) {
+        return this.folders.containsKey(key(folder));
+    }
+
+    /**
+     * Deletes the folder unless it is pinned
+     * @return false if the folder is pinned and was not deleted
+     */
+    boolean evict(File folder, FolderAction delete) throws IOException {
+        FolderLock lock = new FolderLock();
+        lock.users = 1;
+        lock.access.writeLock().lock();
+        try {
+            if (this.folders.putIfAbsent(key(folder), lock) != null) {
+                return false;
+            }
+            try {
+                delete.run(folder);
+                return true;
+            } finally {
+                // requests which pinned the folder meanwhile keep the lock and continue after the write lock is released
+                unpin(folder);
+            }
+        } finally {
+            lock.access.writeLock().unlock();
+        }
+    }
+
+    private static String key(File folder) {
+        return folder.getAbsoluteFile().toPath().normalize().toString();
+    }
+
+    /**
+     * Locks of one pid folder
+     */
+    static final class FolderLock {
+        /** read lock: request working with files of the folder, write lock: eviction */
+        final ReentrantReadWriteLock access = new ReentrantReadWriteLock();
+        /** generation of tiles */
+        final ReentrantLock generation = new ReentrantLock();
+        // guarded by the compute methods of folders
+        private int users;
+    }
+}
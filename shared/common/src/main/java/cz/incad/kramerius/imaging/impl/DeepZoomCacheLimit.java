@@ -0,0 +1,153 @@
+package cz.incad.kramerius.imaging.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Size limit of the deep zoom disk cache.
+ * <p>
+ * Every generated level adds its size to the estimated size of the cache. When the estimate exceeds the limit,
+ * a background thread walks the cache directory and deletes the least recently used pid folders until the cache
+ * is below 90% of the limit. Pid folders are directories containing files (original, descriptor, resolution);
+ * their modification time is the time of the last access. Folders pinned in {@link CacheFolderLocks} are not deleted.
+ */
+class DeepZoomCacheLimit {
+
+    static final Logger LOGGER = Logger.getLogger(DeepZoomCacheLimit.class.getName());
+
+    /** last access is written at most once per this interval */
+    private static final long TOUCH_INTERVAL = 60 * 1000L;
+
+    private final File root;
+    private final long maxSize;
+    // -1 until the first walk of the cache directory
+    private final AtomicLong estimatedSize = new AtomicLong(-1);
+    private final AtomicBoolean evicting = new AtomicBoolean();
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "deepzoom-cache-eviction");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * @param root Cache directory
+     * @param maxSize Maximum size in bytes
+     */
+    DeepZoomCacheLimit(File root, long maxSize) {
+        this.root = root;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Records access to the pid folder
+     */
+    void touch(File pidFolder) {
+        long now = System.currentTimeMillis();
+        if (now - pidFolder.lastModified() > TOUCH_INTERVAL && !pidFolder.setLastModified(now)) {
+            LOGGER.fine(String.format("Cannot set last access of %s", pidFolder.getAbsolutePath()));
+        }
+    }
+
+    /**
+     * Records generated data and starts eviction if the cache is over the limit
+     * @param pidFolder Folder of the object
+     * @param bytes Size of generated files
+     * @param locks Locks of the folders; pinned folders are not deleted
+     */
+    void added(File pidFolder, long bytes, CacheFolderLocks locks) {
+        touch(pidFolder);
+        long size = this.estimatedSize.get() < 0 ? -1 : this.estimatedSize.addAndGet(bytes);
+        if ((size < 0 || size > this.maxSize) && this.evicting.compareAndSet(false, true)) {
+            this.executor.submit(() -> {
+                try {
+                    evict(locks);
+                } catch (RuntimeException e) {
+                    LOGGER.log(Level.SEVERE, e.getMessage(), e);
+                } finally {
+                    this.evicting.set(false);
+                }
+            });
+        }
+    }
+
+    void evict(CacheFolderLocks locks) {
+        List<File> folders = new ArrayList<>();
+        collectPidFolders(this.root, folders);
+        // sizes and access times are read once, before sorting
+        List<CachedFolder> cached = new ArrayList<>();
+        long total = 0;
+        for (File folder : folders) {
+            CachedFolder cachedFolder = new CachedFolder(folder, folder.lastModified(), FileUtils.sizeOfDirectory(folder));
+            cached.add(cachedFolder);
+            total += cachedFolder.size;
+        }
+        if (total > this.maxSize) {
+            long target = this.maxSize / 10 * 9;
+            cached.sort(Comparator.comparingLong(cachedFolder -> cachedFolder.lastAccess));
+            int deleted = 0;
+            for (CachedFolder cachedFolder : cached) {
+                if (total <= target) {
+                    break;
+                }
+                try {
+                    // folders being generated or read are skipped
+                    if (locks.evict(cachedFolder.folder, FileUtils::deleteDirectory)) {
+                        total -= cachedFolder.size;
+                        deleted++;
+                    }
+                } catch (IOException e) {
+                    LOGGER.log(Level.WARNING, String.format("Cannot delete cached folder %s: %s", cachedFolder.folder.getAbsolutePath(), e.getMessage()), e);
+                }
+            }
+            LOGGER.info(String.format("Deep zoom cache over limit, deleted %d least recently used objects, size is %d MB", deleted, total / (1024 * 1024)));
+        }
+        this.estimatedSize.set(total);
+    }
+
+    private void collectPidFolders(File dir, List<File> folders) {
+        File[] children = dir.listFiles();
+        if (children == null) {
+            return;
+        }
+        boolean hasFiles = false;
+        List<File> dirs = new ArrayList<>();
+        for (File child : children) {
+            if (child.isFile()) {
+                hasFiles = true;
+            } else if (child.isDirectory()) {
+                dirs.add(child);
+            }
+        }
+        if (hasFiles && !dir.equals(this.root)) {
+            folders.add(dir);
+        } else {
+            for (File child : dirs) {
+                collectPidFolders(child, folders);
+            }
+        }
+    }
+
+    private static class CachedFolder {
+
+        private final File folder;
+        private final long lastAccess;
+        private final long size;
+
+        private CachedFolder(File folder, long lastAccess, long size) {
+            this.folder = folder;
+            this.lastAccess = lastAccess;
+            this.size = size;
+        }
+    }
+}
@@ -5,16 +5,19 @@ import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.FileFilter;
 import java.io.FileInputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.Writer;
 import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Level;
 
 import javax.imageio.stream.FileImageOutputStream;
 import javax.imageio.stream.ImageOutputStreamImpl;
 
 import org.antlr.stringtemplate.StringTemplate;
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.output.FileWriterWithEncoding;
 
 import com.google.inject.Inject;
@@ -59,6 +62,12 @@ public class FileSystemCacheServiceImpl implements DeepZoomCacheService {
     // CachingSupport cachingSupport= new CachingSupport();
     @Inject
     DiscStrucutreForStore discStructureStore;
+
+    // one tile generation per pid folder; concurrent requests wait and then read generated tiles
+    final CacheFolderLocks folderLocks = new CacheFolderLocks();
+
+    // null if the size of the cache is not limited
+    private final DeepZoomCacheLimit cacheLimit = createCacheLimit();
     
 
     @Override
@@ -97,23 +106,7 @@ public class FileSystemCacheServiceImpl implements DeepZoomCacheService {
             writeResolution(pid, rawDim);
             
             for (int i = startLevel ; i < maxLevel; i++) {
-
-                int curLevel = i;
-                double scale = tileSupport.getScale(curLevel, levels);
-                Dimension scaled = tileSupport.getScaledDimension(new Dimension(rawImage.getWidth(null), rawImage.getHeight(null)), scale);
-
-                int rows = tileSupport.getRows(scaled);
-                int cols = tileSupport.getCols(scaled);
-                for (int r = 0; r < rows; r++) {
-                    int b = r * cols;
-                    for (int c = 0; c < cols; c++) {
-                        int cell = b + c;
-                        ScalingMethod method = ScalingMethod.valueOf(kConfiguration.getProperty("deepZoom.scalingMethod", "BICUBIC_STEPPED"));
-                        boolean highQuality = kConfiguration.getConfiguration().getBoolean("deepZoom.iterateScaling", true);
-                        BufferedImage tile = this.tileSupport.getTileFromBigImage(rawImage, curLevel, cell, 1, method, highQuality);
-                        writeDeepZoomTile(pid, curLevel, r, c, tile);
-                    }
-                }
+                writeDeepZoomLevel(pid, rawImage, i, i, 1);
             }
         } catch (IOException e) {
             LOGGER.severe(e.getMessage());
@@ -129,22 +122,7 @@ public class FileSystemCacheServiceImpl implements DeepZoomCacheService {
 
             int levels = (int) tileSupport.getLevels(rawImage, 1);
             for (int i = levels - 1; i > 0; i--) {
-                int curLevel = i;
-                double scale = tileSupport.getScale(curLevel, levels);
-                Dimension scaled = tileSupport.getScaledDimension(new Dimension(rawImage.getWidth(null), rawImage.getHeight(null)), scale);
-
-                int rows = tileSupport.getRows(scaled);
-                int cols = tileSupport.getCols(scaled);
-                for (int r = 0; r < rows; r++) {
-                    int b = r * cols;
-                    for (int c = 0; c < cols; c++) {
-                        int cell = b + c;
-                        ScalingMethod method = ScalingMethod.valueOf(kConfiguration.getProperty("deepZoom.scalingMethod", "BICUBIC_STEPPED"));
-                        boolean highQuality = kConfiguration.getConfiguration().getBoolean("deepZoom.iterateScaling", true);
-                        BufferedImage tile = this.tileSupport.getTileFromBigImage(rawImage, curLevel, cell, 1, method, highQuality);
-                        writeDeepZoomTile(pid, curLevel, r, c, tile);
-                    }
-                }
+                Dimension scaled = writeDeepZoomLevel(pid, rawImage, i, i, 1);
                 // image fit to one tile, this is the end for me
                 if (!greaterThen(scaled, dimToFit)) {
                     break;
@@ -155,6 +133,26 @@ public class FileSystemCacheServiceImpl implements DeepZoomCacheService {
         }
     }
 
+    /**
+     * Scales the original image once for given level and writes all tiles of the level
+     * @return scaled dimension of the level
+     */
+    Dimension writeDeepZoomLevel(String pid, BufferedImage rawImage, int ilevel, int displayLevel, int minSize) throws IOException {
+        ScalingMethod method = ScalingMethod.valueOf(kConfiguration.getProperty("deepZoom.scalingMethod", "BICUBIC_STEPPED"));
+        boolean highQuality = kConfiguration.getConfiguration().getBoolean("deepZoom.iterateScaling", true);
+        BufferedImage scaledImage = this.tileSupport.getScaledImageForLevel(rawImage, displayLevel, minSize, method, highQuality);
+        Dimension scaled = new Dimension(scaledImage.getWidth(), scaledImage.getHeight());
+        int rows = tileSupport.getRows(scaled);
+        int cols = tileSupport.getCols(scaled);
+        for (int r = 0; r < rows; r++) {
+            for (int c = 0; c < cols; c++) {
+                BufferedImage tile = this.tileSupport.getTileFromScaledImage(scaledImage, r, c);
+                writeDeepZoomTile(pid, ilevel, r, c, tile);
+            }
+        }
+        return scaled;
+    }
+
    cz.incad.kramerius.imaging.paths.DirPath uuidFolder(String pid) throws IOException {
         try {
             PIDParser pidParser = new PIDParser(pid);
@@ -318,6 +316,100 @@ public class FileSystemCacheServiceImpl implements DeepZoomCacheService {
         return fp.openInputStream();
     }
 
+    /**
+     * The folder of the object stays pinned until the returned stream is closed; it is not evicted meanwhile
+     */
+    @Override
+    public InputStream getOrCreateDeepZoomTileStream(String pid, int ilevel, int displayLevel, int minSize, int row, int col) throws IOException {
+        File folder = pidFolder(pid);
+        CacheFolderLocks.FolderLock lock = this.folderLocks.pin(folder);
+        InputStream stream = null;
+        try {
+            lock.access.readLock().lock();
+            try {
+                if (!isDeepZoomTilePresent(pid, ilevel, row, col)) {
+                    lock.generation.lock();
+                    try {
+                        // concurrent request could have generated the level while we were waiting
+                        if (!isDeepZoomTilePresent(pid, ilevel, row, col)) {
+                            generateDeepZoomLevel(pid, folder, ilevel, displayLevel, minSize);
+                        }
+                    } finally {
+                        lock.generation.unlock();
+                    }
+                } else if (this.cacheLimit != null) {
+                    this.cacheLimit.touch(folder);
+                }
+                stream = getDeepZoomTileStream(pid, ilevel, row, col);
+            } finally {
+                lock.access.readLock().unlock();
+            }
+        } finally {
+            if (stream == null) {
+                this.folderLocks.unpin(folder);
+            }
+        }
+        return new PinnedInputStream(stream, folder);
+    }
+
+    private void generateDeepZoomLevel(String pid, File folder, int ilevel, int displayLevel, int minSize) throws IOException {
+        BufferedImage original = null;
+        boolean originalWritten = false;
+        if (isDeepZoomOriginalPresent(pid)) {
+            original = getDeepZoomOriginal(pid);
+        } else {
+            original = createDeepZoomOriginalImageFromFedoraRAW(pid);
+            writeDeepZoomOriginalImage(pid, original);
+            originalWritten = true;
+        }
+        writeDeepZoomLevel(pid, original, ilevel, displayLevel, minSize);
+        if (this.cacheLimit != null) {
+            long written = FileUtils.sizeOfDirectory(new File(folder, "" + ilevel));
+            if (originalWritten) {
+                written += new File(folder, pid).length();
+            }
+            this.cacheLimit.added(folder, written, this.folderLocks);
+        }
+    }
+
+    /**
+     * Cache folder of the object
+     */
+    File pidFolder(String pid) throws IOException {
+        return FileUtils.toFile(uuidFolder(pid).toURL());
+    }
+
+    private DeepZoomCacheLimit createCacheLimit() {
+        // deepZoom.cache.maxSize in MB, 0 = unlimited
+        long maxSize = this.kConfiguration.getConfiguration().getLong("deepZoom.cache.maxSize", 0);
+        return maxSize > 0 ? new DeepZoomCacheLimit(new File(this.kConfiguration.getDeepZoomCacheDir()), maxSize * 1024 * 1024) : null;
+    }
+
+    /**
+     * Tile stream which unpins the folder of the object when it is closed
+     */
+    private class PinnedInputStream extends FilterInputStream {
+
+        private final File folder;
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        private PinnedInputStream(InputStream in, File folder) {
+            super(in);
+            this.folder = folder;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                if (this.closed.compareAndSet(false, true)) {
+                    folderLocks.unpin(this.folder);
+                }
+            }
+        }
+    }
+
     /**
      * We are changing level if user want to smaller image then the one which
      * fit to one tile
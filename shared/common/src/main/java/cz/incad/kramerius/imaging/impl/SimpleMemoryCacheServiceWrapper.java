@@ -104,6 +104,12 @@ public class SimpleMemoryCacheServiceWrapper implements DeepZoomCacheService {
 		return this.wrappingInstance.getDeepZoomTileStream(uuid, ilevel, row, col);
 	}
 
+	@Override
+	public InputStream getOrCreateDeepZoomTileStream(String uuid, int ilevel, int displayLevel, int minSize, int row,
+			int col) throws IOException {
+		return this.wrappingInstance.getOrCreateDeepZoomTileStream(uuid, ilevel, displayLevel, minSize, row, col);
+	}
+
 	@Override
 	public boolean isDeepZoomOriginalPresent(String uuid) throws IOException {
 		return this.wrappingInstance.isDeepZoomOriginalPresent(uuid);
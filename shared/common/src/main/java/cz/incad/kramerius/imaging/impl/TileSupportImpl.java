@@ -139,43 +139,50 @@ public class TileSupportImpl implements DeepZoomTileSupport {
     @Override
 	public BufferedImage getTileFromBigImage(BufferedImage image,int displayLevel, int displayTile,
 			int minSize, ScalingMethod method, boolean iterateScaling) {
-		long maxLevel = getLevels(image, minSize);
+        BufferedImage scaled = getScaledImageForLevel(image, displayLevel, minSize, method, iterateScaling);
+        int cols = getCols(new Dimension(scaled.getWidth(), scaled.getHeight()));
+
+        int rowTile = displayTile / cols;
+        int colTile = displayTile % cols;
+        return getTileFromScaledImage(scaled, rowTile, colTile);
+	}
+
+    @Override
+    public BufferedImage getScaledImageForLevel(BufferedImage image, int displayLevel, int minSize, ScalingMethod method, boolean iterateScaling) {
+        long maxLevel = getLevels(image, minSize);
         int width = image.getWidth(null);
         int height = image.getHeight(null);
         Dimension originalDim = new Dimension(width, height);
-        
+
         double scale = getScale(displayLevel, maxLevel);
         LOGGER.info("tilesupport calculated scale : "+scale);
         Dimension scaledDim = getScaledDimension(originalDim, scale);
         LOGGER.info("tilesupport calculated dim : "+scaledDim);
-        
-        //int rows = getRows(scaledDim);
-        int cols = getCols(scaledDim);
-        
-        Image scaled = null;
+
         if ((width == scaledDim.width) && (height == scaledDim.height)) {
-        	scaled = image;
+            return image;
         } else {
-            scaled = KrameriusImageSupport.scale(image, scaledDim.width, scaledDim.height, method, iterateScaling);
+            return KrameriusImageSupport.scale(image, scaledDim.width, scaledDim.height, method, iterateScaling);
         }
+    }
 
-        
-        
-        int rowTile = displayTile / cols;
-        int colTile = displayTile % cols;
+    @Override
+    public BufferedImage getTileFromScaledImage(BufferedImage scaled, int row, int col) {
+        int scaledWidth = scaled.getWidth();
+        int scaledHeight = scaled.getHeight();
+
+        int tileStartY = row * getTileSize();
+        int tileStartX = col * getTileSize();
+
+        int tileWidth = scaledWidth >= getTileSize() ? Math.min(getTileSize(), scaledWidth - tileStartX) : scaledWidth;
+        int tileHeight = scaledHeight >= getTileSize() ? Math.min(getTileSize(), scaledHeight - tileStartY) : scaledHeight;
 
-        int tileStartY = rowTile * getTileSize();
-        int tileStartX = colTile * getTileSize();
-        
-        int tileWidth = scaledDim.width >= getTileSize() ? Math.min(getTileSize(), scaledDim.width - tileStartX) : scaledDim.width;
-        int tileHeight = scaledDim.height >= getTileSize() ? Math.min(getTileSize(), scaledDim.height - tileStartY) : scaledDim.height;
-        
         BufferedImage buffImage = new BufferedImage(tileWidth, tileHeight, BufferedImage.TYPE_INT_RGB);
         Graphics2D graphics2d = (Graphics2D) buffImage.getGraphics();
-        
+
         graphics2d.drawImage(scaled, -tileStartX,-tileStartY, null);
         return buffImage;
-	}
+    }
 
     @Override
     public int getCols(Dimension scaledDim) {
@@ -0,0 +1,105 @@
+package cz.incad.kramerius.imaging.utils;
+
+import java.net.URI;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+
+/**
+ * Latency statistics of proxied image server (IIP, IIIF, zoomify) requests, collected per upstream host.
+ * <p>
+ * Summary of every host is logged after each <code>LOG_INTERVAL</code> requests; slow upstream is visible in the log
+ * without turning on request level logging.
+ */
+public class ImageServerMetrics {
+
+    public static final Logger LOGGER = Logger.getLogger(ImageServerMetrics.class.getName());
+
+    private static final int LOG_INTERVAL = 1000;
+
+    private static final Map<String, Upstream> UPSTREAMS = new ConcurrentHashMap<>();
+
+    private ImageServerMetrics() {}
+
+    /**
+     * Records one finished request
+     * @param url Requested url
+     * @param startNanos Value of {@link System#nanoTime()} when the request started
+     * @param failed true if the request failed or upstream returned error status
+     */
+    public static void record(String url, long startNanos, boolean failed) {
+        long elapsed = System.nanoTime() - startNanos;
+        Upstream upstream = UPSTREAMS.computeIfAbsent(host(url), Upstream::new);
+        upstream.record(elapsed, failed);
+    }
+
+    public static Map<String, Upstream> getUpstreams() {
+        return UPSTREAMS;
+    }
+
+    static String host(String url) {
+        try {
+            URI uri = URI.create(url);
+            if (uri.getHost() != null) {
+                return uri.getPort() > 0 ? uri.getHost() + ":" + uri.getPort() : uri.getHost();
+            }
+        } catch (IllegalArgumentException e) {
+            // not valid uri; statistics are collected under unknown host
+        }
+        return "unknown";
+    }
+
+    public static class Upstream {
+
+        private final String host;
+        private final LongAdder requests = new LongAdder();
+        private final LongAdder failures = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final AtomicLong maxNanos = new AtomicLong();
+
+        Upstream(String host) {
+            this.host = host;
+        }
+
+        void record(long elapsedNanos, boolean failed) {
+            this.requests.increment();
+            if (failed) {
+                this.failures.increment();
+            }
+            this.totalNanos.add(elapsedNanos);
+            this.maxNanos.accumulateAndGet(elapsedNanos, Math::max);
+            if (this.requests.sum() % LOG_INTERVAL == 0) {
+                LOGGER.info(toString());
+            }
+        }
+
+        public String getHost() {
+            return host;
+        }
+
+        public long getRequests() {
+            return requests.sum();
+        }
+
+        public long getFailures() {
+            return failures.sum();
+        }
+
+        public long getAverageMillis() {
+            long count = requests.sum();
+            return count > 0 ? TimeUnit.NANOSECONDS.toMillis(totalNanos.sum() / count) : 0;
+        }
+
+        public long getMaxMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(maxNanos.get());
+        }
+
+        @Override
+        public String toString() {
+            return String.format("image server %s: %d requests, %d failed, avg %d ms, max %d ms", host, getRequests(), getFailures(), getAverageMillis(), getMaxMillis());
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package cz.incad.kramerius.imaging.utils;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.xml.xpath.XPathExpressionException;
+
+import org.ehcache.Cache;
+import org.ehcache.CacheManager;
+import org.ehcache.config.builders.CacheConfigurationBuilder;
+import org.ehcache.config.builders.ExpiryPolicyBuilder;
+import org.ehcache.config.builders.ResourcePoolsBuilder;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+import cz.incad.kramerius.FedoraAccess;
+import cz.incad.kramerius.fedora.om.impl.AkubraDOManager;
+import cz.incad.kramerius.utils.RelsExtHelper;
+import cz.incad.kramerius.utils.conf.KConfiguration;
+
+/**
+ * Cache of image server urls (RELS-EXT tiles-url) keyed by pid.
+ * <p>
+ * Every zoomify, deep zoom and IIIF tile request needs the tiles-url of its page; without the cache
+ * RELS-EXT is read and parsed again for each tile. Entries are removed when the object changes in the repository
+ * (see {@link AkubraDOManager#addInvalidationListener(java.util.function.Consumer)}) and expire after
+ * <code>imaging.tilesUrlCache.ttl</code> seconds as a safety net.
+ */
+@Singleton
+public class TilesUrlCache {
+
+    public static final Logger LOGGER = Logger.getLogger(TilesUrlCache.class.getName());
+
+    private static final String CACHE_ALIAS = "TilesUrlCache";
+
+    /** Marker for objects without tiles-url; negative answers are cached as well */
+    private static final String NO_TILES_URL = "";
+
+    private final Cache<String, String> cache;
+
+    @Inject
+    public TilesUrlCache(CacheManager cacheManager) {
+        if (KConfiguration.getInstance().getConfiguration().getBoolean("imaging.tilesUrlCache.enabled", true)) {
+            Cache<String, String> existing = cacheManager.getCache(CACHE_ALIAS, String.class, String.class);
+            if (existing == null) {
+                existing = cacheManager.createCache(CACHE_ALIAS,
+                        CacheConfigurationBuilder.newCacheConfigurationBuilder(String.class, String.class,
+                                ResourcePoolsBuilder.heap(KConfiguration.getInstance().getConfiguration().getInt("imaging.tilesUrlCache.size", 20000)))
+                                .withExpiry(ExpiryPolicyBuilder.timeToLiveExpiration(
+                                        Duration.ofSeconds(KConfiguration.getInstance().getConfiguration().getInt("imaging.tilesUrlCache.ttl", 600)))).build());
+            }
+            this.cache = existing;
+            try {
+                AkubraDOManager.addInvalidationListener(this::invalidate);
+            } catch (Throwable e) {
+                LOGGER.log(Level.WARNING, "Cannot register tiles-url cache invalidation, entries will only expire: " + e.getMessage(), e);
+            }
+        } else {
+            this.cache = null;
+        }
+    }
+
+    /**
+     * Loads tiles-url when it is not cached
+     */
+    @FunctionalInterface
+    public interface TilesUrlLoader {
+        String load() throws IOException;
+    }
+
+    /**
+     * Returns tiles-url of given object; RELS-EXT is read from given fedora access only if the url is not cached
+     */
+    public String getTilesUrl(String pid, FedoraAccess fedoraAccess) throws IOException {
+        return getTilesUrl(pid, () -> {
+            try {
+                return RelsExtHelper.getRelsExtTilesUrl(pid, fedoraAccess);
+            } catch (XPathExpressionException e) {
+                throw new IOException(e.getMessage(), e);
+            }
+        });
+    }
+
+    /**
+     * Returns tiles-url of given object; loader is called only if the url is not cached
+     */
+    public String getTilesUrl(String pid, TilesUrlLoader loader) throws IOException {
+        if (this.cache == null) {
+            return loader.load();
+        }
+        String url = this.cache.get(pid);
+        if (url == null) {
+            url = loader.load();
+            if (url == null) {
+                url = NO_TILES_URL;
+            }
+            this.cache.put(pid, url);
+        }
+        return url.equals(NO_TILES_URL) ? null : url;
+    }
+
+    public void invalidate(String pid) {
+        if (this.cache != null && pid != null) {
+            this.cache.remove(pid);
+        }
+    }
+
+    public void clear() {
+        if (this.cache != null) {
+            this.cache.clear();
+        }
+    }
+}
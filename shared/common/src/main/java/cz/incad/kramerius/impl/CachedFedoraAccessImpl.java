@@ -10,8 +10,7 @@ import org.ehcache.CacheManager;
 import org.ehcache.config.builders.CacheConfigurationBuilder;
 import org.ehcache.config.builders.ResourcePoolsBuilder;
 import org.ehcache.config.units.MemoryUnit;
-import org.ehcache.expiry.Duration;
-import org.ehcache.expiry.Expirations;
+import org.ehcache.config.builders.ExpiryPolicyBuilder;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 
@@ -20,10 +19,10 @@ import javax.inject.Named;
 import javax.xml.xpath.XPathExpressionException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.time.Duration;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.TimeUnit;
 
 
 /**
@@ -56,8 +55,8 @@ public class CachedFedoraAccessImpl  implements FedoraAccess, FedoraCacheAwarene
             xmlscache = cacheManager.createCache(XMLS_CACHE_ALIAS,
                     CacheConfigurationBuilder.newCacheConfigurationBuilder(String.class, Document.class,
                             ResourcePoolsBuilder.heap(3000).offheap(32, MemoryUnit.MB))
-                            .withExpiry(Expirations.timeToLiveExpiration(
-                                    Duration.of(  KConfiguration.getInstance().getCacheTimeToLiveExpiration(), TimeUnit.SECONDS))).build());
+                            .withExpiry(ExpiryPolicyBuilder.timeToLiveExpiration(
+                                    Duration.ofSeconds(KConfiguration.getInstance().getCacheTimeToLiveExpiration()))).build());
         }
 
         existsCache = cacheManager.getCache(EXISTS_CACHE_ALIAS, String.class, Boolean.class);
@@ -65,8 +64,8 @@ public class CachedFedoraAccessImpl  implements FedoraAccess, FedoraCacheAwarene
             existsCache = cacheManager.createCache(EXISTS_CACHE_ALIAS,
                     CacheConfigurationBuilder.newCacheConfigurationBuilder(String.class, Boolean.class,
                             ResourcePoolsBuilder.heap(3000).offheap(1, MemoryUnit.MB))
-                            .withExpiry(Expirations.timeToLiveExpiration(
-                                    Duration.of(  KConfiguration.getInstance().getCacheTimeToLiveExpiration(), TimeUnit.SECONDS))).build());
+                            .withExpiry(ExpiryPolicyBuilder.timeToLiveExpiration(
+                                    Duration.ofSeconds(KConfiguration.getInstance().getCacheTimeToLiveExpiration()))).build());
         }
 
         lastModifiedCache = cacheManager.getCache(LAST_MODIFIED_CACHE_ALIAS, String.class, Date.class);
@@ -74,8 +73,8 @@ public class CachedFedoraAccessImpl  implements FedoraAccess, FedoraCacheAwarene
             lastModifiedCache = cacheManager.createCache(LAST_MODIFIED_CACHE_ALIAS,
                     CacheConfigurationBuilder.newCacheConfigurationBuilder(String.class, Date.class,
                             ResourcePoolsBuilder.heap(3000).offheap(1, MemoryUnit.MB))
-                            .withExpiry(Expirations.timeToLiveExpiration(
-                                    Duration.of(KConfiguration.getInstance().getCacheTimeToLiveExpiration(), TimeUnit.SECONDS))).build());
+                            .withExpiry(ExpiryPolicyBuilder.timeToLiveExpiration(
+                                    Duration.ofSeconds(KConfiguration.getInstance().getCacheTimeToLiveExpiration()))).build());
         }
 
     }
@@ -1,19 +1,22 @@
 package cz.incad.kramerius.impl;
 
 import cz.incad.kramerius.SolrAccess;
-import cz.incad.kramerius.utils.conf.KConfiguration;
+import cz.incad.kramerius.fedora.om.impl.HazelcastClientProvider;
+import com.hazelcast.core.HazelcastInstance;
+import cz.incad.kramerius.utils.XMLUtils;
+import cz.incad.kramerius.utils.cache.CacheTiers;
+import cz.incad.kramerius.utils.cache.TwoLevelCache;
 import org.ehcache.Cache;
 import org.ehcache.CacheManager;
 import org.ehcache.config.builders.CacheConfigurationBuilder;
-import org.ehcache.config.builders.ResourcePoolsBuilder;
-import org.ehcache.config.units.MemoryUnit;
-import org.ehcache.expiry.Duration;
-import org.ehcache.expiry.Expirations;
 import org.w3c.dom.Document;
 
 import javax.inject.Inject;
 import java.io.IOException;
-import java.util.concurrent.TimeUnit;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
  * CachedSolrAccessImpl
@@ -22,19 +25,32 @@ import java.util.concurrent.TimeUnit;
  */
 public class CachedSolrAccessImpl extends SolrAccessImplNewIndex implements SolrAccess {
 
+    public static final Logger LOGGER = Logger.getLogger(CachedSolrAccessImpl.class.getName());
+
     private static final String CACHE_ALIAS = "SolrDocumentCache";
-    private Cache<String, Document> cache;
+    private TwoLevelCache<Document> cache;
 
     @Inject
-    public CachedSolrAccessImpl(CacheManager cacheManager) {
-        cache = cacheManager.getCache(CACHE_ALIAS, String.class, Document.class);
-        if (cache == null) {
-            cache = cacheManager.createCache(CACHE_ALIAS,
+    public CachedSolrAccessImpl(CacheManager cacheManager, HazelcastClientProvider hazelcastClient) {
+        Cache<String, Document> localCache = cacheManager.getCache(CACHE_ALIAS, String.class, Document.class);
+        if (localCache == null) {
+            localCache = cacheManager.createCache(CACHE_ALIAS,
                     CacheConfigurationBuilder.newCacheConfigurationBuilder(String.class, Document.class,
-                                    ResourcePoolsBuilder.heap(1000).offheap(32, MemoryUnit.MB))
-                            .withExpiry(Expirations.timeToLiveExpiration(
-                                    Duration.of(  KConfiguration.getInstance().getCacheTimeToLiveExpiration(), TimeUnit.SECONDS))).build());
+                                    CacheTiers.resourcePools(cacheManager, CACHE_ALIAS, 1000, 32))
+                            .withExpiry(CacheTiers.expiry(CACHE_ALIAS)).build());
+        }
+        // the hazelcast client of the repository is requested only if the cluster cache is enabled
+        HazelcastInstance hazelcastInstance = null;
+        if (TwoLevelCache.isClusterEnabled(CACHE_ALIAS)) {
+            try {
+                hazelcastInstance = hazelcastClient.get();
+            } catch (IllegalStateException e) {
+                LOGGER.log(Level.SEVERE, String.format("Cluster cache %s is enabled but there is no Hazelcast client, using local cache only: %s", CACHE_ALIAS, e.getMessage()), e);
+            }
         }
+        cache = new TwoLevelCache<>(CACHE_ALIAS, localCache, hazelcastInstance,
+                new DocumentCodec(), CacheTiers.timeToLive(CACHE_ALIAS),
+                () -> CacheTiers.describeTiers(cacheManager, CACHE_ALIAS));
     }
 
     @Override
@@ -48,4 +64,25 @@ public class CachedSolrAccessImpl extends SolrAccessImplNewIndex implements Solr
             return document;
         }
     }
+
+    private static class DocumentCodec implements TwoLevelCache.Codec<Document> {
+
+        @Override
+        public void write(Document value, OutputStream out) throws IOException {
+            try {
+                XMLUtils.print(value, out);
+            } catch (Exception e) {
+                throw new IOException(e);
+            }
+        }
+
+        @Override
+        public Document read(InputStream in) throws IOException {
+            try {
+                return XMLUtils.parseDocument(in, true);
+            } catch (Exception e) {
+                throw new IOException(e);
+            }
+        }
+    }
 }
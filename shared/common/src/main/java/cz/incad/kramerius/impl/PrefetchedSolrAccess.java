@@ -0,0 +1,177 @@
+package cz.incad.kramerius.impl;
+
+import cz.incad.kramerius.AbstractObjectPath;
+import cz.incad.kramerius.ObjectModelsPath;
+import cz.incad.kramerius.ObjectPidsPath;
+import cz.incad.kramerius.SolrAccess;
+import cz.incad.kramerius.utils.XMLUtils;
+import org.json.JSONObject;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import javax.xml.parsers.ParserConfigurationException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URLEncoder;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Search index access with documents of given objects loaded by one request in advance.
+ * <p>
+ * {@link #getSolrDataByPid(String)} of a prefetched object returns the same response (one document) as the underlying access;
+ * everything else is delegated. Used when rights of several objects are evaluated at once.
+ */
+public class PrefetchedSolrAccess implements SolrAccess {
+
+    private final SolrAccess solrAccess;
+    private final Map<String, Document> documents = new HashMap<>();
+
+    public PrefetchedSolrAccess(SolrAccess solrAccess, Collection<String> pids) throws IOException {
+        this.solrAccess = solrAccess;
+        List<String> distinct = pids.stream().distinct().collect(Collectors.toList());
+        if (!distinct.isEmpty()) {
+            prefetch(distinct);
+        }
+    }
+
+    private void prefetch(List<String> pids) throws IOException {
+        String condition = pids.stream().map(pid -> "\"" + pid + "\"").collect(Collectors.joining(" OR "));
+        String query = "q=" + URLEncoder.encode("pid:(" + condition + ")", "UTF-8") + "&rows=" + pids.size();
+        Document response = solrAccess.requestWithSelectReturningXml(query);
+        try {
+            for (Element doc : XMLUtils.getElementsRecursive(response.getDocumentElement(), element -> element.getNodeName().equals("doc"))) {
+                Element pidElm = XMLUtils.findElement(doc, element -> element.getNodeName().equals("str") && "pid".equals(element.getAttribute("name")));
+                if (pidElm != null) {
+                    documents.put(pidElm.getTextContent(), singleDocumentResponse(doc));
+                }
+            }
+            for (String pid : pids) {
+                if (!documents.containsKey(pid)) {
+                    // not indexed; same as an empty response of the underlying access
+                    documents.put(pid, singleDocumentResponse(null));
+                }
+            }
+        } catch (ParserConfigurationException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private static Document singleDocumentResponse(Element doc) throws ParserConfigurationException {
+        Document document = XMLUtils.crateDocument("response");
+        Element result = document.createElement("result");
+        result.setAttribute("name", "response");
+        result.setAttribute("numFound", doc != null ? "1" : "0");
+        result.setAttribute("start", "0");
+        document.getDocumentElement().appendChild(result);
+        if (doc != null) {
+            result.appendChild(document.importNode(doc, true));
+        }
+        return document;
+    }
+
+    @Override
+    public Document getSolrDataByPid(String pid) throws IOException {
+        Document document = documents.get(pid);
+        return document != null ? document : solrAccess.getSolrDataByPid(pid);
+    }
+
+    @Override
+    public JSONObject getJSONSolrDataByPid(String pid) throws IOException {
+        return solrAccess.getJSONSolrDataByPid(pid);
+    }
+
+    @Override
+    public List<String> getExistingPids(List<String> pids) throws IOException {
+        return solrAccess.getExistingPids(pids);
+    }
+
+    @Override
+    public boolean documentExist(String pid) throws IOException {
+        return solrAccess.documentExist(pid);
+    }
+
+    @Override
+    public Document getSolrDataByPid(String pid, String fl) throws IOException {
+        return solrAccess.getSolrDataByPid(pid, fl);
+    }
+
+    @Override
+    public Document getSolrDataByHandle(String handle) throws IOException {
+        return solrAccess.getSolrDataByHandle(handle);
+    }
+
+    @Override
+    public Document getSolrDataByParentPid(String parentPid, String offset) throws IOException {
+        return solrAccess.getSolrDataByParentPid(parentPid, offset);
+    }
+
+    @Override
+    public ObjectPidsPath[] getPidPaths(String pid) throws IOException {
+        return solrAccess.getPidPaths(pid);
+    }
+
+    @Override
+    public ObjectPidsPath[] getPidPaths(Document solrDataDoc) throws IOException {
+        return solrAccess.getPidPaths(solrDataDoc);
+    }
+
+    @Override
+    public ObjectPidsPath[] getOwnPidPaths(Document solrDataDoc) throws IOException {
+        return solrAccess.getOwnPidPaths(solrDataDoc);
+    }
+
+    @Override
+    public ObjectPidsPath[] getPidPaths(String datastreamName, Document solrDataDoc) throws IOException {
+        return solrAccess.getPidPaths(datastreamName, solrDataDoc);
+    }
+
+    @Override
+    public ObjectPidsPath[] getPidPaths(String datastreamName, Element solrDocParentElement) throws IOException {
+        return solrAccess.getPidPaths(datastreamName, solrDocParentElement);
+    }
+
+    @Override
+    public ObjectModelsPath[] getModelPaths(String pid) throws IOException {
+        return solrAccess.getModelPaths(pid);
+    }
+
+    @Override
+    public ObjectModelsPath[] getModelPaths(Document solrDataDoc) throws IOException {
+        return solrAccess.getModelPaths(solrDataDoc);
+    }
+
+    @Override
+    public Map<String, AbstractObjectPath[]> getModelAndPidPaths(String pid) throws IOException {
+        return solrAccess.getModelAndPidPaths(pid);
+    }
+
+    @Override
+    public Document requestWithSelectReturningXml(String query) throws IOException {
+        return solrAccess.requestWithSelectReturningXml(query);
+    }
+
+    @Override
+    public JSONObject requestWithSelectReturningJson(String query) throws IOException {
+        return solrAccess.requestWithSelectReturningJson(query);
+    }
+
+    @Override
+    @Deprecated
+    public InputStream requestWithSelectReturningInputStream(String query, String type) throws IOException {
+        return solrAccess.requestWithSelectReturningInputStream(query, type);
+    }
+
+    @Override
+    public String requestWithSelectReturningString(String query, String type) throws IOException {
+        return solrAccess.requestWithSelectReturningString(query, type);
+    }
+
+    @Override
+    public InputStream requestWithTerms(String query, String type) throws IOException {
+        return solrAccess.requestWithTerms(query, type);
+    }
+}
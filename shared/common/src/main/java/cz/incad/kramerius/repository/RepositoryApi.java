@@ -5,12 +5,14 @@ import cz.incad.kramerius.utils.java.Pair;
 import org.apache.solr.client.solrj.SolrServerException;
 import org.dom4j.Document;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.time.format.DateTimeFormatterBuilder;
 import java.time.temporal.ChronoField;
+import java.util.Date;
 import java.util.List;
 import java.util.Map;
 
@@ -71,6 +73,16 @@ public interface RepositoryApi {
     
     public InputStream getLatestVersionOfDatastream(String pid, String dsId) throws RepositoryException, IOException;
 
+    /**
+     * @return file with content of the latest version of managed datastream, null if the content is not stored in a file of the datastream store
+     */
+    public File getLatestVersionOfDatastreamFile(String pid, String dsId) throws RepositoryException, IOException;
+
+    /**
+     * @return id and creation date of the latest version of the datastream, taken from FOXML without reading the content; null if the datastream does not exist
+     */
+    public DatastreamVersion getLatestDatastreamVersion(String pid, String dsId) throws RepositoryException, IOException;
+
     public Document getLatestVersionOfInlineXmlDatastream(String pid, String dsId) throws RepositoryException, IOException;
 
     public String getLatestVersionOfManagedTextDatastream(String pid, String dsId) throws RepositoryException, IOException;
@@ -135,6 +147,21 @@ public interface RepositoryApi {
         }
     }
 
+    class DatastreamVersion {
+        public final String id;
+        public final Date created;
+
+        public DatastreamVersion(String id, Date created) {
+            this.id = id;
+            this.created = created;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s (%s)", id, created);
+        }
+    }
+
     class TitlePidPairs {
         public List<Pair<String, String>> titlePidPairs;
         public String nextCursorMark;
@@ -10,6 +10,7 @@ import cz.incad.kramerius.fedora.om.RepositoryDatastream;
 import cz.incad.kramerius.fedora.om.RepositoryException;
 import cz.incad.kramerius.fedora.om.RepositoryObject;
 import cz.incad.kramerius.fedora.om.impl.AkubraDOManager;
+import cz.incad.kramerius.fedora.om.impl.AkubraDatastream;
 import cz.incad.kramerius.fedora.om.impl.AkubraRepository;
 import cz.incad.kramerius.repository.utils.Utils;
 import cz.incad.kramerius.resourceindex.ProcessingIndexFeeder;
@@ -231,6 +232,39 @@ public class RepositoryApiImpl implements RepositoryApi {
         }
     }
 
+    @Override
+    public File getLatestVersionOfDatastreamFile(String pid, String dsId) throws RepositoryException, IOException {
+        Lock readLock = AkubraDOManager.getReadLock(pid);
+        try {
+            RepositoryObject object = akubraRepository.getObject(pid);
+            if (object.streamExists(dsId)) {
+                RepositoryDatastream stream = object.getStream(dsId);
+                if (stream instanceof AkubraDatastream) {
+                    return ((AkubraDatastream) stream).getContentFile();
+                }
+            }
+            return null;
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    @Override
+    public DatastreamVersion getLatestDatastreamVersion(String pid, String dsId) throws RepositoryException, IOException {
+        Lock readLock = AkubraDOManager.getReadLock(pid);
+        try {
+            RepositoryObject object = akubraRepository.getObject(pid);
+            if (object != null && object.streamExists(dsId)) {
+                RepositoryDatastream stream = object.getStream(dsId);
+                String versionId = stream instanceof AkubraDatastream ? ((AkubraDatastream) stream).getVersionId() : null;
+                return new DatastreamVersion(versionId, stream.getLastModified());
+            }
+            return null;
+        } finally {
+            readLock.unlock();
+        }
+    }
+
     @Override
     public Document getLatestVersionOfInlineXmlDatastream(String pid, String dsId) throws RepositoryException, IOException {
         InputStream is = getLatestVersionOfDatastream(pid, dsId);
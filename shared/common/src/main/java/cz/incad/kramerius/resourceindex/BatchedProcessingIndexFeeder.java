@@ -0,0 +1,119 @@
+package cz.incad.kramerius.resourceindex;
+
+import org.apache.solr.client.solrj.SolrClient;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.response.UpdateResponse;
+import org.apache.solr.common.SolrInputDocument;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Feeder collecting description and relation documents and sending them to the processing index in batches.
+ * <p>
+ * Fed documents are sent when the batch is full, before any delete and before commit; feed methods therefore return
+ * <code>null</code>. Actions registered by {@link #afterFlush(Runnable)} run once all documents fed before them are sent.
+ * Feeder is thread safe.
+ */
+public class BatchedProcessingIndexFeeder extends ProcessingIndexFeeder {
+
+    private final SolrClient solrClient;
+    private final int batchSize;
+
+    private final Object flushLock = new Object();
+    private List<SolrInputDocument> documents = new ArrayList<>();
+    private List<Runnable> actions = new ArrayList<>();
+
+    public BatchedProcessingIndexFeeder(SolrClient solrClient, int batchSize) {
+        super(solrClient);
+        this.solrClient = solrClient;
+        this.batchSize = batchSize;
+    }
+
+    @Override
+    public UpdateResponse feedDescriptionDocument(SolrInputDocument doc) throws IOException, SolrServerException {
+        add(doc);
+        return null;
+    }
+
+    @Override
+    public UpdateResponse feedRelationDocument(SolrInputDocument sdoc) throws IOException, SolrServerException {
+        add(sdoc);
+        return null;
+    }
+
+    private void add(SolrInputDocument doc) throws IOException, SolrServerException {
+        boolean full;
+        synchronized (this) {
+            documents.add(doc);
+            full = documents.size() >= batchSize;
+        }
+        if (full) {
+            flush();
+        }
+    }
+
+    /**
+     * Registers action called after documents fed so far are sent
+     */
+    public synchronized void afterFlush(Runnable action) {
+        actions.add(action);
+    }
+
+    /**
+     * Sends collected documents
+     */
+    public void flush() throws IOException, SolrServerException {
+        synchronized (flushLock) {
+            List<SolrInputDocument> batch;
+            List<Runnable> batchActions;
+            synchronized (this) {
+                batch = documents;
+                batchActions = actions;
+                documents = new ArrayList<>();
+                actions = new ArrayList<>();
+            }
+            if (!batch.isEmpty()) {
+                this.solrClient.add(batch);
+            }
+            batchActions.forEach(Runnable::run);
+        }
+    }
+
+    @Override
+    public UpdateResponse deleteProcessingIndex() throws IOException, SolrServerException {
+        flush();
+        return super.deleteProcessingIndex();
+    }
+
+    @Override
+    public UpdateResponse deleteByPid(String pid) throws IOException, SolrServerException {
+        flush();
+        return super.deleteByPid(pid);
+    }
+
+    @Override
+    public UpdateResponse deleteByTargetPid(String pid) throws IOException, SolrServerException {
+        flush();
+        return super.deleteByTargetPid(pid);
+    }
+
+    @Override
+    public UpdateResponse deleteDescriptionByPid(String pid) throws IOException, SolrServerException {
+        flush();
+        return super.deleteDescriptionByPid(pid);
+    }
+
+    @Override
+    public UpdateResponse deleteByRelationsForPid(String pid) throws IOException, SolrServerException {
+        flush();
+        return super.deleteByRelationsForPid(pid);
+    }
+
+    @Override
+    public void commit() throws IOException, SolrServerException {
+        flush();
+        super.commit();
+    }
+}
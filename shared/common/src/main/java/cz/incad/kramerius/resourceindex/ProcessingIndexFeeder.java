@@ -19,10 +19,12 @@ import org.apache.solr.common.params.CursorMarkParams;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
 import java.util.List;
 import java.util.function.Consumer;
 import java.util.logging.Logger;
+import java.util.stream.Collectors;
 
 /**
  * This is the helper. It is dedicated for creating supporting index which should replace
@@ -242,6 +244,17 @@ public class ProcessingIndexFeeder {
         return response.getNextCursorMark();
     }
 
+    /**
+     * Iterates all records (descriptions and relations) of given source objects in one cursor query
+     */
+    public void iterateProcessingOfSources(Collection<String> sources, Consumer<SolrDocument> action) throws IOException, SolrServerException {
+        if (sources.isEmpty()) {
+            return;
+        }
+        String query = "source:(" + sources.stream().map(p -> "\"" + p + "\"").collect(Collectors.joining(" OR ")) + ")";
+        iterateProcessingSortedByPid(query, action);
+    }
+
     public List<Pair<String, String>> findByTargetPid(String pid) throws IOException, SolrServerException {
         final List<Pair<String, String>> retvals = new ArrayList<>();
         iterateProcessingSortedByPid("targetPid:\"" + pid + "\"", (doc) -> {
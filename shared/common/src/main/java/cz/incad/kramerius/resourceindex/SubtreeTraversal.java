@@ -0,0 +1,436 @@
+package cz.incad.kramerius.resourceindex;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.Stack;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.BiPredicate;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import org.apache.solr.client.solrj.SolrServerException;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import cz.incad.kramerius.FedoraAccess;
+import cz.incad.kramerius.FedoraNamespaces;
+import cz.incad.kramerius.ProcessSubtreeException;
+import cz.incad.kramerius.TreeNodeProcessStackAware;
+import cz.incad.kramerius.TreeNodeProcessor;
+import cz.incad.kramerius.repository.KrameriusRepositoryApi;
+import cz.incad.kramerius.utils.XMLUtils;
+import cz.incad.kramerius.utils.conf.KConfiguration;
+
+/**
+ * Traversal of object subtrees driven by the processing index.
+ * <p>
+ * Children and models of objects are read from the processing index in bulk, one query returns records of all children of an object.
+ * Children of following nodes are prefetched by <code>processingIndex.traversal.threads</code> threads while the consumer works
+ * on current nodes; at most <code>processingIndex.traversal.prefetch</code> objects are prefetched ahead, so a slow consumer
+ * does not make the traversal hold the whole tree in memory.
+ * <p>
+ * Processing index does not keep order of relations; RELS-EXT is read (in prefetch as well) only for objects with more than one child
+ * and children are sorted by their position in it. Leaves (pages) are never read. Nodes come in the same order as from
+ * {@link FedoraAccess#processSubtree(String, TreeNodeProcessor)}: depth first, children in the order of RELS-EXT.
+ * <p>
+ * Unlike the RELS-EXT walk, only {@link KrameriusRepositoryApi.KnownRelations} recorded in the processing index are followed, so a stale
+ * or incomplete processing index gives an incomplete subtree. The traversal is therefore off by default
+ * (<code>processingIndex.traversal.enabled</code>).
+ */
+public class SubtreeTraversal {
+
+    public static final Logger LOGGER = Logger.getLogger(SubtreeTraversal.class.getName());
+
+    private static final int LOAD_BATCH = 100;
+
+    private static final Set<String> RELATIONS = Arrays.stream(KrameriusRepositoryApi.KnownRelations.values()).map(Object::toString).collect(Collectors.toSet());
+
+    private static final ExecutorService EXECUTOR = Executors.newFixedThreadPool(threads(), r -> {
+        Thread thread = new Thread(r, "subtree-traversal");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Reads RELS-EXT of the object
+     */
+    @FunctionalInterface
+    public interface RelsExtReader {
+        Document getRelsExt(String pid) throws IOException;
+    }
+
+    /**
+     * One object of the subtree
+     */
+    public static class Node {
+
+        private final String pid;
+        private final int level;
+        private final String model;
+        private final String relation;
+        private final Node parent;
+
+        Node(String pid, int level, String model, String relation, Node parent) {
+            this.pid = pid;
+            this.level = level;
+            this.model = model;
+            this.relation = relation;
+            this.parent = parent;
+        }
+
+        public String getPid() {
+            return pid;
+        }
+
+        public int getLevel() {
+            return level;
+        }
+
+        /**
+         * Model of the object (page, periodicalvolume, ...) or null if it is not known to the processing index
+         */
+        public String getModel() {
+            return model;
+        }
+
+        /**
+         * Relation from the parent (hasPage, hasVolume, ...); null for the root
+         */
+        public String getRelation() {
+            return relation;
+        }
+
+        public Node getParent() {
+            return parent;
+        }
+
+        /**
+         * Pids of ancestors, root first
+         */
+        public List<String> getAncestors() {
+            List<String> ancestors = new ArrayList<>(level);
+            for (Node n = parent; n != null; n = n.parent) {
+                ancestors.add(n.pid);
+            }
+            Collections.reverse(ancestors);
+            return ancestors;
+        }
+
+        @Override
+        public String toString() {
+            return pid + " (" + level + ")";
+        }
+    }
+
+    private final ProcessingIndexFeeder feeder;
+    private final RelsExtReader relsExtReader;
+
+    public SubtreeTraversal(ProcessingIndexFeeder feeder, RelsExtReader relsExtReader) {
+        this.feeder = feeder;
+        this.relsExtReader = relsExtReader;
+    }
+
+    public static boolean isEnabled() {
+        return KConfiguration.getInstance().getConfiguration().getBoolean("processingIndex.traversal.enabled", false);
+    }
+
+    public Stream<Node> stream(String pid) {
+        return stream(pid, (p, level) -> false);
+    }
+
+    /**
+     * Returns lazy stream of the subtree nodes. Objects for which <code>skipBranch</code> returns true are left out together with their subtrees.
+     * Stream which is not consumed completely should be closed; prefetching of unconsumed nodes is then cancelled.
+     */
+    public Stream<Node> stream(String pid, BiPredicate<String, Integer> skipBranch) {
+        TraversalIterator iterator = new TraversalIterator(pid, skipBranch);
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED | Spliterator.NONNULL), false).onClose(iterator::close);
+    }
+
+    /**
+     * Walks the subtree with callbacks of given processor, see {@link FedoraAccess#processSubtree(String, TreeNodeProcessor)}
+     */
+    public void process(String pid, TreeNodeProcessor processor) throws ProcessSubtreeException, IOException {
+        TraversalIterator iterator;
+        try {
+            iterator = new TraversalIterator(pid, processor::skipBranch);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        Stack<String> pidStack = new Stack<>();
+        try {
+            while (iterator.hasNext()) {
+                Node node = iterator.next();
+                if (processor instanceof TreeNodeProcessStackAware) {
+                    List<String> ancestors = node.getAncestors();
+                    if (!ancestors.equals(pidStack)) {
+                        pidStack.clear();
+                        pidStack.addAll(ancestors);
+                        ((TreeNodeProcessStackAware) processor).changeProcessingStack(pidStack);
+                    }
+                }
+                processor.process(node.getPid(), node.getLevel());
+                if (processor.breakProcessing(node.getPid(), node.getLevel())) {
+                    break;
+                }
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            iterator.close();
+        }
+    }
+
+    /**
+     * Loads models and ordered children of given objects
+     */
+    Map<String, Children> load(List<String> pids) throws IOException {
+        Map<String, Children> loaded = new HashMap<>();
+        for (String pid : pids) {
+            loaded.put(pid, new Children());
+        }
+        try {
+            this.feeder.iterateProcessingOfSources(pids, doc -> {
+                Object source = doc.getFieldValue("source");
+                Children children = source != null ? loaded.get(source.toString()) : null;
+                if (children == null) {
+                    return;
+                }
+                Object type = doc.getFieldValue("type");
+                if ("description".equals(type)) {
+                    Object model = doc.getFieldValue("model");
+                    if (model != null) {
+                        String m = model.toString();
+                        children.model = m.startsWith("model:") ? m.substring("model:".length()) : m;
+                    }
+                } else if ("relation".equals(type)) {
+                    Object relation = doc.getFieldValue("relation");
+                    Object target = doc.getFieldValue("targetPid");
+                    if (relation != null && target != null && RELATIONS.contains(relation.toString()) && target.toString().startsWith("uuid:")) {
+                        children.relations.put(target.toString(), relation.toString());
+                    }
+                }
+            });
+        } catch (SolrServerException e) {
+            throw new IOException(e);
+        }
+        for (Map.Entry<String, Children> entry : loaded.entrySet()) {
+            if (entry.getValue().relations.size() > 1) {
+                entry.getValue().sort(relsExtOrder(entry.getKey()));
+            }
+        }
+        return loaded;
+    }
+
+    private List<String> relsExtOrder(String pid) {
+        List<String> order = new ArrayList<>();
+        try {
+            Document relsExt = this.relsExtReader.getRelsExt(pid);
+            Element description = relsExt != null ? XMLUtils.findElement(relsExt.getDocumentElement(), "Description", FedoraNamespaces.RDF_NAMESPACE_URI) : null;
+            if (description != null) {
+                for (Element elm : XMLUtils.getElements(description)) {
+                    String resource = elm.getAttributeNS(FedoraNamespaces.RDF_NAMESPACE_URI, "resource");
+                    order.add(resource.startsWith("info:fedora/") ? resource.substring("info:fedora/".length()) : resource);
+                }
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "could not read RELS-EXT of " + pid + ", children stay in the order of processing index: " + e.getMessage());
+        }
+        return order;
+    }
+
+    private static int threads() {
+        return Math.max(1, KConfiguration.getInstance().getConfiguration().getInt("processingIndex.traversal.threads", 4));
+    }
+
+    private static int maxPrefetch() {
+        return KConfiguration.getInstance().getConfiguration().getInt("processingIndex.traversal.prefetch", 5000);
+    }
+
+    /**
+     * Model and children (target pid -&gt; relation, in order of RELS-EXT) of one object
+     */
+    static class Children {
+
+        String model;
+        Map<String, String> relations = new LinkedHashMap<>();
+
+        void sort(List<String> order) {
+            Map<String, String> sorted = new LinkedHashMap<>();
+            for (String pid : order) {
+                String relation = relations.get(pid);
+                if (relation != null) {
+                    sorted.put(pid, relation);
+                }
+            }
+            // relations missing in RELS-EXT stay at the end
+            relations.forEach(sorted::putIfAbsent);
+            this.relations = sorted;
+        }
+    }
+
+    private static class Frame {
+
+        private final Node parent;
+        private final List<Map.Entry<String, String>> children;
+        private int index;
+
+        private Frame(Node parent, Children children) {
+            this.parent = parent;
+            this.children = new ArrayList<>(children.relations.entrySet());
+        }
+    }
+
+    private class TraversalIterator implements Iterator<Node>, AutoCloseable {
+
+        private final BiPredicate<String, Integer> skipBranch;
+        private final int maxPrefetch = maxPrefetch();
+        private final Map<String, CompletableFuture<Children>> pending = new HashMap<>();
+        private final Deque<Frame> frames = new ArrayDeque<>();
+
+        private Node next;
+        private Children nextChildren;
+        private Node last;
+        private Children lastChildren;
+
+        private TraversalIterator(String pid, BiPredicate<String, Integer> skipBranch) {
+            this.skipBranch = skipBranch;
+            if (!skipBranch.test(pid, 0)) {
+                this.nextChildren = loadUnchecked(Collections.singletonList(pid)).get(pid);
+                this.next = new Node(pid, 0, this.nextChildren.model, null, null);
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (this.next == null && this.last != null) {
+                advance();
+            }
+            return this.next != null;
+        }
+
+        @Override
+        public Node next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            this.last = this.next;
+            this.lastChildren = this.nextChildren;
+            this.next = null;
+            this.nextChildren = null;
+            return this.last;
+        }
+
+        private void advance() {
+            Node node = this.last;
+            Children children = this.lastChildren;
+            this.last = null;
+            this.lastChildren = null;
+            if (!children.relations.isEmpty()) {
+                if (node.getAncestors().contains(node.getPid())) {
+                    LOGGER.log(Level.WARNING, "Cyclic reference on " + node.getPid());
+                } else {
+                    Frame frame = new Frame(node, children);
+                    this.frames.push(frame);
+                    prefetch(frame, 0, false);
+                }
+            }
+            while (!this.frames.isEmpty()) {
+                Frame frame = this.frames.peek();
+                if (frame.index >= frame.children.size()) {
+                    this.frames.pop();
+                    continue;
+                }
+                Map.Entry<String, String> child = frame.children.get(frame.index++);
+                int level = frame.parent.getLevel() + 1;
+                if (this.skipBranch.test(child.getKey(), level)) {
+                    LOGGER.fine("skipping branch [" + level + "] and pid (" + child.getKey() + ")");
+                    continue;
+                }
+                this.nextChildren = resolve(frame, child.getKey());
+                this.next = new Node(child.getKey(), level, this.nextChildren.model, child.getValue(), frame.parent);
+                return;
+            }
+        }
+
+        /**
+         * Starts loading of children from given position; stops when too many objects are prefetched,
+         * or (when the window is ignored) after one batch
+         */
+        private void prefetch(Frame frame, int from, boolean ignoreWindow) {
+            Set<String> toLoad = new LinkedHashSet<>();
+            for (int i = from; i < frame.children.size(); i++) {
+                if (ignoreWindow ? toLoad.size() >= LOAD_BATCH : this.pending.size() + toLoad.size() >= this.maxPrefetch) {
+                    break;
+                }
+                String pid = frame.children.get(i).getKey();
+                if (!this.pending.containsKey(pid)) {
+                    toLoad.add(pid);
+                }
+            }
+            List<String> pids = new ArrayList<>(toLoad);
+            for (int i = 0; i < pids.size(); i += LOAD_BATCH) {
+                List<String> batch = pids.subList(i, Math.min(i + LOAD_BATCH, pids.size()));
+                CompletableFuture<Map<String, Children>> loading = CompletableFuture.supplyAsync(() -> loadUnchecked(batch), EXECUTOR);
+                for (String pid : batch) {
+                    this.pending.put(pid, loading.thenApply(loaded -> loaded.get(pid)));
+                }
+            }
+        }
+
+        private Children resolve(Frame frame, String pid) {
+            CompletableFuture<Children> future = this.pending.remove(pid);
+            if (future == null) {
+                // prefetch window was full; load this object together with its following siblings
+                prefetch(frame, frame.index - 1, true);
+                future = this.pending.remove(pid);
+            }
+            try {
+                return future.join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof UncheckedIOException) {
+                    throw (UncheckedIOException) e.getCause();
+                }
+                throw e;
+            }
+        }
+
+        private Map<String, Children> loadUnchecked(List<String> pids) {
+            try {
+                return load(pids);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public void close() {
+            this.pending.values().forEach(f -> f.cancel(false));
+            this.pending.clear();
+            this.frames.clear();
+            this.next = null;
+            this.last = null;
+        }
+    }
+}
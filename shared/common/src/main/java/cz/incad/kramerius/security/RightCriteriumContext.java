@@ -24,6 +24,7 @@ import org.w3c.dom.Document;
 import cz.incad.kramerius.FedoraAccess;
 import cz.incad.kramerius.ObjectPidsPath;
 import cz.incad.kramerius.SolrAccess;
+import cz.incad.kramerius.security.impl.criteria.utils.PublicationDates;
 import cz.incad.kramerius.security.licenses.lock.ExclusiveLockMaps;
 
 /**
@@ -117,5 +118,11 @@ public interface RightCriteriumContext {
 
     ExclusiveLockMaps getExclusiveLockMaps();
 
+    /**
+     * Returns cache of publication dates (moving wall) or null if dates are read from metadata on every evaluation
+     * @return
+     */
+    PublicationDates getPublicationDates();
+
 
 }
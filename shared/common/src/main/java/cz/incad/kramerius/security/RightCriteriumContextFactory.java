@@ -16,6 +16,8 @@
  */
 package cz.incad.kramerius.security;
 
+import java.io.IOException;
+
 import cz.incad.kramerius.security.licenses.lock.ExclusiveLockMaps;
 
 /**
@@ -33,4 +35,14 @@ public interface RightCriteriumContextFactory {
      * @return
      */
     public RightCriteriumContext create(String reqPID, String reqStream, User user, String remoteHost, String remoteAddr, RightsResolver rightsResolver, ExclusiveLockMaps exclusiveLocks);
+
+    /**
+     * Create instances of RightParamEvaluatingContext for several requested objects; search index documents of the objects
+     * are loaded by one request and shared by all contexts
+     * @param reqPIDs Requested pids
+     * @param reqStream Requested stream
+     * @param user Current logged user
+     * @return Contexts in the order of requested pids
+     */
+    public RightCriteriumContext[] create(String[] reqPIDs, String reqStream, User user, String remoteHost, String remoteAddr, RightsResolver rightsResolver, ExclusiveLockMaps exclusiveLocks) throws IOException;
 }
@@ -69,6 +69,17 @@ public interface RightsManager {
      */
     public RightsReturnObject[] resolveAllPath(RightCriteriumContext ctx, String pid, ObjectPidsPath path, String action, User user) throws RightCriteriumException;
 
+    /**
+     * Right interpretation over several objects at once; rights for all given paths are found by one query
+     * @param ctxs Interpretation contexts, one for each object
+     * @param pids Objects' pids
+     * @param paths Objects' paths
+     * @param action Secured action
+     * @param user User
+     * @return Returns results of interpretation in the order of given pids
+     */
+    public RightsReturnObject[] resolveAll(RightCriteriumContext[] ctxs, String[] pids, ObjectPidsPath[] paths, String action, User user) throws RightCriteriumException;
+
     
     // najde prava pro skupinu
     /**
@@ -54,5 +54,17 @@ public interface RightsResolver extends RightsResolverBase {
      * @return
      */
     public RightsReturnObject[] isActionAllowedForAllPath(String actionName, String pid, String stream, ObjectPidsPath path);
+
+    /**
+     * Returns results for several objects at once (e.g. one page of search results) for given user. Rights of all paths are found
+     * by one query and search index documents of all objects are loaded by one request.
+     * @param user User
+     * @param actionName Formal action's name
+     * @param pids PIDs of requested objects; the same pid can be present with different paths
+     * @param stream Requested stream or null
+     * @param paths Paths of objects (from root to leaf) on the same positions as pids
+     * @return Results on the same positions as pids
+     */
+    public RightsReturnObject[] isActionAllowedForObjects(User user, String actionName, String[] pids, String stream, ObjectPidsPath[] paths);
     
 }
@@ -23,8 +23,10 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.logging.Level;
 import java.util.stream.Collectors;
 
@@ -186,9 +188,7 @@ public class DatabaseRightsManager implements RightsManager {
 
 
         for (int i = 0; i < pids.length; i++) {
-            if (!pids[i].startsWith("uuid:") && !pids[i].startsWith("vc:")) {
-                pids[i] = "uuid:" + pids[i];
-            }
+            pids[i] = rightPid(pids[i]);
         }
         StringTemplate template = SecurityDatabaseUtils.stGroup().getInstanceOf("findRightFromWithGroups");
         template.setAttribute("pids", pids);
@@ -222,6 +222,10 @@ public class DatabaseRightsManager implements RightsManager {
         return ((rights != null) && (!rights.isEmpty())) ? (Right[]) rights.toArray(new Right[rights.size()]) : new Right[0];
     }
 
+    private static String rightPid(String pid) {
+        return !pid.startsWith("uuid:") && !pid.startsWith("vc:") ? "uuid:" + pid : pid;
+    }
+
     public Provider<Connection> getProvider() {
         return provider;
     }
@@ -251,7 +255,11 @@ public class DatabaseRightsManager implements RightsManager {
         
         Right[] findRights = findRights(pids, action, user);
         findRights = SortingRightsUtils.sortRights(findRights, processPath);
-        for (Right right : findRights) {
+        return evaluate(ctx, findRights);
+    }
+
+    private RightsReturnObject evaluate(RightCriteriumContext ctx, Right[] sortedRights) throws RightCriteriumException {
+        for (Right right : sortedRights) {
             ctx.setAssociatedPid(right.getPid());
             EvaluatingResultState result = right.evaluate(ctx, this);
             ctx.setAssociatedPid(null);
@@ -262,6 +270,28 @@ public class DatabaseRightsManager implements RightsManager {
         return new RightsReturnObject(null,EvaluatingResultState.FALSE);
     }
 
+    @Override
+    @InitSecurityDatabase
+    public RightsReturnObject[] resolveAll(RightCriteriumContext[] ctxs, String[] pids, ObjectPidsPath[] paths, String action, User user) throws RightCriteriumException {
+        ObjectPidsPath[] processPaths = new ObjectPidsPath[paths.length];
+        Set<String> allPids = new LinkedHashSet<>();
+        for (int i = 0; i < paths.length; i++) {
+            processPaths[i] = paths[i].injectRepository();
+            for (String pid : processPaths[i].getPathFromLeafToRoot()) {
+                allPids.add(rightPid(pid));
+            }
+        }
+        // one query for all paths, rights are then split by path
+        Right[] allRights = allPids.isEmpty() ? new Right[0] : findRights(allPids.toArray(new String[allPids.size()]), action, user);
+        RightsReturnObject[] results = new RightsReturnObject[ctxs.length];
+        for (int i = 0; i < ctxs.length; i++) {
+            Set<String> pathPids = Arrays.stream(processPaths[i].getPathFromLeafToRoot()).map(DatabaseRightsManager::rightPid).collect(Collectors.toSet());
+            Right[] pathRights = Arrays.stream(allRights).filter(right -> pathPids.contains(right.getPid())).toArray(Right[]::new);
+            results[i] = evaluate(ctxs[i], SortingRightsUtils.sortRights(pathRights, processPaths[i]));
+        }
+        return results;
+    }
+
     @InitSecurityDatabase
     public RightsReturnObject[] resolveAllPath(RightCriteriumContext ctx, String pid, ObjectPidsPath path, String action, User user) throws RightCriteriumException {
         Right[] findRights = findRights(path.getPathFromLeafToRoot(), action, user);
@@ -16,12 +16,17 @@
  */
 package cz.incad.kramerius.security.impl;
 
+import java.io.IOException;
+import java.util.Arrays;
+
 import com.google.inject.Inject;
 import com.google.inject.name.Named;
 
 import cz.incad.kramerius.FedoraAccess;
 import cz.incad.kramerius.SolrAccess;
+import cz.incad.kramerius.impl.PrefetchedSolrAccess;
 import cz.incad.kramerius.security.*;
+import cz.incad.kramerius.security.impl.criteria.utils.PublicationDates;
 import cz.incad.kramerius.security.licenses.lock.ExclusiveLockMap;
 import cz.incad.kramerius.security.licenses.lock.ExclusiveLockMaps;
 
@@ -32,6 +37,8 @@ public class RightCriteriumContextFactoryImpl implements RightCriteriumContextFa
     private UserManager userManager;
     
     private ExclusiveLockMaps lockMaps;
+
+    private PublicationDates publicationDates;
     
     
     public RightCriteriumContextFactoryImpl() {
@@ -76,6 +83,11 @@ public class RightCriteriumContextFactoryImpl implements RightCriteriumContextFa
         this.lockMaps = lockMaps;
     }
 
+    @Inject(optional = true)
+    public void setPublicationDates(PublicationDates publicationDates) {
+        this.publicationDates = publicationDates;
+    }
+
     public RightCriteriumContextFactoryImpl(ExclusiveLockMaps lockMaps) {
         super();
         this.lockMaps = lockMaps;
@@ -83,17 +95,32 @@ public class RightCriteriumContextFactoryImpl implements RightCriteriumContextFa
 
     @Override
     public RightCriteriumContext create(String requestedPID, String requestedStream, User user, String remoteHost, String remoteAddr,  RightsResolver rightsResolver, ExclusiveLockMaps exclusiveLocks) {
+        return create(requestedPID, requestedStream, user, remoteHost, remoteAddr, rightsResolver, exclusiveLocks, this.solrAccessNewIndex);
+    }
+
+    @Override
+    public RightCriteriumContext[] create(String[] requestedPIDs, String requestedStream, User user, String remoteHost, String remoteAddr, RightsResolver rightsResolver, ExclusiveLockMaps exclusiveLocks) throws IOException {
+        SolrAccess prefetched = new PrefetchedSolrAccess(this.solrAccessNewIndex, Arrays.asList(requestedPIDs));
+        RightCriteriumContext[] contexts = new RightCriteriumContext[requestedPIDs.length];
+        for (int i = 0; i < requestedPIDs.length; i++) {
+            contexts[i] = create(requestedPIDs[i], requestedStream, user, remoteHost, remoteAddr, rightsResolver, exclusiveLocks, prefetched);
+        }
+        return contexts;
+    }
+
+    private RightCriteriumContext create(String requestedPID, String requestedStream, User user, String remoteHost, String remoteAddr,  RightsResolver rightsResolver, ExclusiveLockMaps exclusiveLocks, SolrAccess solrAccessNewIndex) {
         RightCriteriumContext ctx = new RightParamEvaluatingContextImpl.Builder()
                                         .setRequestedPid(requestedPID)
                                         .setRequestedStream(requestedStream)
                                         .setUser(user)
                                         .setFedoraAccess(this.fedoraAccess)
                                         //.setSolrAccess(this.solrAccess)
-                                        .setSolrAccessNewIndex(this.solrAccessNewIndex)
+                                        .setSolrAccessNewIndex(solrAccessNewIndex)
                                         .setUserManager(this.userManager)
                                         .setRemoteHost(remoteHost)
                                         .setRemoteAddress(remoteAddr)
                                         .setExclusiveLockMaps(exclusiveLocks)
+                                        .setPublicationDates(this.publicationDates)
                                         .setRightsResolver(rightsResolver).build();
         return ctx;
     }
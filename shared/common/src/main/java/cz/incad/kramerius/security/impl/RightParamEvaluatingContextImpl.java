@@ -25,10 +25,13 @@ import cz.incad.kramerius.security.licenses.lock.ExclusiveLockMaps;
 import cz.incad.kramerius.FedoraAccess;
 import cz.incad.kramerius.ObjectPidsPath;
 import cz.incad.kramerius.SolrAccess;
+import cz.incad.kramerius.security.impl.criteria.utils.PublicationDates;
 
 public class RightParamEvaluatingContextImpl implements RightCriteriumContext {
 
     private ExclusiveLockMaps exclusiveLockMaps;
+
+    private PublicationDates publicationDates;
     
     private String requestedPID;
     private String requestedStream;
@@ -65,6 +68,7 @@ public class RightParamEvaluatingContextImpl implements RightCriteriumContext {
         
         
         this.exclusiveLockMaps = builder.exclusiveLockMaps;
+        this.publicationDates = builder.publicationDates;
     }
 
     @Override
@@ -150,9 +154,16 @@ public class RightParamEvaluatingContextImpl implements RightCriteriumContext {
         return exclusiveLockMaps;
     }
 
+    @Override
+    public PublicationDates getPublicationDates() {
+        return publicationDates;
+    }
+
     public static class Builder {
         
         protected ExclusiveLockMaps exclusiveLockMaps;
+
+        protected PublicationDates publicationDates;
         
         protected String requestedPID;
         protected String requestedStream;
@@ -239,6 +250,11 @@ public class RightParamEvaluatingContextImpl implements RightCriteriumContext {
             this.exclusiveLockMaps = exclusiveLockMaps;
             return this;
         }
+
+        public Builder setPublicationDates(PublicationDates publicationDates) {
+            this.publicationDates = publicationDates;
+            return this;
+        }
         
         
 
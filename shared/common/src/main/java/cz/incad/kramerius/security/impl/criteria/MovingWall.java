@@ -24,6 +24,8 @@ import cz.incad.kramerius.SolrAccess;
 import cz.incad.kramerius.security.*;
 import cz.incad.kramerius.security.impl.criteria.mw.DateLexer;
 import cz.incad.kramerius.security.impl.criteria.mw.DatesParser;
+import cz.incad.kramerius.security.impl.criteria.utils.PublicationDates;
+import cz.incad.kramerius.security.impl.criteria.utils.PublicationDates.PublicationDate;
 import cz.incad.kramerius.utils.IOUtils;
 import cz.incad.kramerius.utils.conf.KConfiguration;
 import cz.incad.kramerius.utils.solr.SolrUtils;
@@ -59,6 +61,7 @@ import org.xml.sax.SAXException;
  * - clanky (article) i stranky (page), nemaji cele datum s mesicem jako vytisk (periodicalitem),
  * proto datum beru z vytisku
  * Pokud je pravo uvedeno na objetku REPOSITORY, pak zkouma nejvyssi prvek v hierarchii
+ * Datum z BIBLIO_MODS se cte pres {@link PublicationDates}, ktera si ho pamatuje do zmeny objektu
  * <p>
  * (konkretni monografii, konkretni periodikum, atd..)
  */
@@ -76,12 +79,6 @@ public class MovingWall extends AbstractCriterium implements RightCriterium {
     static transient java.util.logging.Logger LOGGER = java.util.logging.Logger.getLogger(MovingWall.class.getName());
 
 
-    private XPathFactory xpfactory;
-
-    public MovingWall() {
-        this.xpfactory = XPathFactory.newInstance();
-    }
-
     @Override
     public EvaluatingResultState evalute(Right right) throws RightCriteriumException {
         int wallFromConf = Integer.parseInt((String) getObjects()[0]);
@@ -149,12 +146,8 @@ public class MovingWall extends AbstractCriterium implements RightCriterium {
                                 Logger.getLogger(MovingWall.class.getName()).log(Level.SEVERE, null, ex);
                             }
 
-                            Document biblioMods = getEvaluateContext().getFedoraAccess().getBiblioMods(pid);
-                            // try all xpaths on mods
-                            for (String xp : MODS_XPATHS) {
-                                result = resolveInternal(wallFromConf, modeFromConf, pid, fedoraModel, parentPid, parentDate, xp, biblioMods, this.xpfactory);
-                                if (result != null) break;
-                            }
+                            PublicationDate publicationDate = PublicationDates.get(getEvaluateContext().getPublicationDates(), pid, getEvaluateContext().getFedoraAccess());
+                            result = evaluateDate(wallFromConf, modeFromConf, fedoraModel, parentDate, publicationDate);
 
                             if (result == null && fedoraModel != null) {
                                 Date currentDate = new Date();
@@ -196,12 +189,8 @@ public class MovingWall extends AbstractCriterium implements RightCriterium {
                 for (String pid : pids) {
 
                     if (pid.equals(SpecialObjects.REPOSITORY.getPid())) continue;
-                    Document biblioMods = getEvaluateContext().getFedoraAccess().getBiblioMods(pid);
-                    // try all xpaths on mods
-                    for (String xp : MODS_XPATHS) {
-                        result = resolveInternal(wallFromConf, null, pid, null, null, null, xp, biblioMods, this.xpfactory);
-                        if (result != null) break;
-                    }
+                    PublicationDate publicationDate = PublicationDates.get(getEvaluateContext().getPublicationDates(), pid, getEvaluateContext().getFedoraAccess());
+                    result = evaluateDate(wallFromConf, null, null, null, publicationDate);
                     // TRUE or FALSE -> rozhodnul, nevratil NOT_APPLICABLE
                     if (result != null && (result.equals(EvaluatingResultState.TRUE) || result.equals(EvaluatingResultState.FALSE)))
                         return result;
@@ -214,10 +203,20 @@ public class MovingWall extends AbstractCriterium implements RightCriterium {
         } catch (IOException e) {
             LOGGER.log(Level.SEVERE, e.getMessage());
             return EvaluatingResultState.NOT_APPLICABLE;
-        } catch (XPathExpressionException e) {
-            LOGGER.log(Level.SEVERE, e.getMessage());
+        }
+    }
+
+    /**
+     * Evaluates the wall against publication date precomputed from metadata; returns null if metadata do not contain the date
+     */
+    static EvaluatingResultState evaluateDate(int wallFromConf, String modeFromConf, String fedoraModel, Date parentDate, PublicationDate publicationDate) {
+        if (!publicationDate.isFound()) {
+            return null;
+        }
+        if (publicationDate.getDate() == null) {
             return EvaluatingResultState.NOT_APPLICABLE;
         }
+        return mwCalc(wallFromConf, modeFromConf, fedoraModel, parentDate, publicationDate.getDate(), new Date());
     }
 
     @Override
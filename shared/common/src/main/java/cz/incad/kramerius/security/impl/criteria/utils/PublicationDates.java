@@ -0,0 +1,185 @@
+package cz.incad.kramerius.security.impl.criteria.utils;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.xml.xpath.XPath;
+import javax.xml.xpath.XPathConstants;
+import javax.xml.xpath.XPathExpression;
+import javax.xml.xpath.XPathExpressionException;
+import javax.xml.xpath.XPathFactory;
+
+import org.ehcache.Cache;
+import org.ehcache.CacheManager;
+import org.ehcache.config.builders.CacheConfigurationBuilder;
+import org.ehcache.config.builders.ExpiryPolicyBuilder;
+import org.ehcache.config.builders.ResourcePoolsBuilder;
+import org.w3c.dom.Document;
+import org.w3c.dom.Text;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+import cz.incad.kramerius.FedoraAccess;
+import cz.incad.kramerius.FedoraNamespaceContext;
+import cz.incad.kramerius.fedora.om.impl.AkubraDOManager;
+import cz.incad.kramerius.security.impl.criteria.MovingWall;
+import cz.incad.kramerius.utils.conf.KConfiguration;
+
+/**
+ * Publication dates used by the moving wall, keyed by pid.
+ * <p>
+ * The date is extracted from BIBLIO_MODS (first of {@link MovingWall#MODS_XPATHS} which finds a node) and parsed only once;
+ * authorization of every tile or thumbnail then compares dates only. Dates are kept in a cache of the shared cache manager
+ * (at most <code>mw.dateCache.size</code> objects); entries are removed when the object changes in the repository
+ * (see {@link AkubraDOManager#addInvalidationListener(java.util.function.Consumer)}) and expire after
+ * <code>mw.dateCache.ttl</code> seconds as a safety net.
+ */
+@Singleton
+public class PublicationDates {
+
+    public static final Logger LOGGER = Logger.getLogger(PublicationDates.class.getName());
+
+    private static final String CACHE_ALIAS = "PublicationDatesCache";
+
+    /** Compiled xpaths; XPathExpression is not thread safe */
+    private static final ThreadLocal<List<XPathExpression>> EXPRESSIONS = ThreadLocal.withInitial(PublicationDates::compile);
+
+    private final Cache<String, PublicationDate> cache;
+
+    @Inject
+    public PublicationDates(CacheManager cacheManager) {
+        if (KConfiguration.getInstance().getConfiguration().getBoolean("mw.dateCache.enabled", true)) {
+            Cache<String, PublicationDate> existing = cacheManager.getCache(CACHE_ALIAS, String.class, PublicationDate.class);
+            if (existing == null) {
+                existing = cacheManager.createCache(CACHE_ALIAS,
+                        CacheConfigurationBuilder.newCacheConfigurationBuilder(String.class, PublicationDate.class,
+                                ResourcePoolsBuilder.heap(KConfiguration.getInstance().getConfiguration().getInt("mw.dateCache.size", 100000)))
+                                .withExpiry(ExpiryPolicyBuilder.timeToLiveExpiration(
+                                        Duration.ofSeconds(KConfiguration.getInstance().getConfiguration().getInt("mw.dateCache.ttl", 3600)))).build());
+            }
+            this.cache = existing;
+            try {
+                AkubraDOManager.addInvalidationListener(this::invalidate);
+            } catch (Throwable e) {
+                LOGGER.log(Level.WARNING, "Cannot register publication date cache invalidation, entries will only expire: " + e.getMessage(), e);
+            }
+        } else {
+            this.cache = null;
+        }
+    }
+
+    /**
+     * Date found in metadata of one object
+     */
+    public static class PublicationDate {
+
+        /** No xpath found the date in metadata */
+        public static final PublicationDate NOT_FOUND = new PublicationDate(false, null);
+
+        private final boolean found;
+        private final Date date;
+
+        PublicationDate(boolean found, Date date) {
+            this.found = found;
+            this.date = date;
+        }
+
+        /**
+         * Returns true if metadata contain the date (it might not be parseable)
+         */
+        public boolean isFound() {
+            return found;
+        }
+
+        /**
+         * Parsed date; null if the date from metadata cannot be parsed
+         */
+        public Date getDate() {
+            return date;
+        }
+    }
+
+    /**
+     * Returns publication date of given object; metadata are read only if the date is not cached
+     */
+    public PublicationDate get(String pid, FedoraAccess fedoraAccess) throws IOException {
+        if (this.cache == null) {
+            return extract(fedoraAccess.getBiblioMods(pid));
+        }
+        PublicationDate date = this.cache.get(pid);
+        if (date == null) {
+            date = extract(fedoraAccess.getBiblioMods(pid));
+            this.cache.put(pid, date);
+        }
+        return date;
+    }
+
+    /**
+     * Returns publication date of given object from the cache if there is one, otherwise from metadata
+     * @param publicationDates Cache of dates or null (e.g. in processes)
+     */
+    public static PublicationDate get(PublicationDates publicationDates, String pid, FedoraAccess fedoraAccess) throws IOException {
+        return publicationDates != null ? publicationDates.get(pid, fedoraAccess) : extract(fedoraAccess.getBiblioMods(pid));
+    }
+
+    /**
+     * Extracts publication date from BIBLIO_MODS
+     */
+    public static PublicationDate extract(Document biblioMods) {
+        if (biblioMods == null) {
+            return PublicationDate.NOT_FOUND;
+        }
+        for (XPathExpression expression : EXPRESSIONS.get()) {
+            Object node;
+            try {
+                node = expression.evaluate(biblioMods, XPathConstants.NODE);
+            } catch (XPathExpressionException e) {
+                LOGGER.log(Level.SEVERE, e.getMessage(), e);
+                continue;
+            }
+            if (node != null) {
+                String value = ((Text) node).getData();
+                try {
+                    return new PublicationDate(true, MovingWall.tryToParseDates(value));
+                } catch (Exception e) {
+                    LOGGER.log(Level.SEVERE, "Cannot parse date '" + value + "': " + e.getMessage(), e);
+                    return new PublicationDate(true, null);
+                }
+            }
+        }
+        return PublicationDate.NOT_FOUND;
+    }
+
+    public void invalidate(String pid) {
+        if (this.cache != null && pid != null) {
+            this.cache.remove(pid);
+        }
+    }
+
+    public void clear() {
+        if (this.cache != null) {
+            this.cache.clear();
+        }
+    }
+
+    private static List<XPathExpression> compile() {
+        XPathFactory factory = XPathFactory.newInstance();
+        List<XPathExpression> expressions = new ArrayList<>();
+        for (String xp : MovingWall.MODS_XPATHS) {
+            try {
+                XPath xpath = factory.newXPath();
+                xpath.setNamespaceContext(new FedoraNamespaceContext());
+                expressions.add(xpath.compile(xp));
+            } catch (XPathExpressionException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        return expressions;
+    }
+}
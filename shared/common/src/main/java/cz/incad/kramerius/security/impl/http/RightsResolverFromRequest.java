@@ -16,6 +16,7 @@
  */
 package cz.incad.kramerius.security.impl.http;
 
+import java.io.IOException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -93,6 +94,28 @@ public class RightsResolverFromRequest implements RightsResolver {
         }
     }
 
+    @Override
+    public RightsReturnObject[] isActionAllowedForObjects(User user, String actionName, String[] pids, String stream, ObjectPidsPath[] paths) {
+        try {
+            return isAllowedInternalForFedoraDocuments(actionName, pids, stream, paths, user);
+        } catch (RightCriteriumException | IOException e) {
+            logger.log(Level.SEVERE, e.getMessage(), e);
+            RightsReturnObject[] results = new RightsReturnObject[pids.length];
+            for (int i = 0; i < results.length; i++) {
+                results[i] = new RightsReturnObject(null, EvaluatingResultState.FALSE);
+            }
+            return results;
+        }
+    }
+
+    public RightsReturnObject[] isAllowedInternalForFedoraDocuments(String actionName, String[] pids, String stream, ObjectPidsPath[] paths, User user) throws RightCriteriumException, IOException {
+        if (pids.length == 0) {
+            return new RightsReturnObject[0];
+        }
+        RightCriteriumContext[] ctxs = this.ctxFactory.create(pids, stream, user, getRemoteHost(), IPAddressUtils.getRemoteAddress(this.provider.get()), this, this.exclusiveLockMaps);
+        return this.rightsManager.resolveAll(ctxs, pids, paths, actionName, user);
+    }
+
     private String getRemoteHost() {
         HttpServletRequest httpReq = this.provider.get();
         return httpReq.getRemoteHost();
@@ -12,11 +12,14 @@ import org.ehcache.CacheManager;
 import org.ehcache.config.builders.CacheConfigurationBuilder;
 import org.ehcache.config.builders.ResourcePoolsBuilder;
 import org.ehcache.config.units.MemoryUnit;
-import org.ehcache.expiry.Expirations;
+import org.ehcache.config.builders.ExpiryPolicyBuilder;
 
 import javax.servlet.http.HttpServletRequest;
+import java.io.IOException;
 import java.io.Serializable;
-import java.util.concurrent.TimeUnit;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.logging.Logger;
 
 import static cz.incad.kramerius.security.impl.criteria.utils.CriteriaLicenseUtils.*;
@@ -79,8 +82,8 @@ public class RightsResolverFromRequestCached extends RightsResolverFromRequest {
             cache = cacheManager.createCache(CACHE_ALIAS,
                     CacheConfigurationBuilder.newCacheConfigurationBuilder(CacheKey.class, RightsReturnObject.class,
                             ResourcePoolsBuilder.heap(1000).offheap(32, MemoryUnit.MB))
-                            .withExpiry(Expirations.timeToLiveExpiration(
-                                    org.ehcache.expiry.Duration.of(  KConfiguration.getInstance().getCacheTimeToLiveExpiration(), TimeUnit.SECONDS))).build());
+                            .withExpiry(ExpiryPolicyBuilder.timeToLiveExpiration(
+                                    Duration.ofSeconds(KConfiguration.getInstance().getCacheTimeToLiveExpiration()))).build());
         }
     }
 
@@ -117,5 +120,31 @@ public class RightsResolverFromRequestCached extends RightsResolverFromRequest {
 
     }
 
+    @Override
+    public RightsReturnObject[] isAllowedInternalForFedoraDocuments(String actionName, String[] pids, String stream, ObjectPidsPath[] paths, User user) throws RightCriteriumException, IOException {
+        if (!SecuredActions.A_READ.getFormalName().equals(actionName)) {
+            return super.isAllowedInternalForFedoraDocuments(actionName, pids, stream, paths, user);
+        }
+        String ip = IPAddressUtils.getRemoteAddress(this.provider.get());
+        RightsReturnObject[] results = new RightsReturnObject[pids.length];
+        List<Integer> missed = new ArrayList<>();
+        for (int i = 0; i < pids.length; i++) {
+            results[i] = cache.get(new CacheKey(pids[i], user, ip));
+            if (results[i] == null) {
+                missed.add(i);
+            }
+        }
+        if (!missed.isEmpty()) {
+            // only cache misses are evaluated, all at once
+            String[] missedPids = missed.stream().map(i -> pids[i]).toArray(String[]::new);
+            ObjectPidsPath[] missedPaths = missed.stream().map(i -> paths[i]).toArray(ObjectPidsPath[]::new);
+            RightsReturnObject[] resolved = super.isAllowedInternalForFedoraDocuments(actionName, missedPids, stream, missedPaths, user);
+            for (int j = 0; j < resolved.length; j++) {
+                results[missed.get(j)] = resolved[j];
+                cache.put(new CacheKey(missedPids[j], user, ip), resolved[j]);
+            }
+        }
+        return results;
+    }
 
 }
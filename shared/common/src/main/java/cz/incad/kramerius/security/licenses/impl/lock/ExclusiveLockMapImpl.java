@@ -17,10 +17,7 @@
 package cz.incad.kramerius.security.licenses.impl.lock;
 
 import java.time.Instant;
-import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
 import org.json.JSONArray;
 import org.json.JSONObject;
@@ -39,21 +36,25 @@ public class ExclusiveLockMapImpl implements ExclusiveLockMap {
     
     private String formattedName;
     private String pid;
-    private License license;
+    private volatile License license;
     
     private String hash;
-    private int maxItemsForPid;
-    private ExclusiveLockType lockType;
+    private volatile int maxItemsForPid;
+    private volatile ExclusiveLockType lockType;
     
-    private Map<String, ExclusiveLockMapItem> itemsMap = new HashMap<>();
-    private List<ExclusiveLockMapItem> items = new ArrayList<>();
+    private final LockItemsStore store;
 
     public ExclusiveLockMapImpl(License license, String pid, String hash,String fmtName)  {
+        this(license, pid, hash, fmtName, new LocalLockItemsStore(null));
+    }
+
+    public ExclusiveLockMapImpl(License license, String pid, String hash, String fmtName, LockItemsStore store)  {
         super();
         this.license = license;
         this.pid = pid;
         this.formattedName = fmtName;
         this.hash = hash;
+        this.store = store;
         
         
         this.refereshLicense(license);
@@ -90,62 +91,44 @@ public class ExclusiveLockMapImpl implements ExclusiveLockMap {
     }
 
     @Override
-    public synchronized List<ExclusiveLockMapItem> getLockItems() {
-        return this.items;
+    public List<ExclusiveLockMapItem> getLockItems() {
+        return this.store.getItems(this.hash, Instant.now());
     }
 
     @Override
-    public synchronized void registerItem(ExclusiveLockMapItem item) {
-        this.itemsMap.put(item.getTokenId(), item);
-        this.items.add(item);
+    public void registerItem(ExclusiveLockMapItem item) {
+        this.store.register(this.hash, item, -1, Instant.now());
     }
 
     @Override
-    public synchronized void deregisterItem(ExclusiveLockMapItem item) {
-        this.itemsMap.remove(item.getTokenId());
-        this.items.remove(item);
+    public boolean tryRegisterItem(ExclusiveLockMapItem item) {
+        return this.store.register(this.hash, item, this.maxItemsForPid, Instant.now());
     }
 
-    
-    
+    @Override
+    public void deregisterItem(ExclusiveLockMapItem item) {
+        this.store.deregister(this.hash, item.getTokenId());
+    }
 
     @Override
     public ExclusiveLockMapItem findByTokenId(String tokenId) {
-        return this.itemsMap.get(tokenId);
+        return this.store.find(this.hash, tokenId);
     }
 
     @Override
     public void checkItems(Instant now) {
-        //check validity 
-        List<ExclusiveLockMapItem> nitems = new ArrayList<>(this.items);
-        for (ExclusiveLockMapItem nitem : nitems) {
-            if (!nitem.isValid(now)) {
-                this.deregisterItem(nitem);
-            }
-        }
-        while (this.maxItemsForPid < this.items.size()) {
-            this.items.remove(this.items.size()-1);
-        }
+        this.store.purge(this.hash, this.maxItemsForPid, now);
     }
 
-    
-
     @Override
     public boolean checkAvailabitlity() {
-        this.checkItems(Instant.now());
-        return (this.items.size() < this.maxItemsForPid);
+        return this.store.purge(this.hash, this.maxItemsForPid, Instant.now()) < this.maxItemsForPid;
     }
 
     @Override
     public void refresh(String tokenid)  throws ExclusiveMapException {
-        ExclusiveLockMapItem exclusiveLockMapItem = this.itemsMap.get(tokenid);
-        if (exclusiveLockMapItem != null) {
-            Instant now = Instant.now();
-            if (exclusiveLockMapItem.isValid(now)) {
-                exclusiveLockMapItem.refresh(now);
-            } else {
-                this.deregisterItem(exclusiveLockMapItem);
-            }
+        if (this.store.find(this.hash, tokenid) != null) {
+            this.store.refresh(this.hash, tokenid, Instant.now());
         } else {
             throw new ExclusiveMapException(String.format("cannot find item by token %s", tokenid));
         }
@@ -35,7 +35,7 @@ public class ExclusiveLockMapItemImpl implements ExclusiveLockMapItem {
     private String tokenId;
     private int refreshInterval;
     private Instant createdTime;
-    private Instant refreshedTime;
+    private volatile Instant refreshedTime;
     private Instant maxTime;
     private String userId;
 
@@ -124,6 +124,15 @@ public class ExclusiveLockMapItemImpl implements ExclusiveLockMapItem {
         return retval;
     }
 
+    /**
+     * Creates item from its JSON representation (see {@link #toJSONObject()})
+     */
+    public static ExclusiveLockMapItemImpl fromJSONObject(JSONObject obj) {
+        return new ExclusiveLockMapItemImpl(obj.getString("tokenId"), obj.getInt("refreshInterval"),
+                Instant.parse(obj.getString("createdTime")), Instant.parse(obj.getString("refreshedTime")),
+                Instant.parse(obj.getString("maxTime")), obj.optString("username", null));
+    }
+
     @Override
     public int hashCode() {
         return Objects.hash(createdTime, maxTime, refreshInterval, refreshedTime, tokenId);
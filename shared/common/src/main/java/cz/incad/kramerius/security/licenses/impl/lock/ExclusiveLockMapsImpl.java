@@ -17,45 +17,132 @@
 package cz.incad.kramerius.security.licenses.impl.lock;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
+import org.json.JSONObject;
+
+import com.google.inject.Inject;
+import com.google.inject.Provider;
+
+import cz.incad.kramerius.fedora.om.impl.HazelcastClientProvider;
 import cz.incad.kramerius.security.licenses.License;
-import cz.incad.kramerius.security.licenses.lock.ExclusiveLock;
+import cz.incad.kramerius.security.licenses.LicensesManager;
+import cz.incad.kramerius.security.licenses.LicensesManagerException;
 import cz.incad.kramerius.security.licenses.lock.ExclusiveLockMap;
 import cz.incad.kramerius.security.licenses.lock.ExclusiveLockMaps;
+import cz.incad.kramerius.utils.conf.KConfiguration;
 
+/**
+ * Registry of exclusive lock maps.
+ * <p>
+ * Items of the maps are kept in {@link LocalLockItemsStore} or, with <code>exclusiveLocks.cluster=true</code>, in
+ * {@link HazelcastLockItemsStore} shared by all nodes behind a load balancer. Map created on other node is
+ * found by its description in the shared store and its license.
+ */
 public class ExclusiveLockMapsImpl implements ExclusiveLockMaps {
 
-    private Map<String, ExclusiveLockMap> maps = new HashMap<>();
-    
-    
-    @Override
-    public synchronized ExclusiveLockMap findOrCreateByHash(String hash, License l, String pid, String fmtName) {
-        if (!this.maps.containsKey(hash)) {
-            this.maps.put(hash, new ExclusiveLockMapImpl(l,pid, hash, fmtName));
+    public static final Logger LOGGER = Logger.getLogger(ExclusiveLockMapsImpl.class.getName());
+
+    private final Map<String, ExclusiveLockMap> maps = new ConcurrentHashMap<>();
+    private final LockItemsStore store;
+
+    @Inject(optional = true)
+    Provider<LicensesManager> licensesManager;
+
+    @Inject
+    public ExclusiveLockMapsImpl(HazelcastClientProvider hazelcastClient) {
+        this(createStore(hazelcastClient));
+    }
+
+    public ExclusiveLockMapsImpl(LockItemsStore store) {
+        this.store = store;
+    }
+
+    /**
+     * Creates store of lock items; in cluster mode the Hazelcast client must be available, otherwise the limits of exclusive
+     * locks would be enforced per node only
+     * @throws IllegalStateException Cluster mode is configured but there is no Hazelcast client
+     */
+    private static LockItemsStore createStore(HazelcastClientProvider hazelcastClient) {
+        if (KConfiguration.getInstance().getConfiguration().getBoolean("exclusiveLocks.cluster", false)) {
+            long ttl = KConfiguration.getInstance().getConfiguration().getLong("exclusiveLocks.cluster.ttl", 86400);
+            try {
+                return new HazelcastLockItemsStore(hazelcastClient.get(), ttl);
+            } catch (IllegalStateException e) {
+                throw new IllegalStateException("exclusiveLocks.cluster=true but the cluster store of exclusive locks cannot be created: " + e.getMessage(), e);
+            }
         }
-        return this.maps.get(hash);
+        long tick = KConfiguration.getInstance().getConfiguration().getLong("exclusiveLocks.wheel.tick", 1000);
+        int size = KConfiguration.getInstance().getConfiguration().getInt("exclusiveLocks.wheel.size", 512);
+        return new LocalLockItemsStore(new ExpiryWheel(tick, size));
+    }
+
+    @Override
+    public ExclusiveLockMap findOrCreateByHash(String hash, License l, String pid, String fmtName) {
+        return this.maps.computeIfAbsent(hash, h -> {
+            this.store.registerMap(h, l.getName(), pid, fmtName);
+            return new ExclusiveLockMapImpl(l, pid, h, fmtName, this.store);
+        });
     }
 
 
     @Override
-    public synchronized ExclusiveLockMap findHash(String hash) {
-        return this.maps.get(hash);
+    public ExclusiveLockMap findHash(String hash) {
+        ExclusiveLockMap map = this.maps.get(hash);
+        if (map == null) {
+            map = findInStore(hash);
+        }
+        return map;
+    }
+
+    /**
+     * Map created on other node of the cluster
+     */
+    private ExclusiveLockMap findInStore(String hash) {
+        JSONObject description = this.store.findMap(hash);
+        if (description == null || this.licensesManager == null) {
+            return null;
+        }
+        try {
+            License license = this.licensesManager.get().getLicenseByName(description.getString("license"));
+            if (license == null) {
+                return null;
+            }
+            return this.maps.computeIfAbsent(hash, h -> new ExclusiveLockMapImpl(license, description.optString("pid", null), h,
+                    description.optString("formattedName", null), this.store));
+        } catch (LicensesManagerException e) {
+            LOGGER.log(Level.SEVERE, e.getMessage(), e);
+            return null;
+        }
     }
 
 
     @Override
     public List<String> getAllHashes() {
-        return new ArrayList<>( this.maps.keySet());
+        Set<String> hashes = new LinkedHashSet<>(this.maps.keySet());
+        if (this.licensesManager != null) {
+            hashes.addAll(this.store.getHashes());
+        }
+        List<String> found = new ArrayList<>();
+        for (String hash : hashes) {
+            if (findHash(hash) != null) {
+                found.add(hash);
+            }
+        }
+        return found;
     }
 
 
     @Override
     public void refreshLicense(License license) {
-        maps.keySet().forEach(key-> {
-            maps.get(key).refereshLicense(license);
+        maps.values().forEach(map -> {
+            map.refereshLicense(license);
         });
     }
 }
@@ -0,0 +1,91 @@
+package cz.incad.kramerius.security.licenses.impl.lock;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Hashed timer wheel; expiration of lock items is scheduled into the bucket of its deadline, so that one tick
+ * checks only items expiring in that tick instead of scanning all items.
+ * <p>
+ * Task is called on the first tick after its deadline; a bucket holds tasks of all rounds of the wheel, tasks of later
+ * rounds are left in the bucket.
+ */
+public class ExpiryWheel {
+
+    public static final Logger LOGGER = Logger.getLogger(ExpiryWheel.class.getName());
+
+    private final long tickMillis;
+    private final Queue<Timeout>[] buckets;
+    private long lastTick;
+
+    private final ScheduledExecutorService executor;
+
+    @SuppressWarnings("unchecked")
+    public ExpiryWheel(long tickMillis, int size) {
+        this.tickMillis = tickMillis;
+        this.buckets = new Queue[size];
+        for (int i = 0; i < size; i++) {
+            this.buckets[i] = new ConcurrentLinkedQueue<>();
+        }
+        this.lastTick = System.currentTimeMillis() / tickMillis;
+        this.executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "exclusive-lock-expiry");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.executor.scheduleAtFixedRate(this::tick, tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Schedules the task at given deadline (epoch millis)
+     */
+    public void schedule(long deadline, Runnable task) {
+        // first tick after the deadline; expired deadlines go to the next tick
+        long tick = Math.max(deadline / tickMillis + 1, System.currentTimeMillis() / tickMillis + 1);
+        buckets[(int) (tick % buckets.length)].add(new Timeout(deadline, task));
+    }
+
+    void tick() {
+        long now = System.currentTimeMillis();
+        long currentTick = now / tickMillis;
+        // ticks missed by a slow executor are processed as well
+        for (long tick = Math.max(lastTick + 1, currentTick - buckets.length + 1); tick <= currentTick; tick++) {
+            Queue<Timeout> bucket = buckets[(int) (tick % buckets.length)];
+            for (int i = bucket.size(); i > 0; i--) {
+                Timeout timeout = bucket.poll();
+                if (timeout == null) {
+                    break;
+                }
+                if (timeout.deadline <= now) {
+                    try {
+                        timeout.task.run();
+                    } catch (RuntimeException e) {
+                        LOGGER.log(Level.WARNING, e.getMessage(), e);
+                    }
+                } else {
+                    bucket.add(timeout);
+                }
+            }
+        }
+        lastTick = currentTick;
+    }
+
+    public void shutdown() {
+        this.executor.shutdownNow();
+    }
+
+    private static class Timeout {
+        private final long deadline;
+        private final Runnable task;
+
+        private Timeout(long deadline, Runnable task) {
+            this.deadline = deadline;
+            this.task = task;
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package cz.incad.kramerius.security.licenses.impl.lock;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import com.hazelcast.core.HazelcastInstance;
+import com.hazelcast.core.IMap;
+
+import cz.incad.kramerius.security.licenses.lock.ExclusiveLockMapItem;
+
+/**
+ * Items of exclusive lock maps shared by all nodes of the cluster, so that the maximal number of readers is enforced globally.
+ * <p>
+ * One entry of distributed map <code>exclusiveLocks</code> holds description and items of one lock map (JSON);
+ * the entry is changed under the cluster lock of its key. Expiration of entries is left to Hazelcast: time to live
+ * of an entry is prolonged to the latest deadline of its items on every change, but it is at least
+ * <code>exclusiveLocks.cluster.ttl</code> seconds, so that description of an idle map is kept.
+ */
+public class HazelcastLockItemsStore implements LockItemsStore {
+
+    public static final String MAP_NAME = "exclusiveLocks";
+
+    /** Lease of the cluster lock; the lock of a crashed node is released after this time */
+    private static final long LOCK_LEASE_SECONDS = 30;
+
+    private final IMap<String, String> entries;
+    private final long ttlSeconds;
+
+    public HazelcastLockItemsStore(HazelcastInstance hazelcastInstance, long ttlSeconds) {
+        this.entries = hazelcastInstance.getMap(MAP_NAME);
+        this.ttlSeconds = ttlSeconds;
+    }
+
+    private <T> T update(String hash, Function<JSONObject, T> change) {
+        entries.lock(hash, LOCK_LEASE_SECONDS, TimeUnit.SECONDS);
+        try {
+            String value = entries.get(hash);
+            JSONObject entry = value != null ? new JSONObject(value) : new JSONObject();
+            T result = change.apply(entry);
+            write(hash, entry);
+            return result;
+        } finally {
+            entries.unlock(hash);
+        }
+    }
+
+    private void write(String hash, JSONObject entry) {
+        long now = System.currentTimeMillis();
+        long ttl = ttlSeconds * 1000;
+        for (ExclusiveLockMapItem item : items(entry)) {
+            ttl = Math.max(ttl, LocalLockItemsStore.deadline(item) - now);
+        }
+        entries.set(hash, entry.toString(), ttl, TimeUnit.MILLISECONDS);
+    }
+
+    private JSONObject read(String hash) {
+        String value = entries.get(hash);
+        return value != null ? new JSONObject(value) : null;
+    }
+
+    private static List<ExclusiveLockMapItem> items(JSONObject entry) {
+        List<ExclusiveLockMapItem> items = new ArrayList<>();
+        JSONArray array = entry.optJSONArray("items");
+        if (array != null) {
+            for (int i = 0; i < array.length(); i++) {
+                items.add(ExclusiveLockMapItemImpl.fromJSONObject(array.getJSONObject(i)));
+            }
+        }
+        return items;
+    }
+
+    private static void setItems(JSONObject entry, List<ExclusiveLockMapItem> items) {
+        JSONArray array = new JSONArray();
+        items.forEach(item -> array.put(item.toJSONObject()));
+        entry.put("items", array);
+    }
+
+    private static List<ExclusiveLockMapItem> validItems(JSONObject entry, Instant now) {
+        List<ExclusiveLockMapItem> items = items(entry);
+        items.removeIf(item -> !item.isValid(now));
+        return items;
+    }
+
+    @Override
+    public void registerMap(String hash, String licenseName, String pid, String formattedName) {
+        update(hash, entry -> {
+            entry.put("license", licenseName);
+            entry.put("pid", pid);
+            entry.put("formattedName", formattedName);
+            return null;
+        });
+    }
+
+    @Override
+    public JSONObject findMap(String hash) {
+        JSONObject entry = read(hash);
+        if (entry == null || !entry.has("license")) {
+            return null;
+        }
+        entry.remove("items");
+        return entry;
+    }
+
+    @Override
+    public List<String> getHashes() {
+        return new ArrayList<>(entries.keySet());
+    }
+
+    @Override
+    public List<ExclusiveLockMapItem> getItems(String hash, Instant now) {
+        JSONObject entry = read(hash);
+        return entry != null ? validItems(entry, now) : new ArrayList<>();
+    }
+
+    @Override
+    public ExclusiveLockMapItem find(String hash, String tokenId) {
+        JSONObject entry = read(hash);
+        if (entry == null || tokenId == null) {
+            return null;
+        }
+        return items(entry).stream().filter(item -> tokenId.equals(item.getTokenId())).findFirst().orElse(null);
+    }
+
+    @Override
+    public boolean register(String hash, ExclusiveLockMapItem item, int maxItems, Instant now) {
+        return update(hash, entry -> {
+            List<ExclusiveLockMapItem> items = validItems(entry, now);
+            items.removeIf(i -> i.getTokenId().equals(item.getTokenId()));
+            if (maxItems >= 0 && items.size() >= maxItems) {
+                setItems(entry, items);
+                return false;
+            }
+            items.add(item);
+            setItems(entry, items);
+            return true;
+        });
+    }
+
+    @Override
+    public void deregister(String hash, String tokenId) {
+        if (tokenId == null || !entries.containsKey(hash)) {
+            return;
+        }
+        update(hash, entry -> {
+            List<ExclusiveLockMapItem> items = items(entry);
+            items.removeIf(i -> i.getTokenId().equals(tokenId));
+            setItems(entry, items);
+            return null;
+        });
+    }
+
+    @Override
+    public ExclusiveLockMapItem refresh(String hash, String tokenId, Instant now) {
+        if (tokenId == null || !entries.containsKey(hash)) {
+            return null;
+        }
+        return update(hash, entry -> {
+            List<ExclusiveLockMapItem> items = items(entry);
+            ExclusiveLockMapItem found = null;
+            for (ExclusiveLockMapItem item : items) {
+                if (item.getTokenId().equals(tokenId)) {
+                    found = item;
+                }
+            }
+            if (found != null) {
+                if (found.isValid(now)) {
+                    found.refresh(now);
+                } else {
+                    items.remove(found);
+                    found = null;
+                }
+                setItems(entry, items);
+            }
+            return found;
+        });
+    }
+
+    @Override
+    public int purge(String hash, int maxItems, Instant now) {
+        JSONObject current = read(hash);
+        if (current == null) {
+            return 0;
+        }
+        List<ExclusiveLockMapItem> items = items(current);
+        if (items.size() < maxItems) {
+            // nothing to remove; avoids the cluster lock when the map is not full
+            return items.size();
+        }
+        return update(hash, entry -> {
+            List<ExclusiveLockMapItem> valid = validItems(entry, now);
+            while (valid.size() > Math.max(maxItems, 0)) {
+                valid.remove(valid.size() - 1);
+            }
+            setItems(entry, valid);
+            return valid.size();
+        });
+    }
+}
@@ -0,0 +1,214 @@
+package cz.incad.kramerius.security.licenses.impl.lock;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.json.JSONObject;
+
+import cz.incad.kramerius.security.licenses.lock.ExclusiveLockMapItem;
+
+/**
+ * Items of exclusive lock maps held in this JVM.
+ * <p>
+ * Every map has its own lock (stripe), so readers of different maps do not contend. Invalid items are removed
+ * by {@link ExpiryWheel} at their deadline; items of a map are checked one by one only when the map looks full.
+ */
+public class LocalLockItemsStore implements LockItemsStore {
+
+    private final Map<String, Stripe> stripes = new ConcurrentHashMap<>();
+    private final ExpiryWheel wheel;
+
+    public LocalLockItemsStore(ExpiryWheel wheel) {
+        this.wheel = wheel;
+    }
+
+    private static class Stripe {
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Map<String, ExclusiveLockMapItem> items = new LinkedHashMap<>();
+        private JSONObject description;
+    }
+
+    private Stripe stripe(String hash) {
+        return stripes.computeIfAbsent(hash, h -> new Stripe());
+    }
+
+    static long deadline(ExclusiveLockMapItem item) {
+        long refreshDeadline = item.getRefreshedTime().plusSeconds(item.getRefreshInterval()).toEpochMilli();
+        return Math.min(refreshDeadline, item.getMaxTime().toEpochMilli());
+    }
+
+    private void scheduleExpiration(String hash, ExclusiveLockMapItem item) {
+        if (wheel != null) {
+            wheel.schedule(deadline(item), () -> expire(hash, item.getTokenId()));
+        }
+    }
+
+    /**
+     * Called by the wheel at deadline of the item; refreshed item is scheduled again
+     */
+    void expire(String hash, String tokenId) {
+        Stripe stripe = stripes.get(hash);
+        if (stripe == null) {
+            return;
+        }
+        stripe.lock.lock();
+        try {
+            ExclusiveLockMapItem item = stripe.items.get(tokenId);
+            if (item != null) {
+                if (item.isValid(Instant.now())) {
+                    scheduleExpiration(hash, item);
+                } else {
+                    stripe.items.remove(tokenId);
+                }
+            }
+        } finally {
+            stripe.lock.unlock();
+        }
+    }
+
+    @Override
+    public void registerMap(String hash, String licenseName, String pid, String formattedName) {
+        Stripe stripe = stripe(hash);
+        stripe.lock.lock();
+        try {
+            JSONObject description = new JSONObject();
+            description.put("license", licenseName);
+            description.put("pid", pid);
+            description.put("formattedName", formattedName);
+            stripe.description = description;
+        } finally {
+            stripe.lock.unlock();
+        }
+    }
+
+    @Override
+    public JSONObject findMap(String hash) {
+        Stripe stripe = stripes.get(hash);
+        return stripe != null ? stripe.description : null;
+    }
+
+    @Override
+    public List<String> getHashes() {
+        return new ArrayList<>(stripes.keySet());
+    }
+
+    @Override
+    public List<ExclusiveLockMapItem> getItems(String hash, Instant now) {
+        Stripe stripe = stripe(hash);
+        stripe.lock.lock();
+        try {
+            removeInvalid(stripe, now);
+            return new ArrayList<>(stripe.items.values());
+        } finally {
+            stripe.lock.unlock();
+        }
+    }
+
+    @Override
+    public ExclusiveLockMapItem find(String hash, String tokenId) {
+        Stripe stripe = stripes.get(hash);
+        if (stripe == null || tokenId == null) {
+            return null;
+        }
+        stripe.lock.lock();
+        try {
+            return stripe.items.get(tokenId);
+        } finally {
+            stripe.lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean register(String hash, ExclusiveLockMapItem item, int maxItems, Instant now) {
+        Stripe stripe = stripe(hash);
+        stripe.lock.lock();
+        try {
+            stripe.items.remove(item.getTokenId());
+            if (maxItems >= 0 && stripe.items.size() >= maxItems) {
+                // the wheel may not have removed items which expired during the last tick
+                removeInvalid(stripe, now);
+                if (stripe.items.size() >= maxItems) {
+                    return false;
+                }
+            }
+            stripe.items.put(item.getTokenId(), item);
+        } finally {
+            stripe.lock.unlock();
+        }
+        scheduleExpiration(hash, item);
+        return true;
+    }
+
+    @Override
+    public void deregister(String hash, String tokenId) {
+        Stripe stripe = stripes.get(hash);
+        if (stripe == null || tokenId == null) {
+            return;
+        }
+        stripe.lock.lock();
+        try {
+            stripe.items.remove(tokenId);
+        } finally {
+            stripe.lock.unlock();
+        }
+    }
+
+    @Override
+    public ExclusiveLockMapItem refresh(String hash, String tokenId, Instant now) {
+        Stripe stripe = stripes.get(hash);
+        if (stripe == null || tokenId == null) {
+            return null;
+        }
+        stripe.lock.lock();
+        try {
+            ExclusiveLockMapItem item = stripe.items.get(tokenId);
+            if (item == null) {
+                return null;
+            }
+            if (item.isValid(now)) {
+                // the wheel reschedules the item at its old deadline
+                item.refresh(now);
+                return item;
+            } else {
+                stripe.items.remove(tokenId);
+                return null;
+            }
+        } finally {
+            stripe.lock.unlock();
+        }
+    }
+
+    @Override
+    public int purge(String hash, int maxItems, Instant now) {
+        Stripe stripe = stripe(hash);
+        stripe.lock.lock();
+        try {
+            if (stripe.items.size() >= maxItems) {
+                removeInvalid(stripe, now);
+            }
+            if (stripe.items.size() > maxItems) {
+                List<String> tokens = new ArrayList<>(stripe.items.keySet());
+                for (String token : tokens.subList(Math.max(maxItems, 0), tokens.size())) {
+                    stripe.items.remove(token);
+                }
+            }
+            return stripe.items.size();
+        } finally {
+            stripe.lock.unlock();
+        }
+    }
+
+    private static void removeInvalid(Stripe stripe, Instant now) {
+        for (Iterator<ExclusiveLockMapItem> it = stripe.items.values().iterator(); it.hasNext();) {
+            if (!it.next().isValid(now)) {
+                it.remove();
+            }
+        }
+    }
+}
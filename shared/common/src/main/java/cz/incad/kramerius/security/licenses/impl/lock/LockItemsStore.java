@@ -0,0 +1,59 @@
+package cz.incad.kramerius.security.licenses.impl.lock;
+
+import java.time.Instant;
+import java.util.List;
+
+import org.json.JSONObject;
+
+import cz.incad.kramerius.security.licenses.lock.ExclusiveLockMapItem;
+
+/**
+ * Storage of items (readers) of all exclusive lock maps; items of one map are identified by the map hash.
+ * <p>
+ * Every operation is atomic with respect to one map; operations of different maps do not block each other.
+ */
+public interface LockItemsStore {
+
+    /**
+     * Remembers description of the map (license name, pid, formatted name), so that other nodes of the cluster can find the map
+     */
+    public void registerMap(String hash, String licenseName, String pid, String formattedName);
+
+    /**
+     * Returns description of the map registered by {@link #registerMap(String, String, String, String)} or null
+     */
+    public JSONObject findMap(String hash);
+
+    /**
+     * Hashes of all maps known to the store
+     */
+    public List<String> getHashes();
+
+    /**
+     * Returns valid items of the map in order of registration
+     */
+    public List<ExclusiveLockMapItem> getItems(String hash, Instant now);
+
+    public ExclusiveLockMapItem find(String hash, String tokenId);
+
+    /**
+     * Registers the item; invalid items are removed first and an item with the same token is replaced.
+     * @param maxItems Maximal number of items in the map, negative value means no limit
+     * @return false if the map is full
+     */
+    public boolean register(String hash, ExclusiveLockMapItem item, int maxItems, Instant now);
+
+    public void deregister(String hash, String tokenId);
+
+    /**
+     * Refreshes valid item; invalid item is removed
+     * @return refreshed item or null if the item is not found or is not valid any more
+     */
+    public ExclusiveLockMapItem refresh(String hash, String tokenId, Instant now);
+
+    /**
+     * Removes invalid items and the latest registered items above given limit
+     * @return number of items left in the map
+     */
+    public int purge(String hash, int maxItems, Instant now);
+}
@@ -51,6 +51,12 @@ public interface ExclusiveLockMap {
     public ExclusiveLockMapItem findByTokenId(String tokenId);
     
     public void registerItem(ExclusiveLockMapItem item);
+
+    /**
+     * Registers the item only if the map is not full; checking and registering is one atomic operation
+     * @return false if the map is full
+     */
+    public boolean tryRegisterItem(ExclusiveLockMapItem item);
     
     public void deregisterItem(ExclusiveLockMapItem item);
     
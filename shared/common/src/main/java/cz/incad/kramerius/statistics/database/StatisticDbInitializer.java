@@ -66,6 +66,9 @@ public class StatisticDbInitializer {
 
             // check if labels_entity table exists, if not creates it
             //checkLabelExists(connection);
+
+            // daily rollups of the logs core
+            checkRollupExists(connection);
             
         } catch (SQLException e) {
             LOGGER.log(Level.SEVERE, e.getMessage(), e);
@@ -184,6 +187,15 @@ public class StatisticDbInitializer {
 //        }
 //    }
 
+    private static void checkRollupExists(Connection connection) throws SQLException, IOException {
+        if (!DatabaseUtils.tableExists(connection, "STATISTICS_ROLLUP")) {
+            InputStream is = StatisticDbInitializer.class.getResourceAsStream("res/initrollup.sql");
+            JDBCUpdateTemplate template = new JDBCUpdateTemplate(connection, false);
+            template.setUseReturningKeys(false);
+            template.executeUpdate(IOUtils.readAsString(is, Charset.forName("UTF-8"), true));
+        }
+    }
+
     private static void checkLabelExists(Connection connection) {
 
         EMBEDDED_LABELS.stream().forEach(label -> {
@@ -0,0 +1,16 @@
+create table statistics_rollup(
+   ROLLUP_DAY INT NOT NULL,
+   DIMENSION VARCHAR(255) NOT NULL,
+   DIMENSION_VALUE TEXT NOT NULL,
+   LICENSE VARCHAR(255) NOT NULL,
+   ROLLUP_COUNT BIGINT NOT NULL,
+   PRIMARY KEY(ROLLUP_DAY, DIMENSION, LICENSE, DIMENSION_VALUE)
+);
+create index statistics_rollup_dimension_idx on statistics_rollup(DIMENSION, ROLLUP_DAY);
+
+create table statistics_rollup_days(
+   ROLLUP_DAY INT NOT NULL,
+   ROLLED_UP TIMESTAMP NOT NULL,
+   RECORD_COUNT BIGINT NOT NULL,
+   PRIMARY KEY(ROLLUP_DAY)
+);
@@ -10,11 +10,15 @@ import cz.incad.kramerius.statistics.StatisticsReportSupport;
 import cz.incad.kramerius.statistics.filters.*;
 import cz.incad.kramerius.utils.database.Offset;
 
+import java.io.IOException;
 import java.sql.Connection;
 import java.util.*;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
-//TODO: Vyhodit
+/**
+ * Rocni vykaz; pocty zpristupneni podle modelu za rok, pocitano z denniho souhrnu ({@link StatisticsRollup})
+ */
 public class AnnualStatisticsReport extends AbstractStatisticsReport implements StatisticReport {
 
 
@@ -47,22 +51,36 @@ public class AnnualStatisticsReport extends AbstractStatisticsReport implements
 
     @Override
     public void processAccessLog(ReportedAction action, StatisticsReportSupport sup, StatisticsFiltersContainer container) throws StatisticsReportException {
-//        MultimodelFilter multimodel = container.getFilter(MultimodelFilter.class);
-//        List<String> models = multimodel.getModels();
-//        for (String model : models) {
-//            ModelFilter modelFilter = new ModelFilter();
-//            modelFilter.setModel(model);
-//            StatisticsFilter[] filters = new StatisticsFilter[]{
-//                    modelFilter,
-//                    getDateFilter(container.getFilter(AnnualYearFilter.class)),
-//                    container.getFilter(IPAddressFilter.class),
-//                    container.getFilter(VisibilityFilter.class),
-//                    container.getFilter(UniqueIPAddressesFilter.class)
-//            };
-//            ModelStatisticReport report = new ModelStatisticReport();
-//            report.connectionProvider = connectionProvider;
-//            report.processAccessLog(action, sup, new StatisticsFiltersContainer(filters));
-//        }
+        try {
+            int year = Integer.parseInt(container.getFilter(AnnualYearFilter.class).getAnnualYear().trim());
+            DateFilter dateFilter = new DateFilter();
+            dateFilter.setFromDate(String.format("%d.01.01", year));
+            dateFilter.setToDate(String.format("%d.01.01", year + 1));
+            List<StatisticsFilter> filters = new ArrayList<>();
+            filters.add(dateFilter);
+            LicenseFilter licenseFilter = container.getFilter(LicenseFilter.class);
+            if (licenseFilter != null) {
+                filters.add(licenseFilter);
+            }
+
+            Map<String, Long> counts = new StatisticsRollup(this.connectionProvider).counts(StatisticsRollup.MODEL_DIMENSION,
+                    new StatisticsFiltersContainer(filters.toArray(new StatisticsFilter[filters.size()])), false, -1);
+            if (counts == null) {
+                LOGGER.warning("Annual report is computed from statistics rollup, which is disabled");
+                return;
+            }
+            MultimodelFilter multimodel = container.getFilter(MultimodelFilter.class);
+            List<String> models = multimodel != null ? multimodel.getModels() : MultimodelFilter.SELECTED_MODELS;
+            for (String model : models) {
+                Map<String, Object> record = new HashMap<>();
+                record.put(COUNT_KEY, counts.getOrDefault(model, 0L));
+                record.put(MODEL_KEY, model);
+                sup.processReportRecord(record);
+            }
+        } catch (IOException | NumberFormatException e) {
+            LOGGER.log(Level.SEVERE, e.getMessage(), e);
+            throw new StatisticsReportException(e);
+        }
     }
 
     public static StatisticsFilter getDateFilter(AnnualYearFilter afilter) {
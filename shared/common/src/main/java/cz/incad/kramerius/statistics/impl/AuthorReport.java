@@ -75,6 +75,13 @@ public class AuthorReport extends AbstractStatisticsReport implements StatisticR
     @Override
     public List<Map<String, Object>> getReportPage(ReportedAction repAction,StatisticsFiltersContainer filters, Offset rOffset) {
         try {
+            Map<String, Long> rollup = new StatisticsRollup(this.connectionProvider).counts(StatisticsRollup.AUTHOR_DIMENSION, filters, true, StatisticsRollup.FACET_LIMIT);
+            if (rollup != null) {
+                List<Map<String,Object>> authors = new ArrayList<>();
+                rollup.forEach((author, count) -> authors.add(authorRecord(author, count)));
+                return authors;
+            }
+
             String selectEndpoint = super.logsEndpoint();
             
             StringBuilder builder = new StringBuilder("q=*");
@@ -116,6 +123,12 @@ public class AuthorReport extends AbstractStatisticsReport implements StatisticR
     public void processAccessLog(final ReportedAction repAction, final StatisticsReportSupport sup,
             StatisticsFiltersContainer filters) throws StatisticsReportException {
         try {
+            Map<String, Long> rollup = new StatisticsRollup(this.connectionProvider).counts(StatisticsRollup.AUTHOR_DIMENSION, filters, false, StatisticsRollup.FACET_LIMIT);
+            if (rollup != null) {
+                rollup.forEach((author, count) -> sup.processReportRecord(authorRecord(author, count)));
+                return;
+            }
+
             String selectEndpoint = super.logsEndpoint();
             
             DateFilter dateFilter = filters.getFilter(DateFilter.class);
@@ -146,6 +159,13 @@ public class AuthorReport extends AbstractStatisticsReport implements StatisticR
         }
     }
 
+    private static Map<String, Object> authorRecord(Object author, Object count) {
+        Map<String, Object> map = new HashMap<String, Object>();
+        map.put(COUNT_KEY, count);
+        map.put(AUTHOR_NAME_KEY, author);
+        return map;
+    }
+
 	@Override
 	public List<String> verifyFilters(ReportedAction action, StatisticsFiltersContainer container) {
     	List<String> list = new ArrayList<>();
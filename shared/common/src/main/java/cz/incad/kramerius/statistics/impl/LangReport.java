@@ -86,6 +86,12 @@ public class LangReport extends AbstractStatisticsReport implements StatisticRep
             String selectEndpint = super.logsEndpoint();
             
             List<Map<String,Object>> langs = new ArrayList<>();
+
+            Map<String, Long> rollup = new StatisticsRollup(this.connectionProvider).counts(StatisticsRollup.LANG_DIMENSION, filters, true, StatisticsRollup.FACET_LIMIT);
+            if (rollup != null) {
+                rollup.forEach((lang, count) -> langs.add(langRecord(lang, count)));
+                return langs;
+            }
             
 
             StringBuilder builder = new StringBuilder("q=*");
@@ -128,6 +134,12 @@ public class LangReport extends AbstractStatisticsReport implements StatisticRep
     public void processAccessLog(final ReportedAction repAction, final StatisticsReportSupport sup,
             final StatisticsFiltersContainer filters) throws StatisticsReportException {
         try {
+            Map<String, Long> rollup = new StatisticsRollup(this.connectionProvider).counts(StatisticsRollup.LANG_DIMENSION, filters, false, StatisticsRollup.FACET_LIMIT);
+            if (rollup != null) {
+                rollup.forEach((lang, count) -> sup.processReportRecord(langRecord(lang, count)));
+                return;
+            }
+
             String selectEndpint = super.logsEndpoint();
             DateFilter dateFilter = filters.getFilter(DateFilter.class);
             LicenseFilter licFilter = filters.getFilter(LicenseFilter.class);
@@ -156,6 +168,13 @@ public class LangReport extends AbstractStatisticsReport implements StatisticRep
         }
     }
 
+    private static Map<String, Object> langRecord(Object lang, Object count) {
+        Map<String, Object> map = new HashMap<String, Object>();
+        map.put(COUNT_KEY, count);
+        map.put(LANG_KEY, lang);
+        return map;
+    }
+
 	@Override
 	public List<String> verifyFilters(ReportedAction action, StatisticsFiltersContainer container) {
     	List<String> list = new ArrayList<>();
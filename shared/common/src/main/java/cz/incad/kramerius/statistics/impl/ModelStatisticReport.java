@@ -27,11 +27,14 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.text.ParseException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.stream.Collectors;
 
 import cz.incad.kramerius.statistics.accesslogs.database.DatabaseStatisticsAccessLogImpl;
 import org.antlr.stringtemplate.StringTemplate;
@@ -81,6 +84,10 @@ public class ModelStatisticReport extends AbstractStatisticsReport implements St
     @Named("new-index")
     SolrAccess solrAccess;
 
+    @Inject
+    @Named("kramerius4")
+    Provider<Connection> connectionProvider;
+
 
     @Override
     public List<Map<String, Object>> getReportPage(ReportedAction repAction,StatisticsFiltersContainer filters, Offset rOffset) {
@@ -89,7 +96,18 @@ public class ModelStatisticReport extends AbstractStatisticsReport implements St
 
             String selectEndpoint = super.logsEndpoint();
             List<Map<String,Object>> models = new ArrayList<>();
-            
+
+            StatisticsRollup statisticsRollup = new StatisticsRollup(this.connectionProvider);
+            Map<String, Long> rollup = statisticsRollup.counts(StatisticsRollup.pidsOfModel(modelFilter.getModel()), filters, true, StatisticsRollup.FACET_LIMIT);
+            Map<String, Long> sum = rollup != null ? statisticsRollup.counts(StatisticsRollup.MODEL_DIMENSION, filters, false, -1) : null;
+            if (rollup != null && sum != null) {
+                models.addAll(modelRecords(rollup, modelFilter.getModel()));
+                Map<String, Object> val = new HashMap<>();
+                val.put("sum", sum.getOrDefault(modelFilter.getModel(), 0L));
+                models.add(val);
+                return models;
+            }
+
             StringBuilder builder = new StringBuilder("q=*");
             super.applyFilters(filters, builder);
 
@@ -99,18 +117,9 @@ public class ModelStatisticReport extends AbstractStatisticsReport implements St
             InputStream iStream = cz.incad.kramerius.utils.solr.SolrUtils.requestWithSelectReturningStream(selectEndpoint, builder.toString(), "json");
             String string = IOUtils.toString(iStream, "UTF-8");
             
-            ReportUtils.facetIterate(facetValue, string, p-> {
-                Map<String, Object> map = new HashMap<String, Object>();
-                map.put(COUNT_KEY, p.getValue());
-                map.put(PID_KEY, p.getKey().toString());
-                map.put(MODEL_KEY, modelFilter.getModel());
-                try {
-                    map.put(TITLE_KEY, titleFromSolr(p.getKey().toString()));
-                } catch(IOException ex) {
-                    LOGGER.log(Level.SEVERE,ex.getMessage(),ex);
-                }
-                models.add(map);
-            });
+            Map<String, Object> counts = new LinkedHashMap<>();
+            ReportUtils.facetIterate(facetValue, string, p-> counts.put(p.getKey().toString(), p.getValue()));
+            models.addAll(modelRecords(counts, modelFilter.getModel()));
             
 
             JSONObject response = new JSONObject(string).getJSONObject("response");
@@ -126,17 +135,46 @@ public class ModelStatisticReport extends AbstractStatisticsReport implements St
 
     }
 
-    private String titleFromSolr(Object key) throws IOException {
-        JSONObject result = solrAccess.requestWithSelectReturningJson(String.format("q=%s", URLEncoder.encode("pid:\""+key.toString()+"\"", "UTF-8")) );
-        if (result.has("response")) {
-            JSONObject response = result.getJSONObject("response");
-            JSONArray docs = response.getJSONArray("docs");
-            if (docs.length() > 0) {
-                JSONObject foundDoc = docs.getJSONObject(0);
-                return foundDoc.optString("title.search", "");
+    /**
+     * Returns titles of given objects; objects are read from the index by one query per {@link StatisticsRollup#FACET_LIMIT} pids
+     */
+    private Map<String, String> titlesFromSolr(Collection<String> pids) throws IOException {
+        Map<String, String> titles = new HashMap<>();
+        List<String> list = new ArrayList<>(pids);
+        for (int from = 0; from < list.size(); from += StatisticsRollup.FACET_LIMIT) {
+            List<String> batch = list.subList(from, Math.min(list.size(), from + StatisticsRollup.FACET_LIMIT));
+            String q = "pid:(" + batch.stream().map(pid -> "\"" + pid + "\"").collect(Collectors.joining(" OR ")) + ")";
+            JSONObject result = solrAccess.requestWithSelectReturningJson(String.format("q=%s&fl=pid,title.search&rows=%d", URLEncoder.encode(q, "UTF-8"), batch.size()));
+            if (result.has("response")) {
+                JSONArray docs = result.getJSONObject("response").getJSONArray("docs");
+                for (int i = 0; i < docs.length(); i++) {
+                    JSONObject foundDoc = docs.getJSONObject(i);
+                    titles.put(foundDoc.getString("pid"), foundDoc.optString("title.search", ""));
+                }
             }
         }
-        return "";
+        return titles;
+    }
+
+    private List<Map<String, Object>> modelRecords(Map<String, ?> counts, String model) {
+        Map<String, String> titles = null;
+        try {
+            titles = titlesFromSolr(counts.keySet());
+        } catch(IOException ex) {
+            LOGGER.log(Level.SEVERE,ex.getMessage(),ex);
+        }
+        List<Map<String, Object>> records = new ArrayList<>();
+        for (Map.Entry<String, ?> entry : counts.entrySet()) {
+            Map<String, Object> map = new HashMap<String, Object>();
+            map.put(COUNT_KEY, entry.getValue());
+            map.put(PID_KEY, entry.getKey());
+            map.put(MODEL_KEY, model);
+            if (titles != null) {
+                map.put(TITLE_KEY, titles.getOrDefault(entry.getKey(), ""));
+            }
+            records.add(map);
+        }
+        return records;
     }
 
     @Override
@@ -159,6 +197,12 @@ public class ModelStatisticReport extends AbstractStatisticsReport implements St
         IdentifiersFilter idFilter = filters.getFilter(IdentifiersFilter.class);
 
         try {
+            Map<String, Long> rollup = new StatisticsRollup(this.connectionProvider).counts(StatisticsRollup.pidsOfModel(modelFilter.getModel()), filters, true, StatisticsRollup.FACET_LIMIT);
+            if (rollup != null) {
+                modelRecords(rollup, modelFilter.getModel()).forEach(sup::processReportRecord);
+                return;
+            }
+
             String selectEndpoint = super.logsEndpoint();
             
             StringBuilder builder = new StringBuilder("q=*");
@@ -173,18 +217,9 @@ public class ModelStatisticReport extends AbstractStatisticsReport implements St
             InputStream iStream = cz.incad.kramerius.utils.solr.SolrUtils.requestWithSelectReturningStream(selectEndpoint, builder.toString(), "json");
             String string = IOUtils.toString(iStream, "UTF-8");
             
-            ReportUtils.facetIterate(facetValue, string, p-> {
-                Map<String, Object> map = new HashMap<String, Object>();
-                map.put(COUNT_KEY, p.getValue());
-                map.put(PID_KEY, p.getKey().toString());
-                map.put(MODEL_KEY, modelFilter.getModel());
-                try {
-                    map.put(TITLE_KEY, titleFromSolr(p.getKey().toString()));
-                } catch(IOException ex) {
-                    LOGGER.log(Level.SEVERE,ex.getMessage(),ex);
-                }
-                sup.processReportRecord(map);
-            });
+            Map<String, Object> counts = new LinkedHashMap<>();
+            ReportUtils.facetIterate(facetValue, string, p-> counts.put(p.getKey().toString(), p.getValue()));
+            modelRecords(counts, modelFilter.getModel()).forEach(sup::processReportRecord);
         } catch (IOException e) {
             LOGGER.log(Level.SEVERE,e.getMessage(),e);
         }
@@ -0,0 +1,461 @@
+package cz.incad.kramerius.statistics.impl;
+
+import java.io.IOException;
+import java.net.URLEncoder;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import com.google.inject.Provider;
+
+import cz.incad.kramerius.statistics.filters.DateFilter;
+import cz.incad.kramerius.statistics.filters.IdentifiersFilter;
+import cz.incad.kramerius.statistics.filters.LicenseFilter;
+import cz.incad.kramerius.statistics.filters.ModelFilter;
+import cz.incad.kramerius.statistics.filters.MultimodelFilter;
+import cz.incad.kramerius.statistics.filters.StatisticsFiltersContainer;
+import cz.incad.kramerius.utils.DatabaseUtils;
+import cz.incad.kramerius.utils.conf.KConfiguration;
+import cz.incad.kramerius.utils.database.JDBCQueryTemplate;
+import cz.incad.kramerius.utils.database.JDBCUpdateTemplate;
+import cz.incad.kramerius.utils.solr.SolrUtils;
+
+/**
+ * Daily rollups of the logs core.
+ * <p>
+ * For every finished day, counts of access records per value of selected fields of the logs core (pid, root, model, language,
+ * author, pids of selected models) and per provided license are stored in table <code>statistics_rollup</code>;
+ * rolled up days are listed in <code>statistics_rollup_days</code> together with the number of records of the day.
+ * Days are rolled up by {@link #schedule(Provider)} in the background, oldest missing day first.
+ * <p>
+ * Access records may arrive late (e.g. from other instances). Every run compares the number of records of days rolled up
+ * within last <code>statistics.rollup.recheckDays</code> days with the logs core; changed days are marked dirty (removed from
+ * <code>statistics_rollup_days</code>, so reports compute them from the logs core) and rolled up again.
+ * <p>
+ * Reports ask for counts by {@link #counts(String, StatisticsFiltersContainer, boolean, int)}; days of the requested range which are
+ * rolled up are summed in the database and only the rest (typically today) is computed by a facet query from the logs core.
+ * Values are sorted and limited the same way as a facet of the logs core (by count, then by value).
+ * Day range of the date filter is taken from the first day (inclusive) to the last day (exclusive), the same as the
+ * <code>date:[from TO to]</code> query used by reports.
+ */
+public class StatisticsRollup {
+
+    public static final Logger LOGGER = Logger.getLogger(StatisticsRollup.class.getName());
+
+    public static final String PID_DIMENSION = "pid";
+    public static final String ROOT_DIMENSION = "root_pid";
+    public static final String MODEL_DIMENSION = "all_models";
+    public static final String LANG_DIMENSION = "langs";
+    public static final String AUTHOR_DIMENSION = "authors";
+    /** Number of all access records; value is empty */
+    public static final String ALL_DIMENSION = "_all";
+
+    public static final String LICENSE_FIELD = "provided_by_license";
+
+    private static final DateTimeFormatter SOLR_DAY_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss'Z'");
+    private static final DateTimeFormatter FILTER_DAY_FORMAT = DateTimeFormatter.ofPattern("yyyy.MM.dd");
+    private static final DateTimeFormatter ROLLUP_DAY_FORMAT = DateTimeFormatter.BASIC_ISO_DATE;
+
+    private static final int INSERT_BATCH_SIZE = 1000;
+
+    /** Default facet.limit of Solr; reports without explicit limit return at most this number of values */
+    public static final int FACET_LIMIT = 100;
+
+    private static Timer timer;
+
+    private final Provider<Connection> connectionProvider;
+
+    public StatisticsRollup(Provider<Connection> connectionProvider) {
+        this.connectionProvider = connectionProvider;
+    }
+
+    public static boolean isEnabled() {
+        return KConfiguration.getInstance().getConfiguration().getBoolean("statistics.rollup.enabled", true);
+    }
+
+    /**
+     * Name of the field with pids of given model
+     */
+    public static String pidsOfModel(String model) {
+        return "pids_" + model;
+    }
+
+    /**
+     * Rolled up fields of the logs core
+     */
+    public static List<String> dimensions() {
+        List<String> dimensions = new ArrayList<>(Arrays.asList(PID_DIMENSION, ROOT_DIMENSION, MODEL_DIMENSION, LANG_DIMENSION, AUTHOR_DIMENSION));
+        Set<String> models = new LinkedHashSet<>(MultimodelFilter.SELECTED_MODELS);
+        for (Object model : KConfiguration.getInstance().getConfiguration().getList("statistics.rollup.models", new ArrayList<>())) {
+            models.add(model.toString().trim());
+        }
+        models.stream().filter(m -> !m.isEmpty()).map(StatisticsRollup::pidsOfModel).forEach(dimensions::add);
+        return dimensions;
+    }
+
+    /**
+     * Returns counts per value of the dimension sorted by count (the same as facet), or null if the rollup cannot answer the request
+     * @param dimension Rolled up field
+     * @param filters Filters of the report
+     * @param modelFiltered true if the report restricts records by model filter
+     * @param limit Maximum number of values (facet.limit); negative value means all values
+     */
+    public Map<String, Long> counts(String dimension, StatisticsFiltersContainer filters, boolean modelFiltered, int limit) throws IOException {
+        if (!isEnabled() || !dimensions().contains(dimension) && !ALL_DIMENSION.equals(dimension)) {
+            return null;
+        }
+        IdentifiersFilter idFilter = filters.getFilter(IdentifiersFilter.class);
+        if (idFilter != null && idFilter.getIdentifier() != null) {
+            return null;
+        }
+        ModelFilter modelFilter = filters.getFilter(ModelFilter.class);
+        if (modelFiltered && modelFilter != null && modelFilter.getModel() != null && !dimension.equals(pidsOfModel(modelFilter.getModel()))) {
+            return null;
+        }
+        DateFilter dateFilter = filters.getFilter(DateFilter.class);
+        if (dateFilter == null || dateFilter.getRawFromDate() == null || dateFilter.getRawToDate() == null) {
+            return null;
+        }
+        LocalDate from;
+        LocalDate to;
+        try {
+            from = LocalDate.parse(dateFilter.getRawFromDate().trim(), FILTER_DAY_FORMAT);
+            to = LocalDate.parse(dateFilter.getRawToDate().trim(), FILTER_DAY_FORMAT);
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+        LicenseFilter licenseFilter = filters.getFilter(LicenseFilter.class);
+        String license = licenseFilter != null ? licenseFilter.getLicence() : null;
+
+        Map<String, Long> counts = new HashMap<>();
+        List<Integer> rolledUp = new ArrayList<>(rolledUpDays(from, to).keySet());
+        if (!rolledUp.isEmpty()) {
+            sumRolledUp(dimension, license, rolledUp, counts);
+        }
+        List<LocalDate[]> missing = missingRanges(from, to, rolledUp);
+        if (!missing.isEmpty()) {
+            facetLogs(dimension, license, missing, counts);
+        }
+        return top(counts, limit);
+    }
+
+    /**
+     * Sorts counts the same way as facet of the logs core (by count descending, then by value) and keeps first <code>limit</code> values
+     */
+    static Map<String, Long> top(Map<String, Long> counts, int limit) {
+        return counts.entrySet().stream()
+                .sorted(Map.Entry.<String, Long>comparingByValue().reversed().thenComparing(Map.Entry.comparingByKey()))
+                .limit(limit < 0 ? Long.MAX_VALUE : limit)
+                .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue, (a, b) -> a, LinkedHashMap::new));
+    }
+
+    /**
+     * Returns rolled up days of the range with number of records of the day at the time of the rollup
+     */
+    private Map<Integer, Long> rolledUpDays(LocalDate from, LocalDate to) {
+        Map<Integer, Long> days = new LinkedHashMap<>();
+        new JDBCQueryTemplate<Void>(this.connectionProvider.get(), true) {
+            @Override
+            public boolean handleRow(ResultSet rs, List<Void> returnsList) throws SQLException {
+                days.put(rs.getInt("rollup_day"), rs.getLong("record_count"));
+                return true;
+            }
+        }.executeQuery("select rollup_day, record_count from statistics_rollup_days where rollup_day >= ? and rollup_day < ? order by rollup_day", day(from), day(to));
+        return days;
+    }
+
+    private void sumRolledUp(String dimension, String license, List<Integer> days, Map<String, Long> counts) {
+        String inDays = days.stream().map(d -> "?").collect(Collectors.joining(","));
+        String sql = "select dimension_value, sum(rollup_count) as cnt from statistics_rollup where dimension = ? and rollup_day in (" + inDays + ")"
+                + (license != null ? " and license = ?" : "") + " group by dimension_value";
+        List<Object> params = new ArrayList<>();
+        params.add(dimension);
+        params.addAll(days);
+        if (license != null) {
+            params.add(license);
+        }
+        new JDBCQueryTemplate<Void>(this.connectionProvider.get(), true) {
+            @Override
+            public boolean handleRow(ResultSet rs, List<Void> returnsList) throws SQLException {
+                counts.merge(rs.getString("dimension_value"), rs.getLong("cnt"), Long::sum);
+                return true;
+            }
+        }.executeQuery(sql, params.toArray());
+    }
+
+    static List<LocalDate[]> missingRanges(LocalDate from, LocalDate to, List<Integer> rolledUp) {
+        Set<Integer> rolled = new LinkedHashSet<>(rolledUp);
+        List<LocalDate[]> ranges = new ArrayList<>();
+        LocalDate start = null;
+        for (LocalDate d = from; d.isBefore(to); d = d.plusDays(1)) {
+            if (rolled.contains(day(d))) {
+                if (start != null) {
+                    ranges.add(new LocalDate[] { start, d });
+                    start = null;
+                }
+            } else if (start == null) {
+                start = d;
+            }
+        }
+        if (start != null) {
+            ranges.add(new LocalDate[] { start, to });
+        }
+        return ranges;
+    }
+
+    private void facetLogs(String dimension, String license, List<LocalDate[]> ranges, Map<String, Long> counts) throws IOException {
+        String dates = ranges.stream().map(r -> "[" + solrDate(r[0]) + " TO " + solrDate(r[1]) + "}").collect(Collectors.joining(" OR "));
+        StringBuilder builder = new StringBuilder("q=*:*&rows=0");
+        builder.append("&fq=").append(URLEncoder.encode("date:(" + dates + ")", "UTF-8"));
+        if (license != null) {
+            builder.append("&fq=").append(URLEncoder.encode(LICENSE_FIELD + ":\"" + license + "\"", "UTF-8"));
+        }
+        if (ALL_DIMENSION.equals(dimension)) {
+            JSONObject response = new JSONObject(SolrUtils.requestWithSelectReturningString(logsEndpoint(), builder.toString(), "json"));
+            counts.merge("", response.getJSONObject("response").optLong("numFound", 0), Long::sum);
+            return;
+        }
+        builder.append("&facet=true&facet.mincount=1&facet.limit=-1&facet.field=").append(dimension);
+        JSONObject response = new JSONObject(SolrUtils.requestWithSelectReturningString(logsEndpoint(), builder.toString(), "json"));
+        mergeFacet(response.getJSONObject("facet_counts").getJSONObject("facet_fields").optJSONArray(dimension), counts);
+    }
+
+    /**
+     * Adds counts of facet values (pairs of value and count) to given counts
+     */
+    static void mergeFacet(JSONArray values, Map<String, Long> counts) {
+        if (values != null) {
+            for (int i = 0; i + 1 < values.length(); i += 2) {
+                counts.merge(values.get(i).toString(), values.getLong(i + 1), Long::sum);
+            }
+        }
+    }
+
+    /**
+     * Rolls up finished days which are not rolled up yet, oldest first; at most <code>statistics.rollup.batch</code> days
+     * within last <code>statistics.rollup.days</code> days
+     * @return Number of rolled up days
+     */
+    public int rollupPendingDays() throws IOException, SQLException {
+        LocalDate today = LocalDate.now();
+        LocalDate first = today.minusDays(KConfiguration.getInstance().getConfiguration().getInt("statistics.rollup.days", 730));
+        int batch = KConfiguration.getInstance().getConfiguration().getInt("statistics.rollup.batch", 31);
+        int rolled = rollupChangedDays(today);
+        List<LocalDate[]> missing = missingRanges(first, today, new ArrayList<>(rolledUpDays(first, today).keySet()));
+        for (LocalDate[] range : missing) {
+            for (LocalDate d = range[0]; d.isBefore(range[1]) && rolled < batch; d = d.plusDays(1)) {
+                rollupDay(d);
+                rolled++;
+            }
+        }
+        return rolled;
+    }
+
+    /**
+     * Finds days rolled up within last <code>statistics.rollup.recheckDays</code> days whose number of records in the logs core
+     * differs from the number at the time of the rollup (late records), marks them dirty and rolls them up again
+     * @return Number of rolled up days
+     */
+    int rollupChangedDays(LocalDate today) throws IOException, SQLException {
+        int recheckDays = KConfiguration.getInstance().getConfiguration().getInt("statistics.rollup.recheckDays", 7);
+        if (recheckDays <= 0) {
+            return 0;
+        }
+        LocalDate first = today.minusDays(recheckDays);
+        Map<Integer, Long> rolledUp = rolledUpDays(first, today);
+        if (rolledUp.isEmpty()) {
+            return 0;
+        }
+        StringBuilder builder = new StringBuilder("q=*:*&rows=0&facet=true&facet.range=date&facet.range.gap=");
+        builder.append(URLEncoder.encode("+1DAY", "UTF-8"));
+        builder.append("&facet.range.start=").append(URLEncoder.encode(solrDate(first), "UTF-8"));
+        builder.append("&facet.range.end=").append(URLEncoder.encode(solrDate(today), "UTF-8"));
+        JSONObject ranges = new JSONObject(SolrUtils.requestWithSelectReturningString(logsEndpoint(), builder.toString(), "json"))
+                .getJSONObject("facet_counts").getJSONObject("facet_ranges");
+        List<LocalDate> changed = changedDays(rolledUp, ranges.getJSONObject("date").getJSONArray("counts"));
+        for (LocalDate day : changed) {
+            LOGGER.info(String.format("Statistics of %s changed after rollup, rolling up again", day));
+            markDirty(day);
+            rollupDay(day);
+        }
+        return changed.size();
+    }
+
+    /**
+     * Returns rolled up days whose current number of records (range facet by day) differs from the stored one
+     */
+    static List<LocalDate> changedDays(Map<Integer, Long> rolledUp, JSONArray dayCounts) {
+        List<LocalDate> changed = new ArrayList<>();
+        for (int i = 0; i + 1 < dayCounts.length(); i += 2) {
+            LocalDate day = LocalDate.parse(dayCounts.getString(i).substring(0, 10));
+            Long stored = rolledUp.get(day(day));
+            if (stored != null && stored != dayCounts.getLong(i + 1)) {
+                changed.add(day);
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Removes the day from rolled up days; reports compute it from the logs core until it is rolled up again
+     */
+    public void markDirty(LocalDate day) throws SQLException {
+        new JDBCUpdateTemplate(this.connectionProvider.get(), true).executeUpdate("delete from statistics_rollup_days where rollup_day = ?", day(day));
+    }
+
+    /**
+     * Computes counts of one day from the logs core and replaces stored counts of the day
+     */
+    public void rollupDay(LocalDate day) throws IOException, SQLException {
+        long start = System.currentTimeMillis();
+        List<String> dimensions = dimensions();
+        StringBuilder builder = new StringBuilder("q=*:*&rows=0&facet=true&facet.mincount=1&facet.limit=-1&facet.missing=true");
+        builder.append("&fq=").append(URLEncoder.encode("date:[" + solrDate(day) + " TO " + solrDate(day.plusDays(1)) + "}", "UTF-8"));
+        builder.append("&facet.field=").append(LICENSE_FIELD);
+        for (String dimension : dimensions) {
+            builder.append("&facet.pivot=").append(LICENSE_FIELD).append(",").append(dimension);
+        }
+        JSONObject response = new JSONObject(SolrUtils.requestWithSelectReturningString(logsEndpoint(), builder.toString(), "json"));
+        long recordCount = response.getJSONObject("response").optLong("numFound", 0);
+        List<Object[]> rows = rowsOfDay(response.getJSONObject("facet_counts"), dimensions);
+        store(day(day), recordCount, rows);
+        LOGGER.info(String.format("Statistics of %s rolled up (%d rows) in %d ms", day, rows.size(), System.currentTimeMillis() - start));
+    }
+
+    /**
+     * Converts facets of one day (license facet and license,dimension pivots) to rows of the rollup table
+     * (dimension, value, license, count)
+     */
+    static List<Object[]> rowsOfDay(JSONObject facetCounts, List<String> dimensions) {
+        List<Object[]> rows = new ArrayList<>();
+        JSONArray licenses = facetCounts.getJSONObject("facet_fields").optJSONArray(LICENSE_FIELD);
+        if (licenses != null) {
+            for (int i = 0; i + 1 < licenses.length(); i += 2) {
+                rows.add(new Object[] { ALL_DIMENSION, "", licenseValue(licenses.opt(i)), licenses.getLong(i + 1) });
+            }
+        }
+        JSONObject pivots = facetCounts.optJSONObject("facet_pivot");
+        for (String dimension : dimensions) {
+            JSONArray byLicense = pivots != null ? pivots.optJSONArray(LICENSE_FIELD + "," + dimension) : null;
+            if (byLicense == null) continue;
+            for (int i = 0; i < byLicense.length(); i++) {
+                JSONObject licensePivot = byLicense.getJSONObject(i);
+                String license = licenseValue(licensePivot.opt("value"));
+                JSONArray values = licensePivot.optJSONArray("pivot");
+                if (values == null) continue;
+                for (int j = 0; j < values.length(); j++) {
+                    JSONObject value = values.getJSONObject(j);
+                    if (!value.isNull("value")) {
+                        rows.add(new Object[] { dimension, value.get("value").toString(), license, value.getLong("count") });
+                    }
+                }
+            }
+        }
+        return rows;
+    }
+
+    private static String licenseValue(Object value) {
+        return value == null || value == JSONObject.NULL ? "" : value.toString();
+    }
+
+    private void store(int day, long recordCount, List<Object[]> rows) throws SQLException {
+        Connection connection = this.connectionProvider.get();
+        try {
+            connection.setAutoCommit(false);
+            try (PreparedStatement delete = connection.prepareStatement("delete from statistics_rollup where rollup_day = ?");
+                 PreparedStatement deleteDay = connection.prepareStatement("delete from statistics_rollup_days where rollup_day = ?")) {
+                delete.setInt(1, day);
+                delete.executeUpdate();
+                deleteDay.setInt(1, day);
+                deleteDay.executeUpdate();
+            }
+            try (PreparedStatement insert = connection.prepareStatement("insert into statistics_rollup(rollup_day, dimension, dimension_value, license, rollup_count) values(?,?,?,?,?)")) {
+                int batched = 0;
+                for (Object[] row : rows) {
+                    insert.setInt(1, day);
+                    insert.setString(2, (String) row[0]);
+                    insert.setString(3, (String) row[1]);
+                    insert.setString(4, (String) row[2]);
+                    insert.setLong(5, (Long) row[3]);
+                    insert.addBatch();
+                    if (++batched % INSERT_BATCH_SIZE == 0) {
+                        insert.executeBatch();
+                    }
+                }
+                insert.executeBatch();
+            }
+            try (PreparedStatement insertDay = connection.prepareStatement("insert into statistics_rollup_days(rollup_day, rolled_up, record_count) values(?, now(), ?)")) {
+                insertDay.setInt(1, day);
+                insertDay.setLong(2, recordCount);
+                insertDay.executeUpdate();
+            }
+            connection.commit();
+        } catch (SQLException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(true);
+            DatabaseUtils.tryClose(connection);
+        }
+    }
+
+    static int day(LocalDate date) {
+        return Integer.parseInt(date.format(ROLLUP_DAY_FORMAT));
+    }
+
+    private static String solrDate(LocalDate date) {
+        return date.atStartOfDay().format(SOLR_DAY_FORMAT);
+    }
+
+    private static String logsEndpoint() {
+        return KConfiguration.getInstance().getProperty("k7.log.solr.point", "http://localhost:8983/solr/logs");
+    }
+
+    /**
+     * Starts background rolling up of finished days (every <code>statistics.rollup.interval</code> minutes)
+     */
+    public static synchronized void schedule(Provider<Connection> connectionProvider) {
+        if (timer != null || !isEnabled()) {
+            return;
+        }
+        long interval = KConfiguration.getInstance().getConfiguration().getLong("statistics.rollup.interval", 60) * 60 * 1000L;
+        timer = new Timer(StatisticsRollup.class.getName() + "-thread", true);
+        timer.schedule(new TimerTask() {
+            @Override
+            public void run() {
+                try {
+                    new StatisticsRollup(connectionProvider).rollupPendingDays();
+                } catch (Throwable e) {
+                    LOGGER.log(Level.SEVERE, "Cannot roll up statistics: " + e.getMessage(), e);
+                }
+            }
+        }, 60 * 1000L, interval);
+    }
+
+    public static synchronized void shutdown() {
+        if (timer != null) {
+            timer.cancel();
+            timer = null;
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package cz.incad.kramerius.utils.cache;
+
+import java.io.File;
+import java.time.Duration;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.commons.configuration.Configuration;
+import org.ehcache.CacheManager;
+import org.ehcache.PersistentCacheManager;
+import org.ehcache.config.CacheConfiguration;
+import org.ehcache.config.ResourcePools;
+import org.ehcache.config.ResourceType;
+import org.ehcache.config.SizedResourcePool;
+import org.ehcache.config.builders.CacheManagerBuilder;
+import org.ehcache.config.builders.ExpiryPolicyBuilder;
+import org.ehcache.config.builders.ResourcePoolsBuilder;
+import org.ehcache.config.units.MemoryUnit;
+import org.ehcache.expiry.ExpiryPolicy;
+
+import cz.incad.kramerius.utils.conf.KConfiguration;
+
+/**
+ * Storage tiers (heap, off-heap, disk) of local caches.
+ * <p>
+ * Sizes of the tiers of cache <code>[alias]</code> are configured by <code>cache.[alias].heap</code> (entries),
+ * <code>cache.[alias].offheap</code> and <code>cache.[alias].disk</code> (MB, 0 = no tier). Disk tiers need a cache manager
+ * created by {@link #createCacheManager(CacheManagerBuilder, String)} with <code>cache.disk.enabled</code>; each manager
+ * has its own subdirectory of <code>cache.disk.directory</code> and persistent tiers survive a restart if the manager was
+ * closed. Values stored off the heap need a serializer registered in the manager.
+ * <p>
+ * Time to live of cache <code>[alias]</code> is <code>cache.[alias].ttl</code> seconds (default
+ * <code>cache.timeToLiveExpiration</code>); expiration applies to all tiers, so with the default of 60 seconds entries
+ * rarely live long enough to be read from a disk tier. Disk tiers are useful only with a longer time to live of the cache.
+ */
+public class CacheTiers {
+
+    public static final Logger LOGGER = Logger.getLogger(CacheTiers.class.getName());
+
+    /** Time to live (seconds) below which a disk tier is reported as useless */
+    private static final long DISK_TIER_MIN_TTL = 3600;
+
+    private CacheTiers() {
+    }
+
+    /**
+     * Builds and initializes cache manager; the manager is persistent if disk tiers are enabled and the directory is not
+     * used by another process
+     *
+     * @param builder Builder with registered serializers
+     * @param name Name of the manager, subdirectory of the disk tiers
+     */
+    public static CacheManager createCacheManager(CacheManagerBuilder<CacheManager> builder, String name) {
+        Configuration configuration = KConfiguration.getInstance().getConfiguration();
+        if (configuration.getBoolean("cache.disk.enabled", false)) {
+            File directory = new File(configuration.getString("cache.disk.directory",
+                    System.getProperty("user.home") + File.separator + ".kramerius4" + File.separator + "cache"), name);
+            try {
+                PersistentCacheManager cacheManager = builder.with(CacheManagerBuilder.persistence(directory)).build(true);
+                LOGGER.info(String.format("Cache manager %s stores disk tiers in %s", name, directory.getAbsolutePath()));
+                return cacheManager;
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.WARNING, String.format("Cannot use cache directory %s (used by another process?), disk tiers of %s are disabled: %s",
+                        directory.getAbsolutePath(), name, e.getMessage()), e);
+            }
+        }
+        return builder.build(true);
+    }
+
+    /**
+     * Returns configured tiers of given cache
+     *
+     * @param cacheManager Manager of the cache
+     * @param alias Cache alias
+     * @param defaultHeapEntries Default size of heap tier
+     * @param defaultOffHeapMB Default size of off-heap tier
+     */
+    public static ResourcePoolsBuilder resourcePools(CacheManager cacheManager, String alias, long defaultHeapEntries, long defaultOffHeapMB) {
+        Configuration configuration = KConfiguration.getInstance().getConfiguration();
+        long offHeapMB = configuration.getLong("cache." + alias + ".offheap", defaultOffHeapMB);
+        long diskMB = configuration.getLong("cache." + alias + ".disk", 0);
+        ResourcePoolsBuilder pools = ResourcePoolsBuilder.heap(configuration.getLong("cache." + alias + ".heap", defaultHeapEntries));
+        if (offHeapMB > 0) {
+            pools = pools.offheap(offHeapMB, MemoryUnit.MB);
+        }
+        if (diskMB > 0) {
+            if (!(cacheManager instanceof PersistentCacheManager)) {
+                LOGGER.warning(String.format("Disk tier of cache %s ignored, disk tiers are not enabled (cache.disk.enabled)", alias));
+            } else if (diskMB <= offHeapMB) {
+                LOGGER.warning(String.format("Disk tier of cache %s ignored, it must be larger than off-heap tier", alias));
+            } else {
+                pools = pools.disk(diskMB, MemoryUnit.MB, configuration.getBoolean("cache.disk.persistent", true));
+                if (timeToLive(alias) < DISK_TIER_MIN_TTL) {
+                    LOGGER.warning(String.format("Disk tier of cache %s has little effect, entries expire after %d seconds (cache.%s.ttl)",
+                            alias, timeToLive(alias), alias));
+                }
+            }
+        }
+        return pools;
+    }
+
+    /**
+     * Returns time to live (seconds) of given cache
+     */
+    public static long timeToLive(String alias) {
+        return KConfiguration.getInstance().getConfiguration().getLong("cache." + alias + ".ttl",
+                KConfiguration.getInstance().getCacheTimeToLiveExpiration());
+    }
+
+    /**
+     * Returns expiration of given cache (see {@link #timeToLive(String)})
+     */
+    public static ExpiryPolicy<Object, Object> expiry(String alias) {
+        return ExpiryPolicyBuilder.timeToLiveExpiration(Duration.ofSeconds(timeToLive(alias)));
+    }
+
+    /**
+     * Returns configured sizes of the tiers of given cache or null if the cache does not exist
+     */
+    public static String describeTiers(CacheManager cacheManager, String alias) {
+        try {
+            CacheConfiguration<?, ?> configuration = cacheManager.getRuntimeConfiguration().getCacheConfigurations().get(alias);
+            if (configuration == null) {
+                return null;
+            }
+            ResourcePools resourcePools = configuration.getResourcePools();
+            StringBuilder builder = new StringBuilder();
+            for (ResourceType<?> type : resourcePools.getResourceTypeSet()) {
+                SizedResourcePool pool = resourcePools.getPoolForResource(type);
+                if (builder.length() > 0) {
+                    builder.append(", ");
+                }
+                builder.append(String.format("%s: %d %s%s", type, pool.getSize(), pool.getUnit(), pool.isPersistent() ? " (persistent)" : ""));
+            }
+            return builder.toString();
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.FINE, e.getMessage(), e);
+            return null;
+        }
+    }
+}
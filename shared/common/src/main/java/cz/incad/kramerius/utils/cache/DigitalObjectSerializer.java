@@ -0,0 +1,60 @@
+package cz.incad.kramerius.utils.cache;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+
+import org.ehcache.spi.serialization.Serializer;
+import org.ehcache.spi.serialization.SerializerException;
+
+import com.qbizm.kramerius.imp.jaxb.DigitalObject;
+
+/**
+ * Serializes FOXML objects for off-heap and disk tiers of the object cache
+ */
+public class DigitalObjectSerializer implements Serializer<DigitalObject> {
+
+    private static final JAXBContext JAXB_CONTEXT;
+
+    static {
+        try {
+            JAXB_CONTEXT = JAXBContext.newInstance(DigitalObject.class);
+        } catch (JAXBException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    public DigitalObjectSerializer(ClassLoader classLoader) {
+    }
+
+    @Override
+    public ByteBuffer serialize(DigitalObject object) throws SerializerException {
+        try {
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            // marshallers are not thread safe, context is
+            JAXB_CONTEXT.createMarshaller().marshal(object, outputStream);
+            return ByteBuffer.wrap(outputStream.toByteArray());
+        } catch (JAXBException e) {
+            throw new SerializerException(e);
+        }
+    }
+
+    @Override
+    public DigitalObject read(ByteBuffer binary) throws ClassNotFoundException, SerializerException {
+        try {
+            byte[] bytes = new byte[binary.remaining()];
+            binary.duplicate().get(bytes);
+            return (DigitalObject) JAXB_CONTEXT.createUnmarshaller().unmarshal(new ByteArrayInputStream(bytes));
+        } catch (JAXBException e) {
+            throw new SerializerException(e);
+        }
+    }
+
+    @Override
+    public boolean equals(DigitalObject object, ByteBuffer binary) throws ClassNotFoundException, SerializerException {
+        return serialize(object).equals(binary);
+    }
+}
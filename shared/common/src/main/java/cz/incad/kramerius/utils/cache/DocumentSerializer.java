@@ -1,4 +1,4 @@
-package cz.incad.Kramerius.utils;
+package cz.incad.kramerius.utils.cache;
 
 import cz.incad.kramerius.utils.XMLUtils;
 import org.ehcache.spi.serialization.Serializer;
@@ -49,7 +49,10 @@ public class DocumentSerializer implements Serializer<Document> {
     @Override
     public Document read(ByteBuffer binary) throws ClassNotFoundException, SerializerException {
         try {
-            return XMLUtils.parseDocument(new ByteArrayInputStream(binary.array()), true);
+            // buffer of off-heap or disk tier need not be backed by an array
+            byte[] bytes = new byte[binary.remaining()];
+            binary.duplicate().get(bytes);
+            return XMLUtils.parseDocument(new ByteArrayInputStream(bytes), true);
         } catch (ParserConfigurationException e) {
             throw new SerializerException(e);
         } catch (SAXException e) {
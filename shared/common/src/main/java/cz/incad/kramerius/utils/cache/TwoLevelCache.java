@@ -0,0 +1,237 @@
+package cz.incad.kramerius.utils.cache;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.ehcache.Cache;
+
+import com.hazelcast.core.HazelcastInstance;
+import com.hazelcast.core.IMap;
+
+import cz.incad.kramerius.utils.conf.KConfiguration;
+
+/**
+ * Cache with two levels: local heap cache of the node (L1) and optional distributed map shared by all nodes of the Hazelcast
+ * cluster (L2), so that an object read by one node is not read from the storage again by the others and a restarted node
+ * does not start cold.
+ * <p>
+ * L2 is enabled by <code>cache.cluster.[name].enabled</code> (default <code>cache.cluster.enabled</code>, false). Entries are
+ * stored in map <code>cache.[name]</code> serialized by {@link Codec} and compressed; entries larger than
+ * <code>cache.cluster.maxEntrySize</code> bytes are kept only locally. Maximal size and eviction of the map are configured
+ * on the cluster members (map <code>cache.*</code>). Failures of L2 are logged and treated as misses.
+ * <p>
+ * L2 hits are copied into L1 without the lock of the key; every removal increments invalidation generation of the key, and
+ * a copy made while the generation changed is removed again, so that L1 does not keep a value invalidated meanwhile.
+ * <p>
+ * Hits of each level are counted and logged every <code>cache.statistics.interval</code> reads (0 disables logging), together
+ * with configured sizes of the tiers of the local cache if available (see {@link CacheTiers}).
+ */
+public class TwoLevelCache<V> {
+
+    public static final Logger LOGGER = Logger.getLogger(TwoLevelCache.class.getName());
+
+    /**
+     * Serialization of L2 entries
+     */
+    public interface Codec<V> {
+
+        void write(V value, OutputStream out) throws IOException;
+
+        V read(InputStream in) throws IOException;
+    }
+
+    private final String name;
+    private final Cache<String, V> local;
+    private final IMap<String, byte[]> cluster;
+    private final Codec<V> codec;
+
+    private static final int GENERATION_STRIPES = 64;
+    private final AtomicLongArray generations = new AtomicLongArray(GENERATION_STRIPES);
+    private final long ttlSeconds;
+    private final int maxEntrySize;
+    private final long statisticsInterval;
+    private final Supplier<String> localTiers;
+
+    private final AtomicLong requests = new AtomicLong();
+    private final LongAdder localHits = new LongAdder();
+    private final LongAdder clusterHits = new LongAdder();
+    private final LongAdder clusterErrors = new LongAdder();
+
+    /**
+     * @param name Name of the cache
+     * @param local Local cache
+     * @param hazelcastInstance Hazelcast instance or null if L2 is not used (see {@link #isClusterEnabled(String)})
+     * @param codec Serialization of L2 entries
+     * @param ttlSeconds Time to live of L2 entries
+     */
+    public TwoLevelCache(String name, Cache<String, V> local, HazelcastInstance hazelcastInstance, Codec<V> codec, long ttlSeconds) {
+        this(name, local, hazelcastInstance, codec, ttlSeconds, () -> null);
+    }
+
+    /**
+     * @param name Name of the cache
+     * @param local Local cache
+     * @param hazelcastInstance Hazelcast instance or null if L2 is not used (see {@link #isClusterEnabled(String)})
+     * @param codec Serialization of L2 entries
+     * @param ttlSeconds Time to live of L2 entries
+     * @param localTiers Description of the tiers of local cache, may return null
+     */
+    public TwoLevelCache(String name, Cache<String, V> local, HazelcastInstance hazelcastInstance, Codec<V> codec, long ttlSeconds,
+            Supplier<String> localTiers) {
+        this.name = name;
+        this.localTiers = localTiers;
+        this.local = local;
+        this.cluster = hazelcastInstance != null ? hazelcastInstance.getMap("cache." + name) : null;
+        this.codec = codec;
+        this.ttlSeconds = ttlSeconds;
+        this.maxEntrySize = KConfiguration.getInstance().getConfiguration().getInt("cache.cluster.maxEntrySize", 1024 * 1024);
+        this.statisticsInterval = KConfiguration.getInstance().getConfiguration().getLong("cache.statistics.interval", 100000);
+        if (this.cluster != null) {
+            LOGGER.info(String.format("Cache %s uses cluster map %s", name, this.cluster.getName()));
+        }
+    }
+
+    /**
+     * Returns true if L2 of given cache is enabled in configuration
+     */
+    public static boolean isClusterEnabled(String name) {
+        boolean enabled = KConfiguration.getInstance().getConfiguration().getBoolean("cache.cluster.enabled", false);
+        return KConfiguration.getInstance().getConfiguration().getBoolean("cache.cluster." + name + ".enabled", enabled);
+    }
+
+    public V get(String key) {
+        long count = requests.incrementAndGet();
+        try {
+            V value = local.get(key);
+            if (value != null) {
+                localHits.increment();
+                return value;
+            }
+            if (cluster != null) {
+                int stripe = stripe(key);
+                long generation = generations.get(stripe);
+                value = getFromCluster(key);
+                if (value != null) {
+                    clusterHits.increment();
+                    local.put(key, value);
+                    if (generations.get(stripe) != generation) {
+                        // invalidated while reading from L2; the value could be older than the change
+                        local.remove(key, value);
+                    }
+                }
+            }
+            return value;
+        } finally {
+            if (statisticsInterval > 0 && count % statisticsInterval == 0) {
+                LOGGER.info(getStatistics());
+            }
+        }
+    }
+
+    private V getFromCluster(String key) {
+        try {
+            byte[] bytes = cluster.get(key);
+            if (bytes != null) {
+                try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(bytes))) {
+                    return codec.read(in);
+                }
+            }
+        } catch (Exception e) {
+            clusterErrors.increment();
+            LOGGER.log(Level.WARNING, String.format("Cannot read %s from cluster cache %s: %s", key, name, e.getMessage()), e);
+        }
+        return null;
+    }
+
+    /**
+     * Puts value into both levels; the caller should hold the read lock of the key, so that a concurrent change cannot be
+     * overwritten by an older value in L2
+     */
+    public void put(String key, V value) {
+        local.put(key, value);
+        if (cluster != null) {
+            try {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                try (OutputStream out = new GZIPOutputStream(bytes)) {
+                    codec.write(value, out);
+                }
+                if (bytes.size() <= maxEntrySize) {
+                    cluster.set(key, bytes.toByteArray(), ttlSeconds, TimeUnit.SECONDS);
+                }
+            } catch (Exception e) {
+                clusterErrors.increment();
+                LOGGER.log(Level.WARNING, String.format("Cannot write %s to cluster cache %s: %s", key, name, e.getMessage()), e);
+            }
+        }
+    }
+
+    /**
+     * Removes value from the local level
+     */
+    public void remove(String key) {
+        generations.incrementAndGet(stripe(key));
+        local.remove(key);
+    }
+
+    /**
+     * Removes value from both levels; called by the node which changed the value, other nodes are notified separately
+     */
+    public void removeEverywhere(String key) {
+        generations.incrementAndGet(stripe(key));
+        local.remove(key);
+        if (cluster != null) {
+            try {
+                cluster.delete(key);
+            } catch (Exception e) {
+                clusterErrors.increment();
+                LOGGER.log(Level.WARNING, String.format("Cannot remove %s from cluster cache %s: %s", key, name, e.getMessage()), e);
+            }
+        }
+    }
+
+    private static int stripe(String key) {
+        return (key.hashCode() & Integer.MAX_VALUE) % GENERATION_STRIPES;
+    }
+
+    public long getRequests() {
+        return requests.get();
+    }
+
+    public long getLocalHits() {
+        return localHits.sum();
+    }
+
+    public long getClusterHits() {
+        return clusterHits.sum();
+    }
+
+    public String getStatistics() {
+        long count = requests.get();
+        long total = Math.max(1, count);
+        long l1 = localHits.sum();
+        long l2 = clusterHits.sum();
+        StringBuilder builder = new StringBuilder();
+        builder.append(String.format("Cache %s: %d requests, L1 hits %d (%.1f %%)", name, count, l1, 100.0 * l1 / total));
+        if (cluster != null) {
+            builder.append(String.format(", L2 hits %d (%.1f %%), L2 errors %d", l2, 100.0 * l2 / total, clusterErrors.sum()));
+        }
+        builder.append(String.format(", misses %d", count - l1 - l2));
+        String tiers = localTiers.get();
+        if (tiers != null) {
+            builder.append("; L1 configured tiers ").append(tiers);
+        }
+        return builder.toString();
+    }
+}
@@ -1,6 +1,7 @@
 package cz.incad.kramerius.imaging;
 
 import java.awt.Dimension;
+import java.awt.image.BufferedImage;
 import java.io.IOException;
 
 import junit.framework.Assert;
@@ -41,6 +42,21 @@ public class DeepZoomTileSupportTest extends AbstractGuiceTestCase {
         
     }
 
+    @Test
+    public void testTileFromScaledImage() throws IOException {
+        Injector inj = injector();
+        DeepZoomTileSupport tileSupp = inj.getInstance(DeepZoomTileSupport.class);
+        BufferedImage scaled = new BufferedImage(1100, 600, BufferedImage.TYPE_INT_RGB);
+
+        BufferedImage first = tileSupp.getTileFromScaledImage(scaled, 0, 0);
+        Assert.assertEquals(512, first.getWidth());
+        Assert.assertEquals(512, first.getHeight());
+
+        BufferedImage last = tileSupp.getTileFromScaledImage(scaled, 1, 2);
+        Assert.assertEquals(1100 - 1024, last.getWidth());
+        Assert.assertEquals(600 - 512, last.getHeight());
+    }
+
     @Override
     protected Injector injector() {
         Injector injector = Guice.createInjector(new _Module());
@@ -0,0 +1,68 @@
+package cz.incad.kramerius.imaging.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class DeepZoomCacheLimitTest {
+
+    private File root;
+
+    @Before
+    public void setUp() throws IOException {
+        this.root = Files.createTempDirectory("deepzoom-cache").toFile();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(this.root);
+    }
+
+    @Test
+    public void testEvictLeastRecentlyUsed() throws IOException {
+        long now = System.currentTimeMillis();
+        File oldest = folder("ab/oldest", 1000, now - 30000);
+        File older = folder("ab/older", 1000, now - 20000);
+        File recent = folder("cd/recent", 1000, now - 10000);
+
+        new DeepZoomCacheLimit(this.root, 2500).evict(new CacheFolderLocks());
+
+        Assert.assertFalse(oldest.exists());
+        Assert.assertTrue(older.exists());
+        Assert.assertTrue(recent.exists());
+    }
+
+    @Test
+    public void testPinnedFolderIsNotEvicted() throws IOException {
+        long now = System.currentTimeMillis();
+        File pinned = folder("ab/pinned", 1000, now - 30000);
+        File older = folder("ab/older", 1000, now - 20000);
+        File recent = folder("cd/recent", 1000, now - 10000);
+        CacheFolderLocks locks = new CacheFolderLocks();
+        locks.pin(pinned);
+
+        new DeepZoomCacheLimit(this.root, 2500).evict(locks);
+
+        Assert.assertTrue(pinned.exists());
+        Assert.assertFalse(older.exists());
+        Assert.assertTrue(recent.exists());
+
+        locks.unpin(pinned);
+        Assert.assertFalse(locks.isPinned(pinned));
+        new DeepZoomCacheLimit(this.root, 1500).evict(locks);
+        Assert.assertFalse(pinned.exists());
+    }
+
+    private File folder(String path, int size, long lastAccess) throws IOException {
+        File folder = new File(this.root, path);
+        FileUtils.writeByteArrayToFile(new File(folder, "original"), new byte[size]);
+        Assert.assertTrue(folder.setLastModified(lastAccess));
+        return folder;
+    }
+}
@@ -0,0 +1,152 @@
+package cz.incad.kramerius.imaging.impl;
+
+import java.awt.Dimension;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class FileSystemCacheServiceConcurrencyTest {
+
+    private File root;
+
+    @Before
+    public void setUp() throws IOException {
+        this.root = Files.createTempDirectory("deepzoom-cache").toFile();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(this.root);
+    }
+
+    @Test
+    public void testConcurrentRequestsGenerateLevelOnce() throws Exception {
+        TestCacheService service = new TestCacheService(this.root);
+        int threads = 16;
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Integer>> results = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                // pid is used as given, no prefix is assumed
+                Callable<Integer> request = () -> {
+                    start.await();
+                    try (InputStream is = service.getOrCreateDeepZoomTileStream("test:1", 3, 3, 1, 0, 0)) {
+                        return is.read();
+                    }
+                };
+                results.add(executor.submit(request));
+            }
+            start.countDown();
+            for (Future<Integer> result : results) {
+                Assert.assertEquals(7, result.get(30, TimeUnit.SECONDS).intValue());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        Assert.assertEquals(1, service.generations.get());
+        Assert.assertFalse(service.folderLocks.isPinned(service.pidFolder("test:1")));
+    }
+
+    @Test
+    public void testOpenStreamPinsFolder() throws Exception {
+        TestCacheService service = new TestCacheService(this.root);
+        File folder = service.pidFolder("test:1");
+        InputStream is = service.getOrCreateDeepZoomTileStream("test:1", 3, 3, 1, 0, 0);
+
+        Assert.assertFalse(service.folderLocks.evict(folder, FileUtils::deleteDirectory));
+        Assert.assertTrue(folder.exists());
+
+        is.close();
+        // repeated close releases the pin only once
+        is.close();
+        Assert.assertTrue(service.folderLocks.evict(folder, FileUtils::deleteDirectory));
+        Assert.assertFalse(folder.exists());
+    }
+
+    @Test
+    public void testFailedGenerationUnpinsFolder() throws Exception {
+        TestCacheService service = new TestCacheService(this.root);
+        service.fail = true;
+        try {
+            service.getOrCreateDeepZoomTileStream("test:1", 3, 3, 1, 0, 0);
+            Assert.fail();
+        } catch (IOException e) {
+            Assert.assertFalse(service.folderLocks.isPinned(service.pidFolder("test:1")));
+        }
+    }
+
+    private static class TestCacheService extends FileSystemCacheServiceImpl {
+
+        private final File root;
+        private final AtomicInteger generations = new AtomicInteger();
+        private volatile boolean fail;
+
+        private TestCacheService(File root) {
+            this.root = root;
+        }
+
+        @Override
+        File pidFolder(String pid) {
+            return new File(this.root, pid.replace(':', '_'));
+        }
+
+        private File tile(String pid, int ilevel, int row, int col) {
+            return new File(pidFolder(pid), ilevel + File.separator + col + "_" + row + ".jpg");
+        }
+
+        @Override
+        public boolean isDeepZoomTilePresent(String pid, int ilevel, int row, int col) {
+            return tile(pid, ilevel, row, col).exists();
+        }
+
+        @Override
+        public boolean isDeepZoomOriginalPresent(String pid) {
+            return true;
+        }
+
+        @Override
+        public BufferedImage getDeepZoomOriginal(String pid) {
+            return new BufferedImage(1, 1, BufferedImage.TYPE_INT_RGB);
+        }
+
+        @Override
+        Dimension writeDeepZoomLevel(String pid, BufferedImage rawImage, int ilevel, int displayLevel, int minSize) throws IOException {
+            if (this.fail) {
+                throw new IOException("generation failed");
+            }
+            this.generations.incrementAndGet();
+            try {
+                // gives other requests time to find the tile missing
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            FileUtils.writeByteArrayToFile(tile(pid, ilevel, 0, 0), new byte[] {7});
+            return new Dimension(1, 1);
+        }
+
+        @Override
+        public InputStream getDeepZoomTileStream(String pid, int ilevel, int row, int col) throws IOException {
+            return new FileInputStream(tile(pid, ilevel, row, col));
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package cz.incad.kramerius.impl;
+
+import java.io.StringReader;
+import java.util.Arrays;
+
+import org.easymock.EasyMock;
+import org.junit.Assert;
+import org.junit.Test;
+import org.w3c.dom.Document;
+
+import cz.incad.kramerius.SolrAccess;
+import cz.incad.kramerius.utils.XMLUtils;
+
+public class PrefetchedSolrAccessTest {
+
+    private static final String RESPONSE = "<response><lst name=\"responseHeader\"><int name=\"status\">0</int></lst>"
+            + "<result name=\"response\" numFound=\"2\" start=\"0\">"
+            + "<doc><str name=\"pid\">uuid:1234</str><str name=\"model\">page</str></doc>"
+            + "<doc><str name=\"pid\">uuid:5678</str><str name=\"model\">monograph</str></doc>"
+            + "</result></response>";
+
+    @Test
+    public void testPrefetchedDocuments() throws Exception {
+        SolrAccess solrAccess = EasyMock.createMock(SolrAccess.class);
+        EasyMock.expect(solrAccess.requestWithSelectReturningXml(EasyMock.anyString())).andReturn(XMLUtils.parseDocument(new StringReader(RESPONSE)));
+        Document notPrefetched = XMLUtils.crateDocument("response");
+        EasyMock.expect(solrAccess.getSolrDataByPid("uuid:other")).andReturn(notPrefetched);
+        EasyMock.replay(solrAccess);
+
+        PrefetchedSolrAccess prefetched = new PrefetchedSolrAccess(solrAccess, Arrays.asList("uuid:1234", "uuid:5678", "uuid:1234", "uuid:missing"));
+
+        Document page = prefetched.getSolrDataByPid("uuid:1234");
+        Assert.assertEquals(1, page.getElementsByTagName("doc").getLength());
+        Assert.assertEquals("page", page.getElementsByTagName("str").item(1).getTextContent());
+        Document monograph = prefetched.getSolrDataByPid("uuid:5678");
+        Assert.assertEquals("uuid:5678", monograph.getElementsByTagName("str").item(0).getTextContent());
+        // not indexed object has empty response
+        Assert.assertEquals(0, prefetched.getSolrDataByPid("uuid:missing").getElementsByTagName("doc").getLength());
+        Assert.assertSame(notPrefetched, prefetched.getSolrDataByPid("uuid:other"));
+
+        EasyMock.verify(solrAccess);
+    }
+}
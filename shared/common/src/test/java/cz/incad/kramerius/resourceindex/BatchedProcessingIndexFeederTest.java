@@ -0,0 +1,48 @@
+package cz.incad.kramerius.resourceindex;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.apache.solr.client.solrj.SolrClient;
+import org.apache.solr.client.solrj.response.UpdateResponse;
+import org.apache.solr.common.SolrInputDocument;
+import org.easymock.Capture;
+import org.easymock.CaptureType;
+import org.easymock.EasyMock;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class BatchedProcessingIndexFeederTest {
+
+    @Test
+    public void testBatches() throws Exception {
+        SolrClient solrClient = EasyMock.createMock(SolrClient.class);
+        Capture<Collection<SolrInputDocument>> batches = EasyMock.newCapture(CaptureType.ALL);
+        EasyMock.expect(solrClient.add(EasyMock.capture(batches))).andReturn(new UpdateResponse()).times(3);
+        EasyMock.expect(solrClient.commit()).andReturn(new UpdateResponse());
+        EasyMock.replay(solrClient);
+
+        BatchedProcessingIndexFeeder feeder = new BatchedProcessingIndexFeeder(solrClient, 3);
+        List<String> flushed = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            feeder.feedRelationDocument("uuid:" + i, "hasPage", "uuid:page" + i);
+        }
+        // first batch is sent, the fourth document waits
+        Assert.assertEquals(1, batches.getValues().size());
+        feeder.afterFlush(() -> flushed.add("first"));
+        Assert.assertTrue(flushed.isEmpty());
+
+        feeder.feedDescriptionDocument("uuid:4", "page", "title", "ref", null);
+        feeder.feedDescriptionDocument("uuid:5", "page", "title", "ref", null);
+        Assert.assertEquals(2, batches.getValues().size());
+        Assert.assertEquals(3, batches.getValues().get(1).size());
+        Assert.assertEquals(1, flushed.size());
+
+        feeder.feedRelationDocument("uuid:6", "hasPage", "uuid:page6");
+        feeder.commit();
+        Assert.assertEquals(1, batches.getValues().get(2).size());
+
+        EasyMock.verify(solrClient);
+    }
+}
@@ -0,0 +1,113 @@
+package cz.incad.kramerius.resourceindex;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.common.SolrDocument;
+import org.junit.Assert;
+import org.junit.Test;
+import org.w3c.dom.Document;
+
+import cz.incad.kramerius.ProcessSubtreeException;
+import cz.incad.kramerius.TreeNodeProcessor;
+import cz.incad.kramerius.utils.XMLUtils;
+
+public class SubtreeTraversalTest {
+
+    /** periodical -> volume -> (issue1, issue2) -> pages; processing index returns relations in other order than RELS-EXT */
+    private static final List<String[]> RECORDS = Arrays.asList(
+            new String[] {"uuid:periodical", "description", null, null, "model:periodical"},
+            new String[] {"uuid:periodical", "relation", "hasVolume", "uuid:volume", null},
+            new String[] {"uuid:periodical", "relation", "hasDonator", "donator:norway", null},
+            new String[] {"uuid:volume", "description", null, null, "model:periodicalvolume"},
+            new String[] {"uuid:volume", "relation", "hasItem", "uuid:issue2", null},
+            new String[] {"uuid:volume", "relation", "hasItem", "uuid:issue1", null},
+            new String[] {"uuid:issue1", "description", null, null, "model:periodicalitem"},
+            new String[] {"uuid:issue1", "relation", "hasPage", "uuid:page1", null},
+            new String[] {"uuid:issue2", "description", null, null, "model:periodicalitem"},
+            new String[] {"uuid:issue2", "relation", "hasPage", "uuid:page2", null},
+            new String[] {"uuid:page1", "description", null, null, "model:page"},
+            new String[] {"uuid:page2", "description", null, null, "model:page"});
+
+    private static final String VOLUME_RELS_EXT = "<rdf:RDF xmlns:rdf=\"http://www.w3.org/1999/02/22-rdf-syntax-ns#\" xmlns:kramerius=\"http://www.nsdl.org/ontologies/relationships#\">"
+            + "<rdf:Description rdf:about=\"info:fedora/uuid:volume\">"
+            + "<kramerius:hasItem rdf:resource=\"info:fedora/uuid:issue1\"/>"
+            + "<kramerius:hasItem rdf:resource=\"info:fedora/uuid:issue2\"/>"
+            + "</rdf:Description></rdf:RDF>";
+
+    private final List<String> relsExtReads = new ArrayList<>();
+
+    private SubtreeTraversal traversal() {
+        ProcessingIndexFeeder feeder = new ProcessingIndexFeeder(null) {
+            @Override
+            public void iterateProcessingOfSources(Collection<String> sources, Consumer<SolrDocument> action) throws IOException, SolrServerException {
+                for (String[] record : RECORDS) {
+                    if (sources.contains(record[0])) {
+                        SolrDocument doc = new SolrDocument();
+                        doc.setField("source", record[0]);
+                        doc.setField("type", record[1]);
+                        if (record[2] != null) {
+                            doc.setField("relation", record[2]);
+                            doc.setField("targetPid", record[3]);
+                        }
+                        if (record[4] != null) {
+                            doc.setField("model", record[4]);
+                        }
+                        action.accept(doc);
+                    }
+                }
+            }
+        };
+        return new SubtreeTraversal(feeder, pid -> {
+            relsExtReads.add(pid);
+            try {
+                return XMLUtils.parseDocument(new StringReader(VOLUME_RELS_EXT), true);
+            } catch (Exception e) {
+                throw new IOException(e);
+            }
+        });
+    }
+
+    @Test
+    public void testStreamInRelsExtOrder() {
+        List<String> nodes = traversal().stream("uuid:periodical").map(n -> n.getPid() + "|" + n.getLevel() + "|" + n.getModel()).collect(Collectors.toList());
+        Assert.assertEquals(Arrays.asList(
+                "uuid:periodical|0|periodical",
+                "uuid:volume|1|periodicalvolume",
+                "uuid:issue1|2|periodicalitem",
+                "uuid:page1|3|page",
+                "uuid:issue2|2|periodicalitem",
+                "uuid:page2|3|page"), nodes);
+        // only object with more than one child
+        Assert.assertEquals(Arrays.asList("uuid:volume"), relsExtReads);
+    }
+
+    @Test
+    public void testProcessorCallbacks() throws ProcessSubtreeException, IOException {
+        List<String> processed = new ArrayList<>();
+        traversal().process("uuid:periodical", new TreeNodeProcessor() {
+            @Override
+            public void process(String pid, int level) {
+                processed.add(pid);
+            }
+
+            @Override
+            public boolean skipBranch(String pid, int level) {
+                return pid.equals("uuid:issue1");
+            }
+
+            @Override
+            public boolean breakProcessing(String pid, int level) {
+                return pid.equals("uuid:issue2");
+            }
+        });
+        Assert.assertEquals(Arrays.asList("uuid:periodical", "uuid:volume", "uuid:issue2"), processed);
+    }
+}
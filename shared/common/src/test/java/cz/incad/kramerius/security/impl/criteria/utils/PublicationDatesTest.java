@@ -0,0 +1,62 @@
+package cz.incad.kramerius.security.impl.criteria.utils;
+
+import java.io.InputStream;
+import java.util.Date;
+
+import javax.xml.xpath.XPathFactory;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Text;
+
+import cz.incad.kramerius.security.impl.criteria.MovingWall;
+import cz.incad.kramerius.security.impl.criteria.utils.PublicationDates.PublicationDate;
+import cz.incad.kramerius.utils.XMLUtils;
+
+public class PublicationDatesTest {
+
+    private static final String[] MODS = {
+            "dateIssued",
+            "4308eb80-b03b-11dd-a0f6-000d606f5dc6",
+            "0eaa6730-9068-11dd-97de-000d606f5dc6",
+            "aaaaa-9999-eeeee-cccc",
+            "983a4660-938d-11dc-913a-000d606f5dc6"
+    };
+
+    private static Document mods(String name) throws Exception {
+        try (InputStream is = PublicationDatesTest.class.getClassLoader().getResourceAsStream("cz/incad/kramerius/fedora/res/" + name + ".mods.xml")) {
+            Assert.assertNotNull(name, is);
+            return XMLUtils.parseDocument(is, true);
+        }
+    }
+
+    /** The same date as the moving wall finds by evaluating xpaths on every check */
+    private static Date evaluatedDate(Document mods) throws Exception {
+        XPathFactory factory = XPathFactory.newInstance();
+        for (String xp : MovingWall.MODS_XPATHS) {
+            Object node = MovingWall.findDateString(mods, xp, factory);
+            if (node != null) {
+                return MovingWall.tryToParseDates(((Text) node).getData());
+            }
+        }
+        return null;
+    }
+
+    @Test
+    public void testExtractMatchesXPathEvaluation() throws Exception {
+        for (String name : MODS) {
+            Document mods = mods(name);
+            PublicationDate extracted = PublicationDates.extract(mods);
+            Assert.assertEquals(name, evaluatedDate(mods), extracted.getDate());
+        }
+    }
+
+    @Test
+    public void testExtract() throws Exception {
+        PublicationDate date = PublicationDates.extract(mods("dateIssued"));
+        Assert.assertTrue(date.isFound());
+        Assert.assertNotNull(date.getDate());
+        Assert.assertSame(PublicationDate.NOT_FOUND, PublicationDates.extract(null));
+    }
+}
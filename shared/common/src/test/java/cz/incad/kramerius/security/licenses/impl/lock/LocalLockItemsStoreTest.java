@@ -0,0 +1,108 @@
+package cz.incad.kramerius.security.licenses.impl.lock;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import cz.incad.kramerius.security.licenses.lock.ExclusiveLockMapItem;
+
+public class LocalLockItemsStoreTest {
+
+    public static final Logger LOGGER = Logger.getLogger(LocalLockItemsStoreTest.class.getName());
+
+    private static ExclusiveLockMapItem item(String token, Instant refreshed, int refreshInterval) {
+        return new ExclusiveLockMapItemImpl(token, refreshInterval, refreshed, refreshed, refreshed.plusSeconds(3600), "user");
+    }
+
+    @Test
+    public void testMaxItems() {
+        LocalLockItemsStore store = new LocalLockItemsStore(null);
+        Instant now = Instant.now();
+        Assert.assertTrue(store.register("hash", item("a", now, 60), 2, now));
+        Assert.assertTrue(store.register("hash", item("b", now, 60), 2, now));
+        Assert.assertFalse(store.register("hash", item("c", now, 60), 2, now));
+        // the same token replaces its item
+        Assert.assertTrue(store.register("hash", item("b", now, 60), 2, now));
+        // expired item makes place for a new one
+        Instant later = now.plusSeconds(120);
+        Assert.assertTrue(store.register("hash", item("c", later, 60), 2, later));
+        Assert.assertEquals(1, store.purge("hash", 2, later));
+        Assert.assertNull(store.find("hash", "a"));
+    }
+
+    @Test
+    public void testExpirationByWheel() throws InterruptedException {
+        ExpiryWheel wheel = new ExpiryWheel(50, 64);
+        try {
+            LocalLockItemsStore store = new LocalLockItemsStore(wheel);
+            // deadline in 200 ms
+            Instant refreshed = Instant.now().minusMillis(800);
+            store.register("hash", item("a", refreshed, 1), 1, Instant.now());
+            Assert.assertNotNull(store.find("hash", "a"));
+            long end = System.currentTimeMillis() + 3000;
+            while (store.find("hash", "a") != null && System.currentTimeMillis() < end) {
+                Thread.sleep(50);
+            }
+            Assert.assertNull(store.find("hash", "a"));
+        } finally {
+            wheel.shutdown();
+        }
+    }
+
+    /**
+     * Thousands of readers competing for a few maps; the limit of every map must hold
+     */
+    @Test
+    public void testContention() throws Exception {
+        int maps = 50;
+        int readers = 5000;
+        int maxItems = 3;
+        ExpiryWheel wheel = new ExpiryWheel(1000, 512);
+        ExecutorService executor = Executors.newFixedThreadPool(64);
+        try {
+            LocalLockItemsStore store = new LocalLockItemsStore(wheel);
+            AtomicInteger registered = new AtomicInteger();
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < readers; i++) {
+                String hash = "hash" + (i % maps);
+                String token = "token" + i;
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    Instant now = Instant.now();
+                    if (store.register(hash, item(token, now, 60), maxItems, now)) {
+                        registered.incrementAndGet();
+                    }
+                    store.find(hash, token);
+                    store.purge(hash, maxItems, now);
+                    return null;
+                }));
+            }
+            long begin = System.nanoTime();
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get(30, TimeUnit.SECONDS);
+            }
+            long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin);
+            LOGGER.info(String.format("%d readers, %d maps: %d ms", readers, maps, millis));
+
+            Assert.assertEquals(maps * maxItems, registered.get());
+            for (int i = 0; i < maps; i++) {
+                Assert.assertEquals(maxItems, store.getItems("hash" + i, Instant.now()).size());
+            }
+        } finally {
+            executor.shutdownNow();
+            wheel.shutdown();
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package cz.incad.kramerius.statistics.impl;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class StatisticsRollupTest {
+
+    @Test
+    public void testDay() {
+        Assert.assertEquals(20240229, StatisticsRollup.day(LocalDate.of(2024, 2, 29)));
+    }
+
+    @Test
+    public void testMissingRanges() {
+        LocalDate from = LocalDate.of(2024, 1, 1);
+        LocalDate to = LocalDate.of(2024, 1, 8);
+
+        List<LocalDate[]> all = StatisticsRollup.missingRanges(from, to, Collections.emptyList());
+        Assert.assertEquals(1, all.size());
+        Assert.assertEquals(from, all.get(0)[0]);
+        Assert.assertEquals(to, all.get(0)[1]);
+
+        // 1.-3. and 5. rolled up; 4. and 6.-7. are missing
+        List<LocalDate[]> missing = StatisticsRollup.missingRanges(from, to, Arrays.asList(20240101, 20240102, 20240103, 20240105));
+        Assert.assertEquals(2, missing.size());
+        Assert.assertEquals(LocalDate.of(2024, 1, 4), missing.get(0)[0]);
+        Assert.assertEquals(LocalDate.of(2024, 1, 5), missing.get(0)[1]);
+        Assert.assertEquals(LocalDate.of(2024, 1, 6), missing.get(1)[0]);
+        Assert.assertEquals(to, missing.get(1)[1]);
+
+        Assert.assertTrue(StatisticsRollup.missingRanges(from, from, Collections.emptyList()).isEmpty());
+    }
+
+    @Test
+    public void testRollupMatchesDirectFacet() {
+        List<LogRecord> records = records(10, 3000);
+        for (String license : Arrays.asList(null, "dnnto")) {
+            // rolled up days summed and limited as in reports
+            Map<String, Long> rolledUp = new HashMap<>();
+            for (int day = 0; day < 10; day++) {
+                List<LogRecord> ofDay = filter(records, day, null);
+                for (Object[] row : StatisticsRollup.rowsOfDay(pivotOfDay(ofDay), Arrays.asList(StatisticsRollup.AUTHOR_DIMENSION))) {
+                    if (row[0].equals(StatisticsRollup.AUTHOR_DIMENSION) && (license == null || license.equals(row[2]))) {
+                        rolledUp.merge((String) row[1], (Long) row[3], Long::sum);
+                    }
+                }
+            }
+            Map<String, Long> rollup = StatisticsRollup.top(rolledUp, StatisticsRollup.FACET_LIMIT);
+
+            // direct query of the whole range; facet.limit is not set by reports, Solr returns 100 values
+            Map<String, Long> direct = new LinkedHashMap<>();
+            StatisticsRollup.mergeFacet(facet(filter(records, -1, license), StatisticsRollup.FACET_LIMIT), direct);
+
+            Assert.assertEquals(StatisticsRollup.FACET_LIMIT, rollup.size());
+            Assert.assertEquals(new ArrayList<>(direct.entrySet()), new ArrayList<>(rollup.entrySet()));
+        }
+    }
+
+    @Test
+    public void testChangedDays() {
+        Map<Integer, Long> rolledUp = new HashMap<>();
+        rolledUp.put(20240101, 10L);
+        rolledUp.put(20240102, 20L);
+        JSONArray dayCounts = new JSONArray(Arrays.asList("2024-01-01T00:00:00Z", 10, "2024-01-02T00:00:00Z", 21, "2024-01-03T00:00:00Z", 5));
+        // late record of 2.1.; 3.1. is not rolled up yet
+        Assert.assertEquals(Arrays.asList(LocalDate.of(2024, 1, 2)), StatisticsRollup.changedDays(rolledUp, dayCounts));
+    }
+
+    private static class LogRecord {
+        private final int day;
+        private final String license;
+        private final Set<String> authors;
+
+        private LogRecord(int day, String license, Set<String> authors) {
+            this.day = day;
+            this.license = license;
+            this.authors = authors;
+        }
+    }
+
+    private static List<LogRecord> records(int days, int count) {
+        Random random = new Random(42);
+        String[] licenses = { "dnnto", "public", null };
+        List<LogRecord> records = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Set<String> authors = new LinkedHashSet<>();
+            // skewed, so the first values are not decided by ties only
+            authors.add("author" + (int) Math.abs(random.nextGaussian() * 80));
+            if (random.nextBoolean()) {
+                authors.add("author" + random.nextInt(400));
+            }
+            records.add(new LogRecord(random.nextInt(days), licenses[random.nextInt(licenses.length)], authors));
+        }
+        return records;
+    }
+
+    private static List<LogRecord> filter(List<LogRecord> records, int day, String license) {
+        return records.stream().filter(r -> (day < 0 || r.day == day) && (license == null || license.equals(r.license))).collect(Collectors.toList());
+    }
+
+    /** Facet of authors the way Solr returns it: by count, then by value, at most limit values */
+    private static JSONArray facet(List<LogRecord> records, int limit) {
+        Map<String, Long> counts = new HashMap<>();
+        records.forEach(r -> r.authors.forEach(a -> counts.merge(a, 1L, Long::sum)));
+        JSONArray facet = new JSONArray();
+        counts.entrySet().stream()
+                .sorted(Map.Entry.<String, Long>comparingByValue().reversed().thenComparing(Map.Entry.comparingByKey()))
+                .limit(limit < 0 ? Long.MAX_VALUE : limit)
+                .forEach(e -> facet.put(e.getKey()).put(e.getValue()));
+        return facet;
+    }
+
+    /** Facets of one day requested by rollup (license facet with missing value, license,authors pivot) */
+    private static JSONObject pivotOfDay(List<LogRecord> records) {
+        Map<String, List<LogRecord>> byLicense = new LinkedHashMap<>();
+        records.forEach(r -> byLicense.computeIfAbsent(r.license == null ? "" : r.license, k -> new ArrayList<>()).add(r));
+        JSONArray licenses = new JSONArray();
+        JSONArray pivot = new JSONArray();
+        byLicense.forEach((license, ofLicense) -> {
+            Object value = license.isEmpty() ? JSONObject.NULL : license;
+            licenses.put(value).put(ofLicense.size());
+            JSONArray values = new JSONArray();
+            JSONArray facet = facet(ofLicense, -1);
+            for (int i = 0; i < facet.length(); i += 2) {
+                values.put(new JSONObject().put("field", StatisticsRollup.AUTHOR_DIMENSION).put("value", facet.get(i)).put("count", facet.getLong(i + 1)));
+            }
+            pivot.put(new JSONObject().put("field", StatisticsRollup.LICENSE_FIELD).put("value", value).put("count", ofLicense.size()).put("pivot", values));
+        });
+        return new JSONObject()
+                .put("facet_fields", new JSONObject().put(StatisticsRollup.LICENSE_FIELD, licenses))
+                .put("facet_pivot", new JSONObject().put(StatisticsRollup.LICENSE_FIELD + "," + StatisticsRollup.AUTHOR_DIMENSION, pivot));
+    }
+}
@@ -0,0 +1,37 @@
+package cz.incad.kramerius.utils.cache;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.qbizm.kramerius.imp.jaxb.DigitalObject;
+import com.qbizm.kramerius.imp.jaxb.ObjectPropertiesType;
+
+import cz.incad.kramerius.fedora.om.impl.AkubraUtils;
+
+public class DigitalObjectSerializerTest {
+
+    @Test
+    public void testOffHeapBuffer() throws Exception {
+        DigitalObjectSerializer serializer = new DigitalObjectSerializer(getClass().getClassLoader());
+        DigitalObject object = new DigitalObject();
+        object.setPID("uuid:1");
+        object.setVERSION("1.1");
+        ObjectPropertiesType properties = new ObjectPropertiesType();
+        properties.getProperty().add(AkubraUtils.createProperty("info:fedora/fedora-system:def/model#state", "Active"));
+        object.setObjectProperties(properties);
+
+        ByteBuffer serialized = serializer.serialize(object);
+        // off-heap and disk tiers pass buffers not backed by an array
+        ByteBuffer direct = ByteBuffer.allocateDirect(serialized.remaining());
+        direct.put(serialized.duplicate());
+        direct.flip();
+
+        DigitalObject read = serializer.read(direct);
+        Assert.assertEquals("uuid:1", read.getPID());
+        Assert.assertEquals("Active", read.getObjectProperties().getProperty().get(0).getVALUE());
+        Assert.assertEquals(serialized.remaining(), direct.remaining());
+        Assert.assertTrue(serializer.equals(read, serializer.serialize(object)));
+    }
+}
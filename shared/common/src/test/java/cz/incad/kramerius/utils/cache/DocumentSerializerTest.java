@@ -0,0 +1,29 @@
+package cz.incad.kramerius.utils.cache;
+
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.w3c.dom.Document;
+
+import cz.incad.kramerius.utils.XMLUtils;
+
+public class DocumentSerializerTest {
+
+    @Test
+    public void testOffHeapBuffer() throws Exception {
+        DocumentSerializer serializer = new DocumentSerializer(getClass().getClassLoader());
+        Document document = XMLUtils.parseDocument(new StringReader("<response><result numFound=\"1\"><doc><str name=\"pid\">uuid:1</str></doc></result></response>"));
+
+        ByteBuffer serialized = serializer.serialize(document);
+        // off-heap tier passes buffers not backed by an array
+        ByteBuffer direct = ByteBuffer.allocateDirect(serialized.remaining());
+        direct.put(serialized.duplicate());
+        direct.flip();
+
+        Document read = serializer.read(direct);
+        Assert.assertEquals("uuid:1", read.getElementsByTagName("str").item(0).getTextContent());
+        Assert.assertEquals(serialized.remaining(), direct.remaining());
+    }
+}
@@ -0,0 +1,122 @@
+package cz.incad.kramerius.utils.cache;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.easymock.Capture;
+import org.easymock.EasyMock;
+import org.ehcache.Cache;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.hazelcast.core.HazelcastInstance;
+import com.hazelcast.core.IMap;
+
+public class TwoLevelCacheTest {
+
+    private static final TwoLevelCache.Codec<String> CODEC = new TwoLevelCache.Codec<String>() {
+        @Override
+        public void write(String value, OutputStream out) throws IOException {
+            out.write(value.getBytes(StandardCharsets.UTF_8));
+        }
+
+        @Override
+        public String read(InputStream in) throws IOException {
+            return IOUtils.toString(in, StandardCharsets.UTF_8);
+        }
+    };
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testClusterLevel() {
+        Cache<String, String> local = EasyMock.createMock(Cache.class);
+        IMap<String, byte[]> cluster = EasyMock.createMock(IMap.class);
+        HazelcastInstance hazelcastInstance = EasyMock.createMock(HazelcastInstance.class);
+        EasyMock.expect(hazelcastInstance.<String, byte[]>getMap("cache.test")).andReturn(cluster);
+        EasyMock.expect(cluster.getName()).andReturn("cache.test").anyTimes();
+
+        // node A reads from storage and shares the value
+        Capture<byte[]> shared = EasyMock.newCapture();
+        local.put("uuid:1", "value");
+        cluster.set(EasyMock.eq("uuid:1"), EasyMock.capture(shared), EasyMock.eq(60L), EasyMock.eq(TimeUnit.SECONDS));
+        // node B misses locally and gets the value from cluster
+        EasyMock.expect(local.get("uuid:1")).andReturn(null);
+        EasyMock.expect(cluster.get("uuid:1")).andAnswer(shared::getValue);
+        local.put("uuid:1", "value");
+        EasyMock.expect(local.get("uuid:1")).andReturn("value");
+        EasyMock.expect(local.get("uuid:2")).andReturn(null);
+        EasyMock.expect(cluster.get("uuid:2")).andReturn(null);
+        // change
+        local.remove("uuid:1");
+        cluster.delete("uuid:1");
+        EasyMock.replay(local, cluster, hazelcastInstance);
+
+        TwoLevelCache<String> cache = new TwoLevelCache<>("test", local, hazelcastInstance, CODEC, 60);
+        cache.put("uuid:1", "value");
+        Assert.assertEquals("value", cache.get("uuid:1"));
+        Assert.assertEquals("value", cache.get("uuid:1"));
+        Assert.assertNull(cache.get("uuid:2"));
+        cache.removeEverywhere("uuid:1");
+
+        Assert.assertEquals(3, cache.getRequests());
+        Assert.assertEquals(1, cache.getLocalHits());
+        Assert.assertEquals(1, cache.getClusterHits());
+        EasyMock.verify(local, cluster, hazelcastInstance);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testLocalOnly() {
+        Cache<String, String> local = EasyMock.createMock(Cache.class);
+        EasyMock.expect(local.get("uuid:1")).andReturn(null);
+        local.put("uuid:1", "value");
+        local.remove("uuid:1");
+        EasyMock.replay(local);
+
+        TwoLevelCache<String> cache = new TwoLevelCache<>("test", local, null, CODEC, 60);
+        Assert.assertNull(cache.get("uuid:1"));
+        cache.put("uuid:1", "value");
+        cache.removeEverywhere("uuid:1");
+
+        Assert.assertEquals(0, cache.getClusterHits());
+        EasyMock.verify(local);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testInvalidatedWhileReadingCluster() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (OutputStream out = new GZIPOutputStream(bytes)) {
+            CODEC.write("old", out);
+        }
+        AtomicReference<TwoLevelCache<String>> cacheReference = new AtomicReference<>();
+
+        Cache<String, String> local = EasyMock.createMock(Cache.class);
+        IMap<String, byte[]> cluster = EasyMock.createMock(IMap.class);
+        HazelcastInstance hazelcastInstance = EasyMock.createMock(HazelcastInstance.class);
+        EasyMock.expect(hazelcastInstance.<String, byte[]>getMap("cache.test")).andReturn(cluster);
+        EasyMock.expect(cluster.getName()).andReturn("cache.test").anyTimes();
+        EasyMock.expect(local.get("uuid:1")).andReturn(null);
+        // object changes while its old value is being read from cluster
+        EasyMock.expect(cluster.get("uuid:1")).andAnswer(() -> {
+            cacheReference.get().remove("uuid:1");
+            return bytes.toByteArray();
+        });
+        local.remove("uuid:1");
+        local.put("uuid:1", "old");
+        EasyMock.expect(local.remove("uuid:1", "old")).andReturn(true);
+        EasyMock.replay(local, cluster, hazelcastInstance);
+
+        TwoLevelCache<String> cache = new TwoLevelCache<>("test", local, hazelcastInstance, CODEC, 60);
+        cacheReference.set(cache);
+        Assert.assertEquals("old", cache.get("uuid:1"));
+        EasyMock.verify(local, cluster, hazelcastInstance);
+    }
+}